@@ -0,0 +1,38 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import java.util.Arrays;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every thread count, with the GC profiler enabled so the results
+ * include the allocation rate. The thread counts are read from the {@code threads} system property
+ * (default {@code 1,8,64}); every other argument is passed to JMH, so for example {@code
+ * EvaluationBenchmark -p path=DEFAULT} runs a single path. Each run writes {@code
+ * results-<threads>t.json}.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    var commandLine = new CommandLineOptions(args);
+    int[] threadCounts =
+        Arrays.stream(System.getProperty("threads", "1,8,64").split(","))
+            .map(String::trim)
+            .mapToInt(Integer::parseInt)
+            .toArray();
+    for (int threads : threadCounts) {
+      var options =
+          new OptionsBuilder()
+              .parent(commandLine)
+              .threads(threads)
+              .addProfiler(GCProfiler.class)
+              .resultFormat(ResultFormatType.JSON)
+              .result("results-" + threads + "t.json")
+              .build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ImmutableContext;
+import dev.openfeature.sdk.ProviderEvaluation;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
+import io.github.jacopocarlini.fffp.providers.MongoDBFeatureFlagProvider;
+import io.github.jacopocarlini.fffp.repository.embedded.InMemoryFlagRepository;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end evaluation through the public methods of {@link MongoDBFeatureFlagProvider}, for
+ * every reason and value type. The flag and the sticky assignments are served by in-memory
+ * repositories, so the numbers do not include any round trip to MongoDB.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class EvaluationBenchmark {
+
+  @Param({
+    "DISABLED",
+    "OUTSIDE_TIME_WINDOW",
+    "TARGET_MATCHED_1",
+    "TARGET_MATCHED_10",
+    "TARGET_MATCHED_100",
+    "ROLLOUT_NEW_ASSIGNMENT",
+    "ALREADY_ASSIGNED",
+    "DEFAULT"
+  })
+  public EvaluationPath path;
+
+  @Param({"BOOLEAN", "STRING", "INTEGER", "DOUBLE", "OBJECT"})
+  public ValueType valueType;
+
+  private final AtomicInteger threads = new AtomicInteger();
+  private InMemoryAssignedTargetRepository assignments;
+  private MongoDBFeatureFlagProvider provider;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    var flags = new InMemoryFlagRepository();
+    flags.save(path.flag(valueType));
+    assignments = new InMemoryAssignedTargetRepository();
+    provider = new MongoDBFeatureFlagProvider(flags, assignments, ProviderConfig.defaults());
+    provider.initialize(new ImmutableContext());
+  }
+
+  @Setup(Level.Iteration)
+  public void resetAssignments() {
+    // keeps the memory of the new assignment path bounded
+    if (path.needsFreshTargetingKeys()) {
+      assignments.clear();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    provider.shutdown();
+  }
+
+  /** The targeting keys of one benchmark thread. */
+  @State(Scope.Thread)
+  public static class Caller {
+    private EvaluationContext[] contexts;
+    private int thread;
+    private long next;
+
+    @Setup(Level.Trial)
+    public void setUp(EvaluationBenchmark benchmark) {
+      thread = benchmark.threads.getAndIncrement();
+      contexts = new EvaluationContext[EvaluationPath.POPULATION];
+      for (int i = 0; i < contexts.length; i++) {
+        contexts[i] = new ImmutableContext(EvaluationPath.targetingKey(thread, i));
+        if (benchmark.path == EvaluationPath.ALREADY_ASSIGNED) {
+          benchmark.valueType.evaluate(benchmark.provider, EvaluationPath.FLAG_KEY, contexts[i]);
+        }
+      }
+    }
+
+    EvaluationContext next(EvaluationPath path) {
+      long i = next++;
+      if (path.needsFreshTargetingKeys()) {
+        return new ImmutableContext(EvaluationPath.targetingKey(thread, i));
+      }
+      return contexts[(int) (i & (EvaluationPath.POPULATION - 1))];
+    }
+  }
+
+  @Benchmark
+  public ProviderEvaluation<?> evaluate(Caller caller) {
+    return valueType.evaluate(provider, EvaluationPath.FLAG_KEY, caller.next(path));
+  }
+}
@@ -0,0 +1,73 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.entity.Target;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * The branches of the evaluation, one per reason. Each path builds a flag that makes the
+ * evaluation end in that branch for the targeting keys produced by {@link #targetingKey}.
+ */
+public enum EvaluationPath {
+  DISABLED,
+  OUTSIDE_TIME_WINDOW,
+  TARGET_MATCHED_1,
+  TARGET_MATCHED_10,
+  TARGET_MATCHED_100,
+  ROLLOUT_NEW_ASSIGNMENT,
+  ALREADY_ASSIGNED,
+  DEFAULT;
+
+  static final String FLAG_KEY = "benchmark-flag";
+
+  /** Number of targeting keys a thread cycles through on the paths with a fixed population. */
+  static final int POPULATION = 1024;
+
+  Flag flag(ValueType valueType) {
+    var flag =
+        Flag.builder()
+            .flagKey(FLAG_KEY)
+            .enabled(this != DISABLED)
+            .variants(valueType.variants())
+            .defaultVariant("off");
+    switch (this) {
+      case OUTSIDE_TIME_WINDOW -> {
+        ZonedDateTime now = ZonedDateTime.now();
+        flag.timeWindowStart(now.plusYears(1)).timeWindowEnd(now.plusYears(2));
+      }
+      case TARGET_MATCHED_1 -> flag.target(targets(1));
+      case TARGET_MATCHED_10 -> flag.target(targets(10));
+      case TARGET_MATCHED_100 -> flag.target(targets(100));
+      case ROLLOUT_NEW_ASSIGNMENT, ALREADY_ASSIGNED ->
+          flag.rolloutPercentage(Map.of("on", 50, "off", 50));
+      default -> {
+        // disabled and default need nothing else
+      }
+    }
+    return flag.build();
+  }
+
+  /** True if every evaluation must see a targeting key that has never been assigned. */
+  boolean needsFreshTargetingKeys() {
+    return this == ROLLOUT_NEW_ASSIGNMENT;
+  }
+
+  /**
+   * @return the targeting key number {@code i} of a thread
+   */
+  static String targetingKey(int thread, long i) {
+    return "user-" + thread + "-" + i + "@example.com";
+  }
+
+  /** Only the last target matches, so all the filters are tried before the match. */
+  private static ArrayList<Target> targets(int count) {
+    var targets = new ArrayList<Target>(count);
+    for (int i = 0; i < count - 1; i++) {
+      targets.add(new Target("^tenant-" + i + "-.*@example\\.org$", "off"));
+    }
+    targets.add(new Target("@example\\.com$", "on"));
+    return targets;
+  }
+}
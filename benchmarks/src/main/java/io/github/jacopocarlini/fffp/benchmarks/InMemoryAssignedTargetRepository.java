@@ -0,0 +1,81 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Stand-in for the sticky assignments, backed by a concurrent map keyed by flag and target. */
+class InMemoryAssignedTargetRepository implements AssignedTargetRepository {
+  // the new assignment path adds a target per call and the benchmark clears them before every
+  // iteration, but with many threads on few cores an iteration can last long enough to fill the
+  // heap
+  private static final int MAX_TARGETS = 1 << 19;
+
+  private final Map<String, Map<String, Assigned>> variantsByTarget = new ConcurrentHashMap<>();
+
+  @Override
+  public void ensureIndexes() {
+    // nothing to index
+  }
+
+  @Override
+  public boolean deleteStale(String flagKey, long epoch, int limit) {
+    variantsByTarget
+        .values()
+        .forEach(
+            variants ->
+                variants.computeIfPresent(
+                    flagKey, (key, assigned) -> assigned.epoch() < epoch ? null : assigned));
+    return false;
+  }
+
+  @Override
+  public Optional<String> findVariant(String flagKey, long epoch, String targetKey) {
+    return Optional.ofNullable(variantsOf(targetKey).get(flagKey))
+        .filter(assigned -> assigned.epoch() >= epoch)
+        .map(Assigned::variant);
+  }
+
+  @Override
+  public Map<String, String> findVariants(String targetKey, Map<String, Long> epochs) {
+    Map<String, Assigned> variants = variantsOf(targetKey);
+    var result = new HashMap<String, String>();
+    epochs.forEach(
+        (flagKey, epoch) -> {
+          Assigned assigned = variants.get(flagKey);
+          if (assigned != null && assigned.epoch() >= epoch) {
+            result.put(flagKey, assigned.variant());
+          }
+        });
+    return result;
+  }
+
+  @Override
+  public Optional<String> assignIfAbsent(
+      String flagKey, long epoch, String targetKey, String variant) {
+    if (variantsByTarget.size() >= MAX_TARGETS) {
+      clear();
+    }
+    var candidate = new Assigned(variant, epoch);
+    Assigned stored =
+        variantsByTarget
+            .computeIfAbsent(targetKey, key -> new ConcurrentHashMap<>())
+            .merge(
+                flagKey,
+                candidate,
+                (current, added) -> current.epoch() >= epoch ? current : added);
+    return stored == candidate ? Optional.empty() : Optional.of(stored.variant());
+  }
+
+  void clear() {
+    variantsByTarget.clear();
+  }
+
+  private Map<String, Assigned> variantsOf(String targetKey) {
+    return variantsByTarget.getOrDefault(targetKey, Map.of());
+  }
+
+  private record Assigned(String variant, long epoch) {}
+}
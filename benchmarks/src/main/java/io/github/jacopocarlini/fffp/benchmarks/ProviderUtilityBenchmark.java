@@ -0,0 +1,73 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ImmutableContext;
+import dev.openfeature.sdk.ProviderEvaluation;
+import io.github.jacopocarlini.fffp.entity.Bucketing;
+import io.github.jacopocarlini.fffp.evaluation.CompiledFlag;
+import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import io.github.jacopocarlini.fffp.util.ProviderUtility;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The building blocks of the evaluation in {@link ProviderUtility}, measured in isolation. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ProviderUtilityBenchmark {
+
+  @Param({"TARGET_MATCHED_1", "TARGET_MATCHED_10", "TARGET_MATCHED_100"})
+  public EvaluationPath targets;
+
+  @Param({"BOOLEAN", "STRING", "INTEGER", "DOUBLE", "OBJECT"})
+  public ValueType valueType;
+
+  private CompiledFlag targetFlag;
+  private CompiledFlag rolloutFlag;
+  private CompiledFlag hashedRolloutFlag;
+  private EvaluationContext ctx;
+  private String targetingKey;
+
+  @Setup
+  public void setUp() {
+    targetFlag = CompiledFlag.compile(targets.flag(valueType));
+    var rollout = EvaluationPath.ROLLOUT_NEW_ASSIGNMENT.flag(valueType);
+    rolloutFlag = CompiledFlag.compile(rollout);
+    hashedRolloutFlag = CompiledFlag.compile(rollout.toBuilder().bucketing(Bucketing.HASH).build());
+    targetingKey = EvaluationPath.targetingKey(0, 0);
+    ctx = new ImmutableContext(targetingKey);
+  }
+
+  @Benchmark
+  public ProviderEvaluation<?> checkTargetMatch() throws InvalidFeatureFlagException {
+    return ProviderUtility.checkTargetMatch(targetFlag, ctx, valueType.type);
+  }
+
+  @Benchmark
+  public String determineVariantForRollout() {
+    return ProviderUtility.determineVariantForRollout(rolloutFlag);
+  }
+
+  @Benchmark
+  public String determineVariantForHashedRollout() {
+    return ProviderUtility.determineVariantForRollout(hashedRolloutFlag, targetingKey);
+  }
+
+  @Benchmark
+  public Object convertValue() throws InvalidFeatureFlagException {
+    return ProviderUtility.convertValue(valueType.on, valueType.type);
+  }
+}
@@ -0,0 +1,41 @@
+package io.github.jacopocarlini.fffp.benchmarks;
+
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.FeatureProvider;
+import dev.openfeature.sdk.ProviderEvaluation;
+import dev.openfeature.sdk.Value;
+import java.util.Map;
+
+/** The five value types of OpenFeature, with the variants used by the benchmark flags. */
+public enum ValueType {
+  BOOLEAN(Boolean.class, true, false),
+  STRING(String.class, "on", "off"),
+  INTEGER(Integer.class, 1, 0),
+  DOUBLE(Double.class, 1.0, 0.0),
+  OBJECT(Value.class, new Value("on"), new Value("off"));
+
+  final Class<?> type;
+  final Object on;
+  final Object off;
+
+  ValueType(Class<?> type, Object on, Object off) {
+    this.type = type;
+    this.on = on;
+    this.off = off;
+  }
+
+  Map<String, Object> variants() {
+    return Map.of("on", on, "off", off);
+  }
+
+  /** Calls the typed evaluation method of the provider matching this type. */
+  ProviderEvaluation<?> evaluate(FeatureProvider provider, String flagKey, EvaluationContext ctx) {
+    return switch (this) {
+      case BOOLEAN -> provider.getBooleanEvaluation(flagKey, false, ctx);
+      case STRING -> provider.getStringEvaluation(flagKey, "off", ctx);
+      case INTEGER -> provider.getIntegerEvaluation(flagKey, 0, ctx);
+      case DOUBLE -> provider.getDoubleEvaluation(flagKey, 0.0, ctx);
+      case OBJECT -> provider.getObjectEvaluation(flagKey, (Value) off, ctx);
+    };
+  }
+}
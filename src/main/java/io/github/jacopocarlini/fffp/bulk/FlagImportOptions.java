@@ -0,0 +1,26 @@
+package io.github.jacopocarlini.fffp.bulk;
+
+import lombok.Builder;
+import lombok.Value;
+
+/** Options of a bulk import of flags. */
+@Value
+@Builder
+public class FlagImportOptions {
+
+  /** Validates the flags and computes the changes without applying them. */
+  @Builder.Default boolean dryRun = false;
+
+  /**
+   * Applies either all the changes or none: a single invalid flag rejects the whole import and the
+   * writes run in a transaction, which on MongoDB needs a replica set.
+   */
+  @Builder.Default boolean atomic = false;
+
+  /** Deletes the stored flags that are not part of the import, to mirror the imported set. */
+  @Builder.Default boolean deleteMissing = false;
+
+  public static FlagImportOptions defaults() {
+    return FlagImportOptions.builder().build();
+  }
+}
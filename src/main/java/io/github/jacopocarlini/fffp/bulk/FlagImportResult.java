@@ -0,0 +1,28 @@
+package io.github.jacopocarlini.fffp.bulk;
+
+import java.util.List;
+import java.util.Map;
+import lombok.Value;
+
+/**
+ * Outcome of a bulk import. The flags are listed by key; in a dry run the lists contain the
+ * changes that would have been applied.
+ */
+@Value
+public class FlagImportResult {
+  boolean dryRun;
+  List<String> created;
+  List<String> updated;
+  List<String> unchanged;
+  List<String> deleted;
+
+  /**
+   * The errors by flag key, or by {@code line N} for the lines that could not be parsed. The
+   * flags with an error are not part of the other lists.
+   */
+  Map<String, String> errors;
+
+  public boolean isSuccessful() {
+    return errors.isEmpty();
+  }
+}
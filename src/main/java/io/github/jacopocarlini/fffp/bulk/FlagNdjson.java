@@ -0,0 +1,81 @@
+package io.github.jacopocarlini.fffp.bulk;
+
+import io.github.jacopocarlini.fffp.config.MongoMapping;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.function.BiConsumer;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+
+/**
+ * Newline delimited JSON format of the flags: one flag per line, as the relaxed Extended JSON of
+ * its MongoDB document without the {@code _id}, so an export can be kept in Git and imported in
+ * another database.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class FlagNdjson {
+
+  private static final MappingMongoConverter CONVERTER = MongoMapping.converter();
+  private static final JsonWriterSettings JSON =
+      JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+  public static String format(Flag flag) {
+    var document = new Document();
+    CONVERTER.write(flag, document);
+    document.remove("_id");
+    document.remove("_class");
+    return document.toJson(JSON);
+  }
+
+  /**
+   * @throws IllegalArgumentException if the line is not a valid flag
+   */
+  public static Flag parse(String line) {
+    try {
+      Flag flag = CONVERTER.read(Flag.class, Document.parse(line));
+      flag.setId(null);
+      return flag;
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  public static void write(Iterable<Flag> flags, Writer writer) throws IOException {
+    for (Flag flag : flags) {
+      writer.write(format(flag));
+      writer.write('\n');
+    }
+    writer.flush();
+  }
+
+  /**
+   * Reads the flags one line at a time, skipping the blank lines.
+   *
+   * @param onFlag receives the flags with their line number
+   * @param onError receives the line number and the error of the lines that are not valid flags
+   */
+  public static void read(
+      Reader reader, BiConsumer<Integer, Flag> onFlag, BiConsumer<Integer, String> onError)
+      throws IOException {
+    var lines = reader instanceof BufferedReader buffered ? buffered : new BufferedReader(reader);
+    int number = 0;
+    for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+      number++;
+      if (line.isBlank()) {
+        continue;
+      }
+      try {
+        onFlag.accept(number, parse(line));
+      } catch (IllegalArgumentException e) {
+        onError.accept(number, e.getMessage());
+      }
+    }
+  }
+}
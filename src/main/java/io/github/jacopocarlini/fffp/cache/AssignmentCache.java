@@ -0,0 +1,83 @@
+package io.github.jacopocarlini.fffp.cache;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Near-cache of the sticky rollout assignments, keyed by (flagKey, targetKey). A target known to
+ * have no assignment is cached as {@link #NOT_ASSIGNED}. Every flag has a generation number that is
+ * part of the cached entries, so all the assignments of a flag are invalidated in O(1).
+ */
+public class AssignmentCache {
+
+  /** Cached marker of a target without assignment for the flag. */
+  public static final String NOT_ASSIGNED = new String("NOT_ASSIGNED");
+
+  private final BoundedCache<Key, Entry> cache;
+  private final Map<String, Long> generations = new ConcurrentHashMap<>();
+  private final AtomicLong nextGeneration = new AtomicLong();
+
+  public AssignmentCache(long maximumSize, Duration ttl) {
+    cache = new BoundedCache<>(maximumSize, ttl);
+  }
+
+  /**
+   * @return the assigned variant, {@link #NOT_ASSIGNED} if the target is known to have none, or
+   *     null if the assignment is not cached
+   */
+  public String get(String flagKey, String targetKey) {
+    Entry entry = cache.get(new Key(flagKey, targetKey));
+    if (entry == null || entry.generation() != generationOf(flagKey)) {
+      return null;
+    }
+    return entry.variant();
+  }
+
+  /**
+   * @return true if a variant is cached for the target, without counting a cache access
+   */
+  public boolean isAssigned(String flagKey, String targetKey) {
+    Entry entry = cache.peek(new Key(flagKey, targetKey));
+    return entry != null
+        && entry.generation() == generationOf(flagKey)
+        && entry.variant() != NOT_ASSIGNED;
+  }
+
+  /**
+   * Caches an assignment read from the database.
+   *
+   * @param generation the generation of the flag taken <em>before</em> reading the assignment, so
+   *     an invalidation that happens meanwhile discards the entry
+   */
+  public void put(String flagKey, String targetKey, String variant, long generation) {
+    cache.put(new Key(flagKey, targetKey), new Entry(variant, generation));
+  }
+
+  public void putNotAssigned(String flagKey, String targetKey, long generation) {
+    put(flagKey, targetKey, NOT_ASSIGNED, generation);
+  }
+
+  /** Invalidates every cached assignment of the flag. */
+  public void invalidateFlag(String flagKey) {
+    generations.put(flagKey, nextGeneration.incrementAndGet());
+  }
+
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  public CacheStats stats() {
+    return cache.stats();
+  }
+
+  public long generationOf(String flagKey) {
+    Long generation = generations.get(flagKey);
+    return generation == null ? 0 : generation;
+  }
+
+  private record Key(String flagKey, String targetKey) {}
+
+  private record Entry(String variant, long generation) {}
+}
@@ -0,0 +1,197 @@
+package io.github.jacopocarlini.fffp.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size and time bounded cache with a segmented LRU policy. New entries enter a probation segment
+ * and are promoted to a protected segment on their second hit, so a burst of one-time keys cannot
+ * flush the entries that are read over and over. The cache is split in independently locked
+ * stripes to keep contention low.
+ */
+public class BoundedCache<K, V> {
+
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private final Stripe[] stripes;
+  private final long ttlNanos;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /**
+   * @param maximumSize the maximum number of entries
+   * @param ttl the time after which an entry expires since it has been written
+   */
+  public BoundedCache(long maximumSize, Duration ttl) {
+    if (maximumSize <= 0) {
+      throw new IllegalArgumentException("maximumSize must be positive");
+    }
+    int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4));
+    while (count > 1 && maximumSize / count < 16) {
+      count >>= 1;
+    }
+    // Stripe is an inner class of a generic class, so its arrays can only be created raw
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    Stripe[] created = new BoundedCache.Stripe[count];
+    stripes = created;
+    int capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maximumSize / count));
+    for (int i = 0; i < count; i++) {
+      stripes[i] = new Stripe(capacity);
+    }
+    ttlNanos = ttl.toNanos();
+  }
+
+  /**
+   * @return the cached value, or null if the key is absent or expired
+   */
+  public V get(K key) {
+    V value = stripeOf(key).get(key, System.nanoTime());
+    if (value == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return value;
+  }
+
+  /**
+   * @return the cached value, or null if the key is absent or expired, without updating the
+   *     recency of the entry nor the statistics
+   */
+  public V peek(K key) {
+    return stripeOf(key).peek(key, System.nanoTime());
+  }
+
+  public void put(K key, V value) {
+    stripeOf(key).put(key, value, System.nanoTime() + ttlNanos);
+  }
+
+  public void invalidate(K key) {
+    stripeOf(key).remove(key);
+  }
+
+  public void invalidateAll() {
+    for (Stripe stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  public long size() {
+    long size = 0;
+    for (Stripe stripe : stripes) {
+      size += stripe.size();
+    }
+    return size;
+  }
+
+  public CacheStats stats() {
+    return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), size());
+  }
+
+  private Stripe stripeOf(K key) {
+    int hash = key.hashCode();
+    hash ^= hash >>> 16;
+    return stripes[hash & (stripes.length - 1)];
+  }
+
+  private record Node<V>(V value, long expiresAt) {}
+
+  private final class Stripe {
+    private final int capacity;
+    private final int protectedCapacity;
+    // insertion ordered: the first entry is the least recently used
+    private final LinkedHashMap<K, Node<V>> probation = new LinkedHashMap<>();
+    private final LinkedHashMap<K, Node<V>> protectedSegment = new LinkedHashMap<>();
+
+    Stripe(int capacity) {
+      this.capacity = capacity;
+      this.protectedCapacity = Math.max(1, (int) (capacity * PROTECTED_RATIO));
+    }
+
+    synchronized V get(K key, long now) {
+      Node<V> node = protectedSegment.remove(key);
+      if (node != null) {
+        if (isExpired(node, now)) {
+          return null;
+        }
+        protectedSegment.put(key, node);
+        return node.value();
+      }
+
+      node = probation.remove(key);
+      if (node == null) {
+        return null;
+      }
+      if (isExpired(node, now)) {
+        return null;
+      }
+      // second hit: promote, demoting the least recently used protected entry if needed
+      protectedSegment.put(key, node);
+      if (protectedSegment.size() > protectedCapacity) {
+        var eldest = eldest(protectedSegment);
+        probation.put(eldest.getKey(), eldest.getValue());
+      }
+      return node.value();
+    }
+
+    synchronized V peek(K key, long now) {
+      Node<V> node = protectedSegment.get(key);
+      if (node == null) {
+        node = probation.get(key);
+      }
+      return node == null || now - node.expiresAt() >= 0 ? null : node.value();
+    }
+
+    synchronized void put(K key, V value, long expiresAt) {
+      var node = new Node<>(value, expiresAt);
+      if (protectedSegment.containsKey(key)) {
+        protectedSegment.put(key, node);
+        return;
+      }
+      probation.remove(key);
+      probation.put(key, node);
+      while (probation.size() + protectedSegment.size() > capacity) {
+        eldest(probation.isEmpty() ? protectedSegment : probation);
+        evictions.increment();
+      }
+    }
+
+    synchronized void remove(K key) {
+      if (protectedSegment.remove(key) == null) {
+        probation.remove(key);
+      }
+    }
+
+    synchronized void clear() {
+      probation.clear();
+      protectedSegment.clear();
+    }
+
+    synchronized int size() {
+      return probation.size() + protectedSegment.size();
+    }
+
+    private boolean isExpired(Node<V> node, long now) {
+      if (now - node.expiresAt() >= 0) {
+        expirations.increment();
+        return true;
+      }
+      return false;
+    }
+
+    /** Removes and returns the least recently used entry of the segment. */
+    private Map.Entry<K, Node<V>> eldest(LinkedHashMap<K, Node<V>> segment) {
+      Iterator<Map.Entry<K, Node<V>>> iterator = segment.entrySet().iterator();
+      var eldest = iterator.next();
+      var entry = Map.entry(eldest.getKey(), eldest.getValue());
+      iterator.remove();
+      return entry;
+    }
+  }
+}
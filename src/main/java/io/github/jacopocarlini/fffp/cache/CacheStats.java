@@ -0,0 +1,18 @@
+package io.github.jacopocarlini.fffp.cache;
+
+import lombok.Value;
+
+/** Point in time statistics of a {@link BoundedCache}. */
+@Value
+public class CacheStats {
+  long hitCount;
+  long missCount;
+  long evictionCount;
+  long expirationCount;
+  long size;
+
+  public double hitRate() {
+    long requests = hitCount + missCount;
+    return requests == 0 ? 1.0 : (double) hitCount / requests;
+  }
+}
@@ -0,0 +1,167 @@
+package io.github.jacopocarlini.fffp.cache;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.evaluation.CompiledFlag;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Copy-on-write snapshot of the flags collection. Readers only dereference a volatile field and
+ * never lock; writers are serialized and publish a new immutable snapshot on every change. Flags
+ * are compiled when they enter the cache.
+ */
+public class FlagCache {
+
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+  private volatile boolean loaded = false;
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  public Optional<CompiledFlag> get(String flagKey) {
+    return Optional.ofNullable(snapshot.byKey.get(flagKey));
+  }
+
+  public Collection<CompiledFlag> getAll() {
+    return snapshot.byKey.values();
+  }
+
+  /**
+   * Replaces the whole content of the cache.
+   *
+   * @return the keys of the flags added, changed or removed by the reload
+   */
+  public synchronized List<String> reload(Collection<Flag> flags) {
+    var byKey = new HashMap<String, CompiledFlag>(flags.size() * 2);
+    var keyById = new HashMap<String, String>(flags.size() * 2);
+    for (Flag flag : flags) {
+      byKey.put(flag.getFlagKey(), compile(snapshot.byKey.get(flag.getFlagKey()), flag));
+      if (flag.getId() != null) {
+        keyById.put(flag.getId(), flag.getFlagKey());
+      }
+    }
+
+    Set<String> changed = new HashSet<>();
+    var previous = snapshot.byKey;
+    for (var entry : byKey.entrySet()) {
+      if (previous.get(entry.getKey()) != entry.getValue()) {
+        changed.add(entry.getKey());
+      }
+    }
+    for (String flagKey : previous.keySet()) {
+      if (!byKey.containsKey(flagKey)) {
+        changed.add(flagKey);
+      }
+    }
+
+    snapshot = new Snapshot(Map.copyOf(byKey), Map.copyOf(keyById));
+    loaded = true;
+    return new ArrayList<>(changed);
+  }
+
+  /**
+   * Inserts or replaces a flag.
+   *
+   * @return the keys of the flags changed by the operation
+   */
+  public synchronized List<String> put(Flag flag) {
+    return putAll(List.of(flag));
+  }
+
+  /**
+   * Inserts or replaces many flags, publishing a single new snapshot.
+   *
+   * @return the keys of the flags changed by the operation
+   */
+  public synchronized List<String> putAll(Collection<Flag> flags) {
+    var current = snapshot;
+    var byKey = new HashMap<>(current.byKey);
+    var keyById = new HashMap<>(current.keyById);
+    var changed = new ArrayList<String>(flags.size() + 1);
+    for (Flag flag : flags) {
+      put(flag, byKey, keyById, changed);
+    }
+    snapshot = new Snapshot(Map.copyOf(byKey), Map.copyOf(keyById));
+    return changed;
+  }
+
+  private static void put(
+      Flag flag,
+      Map<String, CompiledFlag> byKey,
+      Map<String, String> keyById,
+      List<String> changed) {
+    // the key of a flag can be changed by an update of the same document
+    if (flag.getId() != null) {
+      String oldKey = keyById.put(flag.getId(), flag.getFlagKey());
+      if (oldKey != null && !oldKey.equals(flag.getFlagKey())) {
+        byKey.remove(oldKey);
+        changed.add(oldKey);
+      }
+    }
+    CompiledFlag previous = byKey.get(flag.getFlagKey());
+    CompiledFlag compiled = compile(previous, flag);
+    if (compiled != previous) {
+      byKey.put(flag.getFlagKey(), compiled);
+      changed.add(flag.getFlagKey());
+    }
+  }
+
+  /**
+   * Removes the flag stored with the given document id.
+   *
+   * @return the key of the removed flag, if it was cached
+   */
+  public synchronized Optional<String> removeById(String id) {
+    var current = snapshot;
+    String flagKey = current.keyById.get(id);
+    if (flagKey == null) {
+      return Optional.empty();
+    }
+    var byKey = new HashMap<>(current.byKey);
+    var keyById = new HashMap<>(current.keyById);
+    byKey.remove(flagKey);
+    keyById.remove(id);
+    snapshot = new Snapshot(Map.copyOf(byKey), Map.copyOf(keyById));
+    return Optional.of(flagKey);
+  }
+
+  /**
+   * Removes a flag by key.
+   *
+   * @return true if the flag was cached
+   */
+  public synchronized boolean remove(String flagKey) {
+    var current = snapshot;
+    CompiledFlag flag = current.byKey.get(flagKey);
+    if (flag == null) {
+      return false;
+    }
+    var byKey = new HashMap<>(current.byKey);
+    var keyById = new HashMap<>(current.keyById);
+    byKey.remove(flagKey);
+    if (flag.getSource().getId() != null) {
+      keyById.remove(flag.getSource().getId());
+    }
+    snapshot = new Snapshot(Map.copyOf(byKey), Map.copyOf(keyById));
+    return true;
+  }
+
+  /** Reuses the current plan when the flag did not change. */
+  private static CompiledFlag compile(CompiledFlag current, Flag flag) {
+    if (current != null && current.getSource().equals(flag)) {
+      return current;
+    }
+    return CompiledFlag.compile(flag);
+  }
+
+  private record Snapshot(Map<String, CompiledFlag> byKey, Map<String, String> keyById) {
+    static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of());
+  }
+}
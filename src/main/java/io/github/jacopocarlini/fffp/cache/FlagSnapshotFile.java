@@ -0,0 +1,189 @@
+package io.github.jacopocarlini.fffp.cache;
+
+import io.github.jacopocarlini.fffp.config.MongoMapping;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+
+/**
+ * Local copy of the whole flag set, used to start evaluating before MongoDB is reachable.
+ *
+ * <p>Layout, big endian: the magic {@code FFFP}, the format version, the number of flags, the
+ * CRC32 of the body; then for every flag the length of its BSON document followed by the
+ * document. The file is replaced atomically and read through a memory mapped channel.
+ */
+@Slf4j
+public class FlagSnapshotFile implements AutoCloseable {
+
+  private static final int MAGIC = 0x46464650;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 4 + 4 + 4 + 8;
+  private static final long WRITE_DELAY_MILLIS = 500;
+
+  private final Path path;
+  private final MappingMongoConverter converter = MongoMapping.converter();
+  private final DocumentCodec codec = new DocumentCodec();
+  private final AtomicBoolean writePending = new AtomicBoolean();
+  private ScheduledExecutorService executor;
+  private Supplier<Collection<Flag>> pendingFlags;
+
+  public FlagSnapshotFile(Path path) {
+    this.path = path;
+  }
+
+  /**
+   * Writes the snapshot in background after a short delay, so a burst of changes produces a
+   * single write. The flags are taken from the supplier when the write happens.
+   */
+  public synchronized void scheduleWrite(Supplier<Collection<Flag>> flags) {
+    pendingFlags = flags;
+    if (writePending.compareAndSet(false, true)) {
+      if (executor == null) {
+        executor =
+            Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                  var thread = new Thread(runnable, "fffp-flag-snapshot");
+                  thread.setDaemon(true);
+                  return thread;
+                });
+      }
+      executor.schedule(this::writePending, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Writes the pending changes, if any, and stops the background writer. */
+  @Override
+  public synchronized void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+    writePending();
+  }
+
+  private void writePending() {
+    Supplier<Collection<Flag>> flags;
+    synchronized (this) {
+      if (!writePending.compareAndSet(true, false)) {
+        return;
+      }
+      flags = pendingFlags;
+    }
+    try {
+      write(flags.get());
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to write the flag snapshot {}", path, e);
+    }
+  }
+
+  /**
+   * Replaces the snapshot with the given flags.
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  public synchronized void write(Collection<Flag> flags) throws IOException {
+    var documents = new ArrayList<byte[]>(flags.size());
+    var crc = new CRC32();
+    for (Flag flag : flags) {
+      var document = new Document();
+      converter.write(flag, document);
+      ByteBuffer buffer = new RawBsonDocument(document, codec).getByteBuffer().asNIO();
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      documents.add(bytes);
+      crc.update(intBytes(bytes.length));
+      crc.update(bytes);
+    }
+
+    Path parent = path.toAbsolutePath().getParent();
+    Files.createDirectories(parent);
+    Path temporary = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+    try {
+      try (OutputStream file = Files.newOutputStream(temporary);
+          var out = new DataOutputStream(new BufferedOutputStream(file))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(documents.size());
+        out.writeLong(crc.getValue());
+        for (byte[] bytes : documents) {
+          out.writeInt(bytes.length);
+          out.write(bytes);
+        }
+      }
+      Files.move(
+          temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * @return the flags of the snapshot, or empty if there is no snapshot
+   * @throws IOException if the snapshot cannot be read or is corrupted
+   */
+  public Optional<List<Flag>> read() throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+        throw new IOException("Not a flag snapshot: " + path);
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported flag snapshot version " + version + ": " + path);
+      }
+      int count = buffer.getInt();
+      long expectedCrc = buffer.getLong();
+
+      var crc = new CRC32();
+      crc.update(buffer.duplicate());
+      if (crc.getValue() != expectedCrc) {
+        throw new IOException("Corrupted flag snapshot: " + path);
+      }
+
+      var flags = new ArrayList<Flag>(count);
+      for (int i = 0; i < count; i++) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        try (var reader = new BsonBinaryReader(slice)) {
+          Document document = codec.decode(reader, DecoderContext.builder().build());
+          flags.add(converter.read(Flag.class, document));
+        }
+      }
+      return Optional.of(flags);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+
+  private static byte[] intBytes(int value) {
+    return ByteBuffer.allocate(4).putInt(value).array();
+  }
+}
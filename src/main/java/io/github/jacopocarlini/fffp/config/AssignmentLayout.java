@@ -0,0 +1,12 @@
+package io.github.jacopocarlini.fffp.config;
+
+/** How the sticky rollout assignments are stored. */
+public enum AssignmentLayout {
+  /** One {@code assignedTarget} document for each (flag, target) pair. */
+  PER_FLAG,
+  /**
+   * One {@code targetAssignments} document for each target, holding the variants of all its
+   * flags: every assignment of a target is read with a single query.
+   */
+  PER_TARGET;
+}
@@ -0,0 +1,41 @@
+package io.github.jacopocarlini.fffp.config;
+
+import java.time.Duration;
+import lombok.Builder;
+import lombok.Value;
+
+/** Options of the exposure events, see {@code ProviderConfig.exposures}. */
+@Value
+@Builder(toBuilder = true)
+public class ExposureConfig {
+
+  /** Collection where the exposure events are written. */
+  @Builder.Default String collection = "exposures";
+
+  /** Number of events the buffer can hold, rounded up to a power of two. */
+  @Builder.Default int bufferSize = 8192;
+
+  /** Maximum number of events written with a single insert. */
+  @Builder.Default int batchSize = 500;
+
+  /** Maximum time an event waits in the buffer before being written. */
+  @Builder.Default Duration flushInterval = Duration.ofSeconds(1);
+
+  /**
+   * Repeated exposures of the same target to the same variant of a flag within this window are
+   * published once. Zero disables the deduplication.
+   */
+  @Builder.Default Duration dedupWindow = Duration.ofMinutes(1);
+
+  /** Maximum number of (flag, target, variant) triples remembered for the deduplication. */
+  @Builder.Default long dedupCacheSize = 100_000;
+
+  @Builder.Default ExposureOverflowPolicy overflowPolicy = ExposureOverflowPolicy.DROP;
+
+  /** Maximum wait of an evaluation for space in the buffer, with the {@code BLOCK} policy. */
+  @Builder.Default Duration offerTimeout = Duration.ofMillis(10);
+
+  public static ExposureConfig defaults() {
+    return ExposureConfig.builder().build();
+  }
+}
@@ -0,0 +1,12 @@
+package io.github.jacopocarlini.fffp.config;
+
+/** What happens to an exposure event when the exposure buffer is full. */
+public enum ExposureOverflowPolicy {
+  /** The event is dropped and counted, the evaluation never waits. */
+  DROP,
+  /**
+   * The evaluation waits for the drainer to free some space, up to the offer timeout, and drops
+   * the event only then.
+   */
+  BLOCK;
+}
@@ -2,25 +2,67 @@ package io.github.jacopocarlini.fffp.config;
 
 import com.mongodb.ConnectionString;
 import com.mongodb.MongoClientSettings;
+import com.mongodb.ReadPreference;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import io.github.jacopocarlini.fffp.repository.mongo.codec.MongoCodecs;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
 
 /**
- * Manages the MongoDB client and provides a MongoTemplate for database interactions. Ensures
- * thread-safe operations when updating the connection settings.
+ * Manages the MongoDB client and provides a MongoTemplate for database interactions.
+ *
+ * <p>The client and its templates are swapped atomically by {@link #updateConnection(String)}.
+ * Operations run through {@link #execute(Function)} and {@link #executeFlagRead(Function)} are
+ * counted on the connection they started on, and a replaced client is closed in background only
+ * once they are all completed (or the drain timeout expires), so a rotation never breaks an
+ * evaluation in flight.
+ *
+ * <p>Flag reads use the configured flag read preference, for example {@code nearest} with a
+ * {@code maxStalenessSeconds} bound to spread them across the replica set. Every other operation,
+ * and in particular the sticky assignments, goes to the primary.
+ *
+ * <p>Besides the templates, the hot reads can run on the typed collections of {@link
+ * #executeOnCollection(String, Class, Function)}, decoded by the codecs of {@link MongoCodecs}
+ * instead of the reflective mapping.
  */
+@Slf4j
 public class MongoClientManager {
+  public static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
   private final Lock lock = new ReentrantLock();
-  private MongoClient mongoClient;
-  private MongoTemplate mongoTemplate;
-  private String currentConnectionString = null;
+  private final AtomicReference<Connection> current = new AtomicReference<>();
+  private final ReadPreference flagReadPreference;
+  private final Duration drainTimeout;
+
+  public MongoClientManager() {
+    this(null, DEFAULT_DRAIN_TIMEOUT);
+  }
+
+  /**
+   * @param flagReadPreference the read preference of the flag reads and of the flags change
+   *     stream, or null to use the one of the connection string
+   * @param drainTimeout the maximum time a replaced client waits for its operations in flight
+   *     before being closed
+   */
+  public MongoClientManager(ReadPreference flagReadPreference, Duration drainTimeout) {
+    this.flagReadPreference = flagReadPreference;
+    this.drainTimeout = drainTimeout;
+  }
 
   /**
-   * Updates the MongoDB connection. Closes the current connection if it exists and establishes a
-   * new one with the provided connection string.
+   * Updates the MongoDB connection. The new client replaces the current one atomically; the
+   * current client is closed in background once the operations in flight on it are completed.
    *
    * @param newConnectionString the new MongoDB connection string
    * @throws IllegalStateException if the MongoDB database name is not specified in the connection
@@ -29,47 +71,202 @@ public class MongoClientManager {
   public void updateConnection(String newConnectionString) {
     lock.lock();
     try {
-      if (newConnectionString.equals(currentConnectionString)) {
+      Connection previous = current.get();
+      if (previous != null && newConnectionString.equals(previous.connectionString)) {
         return;
       }
 
-      if (mongoClient != null) {
-        mongoClient.close();
-      }
-
       ConnectionString connectionString = new ConnectionString(newConnectionString);
+      String database = connectionString.getDatabase();
+      if (database == null) {
+        throw new IllegalStateException(
+            "❌ The database name is missing in the MongoDB connection string.");
+      }
       MongoClientSettings settings =
           MongoClientSettings.builder().applyConnectionString(connectionString).build();
-      mongoClient = MongoClients.create(settings);
-
-      String database = connectionString.getDatabase();
-      if (database != null) {
-        mongoTemplate = new MongoTemplate(mongoClient, database);
+      current.set(new Connection(newConnectionString, MongoClients.create(settings), database));
 
-        currentConnectionString = newConnectionString;
+      if (previous != null) {
+        retire(previous);
       }
     } finally {
       lock.unlock();
     }
   }
 
-  /** Shuts down the MongoClient, closing any open connections. */
+  /**
+   * Shuts down the MongoClient, waiting up to the drain timeout for the operations in flight.
+   */
   public void shutdown() {
-    if (mongoClient != null) {
-      mongoClient.close();
+    lock.lock();
+    try {
+      Connection connection = current.getAndSet(null);
+      if (connection != null) {
+        connection.drainAndClose(drainTimeout);
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Runs an operation with the primary template of the current connection. The connection is not
+   * closed until the operation is completed.
+   */
+  public <T> T execute(Function<MongoTemplate, T> operation) {
+    Connection connection = acquire();
+    try {
+      return operation.apply(connection.primary);
+    } finally {
+      connection.release();
+    }
+  }
+
+  /** Runs a read of the flags with the flag read preference of the current connection. */
+  public <T> T executeFlagRead(Function<MongoTemplate, T> operation) {
+    Connection connection = acquire();
+    try {
+      return operation.apply(connection.flagReads);
+    } finally {
+      connection.release();
+    }
+  }
+
+  /**
+   * Runs an operation on a collection of the primary, decoding its documents with the codecs of
+   * {@link MongoCodecs}.
+   */
+  public <D, T> T executeOnCollection(
+      String collection, Class<D> documentClass, Function<MongoCollection<D>, T> operation) {
+    Connection connection = acquire();
+    try {
+      return operation.apply(connection.database.getCollection(collection, documentClass));
+    } finally {
+      connection.release();
     }
   }
 
   /**
-   * Retrieves the current MongoTemplate for database operations.
+   * Runs a read on a collection with the flag read preference, decoding its documents with the
+   * codecs of {@link MongoCodecs}.
+   */
+  public <D, T> T executeFlagReadOnCollection(
+      String collection, Class<D> documentClass, Function<MongoCollection<D>, T> operation) {
+    Connection connection = acquire();
+    try {
+      return operation.apply(connection.flagReadDatabase.getCollection(collection, documentClass));
+    } finally {
+      connection.release();
+    }
+  }
+
+  /**
+   * Retrieves the current MongoTemplate for database operations. The operations run directly on
+   * the returned template are not tracked, prefer {@link #execute(Function)}.
    *
    * @return the MongoTemplate
    * @throws IllegalStateException if there is no active connection to MongoDB
    */
   public MongoTemplate getMongoTemplate() {
-    if (mongoTemplate == null) {
+    return connection().primary;
+  }
+
+  /**
+   * @return the template used to read the flags, bound to the flag read preference
+   * @throws IllegalStateException if there is no active connection to MongoDB
+   */
+  public MongoTemplate getFlagReadTemplate() {
+    return connection().flagReads;
+  }
+
+  /**
+   * @return the database used to read the flags, bound to the flag read preference and to the
+   *     codecs of {@link MongoCodecs}. The operations run on it are not tracked
+   * @throws IllegalStateException if there is no active connection to MongoDB
+   */
+  public MongoDatabase getFlagReadDatabase() {
+    return connection().flagReadDatabase;
+  }
+
+  private Connection connection() {
+    Connection connection = current.get();
+    if (connection == null) {
       throw new IllegalStateException("❌ No active connection to MongoDB.");
     }
-    return mongoTemplate;
+    return connection;
+  }
+
+  private Connection acquire() {
+    while (true) {
+      Connection connection = connection();
+      if (connection.tryAcquire()) {
+        return connection;
+      }
+      // the connection has been replaced meanwhile, use the new one
+      Thread.onSpinWait();
+    }
+  }
+
+  private void retire(Connection connection) {
+    var thread =
+        new Thread(() -> connection.drainAndClose(drainTimeout), "fffp-mongo-client-drain");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private final class Connection {
+    private final String connectionString;
+    private final MongoClient client;
+    private final MongoTemplate primary;
+    private final MongoTemplate flagReads;
+    private final MongoDatabase database;
+    private final MongoDatabase flagReadDatabase;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closing;
+
+    private Connection(String connectionString, MongoClient client, String database) {
+      this.connectionString = connectionString;
+      this.client = client;
+      var factory = new SimpleMongoClientDatabaseFactory(client, database);
+      this.primary = new MongoTemplate(factory, MongoMapping.converter());
+      this.primary.setReadPreference(ReadPreference.primary());
+      this.flagReads = new MongoTemplate(factory, primary.getConverter());
+      if (flagReadPreference != null) {
+        this.flagReads.setReadPreference(flagReadPreference);
+      }
+      MongoDatabase codecs = client.getDatabase(database).withCodecRegistry(MongoCodecs.registry());
+      this.database = codecs.withReadPreference(ReadPreference.primary());
+      this.flagReadDatabase =
+          flagReadPreference == null ? codecs : codecs.withReadPreference(flagReadPreference);
+    }
+
+    /** Counts an operation unless the connection is closing. */
+    private boolean tryAcquire() {
+      inFlight.incrementAndGet();
+      if (closing) {
+        release();
+        return false;
+      }
+      return true;
+    }
+
+    private void release() {
+      inFlight.decrementAndGet();
+    }
+
+    private void drainAndClose(Duration timeout) {
+      // an operation that incremented the counter before this write is waited for, the others
+      // see the flag and move to the new connection
+      closing = true;
+      long deadline = System.nanoTime() + timeout.toNanos();
+      while (inFlight.get() > 0) {
+        if (System.nanoTime() - deadline > 0) {
+          log.warn("Closing the MongoDB client with {} operations in flight", inFlight.get());
+          break;
+        }
+        LockSupport.parkNanos(1_000_000);
+      }
+      client.close();
+    }
   }
 }
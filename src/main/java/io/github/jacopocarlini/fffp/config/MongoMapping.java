@@ -0,0 +1,75 @@
+package io.github.jacopocarlini.fffp.config;
+
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.List;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+/**
+ * Mapping between the entities and BSON documents. {@link ZonedDateTime} is stored as a BSON date
+ * and {@link Duration} as an ISO-8601 string, since they cannot be mapped reflectively on recent
+ * JDKs.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MongoMapping {
+
+  public static MappingMongoConverter converter() {
+    var conversions =
+        new MongoCustomConversions(
+            List.of(
+                new ZonedDateTimeToDateConverter(),
+                new DateToZonedDateTimeConverter(),
+                new DurationToStringConverter(),
+                new StringToDurationConverter()));
+    var mappingContext = new MongoMappingContext();
+    mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+    mappingContext.afterPropertiesSet();
+
+    var converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+    converter.setCustomConversions(conversions);
+    converter.afterPropertiesSet();
+    return converter;
+  }
+
+  @WritingConverter
+  private static class ZonedDateTimeToDateConverter implements Converter<ZonedDateTime, Date> {
+    @Override
+    public Date convert(ZonedDateTime source) {
+      return Date.from(source.toInstant());
+    }
+  }
+
+  @ReadingConverter
+  private static class DateToZonedDateTimeConverter implements Converter<Date, ZonedDateTime> {
+    @Override
+    public ZonedDateTime convert(Date source) {
+      return source.toInstant().atZone(ZoneOffset.UTC);
+    }
+  }
+
+  @WritingConverter
+  private static class DurationToStringConverter implements Converter<Duration, String> {
+    @Override
+    public String convert(Duration source) {
+      return source.toString();
+    }
+  }
+
+  @ReadingConverter
+  private static class StringToDurationConverter implements Converter<String, Duration> {
+    @Override
+    public Duration convert(String source) {
+      return Duration.parse(source);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package io.github.jacopocarlini.fffp.config;
+
+import com.mongodb.ReadPreference;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Tuning options of the provider. Every option has a default that matches the behaviour of the
+ * plain {@code MongoDBFeatureFlagProvider(String)} constructor.
+ */
+@Value
+@Builder(toBuilder = true)
+public class ProviderConfig {
+
+  /**
+   * When enabled the whole {@code flags} collection is loaded in memory during {@code
+   * initialize} and kept up to date by a change stream, so evaluations never query MongoDB for
+   * the flag definition.
+   */
+  @Builder.Default boolean localEvaluation = false;
+
+  /**
+   * File where the whole flag set is saved whenever it changes. When the file exists the provider
+   * starts from it, without waiting for MongoDB, and reconciles with MongoDB once it is reachable.
+   * Setting a snapshot implies {@link #localEvaluation}.
+   */
+  @Builder.Default Path snapshotPath = null;
+
+  /** Delay between two attempts to reopen a broken change stream. */
+  @Builder.Default Duration changeStreamRetryDelay = Duration.ofSeconds(5);
+
+  /**
+   * Maximum number of sticky rollout assignments kept in memory. Zero disables the near-cache and
+   * every evaluation of a rollout flag with a targeting key reads the assignment from MongoDB.
+   */
+  @Builder.Default long assignmentCacheSize = 0;
+
+  /** Time after which a cached assignment is read again from MongoDB. */
+  @Builder.Default Duration assignmentCacheTtl = Duration.ofMinutes(10);
+
+  /** Storage layout of the sticky rollout assignments. */
+  @Builder.Default AssignmentLayout assignmentLayout = AssignmentLayout.PER_FLAG;
+
+  /**
+   * Sticky assignments that are not evaluated for this long are deleted by a TTL index of the
+   * MongoDB storage; with the {@code PER_TARGET} layout a target is deleted with all its
+   * assignments. Null keeps the assignments until the rollout of their flag changes.
+   */
+  @Builder.Default Duration assignmentIdleTtl = null;
+
+  /**
+   * Maximum number of stale assignments, left behind by a rollout change or a deleted flag, that
+   * the background sweeper deletes with each request.
+   */
+  @Builder.Default int assignmentSweepBatchSize = 1000;
+
+  /** Pause of the background sweeper between two batches, to limit the load on the database. */
+  @Builder.Default Duration assignmentSweepPause = Duration.ofMillis(100);
+
+  /**
+   * Counts the evaluations by flag, variant and reason and measures their latency, see {@code
+   * MongoDBFeatureFlagProvider.getMetrics()}.
+   */
+  @Builder.Default boolean metricsEnabled = false;
+
+  /**
+   * Fraction of the evaluations whose latency is measured when metrics are enabled, between 0 and
+   * 1. The counters are always exact.
+   */
+  @Builder.Default double metricsSampleRate = 0.01;
+
+  /**
+   * When set, every evaluation that serves a variant of a flag publishes an exposure event, which
+   * is written asynchronously in batches. Null disables the exposure events.
+   */
+  @Builder.Default ExposureConfig exposures = null;
+
+  /**
+   * When set, the segments of the storage are loaded in memory during {@code initialize} and the
+   * ones that changed are reloaded with this period, so the {@code IN_SEGMENT} rules can match.
+   * Null disables the segments: those rules never match.
+   */
+  @Builder.Default Duration segmentRefreshInterval = null;
+
+  /**
+   * Maximum number of exact lookups cached for the segments held in Bloom filters, where every
+   * positive answer of the filter is confirmed by the storage.
+   */
+  @Builder.Default long segmentLookupCacheSize = 100_000;
+
+  /** Time after which a cached exact lookup of a segment is made again. */
+  @Builder.Default Duration segmentLookupCacheTtl = Duration.ofMinutes(10);
+
+  /**
+   * Read preference of the flag reads and of the flags change stream of the MongoDB storage, for
+   * example {@code ReadPreference.nearest(90, TimeUnit.SECONDS)} to spread them across the
+   * replica set members that lag at most 90 seconds. The sticky assignments are always read and
+   * written on the primary. Null uses the read preference of the connection string.
+   */
+  @Builder.Default ReadPreference flagReadPreference = null;
+
+  /**
+   * Maximum time a replaced MongoDB client waits for the operations in flight before being
+   * closed, see {@code MongoStorage.updateConnection}.
+   */
+  @Builder.Default Duration connectionDrainTimeout = Duration.ofSeconds(30);
+
+  /**
+   * Latency budget of the storage reads of one evaluation. A read that misses it keeps running in
+   * the background, shared with the other evaluations that need the same data, while the
+   * evaluation serves the flag or the assignment last read with the {@code STALE} reason, or the
+   * default value with the {@code TIMEOUT} reason if it was never read. Null waits for the storage
+   * as long as the driver does.
+   */
+  @Builder.Default Duration evaluationTimeout = null;
+
+  /** Latency budgets of single flags by flag key, overriding {@link #evaluationTimeout}. */
+  @Builder.Default Map<String, Duration> flagEvaluationTimeouts = Map.of();
+
+  /**
+   * Maximum number of sticky assignments remembered to be served as {@code STALE} when their read
+   * misses the evaluation timeout.
+   */
+  @Builder.Default long staleAssignmentsSize = 100_000;
+
+  /**
+   * Consecutive storage reads that miss the evaluation timeout or fail before the circuit opens.
+   * While it is open the evaluations do not read the storage and serve the stale data.
+   */
+  @Builder.Default int circuitBreakerThreshold = 5;
+
+  /** Time the circuit stays open before a single read tries the storage again. */
+  @Builder.Default Duration circuitBreakerOpenDuration = Duration.ofSeconds(10);
+
+  /**
+   * Threads running the storage reads of the evaluations with a timeout, each with up to 16 reads
+   * queued. A read that finds them all busy is not started and the evaluation is served as if it
+   * timed out, so a degraded storage cannot pile up blocked threads.
+   */
+  @Builder.Default int evaluationReadThreads = 64;
+
+  public boolean usesFlagCache() {
+    return localEvaluation || snapshotPath != null;
+  }
+
+  public boolean usesEvaluationTimeouts() {
+    return evaluationTimeout != null || !flagEvaluationTimeouts.isEmpty();
+  }
+
+  /**
+   * @return the latency budget of the evaluations of the flag, or null if they have none
+   */
+  public Duration evaluationTimeoutOf(String flagKey) {
+    Duration timeout = flagKey == null ? null : flagEvaluationTimeouts.get(flagKey);
+    return timeout == null ? evaluationTimeout : timeout;
+  }
+
+  public static ProviderConfig defaults() {
+    return ProviderConfig.builder().build();
+  }
+}
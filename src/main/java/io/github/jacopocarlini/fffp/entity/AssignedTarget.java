@@ -1,7 +1,8 @@
 package io.github.jacopocarlini.fffp.entity;
 
+import java.time.Instant;
 import lombok.*;
-import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Builder(toBuilder = true)
@@ -9,13 +10,27 @@ import org.springframework.data.mongodb.core.mapping.Document;
 @AllArgsConstructor(access = AccessLevel.PUBLIC)
 @NoArgsConstructor(access = AccessLevel.PUBLIC)
 @Document(collection = "assignedTarget")
+@CompoundIndex(
+    name = AssignedTarget.FLAG_TARGET_INDEX,
+    def = "{'flagKey': 1, 'targetKey': 1}",
+    unique = true)
 public class AssignedTarget {
 
-  @Indexed(unique = true)
+  public static final String FLAG_TARGET_INDEX = "flagKey_targetKey";
+
   private String flagKey;
 
-  @Indexed(unique = true)
   private String targetKey;
 
   private String variant;
+
+  /** The rollout epoch of the flag the variant was assigned for, null for epoch 0. */
+  private Long epoch;
+
+  /** Refreshed by the evaluations when the idle expiry of the assignments is enabled. */
+  private Instant lastSeenAt;
+
+  public long epochOrZero() {
+    return epoch == null ? 0 : epoch;
+  }
 }
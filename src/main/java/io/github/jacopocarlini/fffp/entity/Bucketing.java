@@ -0,0 +1,8 @@
+package io.github.jacopocarlini.fffp.entity;
+
+public enum Bucketing {
+  /** The variant is drawn at random and persisted to stay sticky. */
+  RANDOM,
+  /** The variant is derived from a hash of the flag key and the targeting key. */
+  HASH;
+}
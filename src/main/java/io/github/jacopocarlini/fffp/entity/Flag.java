@@ -4,6 +4,7 @@ import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Size;
@@ -34,8 +35,28 @@ public class Flag {
 
   private List<Target> target;
 
+  /**
+   * Flags that must serve the given variants for the same context, checked before the targets;
+   * otherwise the evaluation returns the default value with reason {@code PREREQUISITE_FAILED}.
+   */
+  @Valid private List<Prerequisite> prerequisites;
+
   private Map<String, Integer> rolloutPercentage;
 
+  private Map<String, Integer> rolloutBasisPoints;
+
+  private Bucketing bucketing;
+
+  private String bucketingSalt;
+
+  /**
+   * Changed whenever the rollout changes: the sticky assignments made for an earlier epoch are no
+   * longer served. Null for the flags created before epochs were introduced.
+   */
+  private Long rolloutEpoch;
+
   private ZonedDateTime timeWindowStart;
   private ZonedDateTime timeWindowEnd;
+
+  @Valid private RecurringWindow recurringWindow;
 }
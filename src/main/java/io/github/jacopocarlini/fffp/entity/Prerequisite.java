@@ -0,0 +1,16 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.*;
+
+/** Another flag that must serve the given variant, for the same context, to evaluate a flag. */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+public class Prerequisite {
+
+  @NotBlank private String flagKey;
+
+  @NotBlank private String variant;
+}
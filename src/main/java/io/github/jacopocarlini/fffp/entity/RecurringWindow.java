@@ -0,0 +1,25 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
+import java.time.Duration;
+import lombok.*;
+
+/**
+ * A window that repeats: it opens at every time matched by {@link #cron} and stays open for
+ * {@link #duration}. The cron expression has the six fields of Spring's {@code CronExpression}
+ * (second, minute, hour, day of month, month, day of week), or a macro such as {@code @daily}.
+ */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+public class RecurringWindow {
+
+  @NotBlank
+  private String cron;
+  @NotNull
+  private Duration duration;
+  /** Time zone of the cron expression, UTC if not set. */
+  private String zone;
+}
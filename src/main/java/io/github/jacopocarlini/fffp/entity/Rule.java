@@ -0,0 +1,98 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import java.util.Arrays;
+import java.util.List;
+import lombok.*;
+
+/**
+ * A condition on the evaluation context. A leaf rule tests one attribute of the context with its
+ * {@link RuleOperator}; {@code AND} and {@code OR} combine the nested {@link #rules}. A missing
+ * attribute never matches; a list attribute matches when one of its elements does.
+ */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+public class Rule {
+
+  /** The attribute that is used as the targeting key. */
+  public static final String TARGETING_KEY = "targetingKey";
+
+  /** Name of the context attribute, {@link #TARGETING_KEY} for the targeting key. */
+  private String attribute;
+
+  private RuleOperator operator;
+
+  /**
+   * The values of {@code EQUALS}, {@code IN}, {@code STARTS_WITH}, {@code ENDS_WITH} and {@code
+   * MATCHES}, or the segment names of {@code IN_SEGMENT}.
+   */
+  private List<Object> values;
+
+  /** The lower bound of {@code RANGE} and {@code SEMVER_RANGE}, included; null for no bound. */
+  private Object min;
+
+  /** The upper bound of {@code RANGE} and {@code SEMVER_RANGE}, excluded; null for no bound. */
+  private Object max;
+
+  /** The rules combined by {@code AND} and {@code OR}. */
+  private List<Rule> rules;
+
+  public static Rule equalTo(String attribute, Object value) {
+    return leaf(attribute, RuleOperator.EQUALS, List.of(value));
+  }
+
+  public static Rule in(String attribute, List<?> values) {
+    return leaf(attribute, RuleOperator.IN, values);
+  }
+
+  public static Rule startsWith(String attribute, String... prefixes) {
+    return leaf(attribute, RuleOperator.STARTS_WITH, Arrays.asList(prefixes));
+  }
+
+  public static Rule endsWith(String attribute, String... suffixes) {
+    return leaf(attribute, RuleOperator.ENDS_WITH, Arrays.asList(suffixes));
+  }
+
+  public static Rule matches(String attribute, String regex) {
+    return leaf(attribute, RuleOperator.MATCHES, List.of(regex));
+  }
+
+  public static Rule inSegment(String attribute, String... segments) {
+    return leaf(attribute, RuleOperator.IN_SEGMENT, Arrays.asList(segments));
+  }
+
+  public static Rule range(String attribute, Number min, Number max) {
+    return Rule.builder()
+        .attribute(attribute)
+        .operator(RuleOperator.RANGE)
+        .min(min)
+        .max(max)
+        .build();
+  }
+
+  public static Rule semverRange(String attribute, String min, String max) {
+    return Rule.builder()
+        .attribute(attribute)
+        .operator(RuleOperator.SEMVER_RANGE)
+        .min(min)
+        .max(max)
+        .build();
+  }
+
+  public static Rule and(Rule... rules) {
+    return Rule.builder().operator(RuleOperator.AND).rules(List.of(rules)).build();
+  }
+
+  public static Rule or(Rule... rules) {
+    return Rule.builder().operator(RuleOperator.OR).rules(List.of(rules)).build();
+  }
+
+  private static Rule leaf(String attribute, RuleOperator operator, List<?> values) {
+    return Rule.builder()
+        .attribute(attribute)
+        .operator(operator)
+        .values(List.copyOf(values))
+        .build();
+  }
+}
@@ -0,0 +1,30 @@
+package io.github.jacopocarlini.fffp.entity;
+
+/**
+ * How a {@link Rule} tests its attribute. Values are compared as strings, numbers in their
+ * canonical form, so {@code 42}, {@code 42.0} and {@code "42"} are all equal.
+ */
+public enum RuleOperator {
+  /** The attribute equals the only value. */
+  EQUALS,
+  /** The attribute equals one of the values. */
+  IN,
+  /** The attribute starts with one of the values. */
+  STARTS_WITH,
+  /** The attribute ends with one of the values. */
+  ENDS_WITH,
+  /** The regular expression, the only value, is found in the attribute. */
+  MATCHES,
+  /** The attribute is a number between {@code min}, included, and {@code max}, excluded. */
+  RANGE,
+  /**
+   * The attribute is a semantic version between {@code min}, included, and {@code max}, excluded.
+   */
+  SEMVER_RANGE,
+  /** The attribute is a member of one of the {@link Segment}s named by the values. */
+  IN_SEGMENT,
+  /** All the nested rules match. */
+  AND,
+  /** At least one of the nested rules matches. */
+  OR;
+}
@@ -0,0 +1,40 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A named set of ids that targeting rules reference with {@link RuleOperator#IN_SEGMENT}. The ids
+ * are stored apart, split in {@link SegmentChunk}s; this document only carries the settings of
+ * the segment and the counters that let the providers reload the chunks that changed.
+ */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+@Document(collection = "segments")
+public class Segment {
+
+  @Id private String name;
+
+  private SegmentType type;
+
+  /**
+   * For {@code STRING} segments, the false positive rate of the Bloom filters that hold the ids in
+   * memory, for example {@code 0.01}; null keeps exact fingerprints, which take 8 bytes per id.
+   */
+  private Double falsePositiveRate;
+
+  /** The generation of the chunks, replaced as a whole when all the ids are replaced. */
+  private long generation;
+
+  /** Incremented by every change of the ids; the chunks record the version that changed them. */
+  private long version;
+
+  /** The incremental changes in progress, whose chunks may not be written yet. */
+  private int writers;
+
+  /** The last generation handed out, which may not be committed yet. */
+  private long lastGeneration;
+}
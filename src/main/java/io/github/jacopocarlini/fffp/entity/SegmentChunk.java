@@ -0,0 +1,47 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import java.util.List;
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * A slice of the ids of a {@link Segment}. Numeric ids are sliced by their high 48 bits and only
+ * their low 16 bits are stored, string ids by the high 12 bits of their fingerprint, so a segment
+ * of millions of ids is spread over many small documents and a change rewrites only the chunks of
+ * the ids it touches.
+ */
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+@Document(collection = "segmentChunks")
+@CompoundIndex(
+    name = SegmentChunk.SEGMENT_VERSION_INDEX,
+    def = "{'segment': 1, 'generation': 1, 'version': 1}")
+public class SegmentChunk {
+
+  public static final String SEGMENT_VERSION_INDEX = "segment_generation_version";
+
+  @Id private String id;
+
+  private String segment;
+
+  private long generation;
+
+  private long key;
+
+  /** The version of the segment that last changed the chunk. */
+  private long version;
+
+  /** The low 16 bits of the ids of a {@code NUMERIC} segment. */
+  private List<Integer> numbers;
+
+  /** The ids of a {@code STRING} segment. */
+  private List<String> members;
+
+  public static String idOf(String segment, long generation, long key) {
+    return segment + ":" + generation + ":" + key;
+  }
+}
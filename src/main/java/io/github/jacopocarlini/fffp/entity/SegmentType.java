@@ -0,0 +1,12 @@
+package io.github.jacopocarlini.fffp.entity;
+
+/** The kind of ids listed by a {@link Segment}, which decides how it is kept in memory. */
+public enum SegmentType {
+  /** 64-bit integer ids, kept in a compressed bitmap. */
+  NUMERIC,
+  /**
+   * String ids, kept as 64-bit fingerprints or, when the segment sets a false positive rate, in a
+   * Bloom filter backed by an exact lookup in the storage.
+   */
+  STRING;
+}
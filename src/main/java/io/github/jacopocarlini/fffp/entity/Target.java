@@ -3,14 +3,27 @@ package io.github.jacopocarlini.fffp.entity;
 import jakarta.validation.constraints.NotBlank;
 import lombok.*;
 
+/**
+ * Forces a variant for the contexts that match. A target has a {@link #filter}, a {@link #rule}
+ * or both, in which case both must match.
+ */
 @Builder(toBuilder = true)
 @Data
 @AllArgsConstructor(access = AccessLevel.PUBLIC)
 @NoArgsConstructor(access = AccessLevel.PUBLIC)
 public class Target {
 
-  @NotBlank
+  /** Regular expression searched in the targeting key. */
   private String filter;
+
+  /** Condition on the attributes of the context. */
+  private Rule rule;
+
   @NotBlank
   private String variant;
+
+  /** Creates a target with a filter only, as before the rules were introduced. */
+  public Target(String filter, String variant) {
+    this(filter, null, variant);
+  }
 }
@@ -0,0 +1,25 @@
+package io.github.jacopocarlini.fffp.entity;
+
+import java.time.Instant;
+import java.util.Map;
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Builder(toBuilder = true)
+@Data
+@AllArgsConstructor(access = AccessLevel.PUBLIC)
+@NoArgsConstructor(access = AccessLevel.PUBLIC)
+@Document(collection = "targetAssignments")
+public class TargetAssignments {
+
+  @Id private String targetKey;
+
+  private Map<String, String> variants;
+
+  /** The rollout epoch of each variant, by the same keys; missing for epoch 0. */
+  private Map<String, Long> epochs;
+
+  /** Refreshed by the evaluations when the idle expiry of the assignments is enabled. */
+  private Instant lastSeenAt;
+}
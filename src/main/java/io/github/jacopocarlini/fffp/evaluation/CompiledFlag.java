@@ -0,0 +1,307 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import io.github.jacopocarlini.fffp.entity.Bucketing;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.entity.Prerequisite;
+import io.github.jacopocarlini.fffp.entity.Target;
+import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import io.github.jacopocarlini.fffp.util.MurmurHash3;
+import dev.openfeature.sdk.EvaluationContext;
+import java.time.DateTimeException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import lombok.Getter;
+
+/**
+ * Immutable evaluation plan of a {@link Flag}. Everything that does not depend on the evaluation
+ * context (target matchers, rollout thresholds, time window bounds, the typed values of the
+ * variants and their results) is computed once when the flag is loaded, so evaluating the flag
+ * does not allocate anything in the common cases.
+ */
+public final class CompiledFlag {
+
+  /** Resolution of the rollout: one bucket is a hundredth of a percent. */
+  public static final int BUCKETS = 10_000;
+
+  @Getter private final Flag source;
+  @Getter private final String flagKey;
+  @Getter private final boolean enabled;
+  @Getter private final String defaultVariant;
+
+  private final Map<String, CompiledVariant> variants;
+
+  private final TargetMatcher[] targetMatchers;
+  private final String[] targetVariants;
+  private final String[] targetErrors;
+
+  private final String[] prerequisiteKeys;
+  private final String[] prerequisiteVariants;
+
+  // cumulative thresholds in [0, BUCKETS], variants sorted by name so the order never changes
+  private final int[] rolloutThresholds;
+  private final String[] rolloutVariants;
+  @Getter private final boolean rollout;
+  @Getter private final boolean hashBucketing;
+  private final String bucketingSalt;
+  @Getter private final long rolloutEpoch;
+
+  private final TimeWindow timeWindow;
+  private final String timeWindowError;
+  // maintained by a TimeWindowScheduler when scheduled, otherwise refreshed when it expires
+  private volatile WindowState windowState;
+
+  private CompiledFlag(Flag flag) {
+    source = flag;
+    flagKey = flag.getFlagKey();
+    enabled = Boolean.TRUE.equals(flag.getEnabled());
+    defaultVariant = flag.getDefaultVariant();
+    var compiledVariants = new HashMap<String, CompiledVariant>();
+    if (flag.getVariants() != null) {
+      flag.getVariants()
+          .forEach((name, value) -> compiledVariants.put(name, new CompiledVariant(name, value)));
+    }
+    variants = Collections.unmodifiableMap(compiledVariants);
+
+    List<Target> targets = flag.getTarget() == null ? List.of() : flag.getTarget();
+    targetMatchers = new TargetMatcher[targets.size()];
+    targetVariants = new String[targets.size()];
+    targetErrors = new String[targets.size()];
+    for (int i = 0; i < targets.size(); i++) {
+      Target target = targets.get(i);
+      targetVariants[i] = target.getVariant();
+      try {
+        targetMatchers[i] = TargetMatcher.compile(target);
+      } catch (IllegalArgumentException e) {
+        // reported only when the target is reached, as it happened before compilation
+        targetErrors[i] = e.getMessage();
+      }
+    }
+
+    List<Prerequisite> prerequisites =
+        flag.getPrerequisites() == null ? List.of() : flag.getPrerequisites();
+    prerequisiteKeys = new String[prerequisites.size()];
+    prerequisiteVariants = new String[prerequisites.size()];
+    for (int i = 0; i < prerequisites.size(); i++) {
+      Prerequisite prerequisite = prerequisites.get(i);
+      if (prerequisite != null) {
+        prerequisiteKeys[i] = prerequisite.getFlagKey();
+        prerequisiteVariants[i] = prerequisite.getVariant();
+      }
+    }
+
+    // basis points take precedence, percentages are scaled to the same resolution
+    Map<String, Integer> weights;
+    int scale;
+    if (flag.getRolloutBasisPoints() != null && !flag.getRolloutBasisPoints().isEmpty()) {
+      weights = new TreeMap<>(flag.getRolloutBasisPoints());
+      scale = 1;
+    } else if (flag.getRolloutPercentage() != null) {
+      weights = new TreeMap<>(flag.getRolloutPercentage());
+      scale = BUCKETS / 100;
+    } else {
+      weights = Map.of();
+      scale = 1;
+    }
+    rollout = !weights.isEmpty();
+    var thresholds = new ArrayList<Integer>(weights.size());
+    var names = new ArrayList<String>(weights.size());
+    int cumulative = 0;
+    for (var entry : weights.entrySet()) {
+      cumulative += entry.getValue() == null ? 0 : entry.getValue() * scale;
+      thresholds.add(cumulative);
+      names.add(entry.getKey());
+    }
+    rolloutThresholds = thresholds.stream().mapToInt(Integer::intValue).toArray();
+    rolloutVariants = names.toArray(String[]::new);
+    hashBucketing = flag.getBucketing() == Bucketing.HASH;
+    bucketingSalt = flag.getBucketingSalt() == null ? "" : flag.getBucketingSalt();
+    rolloutEpoch = flag.getRolloutEpoch() == null ? 0 : flag.getRolloutEpoch();
+
+    TimeWindow window = null;
+    String windowError = null;
+    try {
+      window = TimeWindow.of(flag);
+    } catch (IllegalArgumentException | DateTimeException e) {
+      // reported only when the flag is evaluated, as the target errors
+      windowError = "Invalid time window: " + e.getMessage();
+    }
+    timeWindow = window;
+    timeWindowError = windowError;
+    windowState =
+        window == null && windowError == null ? WindowState.ALWAYS_ACTIVE : WindowState.EXPIRED;
+  }
+
+  public static CompiledFlag compile(Flag flag) {
+    return new CompiledFlag(flag);
+  }
+
+  public Object getVariantValue(String variant) {
+    CompiledVariant compiled = variants.get(variant);
+    return compiled == null ? null : compiled.getRawValue();
+  }
+
+  /**
+   * @throws InvalidFeatureFlagException if the flag has no such variant
+   */
+  public CompiledVariant getVariant(String variant) throws InvalidFeatureFlagException {
+    CompiledVariant compiled = variants.get(variant);
+    if (compiled == null) {
+      throw new InvalidFeatureFlagException("value is null");
+    }
+    return compiled;
+  }
+
+  public boolean hasTargets() {
+    return targetMatchers.length > 0;
+  }
+
+  public boolean hasPrerequisites() {
+    return prerequisiteKeys.length > 0;
+  }
+
+  public int getPrerequisiteCount() {
+    return prerequisiteKeys.length;
+  }
+
+  /** @return the flag key of the prerequisite, null if it is not valid */
+  public String getPrerequisiteKey(int index) {
+    return prerequisiteVariants[index] == null ? null : prerequisiteKeys[index];
+  }
+
+  public String getPrerequisiteVariant(int index) {
+    return prerequisiteVariants[index];
+  }
+
+  /**
+   * @throws InvalidFeatureFlagException if the filter or the rule of a target is not valid
+   */
+  public void checkTargets() throws InvalidFeatureFlagException {
+    for (String error : targetErrors) {
+      if (error != null) {
+        throw new InvalidFeatureFlagException(error);
+      }
+    }
+  }
+
+  /**
+   * @return true if the flag has a time window and the current time is not inside it. A scheduled
+   *     flag answers with a single volatile read; the others read the clock and compute the state
+   *     again only after a boundary of the window.
+   */
+  public boolean isOutsideTimeWindow() throws InvalidFeatureFlagException {
+    WindowState state = windowState;
+    if (state.scheduled()) {
+      return !state.active();
+    }
+    long now = System.currentTimeMillis();
+    if (now >= state.validUntil()) {
+      state = computeWindowState(now, false);
+      windowState = state;
+    }
+    return !state.active();
+  }
+
+  /**
+   * @param now the current time in epoch millis
+   * @return true if the flag has a time window and {@code now} is not inside it
+   */
+  public boolean isOutsideTimeWindow(long now) throws InvalidFeatureFlagException {
+    return !computeWindowState(now, false).active();
+  }
+
+  /** @return true if the flag has a valid time window, whose boundaries can be scheduled */
+  public boolean hasTimeWindow() {
+    return timeWindow != null;
+  }
+
+  /**
+   * Computes the state of the time window at {@code now}. From now on the state is changed only
+   * by the calls of this method, which must be scheduled at {@link #getNextTimeWindowBoundary()}.
+   *
+   * @return true if the flag entered or left its time window
+   */
+  public boolean updateTimeWindow(long now) {
+    if (timeWindow == null) {
+      return false;
+    }
+    boolean wasActive = windowState.active();
+    var state = new WindowState(timeWindow.isActive(now), timeWindow.nextBoundary(now), true);
+    windowState = state;
+    return state.active() != wasActive;
+  }
+
+  /** @return the time of the next boundary of the time window, or {@link Long#MAX_VALUE} */
+  public long getNextTimeWindowBoundary() {
+    return windowState.validUntil();
+  }
+
+  private WindowState computeWindowState(long now, boolean scheduled)
+      throws InvalidFeatureFlagException {
+    if (timeWindowError != null) {
+      throw new InvalidFeatureFlagException(timeWindowError);
+    }
+    if (timeWindow == null) {
+      return WindowState.ALWAYS_ACTIVE;
+    }
+    return new WindowState(timeWindow.isActive(now), timeWindow.nextBoundary(now), scheduled);
+  }
+
+  /**
+   * @return the variant of the first target that matches the context, or null
+   */
+  public String matchTarget(EvaluationContext ctx) throws InvalidFeatureFlagException {
+    return matchTarget(ctx, SegmentLookup.NONE);
+  }
+
+  /**
+   * @param segments resolves the segments of the {@code IN_SEGMENT} rules
+   * @return the variant of the first target that matches the context, or null
+   */
+  public String matchTarget(EvaluationContext ctx, SegmentLookup segments)
+      throws InvalidFeatureFlagException {
+    for (int i = 0; i < targetMatchers.length; i++) {
+      if (targetErrors[i] != null) {
+        throw new InvalidFeatureFlagException(targetErrors[i]);
+      }
+      if (targetMatchers[i].matches(ctx, segments)) {
+        return targetVariants[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return the bucket of the targeting key, stable for the same flag key, salt and targeting key
+   */
+  public int bucketOf(String targetingKey) {
+    int hash = MurmurHash3.hash32(0, flagKey, bucketingSalt, targetingKey);
+    return (int) (Integer.toUnsignedLong(hash) % BUCKETS);
+  }
+
+  /**
+   * @param bucket a value in [0, {@link #BUCKETS})
+   * @return the rollout variant owning the bucket, or the default variant when the weights do not
+   *     cover it
+   */
+  public String rolloutVariant(int bucket) {
+    for (int i = 0; i < rolloutThresholds.length; i++) {
+      if (bucket < rolloutThresholds[i]) {
+        return rolloutVariants[i];
+      }
+    }
+    return defaultVariant;
+  }
+
+  /**
+   * @param validUntil the time from which {@code active} may be wrong
+   * @param scheduled true if the state is updated by a scheduler, rather than when it expires
+   */
+  private record WindowState(boolean active, long validUntil, boolean scheduled) {
+    static final WindowState ALWAYS_ACTIVE = new WindowState(true, Long.MAX_VALUE, true);
+    static final WindowState EXPIRED = new WindowState(false, Long.MIN_VALUE, false);
+  }
+}
@@ -0,0 +1,265 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import static io.github.jacopocarlini.fffp.util.Reason.ALREADY_ASSIGNED;
+import static io.github.jacopocarlini.fffp.util.Reason.ROLLOUT;
+import static io.github.jacopocarlini.fffp.util.Reason.TARGET_MATCHED;
+
+import dev.openfeature.sdk.ImmutableStructure;
+import dev.openfeature.sdk.ProviderEvaluation;
+import dev.openfeature.sdk.Value;
+import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.Getter;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+/**
+ * A variant of a {@link CompiledFlag}, converted once to every type it can be evaluated as. The
+ * evaluations that do not depend on the context (the variant served with one of the variant
+ * reasons) are built once as well and shared by every evaluation.
+ *
+ * <p>Conversions never lose information: a number is an {@code Integer} only if it is integral
+ * and in range, and a {@code Double} only if it is finite ({@code Long} values must be exactly
+ * representable). Any value is a {@link Value}: documents become structures, arrays lists, dates
+ * instants and ObjectIds strings.
+ */
+public final class CompiledVariant {
+
+  /** Reason of the evaluations that serve the default variant of an enabled flag. */
+  public static final String DEFAULT_VARIANT = "default variant";
+
+  private static final String[] REASONS = {
+    DEFAULT_VARIANT, TARGET_MATCHED.name(), ROLLOUT.name(), ALREADY_ASSIGNED.name()
+  };
+  private static final Class<?>[] TYPES = {
+    Boolean.class, String.class, Integer.class, Double.class, Value.class, Object.class
+  };
+
+  @Getter private final String name;
+  @Getter private final Object rawValue;
+  private final Object[] values = new Object[TYPES.length];
+  private final ProviderEvaluation<?>[] evaluations =
+      new ProviderEvaluation<?>[TYPES.length * REASONS.length];
+
+  CompiledVariant(String name, Object rawValue) {
+    this.name = name;
+    this.rawValue = rawValue;
+    for (int type = 0; type < TYPES.length; type++) {
+      Object value = convert(rawValue, TYPES[type]);
+      values[type] = value;
+      if (value == null) {
+        continue;
+      }
+      for (int reason = 0; reason < REASONS.length; reason++) {
+        evaluations[type * REASONS.length + reason] =
+            ProviderEvaluation.builder()
+                .value(value)
+                .variant(name)
+                .reason(REASONS[reason])
+                .build();
+      }
+    }
+  }
+
+  /**
+   * @return the value of the variant as the given type
+   * @throws InvalidFeatureFlagException if the variant cannot be converted to the type
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T value(Class<T> type) throws InvalidFeatureFlagException {
+    Object value = values[typeIndex(type)];
+    if (value == null) {
+      throw notConvertible(type);
+    }
+    return (T) value;
+  }
+
+  /**
+   * @return the evaluation serving this variant with the given reason; for the variant reasons
+   *     the instance is shared and must not be modified
+   * @throws InvalidFeatureFlagException if the variant cannot be converted to the type
+   */
+  @SuppressWarnings("unchecked")
+  public <T> ProviderEvaluation<T> evaluation(Class<T> type, String reason)
+      throws InvalidFeatureFlagException {
+    int typeIndex = typeIndex(type);
+    if (values[typeIndex] == null) {
+      throw notConvertible(type);
+    }
+    for (int i = 0; i < REASONS.length; i++) {
+      if (REASONS[i].equals(reason)) {
+        return (ProviderEvaluation<T>) evaluations[typeIndex * REASONS.length + i];
+      }
+    }
+    return ProviderEvaluation.<T>builder()
+        .value((T) values[typeIndex])
+        .variant(name)
+        .reason(reason)
+        .build();
+  }
+
+  private InvalidFeatureFlagException notConvertible(Class<?> type) {
+    return new InvalidFeatureFlagException(
+        rawValue == null
+            ? "value is null"
+            : "Cannot convert variant "
+                + name
+                + " of type "
+                + rawValue.getClass().getName()
+                + " to "
+                + type.getName());
+  }
+
+  private static int typeIndex(Class<?> type) {
+    for (int i = 0; i < TYPES.length; i++) {
+      if (TYPES[i] == type) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Unsupported flag type " + type.getName());
+  }
+
+  /**
+   * Converts a stored value to one of the flag types.
+   *
+   * @return the converted value, or null if the value is null or cannot be converted without
+   *     losing information
+   */
+  public static Object convert(Object value, Class<?> type) {
+    if (value == null) {
+      return null;
+    }
+    if (type == Object.class || type.isInstance(value)) {
+      return value;
+    }
+    if (type == Integer.class) {
+      return toInteger(value);
+    }
+    if (type == Double.class) {
+      return toDouble(value);
+    }
+    if (type == Value.class) {
+      return toValue(value);
+    }
+    return null;
+  }
+
+  private static Integer toInteger(Object value) {
+    BigDecimal decimal = toBigDecimal(value);
+    if (decimal == null) {
+      return null;
+    }
+    try {
+      return decimal.intValueExact();
+    } catch (ArithmeticException e) {
+      // fractional or out of range
+      return null;
+    }
+  }
+
+  private static Double toDouble(Object value) {
+    if (value instanceof Long number) {
+      double converted = number.doubleValue();
+      // not (long) converted == number: the cast saturates, so Long.MAX_VALUE would round trip
+      boolean exact = new BigDecimal(converted).compareTo(BigDecimal.valueOf(number)) == 0;
+      return exact ? converted : null;
+    }
+    if (value instanceof BigInteger number) {
+      double converted = number.doubleValue();
+      return Double.isFinite(converted) ? converted : null;
+    }
+    BigDecimal decimal = toBigDecimal(value);
+    return decimal == null ? null : decimal.doubleValue();
+  }
+
+  /** The exact value of a finite number, or null. */
+  private static BigDecimal toBigDecimal(Object value) {
+    if (value instanceof Integer || value instanceof Long
+        || value instanceof Short || value instanceof Byte) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+    if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      return Double.isFinite(number) ? new BigDecimal(number) : null;
+    }
+    if (value instanceof Decimal128 number) {
+      return number.isNaN() || number.isInfinite() ? null : number.bigDecimalValue();
+    }
+    if (value instanceof BigDecimal number) {
+      return number;
+    }
+    if (value instanceof BigInteger number) {
+      return new BigDecimal(number);
+    }
+    return null;
+  }
+
+  private static Value toValue(Object value) {
+    if (value == null) {
+      return new Value();
+    }
+    if (value instanceof Value converted) {
+      return converted;
+    }
+    if (value instanceof Boolean converted) {
+      return new Value(converted);
+    }
+    if (value instanceof String converted) {
+      return new Value(converted);
+    }
+    if (value instanceof Number) {
+      Integer integer =
+          value instanceof Double || value instanceof Float ? null : toInteger(value);
+      if (integer != null) {
+        return new Value(integer);
+      }
+      BigDecimal decimal = toBigDecimal(value);
+      return decimal == null ? null : new Value(decimal.doubleValue());
+    }
+    if (value instanceof Date date) {
+      return new Value(date.toInstant());
+    }
+    if (value instanceof TemporalAccessor temporal) {
+      try {
+        return new Value(Instant.from(temporal));
+      } catch (RuntimeException e) {
+        return new Value(temporal.toString());
+      }
+    }
+    if (value instanceof ObjectId id) {
+      return new Value(id.toHexString());
+    }
+    if (value instanceof Map<?, ?> map) {
+      var structure = new LinkedHashMap<String, Value>();
+      for (var entry : map.entrySet()) {
+        Value converted = toValue(entry.getValue());
+        if (converted == null) {
+          return null;
+        }
+        structure.put(String.valueOf(entry.getKey()), converted);
+      }
+      return new Value(new ImmutableStructure(structure));
+    }
+    if (value instanceof Collection<?> collection) {
+      var list = new ArrayList<Value>(collection.size());
+      for (Object element : collection) {
+        Value converted = toValue(element);
+        if (converted == null) {
+          return null;
+        }
+        list.add(converted);
+      }
+      return new Value(List.copyOf(list));
+    }
+    return null;
+  }
+}
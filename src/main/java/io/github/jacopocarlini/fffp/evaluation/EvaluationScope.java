@@ -0,0 +1,96 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ProviderEvaluation;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A memo of the evaluations made by the current thread, for example while serving one request:
+ * evaluating again the same flag with the same type, targeting key and default value returns the
+ * first evaluation without reading the flag or the assignment again, so all the components of a
+ * request see the same variant. The scope is bound to the thread that opens it, virtual threads
+ * included, and is discarded when closed:
+ *
+ * <pre>{@code
+ * try (EvaluationScope scope = EvaluationScope.open()) {
+ *   handle(request);
+ * }
+ * }</pre>
+ *
+ * <p>The other attributes of the context are not part of the key, since they are expected not to
+ * change within a scope. A scope opened inside another one starts empty and restores the outer
+ * one when closed.
+ */
+public final class EvaluationScope implements AutoCloseable {
+
+  private static final ThreadLocal<EvaluationScope> CURRENT = new ThreadLocal<>();
+
+  private final Map<Key, ProviderEvaluation<?>> evaluations = new ConcurrentHashMap<>();
+  private final EvaluationScope outer;
+  private final Thread owner;
+
+  private EvaluationScope(EvaluationScope outer) {
+    this.outer = outer;
+    this.owner = Thread.currentThread();
+  }
+
+  /** Opens a scope on the current thread; it must be closed on the same thread. */
+  public static EvaluationScope open() {
+    var scope = new EvaluationScope(CURRENT.get());
+    CURRENT.set(scope);
+    return scope;
+  }
+
+  /**
+   * @return the scope open on the current thread, or null
+   */
+  public static EvaluationScope current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Returns the evaluation memoized by the scope of the current thread, or runs the evaluation
+   * and memoizes it. Without a scope the evaluation is just run.
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> ProviderEvaluation<T> memoize(
+      String flagKey,
+      Class<T> type,
+      EvaluationContext ctx,
+      T defaultValue,
+      Supplier<ProviderEvaluation<T>> evaluation) {
+    EvaluationScope scope = CURRENT.get();
+    if (scope == null) {
+      return evaluation.get();
+    }
+    var key = new Key(flagKey, type, ctx == null ? null : ctx.getTargetingKey(), defaultValue);
+    ProviderEvaluation<T> memoized = (ProviderEvaluation<T>) scope.evaluations.get(key);
+    if (memoized == null) {
+      memoized = evaluation.get();
+      scope.evaluations.put(key, memoized);
+    }
+    return memoized;
+  }
+
+  /** Number of evaluations memoized. */
+  public int size() {
+    return evaluations.size();
+  }
+
+  /** Discards the memo and restores the scope that was open before this one, if any. */
+  @Override
+  public void close() {
+    evaluations.clear();
+    if (Thread.currentThread() == owner && CURRENT.get() == this) {
+      if (outer == null) {
+        CURRENT.remove();
+      } else {
+        CURRENT.set(outer);
+      }
+    }
+  }
+
+  private record Key(String flagKey, Class<?> type, String targetingKey, Object defaultValue) {}
+}
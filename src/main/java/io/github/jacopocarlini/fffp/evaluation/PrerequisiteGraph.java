@@ -0,0 +1,58 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The graph of the prerequisites of the flags, walked depth first: every flag is finished after its
+ * prerequisites, in topological order, and a flag met again on the path that leads to it closes a
+ * cycle. Flags already finished are not walked again by later visits.
+ */
+public final class PrerequisiteGraph {
+  private final Function<String, List<String>> prerequisitesOf;
+  private final Set<String> finished = new HashSet<>();
+
+  /**
+   * @param prerequisitesOf the keys of the prerequisites of a flag, empty for a flag that does not
+   *     exist
+   */
+  public PrerequisiteGraph(Function<String, List<String>> prerequisitesOf) {
+    this.prerequisitesOf = prerequisitesOf;
+  }
+
+  /**
+   * Walks the flag and its prerequisites.
+   *
+   * @throws IllegalArgumentException naming the cycle, if one is reachable from the flag
+   */
+  public void visit(String flagKey) {
+    visit(flagKey, new LinkedHashSet<>());
+  }
+
+  private void visit(String flagKey, LinkedHashSet<String> path) {
+    if (finished.contains(flagKey)) {
+      return;
+    }
+    if (!path.add(flagKey)) {
+      var cycle = new ArrayList<String>();
+      boolean inCycle = false;
+      for (String key : path) {
+        inCycle |= key.equals(flagKey);
+        if (inCycle) {
+          cycle.add(key);
+        }
+      }
+      cycle.add(flagKey);
+      throw new IllegalArgumentException("Prerequisite cycle: " + String.join(" -> ", cycle));
+    }
+    for (String prerequisite : prerequisitesOf.apply(flagKey)) {
+      visit(prerequisite, path);
+    }
+    path.remove(flagKey);
+    finished.add(flagKey);
+  }
+}
@@ -0,0 +1,19 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+/**
+ * Tells whether an id belongs to a segment, for the {@code IN_SEGMENT} rules. The segments are
+ * resolved at every evaluation, so a flag compiled before its segments are loaded picks them up
+ * without being compiled again.
+ */
+@FunctionalInterface
+public interface SegmentLookup {
+
+  /** The lookup of a provider without segments: no id belongs to any segment. */
+  SegmentLookup NONE = (segment, member) -> false;
+
+  /**
+   * @param member the id, in the canonical form of the rule values
+   * @return true if the segment exists and contains the id
+   */
+  boolean contains(String segment, String member);
+}
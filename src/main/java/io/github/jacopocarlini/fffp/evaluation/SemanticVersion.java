@@ -0,0 +1,103 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import java.math.BigInteger;
+
+/**
+ * A version ordered by the precedence rules of Semantic Versioning 2.0: numeric major, minor and
+ * patch, then a version without pre-release above the same version with one, pre-release
+ * identifiers compared one by one. Build metadata is ignored. A leading {@code v} is allowed and
+ * the minor and patch numbers can be omitted.
+ */
+final class SemanticVersion implements Comparable<SemanticVersion> {
+
+  private final BigInteger[] numbers;
+  private final String[] preRelease;
+
+  private SemanticVersion(BigInteger[] numbers, String[] preRelease) {
+    this.numbers = numbers;
+    this.preRelease = preRelease;
+  }
+
+  /**
+   * @throws IllegalArgumentException if the text is not a version
+   */
+  static SemanticVersion parse(String text) {
+    String version = text.strip();
+    if (version.startsWith("v") || version.startsWith("V")) {
+      version = version.substring(1);
+    }
+    int build = version.indexOf('+');
+    if (build >= 0) {
+      version = version.substring(0, build);
+    }
+    String[] preRelease = new String[0];
+    int dash = version.indexOf('-');
+    if (dash >= 0) {
+      preRelease = version.substring(dash + 1).split("\\.", -1);
+      version = version.substring(0, dash);
+      for (String identifier : preRelease) {
+        if (identifier.isEmpty()) {
+          throw new IllegalArgumentException("Invalid semantic version: " + text);
+        }
+      }
+    }
+    String[] parts = version.split("\\.", -1);
+    if (parts.length > 3) {
+      throw new IllegalArgumentException("Invalid semantic version: " + text);
+    }
+    var numbers = new BigInteger[] {BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO};
+    for (int i = 0; i < parts.length; i++) {
+      if (!isNumeric(parts[i])) {
+        throw new IllegalArgumentException("Invalid semantic version: " + text);
+      }
+      numbers[i] = new BigInteger(parts[i]);
+    }
+    return new SemanticVersion(numbers, preRelease);
+  }
+
+  @Override
+  public int compareTo(SemanticVersion other) {
+    for (int i = 0; i < 3; i++) {
+      int compared = numbers[i].compareTo(other.numbers[i]);
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    if (preRelease.length == 0 || other.preRelease.length == 0) {
+      // a release is above its pre-releases
+      return Boolean.compare(preRelease.length == 0, other.preRelease.length == 0);
+    }
+    for (int i = 0; i < Math.min(preRelease.length, other.preRelease.length); i++) {
+      int compared = compareIdentifiers(preRelease[i], other.preRelease[i]);
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return Integer.compare(preRelease.length, other.preRelease.length);
+  }
+
+  private static int compareIdentifiers(String left, String right) {
+    boolean leftNumeric = isNumeric(left);
+    boolean rightNumeric = isNumeric(right);
+    if (leftNumeric && rightNumeric) {
+      return new BigInteger(left).compareTo(new BigInteger(right));
+    }
+    if (leftNumeric != rightNumeric) {
+      // numeric identifiers have lower precedence
+      return leftNumeric ? -1 : 1;
+    }
+    return left.compareTo(right);
+  }
+
+  private static boolean isNumeric(String identifier) {
+    if (identifier.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < identifier.length(); i++) {
+      if (identifier.charAt(i) < '0' || identifier.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,101 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable trie of strings, to check whether a string starts with (or, built on the reversed
+ * strings, ends with) one of them in a time that depends on the length of the string and not on
+ * the number of strings. The children of a node are kept in a sorted array and binary searched.
+ */
+final class StringTrie {
+
+  private final Node root;
+  private final boolean reversed;
+
+  private StringTrie(Node root, boolean reversed) {
+    this.root = root;
+    this.reversed = reversed;
+  }
+
+  /** A trie matching the strings that start with one of the prefixes. */
+  static StringTrie ofPrefixes(Collection<String> prefixes) {
+    return new StringTrie(build(prefixes, false), false);
+  }
+
+  /** A trie matching the strings that end with one of the suffixes. */
+  static StringTrie ofSuffixes(Collection<String> suffixes) {
+    return new StringTrie(build(suffixes, true), true);
+  }
+
+  boolean matches(String value) {
+    Node node = root;
+    int length = value.length();
+    for (int i = 0; ; i++) {
+      if (node.terminal) {
+        return true;
+      }
+      if (i == length) {
+        return false;
+      }
+      node = node.child(value.charAt(reversed ? length - 1 - i : i));
+      if (node == null) {
+        return false;
+      }
+    }
+  }
+
+  private static Node build(Collection<String> keys, boolean reversed) {
+    var root = new Builder();
+    for (String key : keys) {
+      Builder node = root;
+      for (int i = 0; i < key.length(); i++) {
+        char c = key.charAt(reversed ? key.length() - 1 - i : i);
+        node = node.children.computeIfAbsent(c, ignored -> new Builder());
+      }
+      node.terminal = true;
+    }
+    return root.freeze();
+  }
+
+  private static final class Builder {
+    private final Map<Character, Builder> children = new TreeMap<>();
+    private boolean terminal;
+
+    private Node freeze() {
+      if (terminal) {
+        // nothing below a terminal node can change the result
+        return new Node(true, new char[0], new Node[0]);
+      }
+      var labels = new char[children.size()];
+      var nodes = new Node[children.size()];
+      int i = 0;
+      for (var entry : children.entrySet()) {
+        labels[i] = entry.getKey();
+        nodes[i] = entry.getValue().freeze();
+        i++;
+      }
+      return new Node(false, labels, nodes);
+    }
+  }
+
+  private record Node(boolean terminal, char[] labels, Node[] nodes) {
+    Node child(char c) {
+      int low = 0;
+      int high = labels.length - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        char label = labels[middle];
+        if (label < c) {
+          low = middle + 1;
+        } else if (label > c) {
+          high = middle - 1;
+        } else {
+          return nodes[middle];
+        }
+      }
+      return null;
+    }
+  }
+}
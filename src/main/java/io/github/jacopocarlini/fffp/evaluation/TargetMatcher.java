@@ -0,0 +1,371 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import io.github.jacopocarlini.fffp.entity.Rule;
+import io.github.jacopocarlini.fffp.entity.RuleOperator;
+import io.github.jacopocarlini.fffp.entity.Target;
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.Value;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.bson.types.Decimal128;
+
+/**
+ * Compiled form of a {@link Target}. In-lists become hash sets and prefixes and suffixes become
+ * tries, so the cost of a match depends on the number of rules and not on the size of the lists;
+ * the in-lists, prefixes and suffixes of the same attribute combined by an {@code OR} are merged
+ * into a single lookup. A filter that only lists literal alternatives, such as {@code
+ * ^(alice|bob)$}, is also turned into a hash set. Segments are looked up by name at every
+ * evaluation through the {@link SegmentLookup} of the provider.
+ */
+abstract class TargetMatcher {
+
+  abstract boolean matches(EvaluationContext ctx, SegmentLookup segments);
+
+  /**
+   * @throws IllegalArgumentException if the filter or the rule of the target is not valid
+   */
+  static TargetMatcher compile(Target target) {
+    TargetMatcher filter = target.getFilter() == null ? null : compileFilter(target.getFilter());
+    TargetMatcher rule = target.getRule() == null ? null : compile(target.getRule());
+    if (filter == null && rule == null) {
+      throw new IllegalArgumentException("Invalid target: set a filter or a rule");
+    }
+    if (filter == null || rule == null) {
+      return filter == null ? rule : filter;
+    }
+    return new All(new TargetMatcher[] {filter, rule});
+  }
+
+  private static TargetMatcher compileFilter(String filter) {
+    Set<String> literals = literalAlternatives(filter);
+    if (literals != null) {
+      return new Attribute(Rule.TARGETING_KEY, literals::contains);
+    }
+    try {
+      Pattern pattern = Pattern.compile(filter);
+      return new Attribute(Rule.TARGETING_KEY, key -> pattern.matcher(key).find());
+    } catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException("Invalid target filter: " + filter, e);
+    }
+  }
+
+  /**
+   * @return the alternatives of a regex that matches exactly one of them, such as {@code
+   *     ^(?:a|b)$}, or null if the regex is anything else. The alternatives must be grouped: an
+   *     ungrouped {@code ^a|b$} means "starts with a or ends with b" and stays a regex
+   */
+  static Set<String> literalAlternatives(String regex) {
+    if (regex.length() < 2 || !regex.startsWith("^") || !regex.endsWith("$")) {
+      return null;
+    }
+    String body = regex.substring(1, regex.length() - 1);
+    if (body.startsWith("(?:") && body.endsWith(")")) {
+      body = body.substring(3, body.length() - 1);
+    } else if (body.startsWith("(") && body.endsWith(")")) {
+      body = body.substring(1, body.length() - 1);
+    } else if (body.indexOf('|') >= 0) {
+      return null;
+    }
+    for (int i = 0; i < body.length(); i++) {
+      if ("\\^$.?*+()[]{}".indexOf(body.charAt(i)) >= 0) {
+        return null;
+      }
+    }
+    return Set.copyOf(new HashSet<>(Arrays.asList(body.split("\\|", -1))));
+  }
+
+  /**
+   * @throws IllegalArgumentException if the rule is not valid
+   */
+  static TargetMatcher compile(Rule rule) {
+    if (rule.getOperator() == null) {
+      throw new IllegalArgumentException("Invalid target rule: operator not present");
+    }
+    return switch (rule.getOperator()) {
+      case AND ->
+          new All(nested(rule).stream().map(TargetMatcher::compile).toArray(TargetMatcher[]::new));
+      case OR -> compileOr(nested(rule));
+      case EQUALS, IN -> new Attribute(attribute(rule), Set.copyOf(strings(rule))::contains);
+      case STARTS_WITH ->
+          new Attribute(attribute(rule), StringTrie.ofPrefixes(strings(rule))::matches);
+      case ENDS_WITH ->
+          new Attribute(attribute(rule), StringTrie.ofSuffixes(strings(rule))::matches);
+      case MATCHES -> {
+        Pattern pattern = pattern(rule);
+        yield new Attribute(attribute(rule), value -> pattern.matcher(value).find());
+      }
+      case RANGE -> new Attribute(attribute(rule), numberRange(rule));
+      case SEMVER_RANGE -> new Attribute(attribute(rule), versionRange(rule));
+      case IN_SEGMENT -> new Attribute(attribute(rule), strings(rule).toArray(String[]::new));
+    };
+  }
+
+  /** Merges the in-lists, prefixes and suffixes of each attribute, which are tried first. */
+  private static TargetMatcher compileOr(List<Rule> rules) {
+    Map<String, Set<String>> values = new LinkedHashMap<>();
+    Map<String, List<String>> prefixes = new LinkedHashMap<>();
+    Map<String, List<String>> suffixes = new LinkedHashMap<>();
+    List<TargetMatcher> others = new ArrayList<>();
+    for (Rule rule : rules) {
+      if (rule.getOperator() == RuleOperator.EQUALS || rule.getOperator() == RuleOperator.IN) {
+        values.computeIfAbsent(attribute(rule), key -> new HashSet<>()).addAll(strings(rule));
+      } else if (rule.getOperator() == RuleOperator.STARTS_WITH) {
+        prefixes.computeIfAbsent(attribute(rule), key -> new ArrayList<>()).addAll(strings(rule));
+      } else if (rule.getOperator() == RuleOperator.ENDS_WITH) {
+        suffixes.computeIfAbsent(attribute(rule), key -> new ArrayList<>()).addAll(strings(rule));
+      } else {
+        others.add(compile(rule));
+      }
+    }
+    List<TargetMatcher> matchers = new ArrayList<>();
+    values.forEach(
+        (attribute, set) -> matchers.add(new Attribute(attribute, Set.copyOf(set)::contains)));
+    prefixes.forEach(
+        (attribute, list) ->
+            matchers.add(new Attribute(attribute, StringTrie.ofPrefixes(list)::matches)));
+    suffixes.forEach(
+        (attribute, list) ->
+            matchers.add(new Attribute(attribute, StringTrie.ofSuffixes(list)::matches)));
+    matchers.addAll(others);
+    return matchers.size() == 1
+        ? matchers.get(0)
+        : new Any(matchers.toArray(TargetMatcher[]::new));
+  }
+
+  private static List<Rule> nested(Rule rule) {
+    if (rule.getRules() == null || rule.getRules().isEmpty()) {
+      throw new IllegalArgumentException(
+          "Invalid target rule: " + rule.getOperator() + " without nested rules");
+    }
+    for (Rule nested : rule.getRules()) {
+      if (nested == null) {
+        throw new IllegalArgumentException("Invalid target rule: null nested rule");
+      }
+    }
+    return rule.getRules();
+  }
+
+  private static String attribute(Rule rule) {
+    if (rule.getAttribute() == null || rule.getAttribute().isBlank()) {
+      throw new IllegalArgumentException(
+          "Invalid target rule: " + rule.getOperator() + " without attribute");
+    }
+    return rule.getAttribute();
+  }
+
+  private static List<String> strings(Rule rule) {
+    List<Object> values = rule.getValues();
+    if (values == null
+        || values.isEmpty()
+        || rule.getOperator() == RuleOperator.EQUALS && values.size() != 1) {
+      throw new IllegalArgumentException(
+          "Invalid target rule: "
+              + rule.getOperator()
+              + (rule.getOperator() == RuleOperator.EQUALS
+                  ? " needs one value"
+                  : " without values"));
+    }
+    var strings = new ArrayList<String>(values.size());
+    for (Object value : values) {
+      strings.add(canonical(value));
+    }
+    return strings;
+  }
+
+  private static Pattern pattern(Rule rule) {
+    List<String> values = strings(rule);
+    if (values.size() != 1) {
+      throw new IllegalArgumentException("Invalid target rule: MATCHES needs one value");
+    }
+    try {
+      return Pattern.compile(values.get(0));
+    } catch (PatternSyntaxException e) {
+      throw new IllegalArgumentException("Invalid target rule: " + e.getDescription(), e);
+    }
+  }
+
+  private static Predicate<String> numberRange(Rule rule) {
+    BigDecimal min = rule.getMin() == null ? null : number(canonical(rule.getMin()));
+    BigDecimal max = rule.getMax() == null ? null : number(canonical(rule.getMax()));
+    if (min == null && max == null) {
+      throw new IllegalArgumentException("Invalid target rule: RANGE without bounds");
+    }
+    return value -> {
+      BigDecimal number;
+      try {
+        number = new BigDecimal(value);
+      } catch (NumberFormatException e) {
+        return false;
+      }
+      return (min == null || number.compareTo(min) >= 0)
+          && (max == null || number.compareTo(max) < 0);
+    };
+  }
+
+  private static BigDecimal number(String value) {
+    try {
+      return new BigDecimal(value);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid target rule: " + value + " is not a number");
+    }
+  }
+
+  private static Predicate<String> versionRange(Rule rule) {
+    SemanticVersion min =
+        rule.getMin() == null ? null : SemanticVersion.parse(canonical(rule.getMin()));
+    SemanticVersion max =
+        rule.getMax() == null ? null : SemanticVersion.parse(canonical(rule.getMax()));
+    if (min == null && max == null) {
+      throw new IllegalArgumentException("Invalid target rule: SEMVER_RANGE without bounds");
+    }
+    return value -> {
+      SemanticVersion version;
+      try {
+        version = SemanticVersion.parse(value);
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+      return (min == null || version.compareTo(min) >= 0)
+          && (max == null || version.compareTo(max) < 0);
+    };
+  }
+
+  /** The form in which the values are compared: numbers without trailing zeros. */
+  static String canonical(Object value) {
+    if (value instanceof String string) {
+      return string;
+    }
+    if (value instanceof Integer || value instanceof Long) {
+      return value.toString();
+    }
+    if (value instanceof Decimal128 decimal) {
+      return canonical(decimal.bigDecimalValue());
+    }
+    if (value instanceof Number number) {
+      try {
+        return new BigDecimal(number.toString()).stripTrailingZeros().toPlainString();
+      } catch (NumberFormatException e) {
+        // NaN and infinities
+        return number.toString();
+      }
+    }
+    if (value instanceof Boolean) {
+      return value.toString();
+    }
+    throw new IllegalArgumentException("Invalid target rule: unsupported value " + value);
+  }
+
+  /** @return the canonical form of a context value, or null if it cannot be compared */
+  private static String canonicalOf(Value value) {
+    if (value.isString()) {
+      return value.asString();
+    }
+    if (value.isNumber() || value.isBoolean()) {
+      return canonical(value.asObject());
+    }
+    if (value.isInstant()) {
+      return value.asInstant().toString();
+    }
+    return null;
+  }
+
+  /** Tests one attribute of the context; a list attribute matches if one of its elements does. */
+  private static final class Attribute extends TargetMatcher {
+    private final String name;
+    private final Predicate<String> predicate;
+    // the segments of IN_SEGMENT, tested instead of the predicate
+    private final String[] segmentNames;
+
+    Attribute(String name, Predicate<String> predicate) {
+      this.name = name;
+      this.predicate = predicate;
+      this.segmentNames = null;
+    }
+
+    Attribute(String name, String[] segmentNames) {
+      this.name = name;
+      this.predicate = null;
+      this.segmentNames = segmentNames;
+    }
+
+    @Override
+    boolean matches(EvaluationContext ctx, SegmentLookup segments) {
+      if (Rule.TARGETING_KEY.equals(name)) {
+        String targetingKey = ctx.getTargetingKey();
+        return targetingKey != null && test(targetingKey, segments);
+      }
+      Value value = ctx.getValue(name);
+      if (value == null || value.isNull()) {
+        return false;
+      }
+      if (value.isList()) {
+        for (Value element : value.asList()) {
+          String canonical = element == null ? null : canonicalOf(element);
+          if (canonical != null && test(canonical, segments)) {
+            return true;
+          }
+        }
+        return false;
+      }
+      String canonical = canonicalOf(value);
+      return canonical != null && test(canonical, segments);
+    }
+
+    private boolean test(String value, SegmentLookup segments) {
+      if (segmentNames == null) {
+        return predicate.test(value);
+      }
+      for (String segment : segmentNames) {
+        if (segments.contains(segment, value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  private static final class All extends TargetMatcher {
+    private final TargetMatcher[] matchers;
+
+    All(TargetMatcher[] matchers) {
+      this.matchers = matchers;
+    }
+
+    @Override
+    boolean matches(EvaluationContext ctx, SegmentLookup segments) {
+      for (TargetMatcher matcher : matchers) {
+        if (!matcher.matches(ctx, segments)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class Any extends TargetMatcher {
+    private final TargetMatcher[] matchers;
+
+    Any(TargetMatcher[] matchers) {
+      this.matchers = matchers;
+    }
+
+    @Override
+    boolean matches(EvaluationContext ctx, SegmentLookup segments) {
+      for (TargetMatcher matcher : matchers) {
+        if (matcher.matches(ctx, segments)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
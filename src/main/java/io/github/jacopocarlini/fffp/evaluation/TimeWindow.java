@@ -0,0 +1,104 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.entity.RecurringWindow;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import org.springframework.scheduling.support.CronExpression;
+
+/**
+ * The time window of a flag: an optional absolute range, both bounds included and each one
+ * optional, and an optional {@link RecurringWindow}. The flag is active when both contain the
+ * current time.
+ */
+public final class TimeWindow {
+
+  private final long start;
+  private final long end;
+  private final CronExpression cron;
+  private final long duration;
+  private final ZoneId zone;
+
+  private TimeWindow(Flag flag) {
+    start =
+        flag.getTimeWindowStart() == null
+            ? Long.MIN_VALUE
+            : flag.getTimeWindowStart().toInstant().toEpochMilli();
+    end =
+        flag.getTimeWindowEnd() == null
+            ? Long.MAX_VALUE
+            : flag.getTimeWindowEnd().toInstant().toEpochMilli();
+    RecurringWindow recurring = flag.getRecurringWindow();
+    if (recurring == null) {
+      cron = null;
+      duration = 0;
+      zone = ZoneOffset.UTC;
+    } else {
+      if (recurring.getCron() == null) {
+        throw new IllegalArgumentException("Recurring window cron not present");
+      }
+      if (recurring.getDuration() == null
+          || recurring.getDuration().isNegative()
+          || recurring.getDuration().isZero()) {
+        throw new IllegalArgumentException("Recurring window duration must be positive");
+      }
+      cron = CronExpression.parse(recurring.getCron());
+      duration = recurring.getDuration().toMillis();
+      zone = recurring.getZone() == null ? ZoneOffset.UTC : ZoneId.of(recurring.getZone());
+    }
+  }
+
+  /**
+   * @return the window of the flag, or null if the flag has no window
+   * @throws IllegalArgumentException if the recurring window is not valid
+   * @throws java.time.DateTimeException if the zone of the recurring window is not valid
+   */
+  public static TimeWindow of(Flag flag) {
+    if (flag.getTimeWindowStart() == null
+        && flag.getTimeWindowEnd() == null
+        && flag.getRecurringWindow() == null) {
+      return null;
+    }
+    return new TimeWindow(flag);
+  }
+
+  boolean isActive(long now) {
+    if (now < start || now > end) {
+      return false;
+    }
+    if (cron == null) {
+      return true;
+    }
+    // the first occurrence that is still open at now, if it has already started
+    long occurrence = nextOccurrence(now - duration);
+    return occurrence <= now;
+  }
+
+  /**
+   * @return the first time after {@code now} when {@link #isActive(long)} may change, or {@link
+   *     Long#MAX_VALUE}
+   */
+  long nextBoundary(long now) {
+    long next = Long.MAX_VALUE;
+    if (start > now) {
+      next = start;
+    }
+    if (end < Long.MAX_VALUE && end >= now) {
+      next = Math.min(next, end + 1);
+    }
+    if (cron != null && now <= end) {
+      long occurrence = nextOccurrence(now - duration);
+      // the end of the open occurrence, or the start of the next one
+      next = Math.min(next, occurrence <= now ? occurrence + duration : occurrence);
+    }
+    return next;
+  }
+
+  /** The first occurrence strictly after the given time, or {@link Long#MAX_VALUE}. */
+  private long nextOccurrence(long after) {
+    ZonedDateTime next = cron.next(Instant.ofEpochMilli(after).atZone(zone));
+    return next == null ? Long.MAX_VALUE : next.toInstant().toEpochMilli();
+  }
+}
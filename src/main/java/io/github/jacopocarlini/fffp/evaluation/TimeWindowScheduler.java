@@ -0,0 +1,108 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import io.github.jacopocarlini.fffp.util.HashedTimerWheel;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the time window state of the cached flags up to date. The next boundary of every tracked
+ * flag is scheduled on a {@link HashedTimerWheel}; when it is reached the state of the flag is
+ * flipped and, if the flag entered or left its window, the listener is notified with its key.
+ * Evaluating a tracked flag only reads its precomputed state.
+ */
+public class TimeWindowScheduler implements AutoCloseable {
+
+  private static final Duration TICK = Duration.ofMillis(100);
+  private static final int WHEEL_SIZE = 512;
+
+  private final Consumer<String> listener;
+  private final Map<String, Tracked> tracked = new HashMap<>();
+  private HashedTimerWheel wheel;
+  private boolean closed;
+
+  /**
+   * @param listener called on the wheel thread with the key of a flag that entered or left its
+   *     time window
+   */
+  public TimeWindowScheduler(Consumer<String> listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Starts tracking the flag, replacing the previous version with the same key. Flags without a
+   * valid time window are only untracked.
+   */
+  public synchronized void track(CompiledFlag flag) {
+    Tracked current = tracked.get(flag.getFlagKey());
+    if (current != null && current.flag == flag) {
+      return;
+    }
+    untrack(flag.getFlagKey());
+    if (closed || !flag.hasTimeWindow()) {
+      return;
+    }
+    flag.updateTimeWindow(System.currentTimeMillis());
+    var entry = new Tracked(flag);
+    tracked.put(flag.getFlagKey(), entry);
+    scheduleNext(entry);
+  }
+
+  public synchronized void untrack(String flagKey) {
+    Tracked entry = tracked.remove(flagKey);
+    if (entry != null && entry.timeout != null) {
+      entry.timeout.cancel();
+    }
+  }
+
+  /** @return the number of flags whose window is tracked */
+  public synchronized int size() {
+    return tracked.size();
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    tracked.clear();
+    if (wheel != null) {
+      wheel.close();
+      wheel = null;
+    }
+  }
+
+  private void scheduleNext(Tracked entry) {
+    long boundary = entry.flag.getNextTimeWindowBoundary();
+    if (boundary == Long.MAX_VALUE) {
+      entry.timeout = null;
+      return;
+    }
+    if (wheel == null) {
+      wheel = new HashedTimerWheel("fffp-time-windows", TICK, WHEEL_SIZE);
+    }
+    entry.timeout = wheel.schedule(() -> onBoundary(entry), boundary);
+  }
+
+  private void onBoundary(Tracked entry) {
+    boolean changed;
+    synchronized (this) {
+      if (tracked.get(entry.flag.getFlagKey()) != entry) {
+        return;
+      }
+      changed = entry.flag.updateTimeWindow(System.currentTimeMillis());
+      scheduleNext(entry);
+    }
+    if (changed) {
+      listener.accept(entry.flag.getFlagKey());
+    }
+  }
+
+  private static final class Tracked {
+    private final CompiledFlag flag;
+    private HashedTimerWheel.Timeout timeout;
+
+    private Tracked(CompiledFlag flag) {
+      this.flag = flag;
+    }
+  }
+}
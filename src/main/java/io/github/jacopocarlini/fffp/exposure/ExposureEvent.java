@@ -0,0 +1,14 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import java.time.Instant;
+import lombok.Value;
+
+/** A target has been served a variant of a flag. */
+@Value
+public class ExposureEvent {
+  String flagKey;
+  String targetKey;
+  String variant;
+  String reason;
+  Instant timestamp;
+}
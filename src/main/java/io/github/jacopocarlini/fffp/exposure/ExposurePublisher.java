@@ -0,0 +1,184 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import io.github.jacopocarlini.fffp.cache.BoundedCache;
+import io.github.jacopocarlini.fffp.config.ExposureConfig;
+import io.github.jacopocarlini.fffp.config.ExposureOverflowPolicy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes the exposure events without blocking the evaluations: events go to a bounded ring
+ * buffer and a background thread writes them to the sink in batches, when a batch is full or the
+ * flush interval has elapsed. Closing the publisher writes the events still in the buffer.
+ */
+@Slf4j
+public class ExposurePublisher implements AutoCloseable {
+  private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+  private final ExposureSink sink;
+  private final ExposureRingBuffer buffer;
+  private final BoundedCache<ExposureKey, Boolean> recentExposures;
+  private final int batchSize;
+  private final long flushIntervalNanos;
+  private final ExposureOverflowPolicy overflowPolicy;
+  private final long offerTimeoutNanos;
+  private final Thread drainer;
+
+  private final LongAdder published = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder failed = new LongAdder();
+
+  // producers between the running check and the end of their offer
+  private final AtomicInteger publishing = new AtomicInteger();
+
+  // cleared first, to stop accepting events
+  private volatile boolean running = true;
+  // cleared once no producer can add events anymore, to let the drainer write the last ones
+  private volatile boolean draining = true;
+
+  public ExposurePublisher(ExposureSink sink, ExposureConfig config) {
+    this.sink = sink;
+    this.buffer = new ExposureRingBuffer(config.getBufferSize());
+    this.recentExposures =
+        config.getDedupWindow().isZero()
+            ? null
+            : new BoundedCache<>(config.getDedupCacheSize(), config.getDedupWindow());
+    this.batchSize = Math.max(1, config.getBatchSize());
+    this.flushIntervalNanos = config.getFlushInterval().toNanos();
+    this.overflowPolicy = config.getOverflowPolicy();
+    this.offerTimeoutNanos = config.getOfferTimeout().toNanos();
+    this.drainer = new Thread(this::drain, "fffp-exposure-drainer");
+    this.drainer.setDaemon(true);
+    this.drainer.start();
+  }
+
+  /** Publishes the exposure, unless it is a repetition within the dedup window. */
+  public void publish(String flagKey, String targetKey, String variant, String reason) {
+    publishing.incrementAndGet();
+    try {
+      if (!running) {
+        dropped.increment();
+        return;
+      }
+      publishEvent(flagKey, targetKey, variant, reason);
+    } finally {
+      publishing.decrementAndGet();
+    }
+  }
+
+  private void publishEvent(String flagKey, String targetKey, String variant, String reason) {
+    ExposureKey key = null;
+    if (recentExposures != null) {
+      key = new ExposureKey(flagKey, targetKey, variant);
+      if (recentExposures.get(key) != null) {
+        deduplicated.increment();
+        return;
+      }
+    }
+
+    var event = new ExposureEvent(flagKey, targetKey, variant, reason, Instant.now());
+    if (buffer.offer(event) || overflowPolicy == ExposureOverflowPolicy.BLOCK && offer(event)) {
+      // only an exposure actually published deduplicates the next ones
+      if (key != null) {
+        recentExposures.put(key, Boolean.TRUE);
+      }
+      published.increment();
+      if (buffer.size() >= batchSize) {
+        LockSupport.unpark(drainer);
+      }
+    } else {
+      dropped.increment();
+    }
+  }
+
+  public ExposureStats stats() {
+    return new ExposureStats(
+        published.sum(),
+        deduplicated.sum(),
+        dropped.sum(),
+        written.sum(),
+        failed.sum(),
+        buffer.size());
+  }
+
+  /** Stops accepting events and waits for the buffered ones to be written. */
+  @Override
+  public void close() {
+    running = false;
+    // a producer that passed the running check completes its offer before the last drain; the
+    // blocked ones give up as soon as they see the flag
+    while (publishing.get() > 0) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+    }
+    draining = false;
+    LockSupport.unpark(drainer);
+    try {
+      drainer.join(CLOSE_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (drainer.isAlive()) {
+      log.warn("Exposure events not written within {} ms", CLOSE_TIMEOUT_MILLIS);
+    }
+  }
+
+  /** Retries the offer while the drainer frees some space, up to the offer timeout. */
+  private boolean offer(ExposureEvent event) {
+    long deadline = System.nanoTime() + offerTimeoutNanos;
+    LockSupport.unpark(drainer);
+    while (running && System.nanoTime() - deadline < 0) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+      if (buffer.offer(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void drain() {
+    var batch = new ArrayList<ExposureEvent>(batchSize);
+    long batchStart = System.nanoTime();
+    while (draining) {
+      buffer.drainTo(batch, batchSize - batch.size());
+      long now = System.nanoTime();
+      if (batch.isEmpty()) {
+        batchStart = now;
+        LockSupport.parkNanos(flushIntervalNanos);
+      } else if (batch.size() >= batchSize || now - batchStart >= flushIntervalNanos) {
+        write(batch);
+        batchStart = now;
+      } else {
+        LockSupport.parkNanos(flushIntervalNanos - (now - batchStart));
+      }
+    }
+    // closing: everything left is written, in full batches
+    do {
+      buffer.drainTo(batch, batchSize - batch.size());
+      write(batch);
+    } while (buffer.size() > 0);
+  }
+
+  private void write(List<ExposureEvent> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      sink.write(List.copyOf(batch));
+      written.add(batch.size());
+    } catch (RuntimeException e) {
+      failed.add(batch.size());
+      log.warn("Unable to write {} exposure events", batch.size(), e);
+    }
+    batch.clear();
+  }
+
+  private record ExposureKey(String flagKey, String targetKey, String variant) {}
+}
@@ -0,0 +1,78 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer with many producers and a single consumer. Every slot has a
+ * sequence number telling whether it is free for the producer of a given lap or filled for the
+ * consumer, so producers only contend on one compare-and-set of the tail.
+ */
+final class ExposureRingBuffer {
+  private final ExposureEvent[] events;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  private volatile long head;
+
+  ExposureRingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    events = new ExposureEvent[size];
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    mask = size - 1;
+  }
+
+  /**
+   * @return false if the buffer is full
+   */
+  boolean offer(ExposureEvent event) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) position & mask;
+      long difference = sequences.getAcquire(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          events[index] = event;
+          sequences.setRelease(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * Moves up to {@code max} events to the list. Must be called by one thread at a time.
+   *
+   * @return the number of events moved
+   */
+  int drainTo(List<ExposureEvent> target, int max) {
+    long position = head;
+    int drained = 0;
+    while (drained < max) {
+      int index = (int) position & mask;
+      if (sequences.getAcquire(index) != position + 1) {
+        break;
+      }
+      target.add(events[index]);
+      events[index] = null;
+      sequences.setRelease(index, position + mask + 1);
+      position++;
+      drained++;
+    }
+    head = position;
+    return drained;
+  }
+
+  int size() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+}
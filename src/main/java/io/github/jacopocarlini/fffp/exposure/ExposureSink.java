@@ -0,0 +1,15 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import java.util.List;
+
+/** Destination of the exposure events, called by a single background thread. */
+public interface ExposureSink {
+
+  /**
+   * Writes a batch of events.
+   *
+   * @throws RuntimeException if the batch could not be written; the events are then counted as
+   *     failed and not retried
+   */
+  void write(List<ExposureEvent> events);
+}
@@ -0,0 +1,25 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import lombok.Value;
+
+/** Point in time counters of the exposure pipeline. */
+@Value
+public class ExposureStats {
+  /** Events accepted in the buffer. */
+  long publishedCount;
+
+  /** Events skipped because the same exposure was published within the dedup window. */
+  long deduplicatedCount;
+
+  /** Events dropped because the buffer was full. */
+  long droppedCount;
+
+  /** Events written by the sink. */
+  long writtenCount;
+
+  /** Events lost because the sink failed. */
+  long failedCount;
+
+  /** Events waiting in the buffer. */
+  long pendingCount;
+}
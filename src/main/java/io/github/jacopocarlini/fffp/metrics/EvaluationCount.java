@@ -0,0 +1,12 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import lombok.Value;
+
+/** Number of evaluations of a flag that returned the given variant for the given reason. */
+@Value
+public class EvaluationCount {
+  String flagKey;
+  String variant;
+  String reason;
+  long count;
+}
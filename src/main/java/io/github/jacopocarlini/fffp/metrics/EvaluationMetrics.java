@@ -0,0 +1,156 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the evaluations. Counting an evaluation costs two map
+ * lookups and a {@link LongAdder} increment; latencies are measured only for a sample of the
+ * evaluations, so the clock is not read on every call.
+ *
+ * <p>Flag keys come from the callers, so the evaluations of missing flags are counted together
+ * under {@link #UNKNOWN_FLAG}, and so are the evaluations of any flag key beyond the first {@value
+ * #MAX_FLAG_KEYS}.
+ */
+public class EvaluationMetrics {
+  /** Flag key of the evaluations of missing flags. */
+  public static final String UNKNOWN_FLAG = "(unknown)";
+
+  /** Reason of the evaluations of missing flags. */
+  public static final String FLAG_NOT_FOUND = "flag_not_found";
+
+  static final int MAX_FLAG_KEYS = 10_000;
+  private static final String NONE = "";
+
+  private final double sampleRate;
+
+  // flag key -> reason -> variant -> count
+  private final Map<String, Map<String, Map<String, LongAdder>>> counters =
+      new ConcurrentHashMap<>();
+
+  private final LatencyHistogram repositoryRead = new LatencyHistogram();
+  private final LatencyHistogram evaluation = new LatencyHistogram();
+  private final LatencyHistogram total = new LatencyHistogram();
+  private final ThreadLocal<Timer> timers = ThreadLocal.withInitial(Timer::new);
+
+  /**
+   * @param sampleRate the fraction of the evaluations whose latency is measured, in [0, 1]
+   */
+  public EvaluationMetrics(double sampleRate) {
+    if (sampleRate < 0 || sampleRate > 1) {
+      throw new IllegalArgumentException("sampleRate must be between 0 and 1");
+    }
+    this.sampleRate = sampleRate;
+  }
+
+  /**
+   * @param flagKey the evaluated flag, or null if it does not exist
+   */
+  public void recordEvaluation(String flagKey, String variant, String reason) {
+    String key = flagKey == null || FLAG_NOT_FOUND.equals(reason) ? UNKNOWN_FLAG : flagKey;
+    Map<String, Map<String, LongAdder>> reasons = counters.get(key);
+    if (reasons == null) {
+      if (counters.size() >= MAX_FLAG_KEYS) {
+        key = UNKNOWN_FLAG;
+      }
+      reasons = counters.computeIfAbsent(key, k -> new ConcurrentHashMap<>());
+    }
+    reasons
+        .computeIfAbsent(orNone(reason), k -> new ConcurrentHashMap<>())
+        .computeIfAbsent(orNone(variant), k -> new LongAdder())
+        .increment();
+  }
+
+  /** Records the whole time of an evaluation measured outside of the provider. */
+  public void recordTotal(long nanos) {
+    total.record(nanos);
+  }
+
+  /**
+   * @return true if the current evaluation should be timed
+   */
+  public boolean sample() {
+    return sampleRate >= 1
+        || sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+  }
+
+  /**
+   * Starts timing an evaluation on the current thread, if it is sampled. The timer must be
+   * stopped on the same thread.
+   *
+   * @return the timer, or null if the evaluation is not sampled or another one is being timed
+   */
+  public Timer startTimer() {
+    if (!sample()) {
+      return null;
+    }
+    Timer timer = timers.get();
+    if (timer.running) {
+      return null;
+    }
+    timer.start();
+    return timer;
+  }
+
+  /**
+   * @return the timer of the evaluation running on the current thread, or null if it is not timed
+   */
+  public Timer currentTimer() {
+    Timer timer = timers.get();
+    return timer.running ? timer : null;
+  }
+
+  public MetricsSnapshot snapshot() {
+    var evaluations = new ArrayList<EvaluationCount>();
+    counters.forEach(
+        (flagKey, reasons) ->
+            reasons.forEach(
+                (reason, variants) ->
+                    variants.forEach(
+                        (variant, count) ->
+                            evaluations.add(
+                                new EvaluationCount(flagKey, variant, reason, count.sum())))));
+    evaluations.sort(
+        Comparator.comparing(EvaluationCount::getFlagKey)
+            .thenComparing(EvaluationCount::getReason)
+            .thenComparing(EvaluationCount::getVariant));
+    return new MetricsSnapshot(
+        evaluations, repositoryRead.snapshot(), evaluation.snapshot(), total.snapshot());
+  }
+
+  private static String orNone(String value) {
+    return value == null ? NONE : value;
+  }
+
+  /** Splits the time of one evaluation between repository reads and evaluation logic. */
+  public final class Timer {
+    private boolean running;
+    private long start;
+    private long readNanos;
+
+    private void start() {
+      running = true;
+      readNanos = 0;
+      start = System.nanoTime();
+    }
+
+    /** Adds the time of a repository read made by the evaluation. */
+    public void addRead(long nanos) {
+      readNanos += nanos;
+    }
+
+    public void stop() {
+      long elapsed = System.nanoTime() - start;
+      running = false;
+      if (readNanos > 0) {
+        repositoryRead.record(readNanos);
+      }
+      evaluation.record(elapsed - readNanos);
+      total.record(elapsed);
+    }
+  }
+}
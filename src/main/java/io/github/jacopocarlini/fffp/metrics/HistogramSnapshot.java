@@ -0,0 +1,71 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+/** The counts of a {@link LatencyHistogram} at a point in time. Values are in nanoseconds. */
+public final class HistogramSnapshot {
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final long max;
+
+  HistogramSnapshot(long[] counts, long sum, long max) {
+    this.counts = counts;
+    long total = 0;
+    for (long bucket : counts) {
+      total += bucket;
+    }
+    this.count = total;
+    this.sum = sum;
+    this.max = max;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public double getMean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  /**
+   * @param percentile a value in [0, 100]
+   * @return the value below which the given percentage of the recorded values falls, or 0 if
+   *     nothing has been recorded
+   */
+  public long valueAtPercentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(LatencyHistogram.highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  public long getP50() {
+    return valueAtPercentile(50);
+  }
+
+  public long getP99() {
+    return valueAtPercentile(99);
+  }
+
+  public long getP999() {
+    return valueAtPercentile(99.9);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "count=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns",
+        count, getMean(), getP50(), getP99(), getP999(), max);
+  }
+}
@@ -0,0 +1,71 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent log-linear histogram of durations in nanoseconds, in the style of HdrHistogram. Every
+ * power of two is split in 16 sub-buckets, so a recorded value is off by at most 1/16 (6%) of its
+ * magnitude, over the whole range of {@code long}. Recording is wait-free: the counts are spread
+ * over a few stripes so threads rarely update the same cache line.
+ */
+public final class LatencyHistogram {
+
+  static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  static final int HALF = SUB_BUCKETS / 2;
+  static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * HALF;
+
+  private static final int STRIPES = 8;
+
+  private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+  private final LongAdder sum = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  public LatencyHistogram() {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new AtomicLongArray(BUCKETS);
+    }
+  }
+
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    int stripe = (int) (Thread.currentThread().getId() * 0x9E3779B9L >>> 32) & (STRIPES - 1);
+    stripes[stripe].incrementAndGet(indexOf(value));
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public HistogramSnapshot snapshot() {
+    long[] counts = new long[BUCKETS];
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += stripe.get(i);
+      }
+    }
+    return new HistogramSnapshot(counts, sum.sum(), max.get());
+  }
+
+  static int indexOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKETS + (shift - 1) * HALF + (subBucket - HALF);
+  }
+
+  /**
+   * @return the highest value counted in the bucket
+   */
+  static long highestValueOf(int index) {
+    if (index < SUB_BUCKETS) {
+      return index;
+    }
+    int offset = index - SUB_BUCKETS;
+    int shift = offset / HALF + 1;
+    long subBucket = offset % HALF + HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
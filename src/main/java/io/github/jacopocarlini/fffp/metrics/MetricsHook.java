@@ -0,0 +1,66 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import dev.openfeature.sdk.ErrorCode;
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.FlagEvaluationDetails;
+import dev.openfeature.sdk.Hook;
+import dev.openfeature.sdk.HookContext;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * OpenFeature hook counting the evaluations by flag, variant and reason, and measuring a sample
+ * of them end to end, hooks and SDK included. It works with any provider; register it on the API
+ * or on a client:
+ *
+ * <pre>{@code
+ * MetricsHook metrics = new MetricsHook(0.01);
+ * OpenFeatureAPI.getInstance().addHooks(metrics);
+ * }</pre>
+ */
+@SuppressWarnings("rawtypes")
+public class MetricsHook implements Hook {
+  private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+  private final EvaluationMetrics metrics;
+  private final ThreadLocal<long[]> starts =
+      ThreadLocal.withInitial(() -> new long[] {NOT_SAMPLED});
+
+  /**
+   * @param sampleRate the fraction of the evaluations whose latency is measured, in [0, 1]
+   */
+  public MetricsHook(double sampleRate) {
+    this.metrics = new EvaluationMetrics(sampleRate);
+  }
+
+  @Override
+  public Optional<EvaluationContext> before(HookContext ctx, Map hints) {
+    if (metrics.sample()) {
+      starts.get()[0] = System.nanoTime();
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public void finallyAfter(HookContext ctx, FlagEvaluationDetails details, Map hints) {
+    long[] start = starts.get();
+    if (start[0] != NOT_SAMPLED) {
+      metrics.recordTotal(System.nanoTime() - start[0]);
+      start[0] = NOT_SAMPLED;
+    }
+    if (details != null) {
+      // other providers report a missing flag with the error code only
+      String flagKey =
+          details.getErrorCode() == ErrorCode.FLAG_NOT_FOUND ? null : details.getFlagKey();
+      metrics.recordEvaluation(flagKey, details.getVariant(), details.getReason());
+    }
+  }
+
+  /**
+   * @return the counts and the end to end latencies; the repository and evaluation phases are
+   *     not measured by the hook and are empty
+   */
+  public MetricsSnapshot snapshot() {
+    return metrics.snapshot();
+  }
+}
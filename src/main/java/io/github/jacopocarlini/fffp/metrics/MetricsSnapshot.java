@@ -0,0 +1,38 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import java.util.List;
+import lombok.Value;
+
+/**
+ * The metrics of the evaluations at a point in time. The counts are exact; the histograms only
+ * contain the sampled evaluations.
+ */
+@Value
+public class MetricsSnapshot {
+
+  /** Counts by flag, variant and reason, sorted by flag key. */
+  List<EvaluationCount> evaluations;
+
+  /** Time spent reading flags and assignments from the repositories, per sampled evaluation. */
+  HistogramSnapshot repositoryRead;
+
+  /** Time spent in the evaluation logic, repository reads excluded, per sampled evaluation. */
+  HistogramSnapshot evaluation;
+
+  /** Whole time of the sampled evaluations. */
+  HistogramSnapshot total;
+
+  public long getCount(String flagKey) {
+    return evaluations.stream()
+        .filter(count -> count.getFlagKey().equals(flagKey))
+        .mapToLong(EvaluationCount::getCount)
+        .sum();
+  }
+
+  public long getCount(String flagKey, String reason) {
+    return evaluations.stream()
+        .filter(count -> count.getFlagKey().equals(flagKey) && count.getReason().equals(reason))
+        .mapToLong(EvaluationCount::getCount)
+        .sum();
+  }
+}
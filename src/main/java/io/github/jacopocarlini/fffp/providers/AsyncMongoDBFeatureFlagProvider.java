@@ -0,0 +1,209 @@
+package io.github.jacopocarlini.fffp.providers;
+
+import com.mongodb.ConnectionString;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import io.github.jacopocarlini.fffp.repository.Storage;
+import io.github.jacopocarlini.fffp.repository.mongo.MongoStorage;
+import io.github.jacopocarlini.fffp.util.RequestCoalescer;
+import dev.openfeature.sdk.*;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Variant of {@link MongoDBFeatureFlagProviderExtended} whose methods return a {@link
+ * CompletableFuture} and never block the calling thread, for event loop based services.
+ *
+ * <p>Evaluations that only read memory (local evaluation, with the sticky assignment in the
+ * near-cache) complete on the calling thread. The others run on a pool with as many threads as
+ * the MongoDB connection pool has connections, so the pool is never oversubscribed. Concurrent
+ * first-time lookups of the same (flag, target) assignment share a single database call: the
+ * requests arriving while it is in flight wait for it without holding a thread, then read the
+ * stored assignment.
+ *
+ * <p>The evaluation semantics are those of {@link MongoDBFeatureFlagProvider}. A {@code Mono} can
+ * be obtained with {@code Mono.fromFuture}.
+ */
+public class AsyncMongoDBFeatureFlagProvider extends MongoDBFeatureFlagProviderExtended {
+  private static final int DEFAULT_POOL_SIZE = 100;
+
+  private final ExecutorService executor;
+  private final boolean ownsExecutor;
+  private final RequestCoalescer<AssignmentKey> assignmentLookups = new RequestCoalescer<>();
+
+  public AsyncMongoDBFeatureFlagProvider(String connectionString) {
+    this(connectionString, ProviderConfig.defaults());
+  }
+
+  public AsyncMongoDBFeatureFlagProvider(String connectionString, ProviderConfig config) {
+    this(
+        new MongoStorage(connectionString, config),
+        config,
+        newExecutor(poolSizeOf(connectionString)),
+        true);
+  }
+
+  /**
+   * @param executor runs the evaluations and the operations that access the storage; it is not
+   *     shut down with the provider
+   */
+  public AsyncMongoDBFeatureFlagProvider(
+      Storage storage, ProviderConfig config, ExecutorService executor) {
+    this(storage, config, executor, false);
+  }
+
+  private AsyncMongoDBFeatureFlagProvider(
+      Storage storage, ProviderConfig config, ExecutorService executor, boolean ownsExecutor) {
+    super(storage, config);
+    this.executor = executor;
+    this.ownsExecutor = ownsExecutor;
+  }
+
+  @Override
+  public Metadata getMetadata() {
+    return () -> "AsyncMongoDBFeatureFlagProvider";
+  }
+
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    if (ownsExecutor) {
+      executor.shutdown();
+    }
+  }
+
+  public CompletableFuture<ProviderEvaluation<Boolean>> getBooleanEvaluationAsync(
+      String flagKey, Boolean defaultValue, EvaluationContext ctx) {
+    return evaluationAsync(flagKey, ctx, () -> getBooleanEvaluation(flagKey, defaultValue, ctx));
+  }
+
+  public CompletableFuture<ProviderEvaluation<String>> getStringEvaluationAsync(
+      String flagKey, String defaultValue, EvaluationContext ctx) {
+    return evaluationAsync(flagKey, ctx, () -> getStringEvaluation(flagKey, defaultValue, ctx));
+  }
+
+  public CompletableFuture<ProviderEvaluation<Integer>> getIntegerEvaluationAsync(
+      String flagKey, Integer defaultValue, EvaluationContext ctx) {
+    return evaluationAsync(flagKey, ctx, () -> getIntegerEvaluation(flagKey, defaultValue, ctx));
+  }
+
+  public CompletableFuture<ProviderEvaluation<Double>> getDoubleEvaluationAsync(
+      String flagKey, Double defaultValue, EvaluationContext ctx) {
+    return evaluationAsync(flagKey, ctx, () -> getDoubleEvaluation(flagKey, defaultValue, ctx));
+  }
+
+  public CompletableFuture<ProviderEvaluation<Value>> getObjectEvaluationAsync(
+      String flagKey, Value defaultValue, EvaluationContext ctx) {
+    return evaluationAsync(flagKey, ctx, () -> getObjectEvaluation(flagKey, defaultValue, ctx));
+  }
+
+  public CompletableFuture<Map<String, ProviderEvaluation<?>>> evaluateAllAsync(
+      EvaluationContext ctx) {
+    return evaluateAllAsync(ctx, null);
+  }
+
+  public CompletableFuture<Map<String, ProviderEvaluation<?>>> evaluateAllAsync(
+      EvaluationContext ctx, Collection<String> flagKeys) {
+    return CompletableFuture.supplyAsync(() -> evaluateAll(ctx, flagKeys), executor);
+  }
+
+  public CompletableFuture<List<Flag>> getFlagsAsync() {
+    return CompletableFuture.supplyAsync(this::getFlags, executor);
+  }
+
+  public CompletableFuture<Flag> getFlagAsync(String flagKey) {
+    return supplyAsync(() -> getFlag(flagKey));
+  }
+
+  /** Non-blocking {@link #crateFlag}; validation errors complete the future exceptionally. */
+  public CompletableFuture<Void> createFlagAsync(Flag flag) {
+    return supplyAsync(
+        () -> {
+          crateFlag(flag);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> updateFlagAsync(String flagKey, Flag newFlag) {
+    return supplyAsync(
+        () -> {
+          updateFlag(flagKey, newFlag);
+          return null;
+        });
+  }
+
+  public CompletableFuture<Void> deleteFlagAsync(String flagKey) {
+    return supplyAsync(
+        () -> {
+          deleteFlag(flagKey);
+          return null;
+        });
+  }
+
+  private <T> CompletableFuture<ProviderEvaluation<T>> evaluationAsync(
+      String flagKey, EvaluationContext ctx, Supplier<ProviderEvaluation<T>> evaluation) {
+    String targetKey = ctx == null ? null : ctx.getTargetingKey();
+    if (isResolvableLocally(flagKey, targetKey)) {
+      return CompletableFuture.completedFuture(evaluation.get());
+    }
+    if (targetKey == null) {
+      return CompletableFuture.supplyAsync(evaluation, executor);
+    }
+    // the followers run once the assignment is stored, reading it instead of racing to write it
+    return assignmentLookups.submit(
+        new AssignmentKey(flagKey, targetKey),
+        () -> CompletableFuture.supplyAsync(evaluation, executor),
+        inFlight ->
+            inFlight
+                .handle((result, error) -> null)
+                .thenComposeAsync(
+                    ignored ->
+                        isResolvableLocally(flagKey, targetKey)
+                            ? CompletableFuture.completedFuture(evaluation.get())
+                            : CompletableFuture.supplyAsync(evaluation, executor),
+                    executor));
+  }
+
+  private <T> CompletableFuture<T> supplyAsync(Operation<T> operation) {
+    return CompletableFuture.supplyAsync(
+        () -> {
+          try {
+            return operation.run();
+          } catch (InvalidFeatureFlagException e) {
+            throw new CompletionException(e);
+          }
+        },
+        executor);
+  }
+
+  private static int poolSizeOf(String connectionString) {
+    Integer size = new ConnectionString(connectionString).getMaxConnectionPoolSize();
+    return size == null || size <= 0 ? DEFAULT_POOL_SIZE : size;
+  }
+
+  private static ExecutorService newExecutor(int threads) {
+    var counter = new AtomicInteger();
+    return Executors.newFixedThreadPool(
+        threads,
+        runnable -> {
+          var thread = new Thread(runnable, "fffp-async-" + counter.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @FunctionalInterface
+  private interface Operation<T> {
+    T run() throws InvalidFeatureFlagException;
+  }
+
+  private record AssignmentKey(String flagKey, String targetKey) {}
+}
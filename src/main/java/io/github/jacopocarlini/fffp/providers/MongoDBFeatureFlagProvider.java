@@ -3,34 +3,321 @@ package io.github.jacopocarlini.fffp.providers;
 import static io.github.jacopocarlini.fffp.util.ProviderUtility.*;
 import static io.github.jacopocarlini.fffp.util.Reason.*;
 
-import io.github.jacopocarlini.fffp.config.MongoClientManager;
-import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import io.github.jacopocarlini.fffp.cache.AssignmentCache;
+import io.github.jacopocarlini.fffp.cache.BoundedCache;
+import io.github.jacopocarlini.fffp.cache.CacheStats;
+import io.github.jacopocarlini.fffp.cache.FlagCache;
+import io.github.jacopocarlini.fffp.cache.FlagSnapshotFile;
+import io.github.jacopocarlini.fffp.config.AssignmentLayout;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
 import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.evaluation.CompiledFlag;
+import io.github.jacopocarlini.fffp.evaluation.CompiledVariant;
+import io.github.jacopocarlini.fffp.evaluation.EvaluationScope;
+import io.github.jacopocarlini.fffp.evaluation.SegmentLookup;
+import io.github.jacopocarlini.fffp.evaluation.TimeWindowScheduler;
 import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import io.github.jacopocarlini.fffp.exposure.ExposurePublisher;
+import io.github.jacopocarlini.fffp.exposure.ExposureSink;
+import io.github.jacopocarlini.fffp.exposure.ExposureStats;
+import io.github.jacopocarlini.fffp.metrics.EvaluationMetrics;
+import io.github.jacopocarlini.fffp.metrics.MetricsSnapshot;
 import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.AssignmentSweeper;
+import io.github.jacopocarlini.fffp.repository.FlagChangeListener;
 import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import io.github.jacopocarlini.fffp.repository.FlagSubscription;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import io.github.jacopocarlini.fffp.repository.Storage;
+import io.github.jacopocarlini.fffp.repository.mongo.MongoStorage;
+import io.github.jacopocarlini.fffp.segment.SegmentStats;
+import io.github.jacopocarlini.fffp.segment.SegmentStore;
+import io.github.jacopocarlini.fffp.util.DeadlineReader;
 import dev.openfeature.sdk.*;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
 
+@Slf4j
 public class MongoDBFeatureFlagProvider extends EventProvider {
 
   protected final FlagRepository flagRepository;
 
   protected final AssignedTargetRepository assignedTargetRepository;
 
-  private final MongoClientManager mongoClientManager;
+  protected final ProviderConfig config;
+
+  protected final FlagCache flagCache = new FlagCache();
+
+  protected final AssignmentCache assignmentCache;
+
+  protected final EvaluationMetrics metrics;
+
+  // deletes the assignments left behind by rollout changes and deleted flags
+  protected final AssignmentSweeper assignmentSweeper;
+
+  // the memo entry of a flag being evaluated, met again only through a cycle of prerequisites
+  private static final ProviderEvaluation<Object> EVALUATING =
+      ProviderEvaluation.builder().build();
+
+  private final Map<String, CompiledFlag> compiledFlags = new ConcurrentHashMap<>();
+
+  private final Storage storage;
+
+  private final FlagSnapshotFile snapshotFile;
+
+  // flips the time window state of the cached flags at their boundaries
+  private final TimeWindowScheduler timeWindowScheduler;
+
+  private FlagSubscription flagWatcher;
+
+  // bounds the storage reads of the evaluations, null without evaluation timeouts
+  private final DeadlineReader deadlineReader;
+
+  // the assignments last read, served when a read misses the evaluation timeout
+  private final BoundedCache<AssignmentKey, StaleAssignment> staleAssignments;
+
+  // the deadline of the evaluation running on the thread, if it has one
+  private final ThreadLocal<Deadline> deadlines = new ThreadLocal<>();
+
+  // the segments of the IN_SEGMENT rules, both null when they are disabled
+  protected volatile SegmentStore segmentStore;
+
+  protected volatile SegmentRepository segmentRepository;
+
+  private volatile ExposurePublisher exposurePublisher;
+
+  // true while the flags are served from the snapshot or the change stream is broken
+  private volatile boolean stale = false;
+
+  // true once PROVIDER_STALE has been emitted, until PROVIDER_READY is emitted again
+  private final AtomicBoolean staleReported = new AtomicBoolean();
+
+  private volatile boolean indexesVerified = false;
 
   public MongoDBFeatureFlagProvider(String connectionString) {
-    mongoClientManager = new MongoClientManager();
-    mongoClientManager.updateConnection(connectionString);
-    flagRepository = new FlagRepository(mongoClientManager);
-    assignedTargetRepository = new AssignedTargetRepository(mongoClientManager);
+    this(connectionString, ProviderConfig.defaults());
+  }
+
+  public MongoDBFeatureFlagProvider(String connectionString, ProviderConfig config) {
+    this(new MongoStorage(connectionString, config), config);
+  }
+
+  /**
+   * Creates a provider on top of the given storage backend, for example an {@link
+   * io.github.jacopocarlini.fffp.repository.embedded.EmbeddedStorage EmbeddedStorage}. The
+   * storage is closed when the provider is shut down.
+   */
+  public MongoDBFeatureFlagProvider(Storage storage, ProviderConfig config) {
+    this(storage.flagRepository(), storage.assignedTargetRepository(), config, storage);
+  }
+
+  /**
+   * Creates a provider on top of the given repositories. The provider does not own any
+   * connection, so closing the storage behind the repositories is up to the caller.
+   */
+  public MongoDBFeatureFlagProvider(
+      FlagRepository flagRepository,
+      AssignedTargetRepository assignedTargetRepository,
+      ProviderConfig config) {
+    this(flagRepository, assignedTargetRepository, config, null);
+  }
+
+  private MongoDBFeatureFlagProvider(
+      FlagRepository flagRepository,
+      AssignedTargetRepository assignedTargetRepository,
+      ProviderConfig config,
+      Storage storage) {
+    this.flagRepository = flagRepository;
+    this.assignedTargetRepository = assignedTargetRepository;
+    this.config = config;
+    this.storage = storage;
+    snapshotFile =
+        config.getSnapshotPath() != null ? new FlagSnapshotFile(config.getSnapshotPath()) : null;
+    assignmentCache =
+        config.getAssignmentCacheSize() > 0
+            ? new AssignmentCache(config.getAssignmentCacheSize(), assignmentCacheTtl(config))
+            : null;
+    metrics =
+        config.isMetricsEnabled() ? new EvaluationMetrics(config.getMetricsSampleRate()) : null;
+    timeWindowScheduler =
+        config.usesFlagCache() ? new TimeWindowScheduler(this::onTimeWindowChanged) : null;
+    assignmentSweeper =
+        new AssignmentSweeper(
+            assignedTargetRepository,
+            config.getAssignmentSweepBatchSize(),
+            config.getAssignmentSweepPause());
+    if (config.usesEvaluationTimeouts()) {
+      deadlineReader =
+          new DeadlineReader(
+              config.getEvaluationReadThreads(),
+              config.getCircuitBreakerThreshold(),
+              config.getCircuitBreakerOpenDuration());
+      // the stale assignments must outlive the near-cache entries
+      staleAssignments =
+          new BoundedCache<>(config.getStaleAssignmentsSize(), Duration.ofNanos(Long.MAX_VALUE));
+    } else {
+      deadlineReader = null;
+      staleAssignments = null;
+    }
+  }
+
+  @Override
+  public void initialize(EvaluationContext evaluationContext) throws Exception {
+    super.initialize(evaluationContext);
+    if (config.getExposures() != null) {
+      startExposures();
+    }
+    if (config.getSegmentRefreshInterval() != null) {
+      startSegments();
+    }
+    if (!config.usesFlagCache()) {
+      verifyIndexes();
+      return;
+    }
+
+    if (restoreSnapshot()) {
+      // MongoDB is not awaited: the change stream reconciles the cache as soon as it opens. The
+      // SDK marks the provider ready when this method returns, so the stale state is reported
+      // by the first evaluation or by the change stream, whichever comes first
+      stale = true;
+    } else {
+      verifyIndexes();
+      flagCache.reload(flagRepository.findAll());
+      scheduleSnapshot();
+    }
+    trackTimeWindows(flagCache.getAll().stream().map(CompiledFlag::getFlagKey).toList());
+    flagWatcher = flagRepository.watch(new CacheUpdater(), config.getChangeStreamRetryDelay());
   }
 
   @Override
   public void shutdown() {
     super.shutdown();
-    mongoClientManager.shutdown();
+    if (flagWatcher != null) {
+      flagWatcher.close();
+    }
+    if (exposurePublisher != null) {
+      exposurePublisher.close();
+    }
+    if (segmentStore != null) {
+      segmentStore.close();
+    }
+    if (timeWindowScheduler != null) {
+      timeWindowScheduler.close();
+    }
+    assignmentSweeper.close();
+    if (deadlineReader != null) {
+      deadlineReader.close();
+    }
+    if (snapshotFile != null) {
+      snapshotFile.close();
+    }
+    if (storage != null) {
+      storage.close();
+    }
+  }
+
+  /**
+   * The near-cache hits do not refresh the idle expiry of the assignments, so a cached assignment
+   * must be read again well before it could expire.
+   */
+  private static Duration assignmentCacheTtl(ProviderConfig config) {
+    Duration idleTtl = config.getAssignmentIdleTtl();
+    Duration ttl = config.getAssignmentCacheTtl();
+    if (idleTtl != null && ttl.compareTo(idleTtl.dividedBy(2)) > 0) {
+      log.warn(
+          "The assignment cache TTL {} is reduced to half the assignment idle TTL {}",
+          ttl,
+          idleTtl);
+      return idleTtl.dividedBy(2);
+    }
+    return ttl;
+  }
+
+  private void startExposures() {
+    if (storage == null) {
+      log.warn("Exposure events need a Storage, they are disabled");
+      return;
+    }
+    try {
+      ExposureSink sink = storage.exposureSink(config.getExposures().getCollection());
+      exposurePublisher = new ExposurePublisher(sink, config.getExposures());
+    } catch (UnsupportedOperationException e) {
+      log.warn("Exposure events are disabled: {}", e.getMessage());
+    }
+  }
+
+  private void startSegments() {
+    if (storage == null) {
+      log.warn("Segments need a Storage, they are disabled");
+      return;
+    }
+    try {
+      SegmentRepository repository = storage.segmentRepository();
+      try {
+        repository.ensureIndexes();
+      } catch (RuntimeException e) {
+        log.warn("Unable to verify the indexes of the segments", e);
+      }
+      var store =
+          new SegmentStore(
+              repository, config.getSegmentLookupCacheSize(), config.getSegmentLookupCacheTtl());
+      // the first load is awaited, so the targeting rules match as soon as the provider is ready
+      store.start(config.getSegmentRefreshInterval());
+      segmentRepository = repository;
+      segmentStore = store;
+    } catch (UnsupportedOperationException e) {
+      log.warn("Segments are disabled: {}", e.getMessage());
+    }
+  }
+
+  private SegmentLookup segments() {
+    SegmentStore store = segmentStore;
+    return store == null ? SegmentLookup.NONE : store;
+  }
+
+  private void verifyIndexes() {
+    try {
+      assignedTargetRepository.ensureIndexes();
+      indexesVerified = true;
+    } catch (RuntimeException e) {
+      log.warn("Unable to verify the indexes of the assignments collection", e);
+    }
+  }
+
+  private boolean restoreSnapshot() {
+    if (snapshotFile == null) {
+      return false;
+    }
+    try {
+      Optional<List<Flag>> flags = snapshotFile.read();
+      flags.ifPresent(flagCache::reload);
+      return flags.isPresent();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Unable to restore the flag snapshot {}", config.getSnapshotPath(), e);
+      return false;
+    }
+  }
+
+  private void scheduleSnapshot() {
+    if (snapshotFile != null) {
+      snapshotFile.scheduleWrite(
+          () -> flagCache.getAll().stream().map(CompiledFlag::getSource).toList());
+    }
   }
 
   @Override
@@ -70,17 +357,172 @@ public class MongoDBFeatureFlagProvider extends EventProvider {
 
   private <T> ProviderEvaluation<T> evaluation(
       String flagKey, T defaultValue, EvaluationContext ctx, Class<T> valueType) {
-    try {
-      Optional<Flag> optionalFlag = flagRepository.findFirstByFlagKey(flagKey);
+    if (stale) {
+      reportStale("Flags restored from the local snapshot");
+    }
+    if (EvaluationScope.current() == null) {
+      return evaluateAndRecord(flagKey, defaultValue, ctx, valueType);
+    }
+    // repeated within the scope: counted and exposed once
+    return EvaluationScope.memoize(
+        flagKey,
+        valueType,
+        ctx,
+        defaultValue,
+        () -> evaluateAndRecord(flagKey, defaultValue, ctx, valueType));
+  }
 
-      if (optionalFlag.isEmpty()) {
-        return createDefaultEvaluation(defaultValue, "flag_not_found");
+  private <T> ProviderEvaluation<T> evaluateAndRecord(
+      String flagKey, T defaultValue, EvaluationContext ctx, Class<T> valueType) {
+    ProviderEvaluation<T> result;
+    if (metrics == null) {
+      result = evaluate(flagKey, defaultValue, ctx, valueType);
+    } else {
+      EvaluationMetrics.Timer timer = metrics.startTimer();
+      try {
+        result = evaluate(flagKey, defaultValue, ctx, valueType);
+      } finally {
+        if (timer != null) {
+          timer.stop();
+        }
       }
+      metrics.recordEvaluation(flagKey, result.getVariant(), result.getReason());
+    }
+
+    // only the evaluations that served a variant of the flag are exposures
+    if (exposurePublisher != null && !DEFAULT_VALUE.name().equals(result.getVariant())) {
+      exposurePublisher.publish(
+          flagKey,
+          ctx == null ? null : ctx.getTargetingKey(),
+          result.getVariant(),
+          result.getReason());
+    }
+    return result;
+  }
+
+  private <T> ProviderEvaluation<T> evaluate(
+      String flagKey, T defaultValue, EvaluationContext ctx, Class<T> valueType) {
+    Duration timeout = deadlineReader == null ? null : config.evaluationTimeoutOf(flagKey);
+    if (timeout == null) {
+      return evaluateFlag(flagKey, defaultValue, ctx, valueType);
+    }
+    var deadline = new Deadline(System.nanoTime() + timeout.toNanos());
+    deadlines.set(deadline);
+    try {
+      ProviderEvaluation<T> result = evaluateFlag(flagKey, defaultValue, ctx, valueType);
+      return deadline.stale ? staleEvaluation(result) : result;
+    } finally {
+      deadlines.remove();
+    }
+  }
 
-      Flag flag = optionalFlag.get();
+  private <T> ProviderEvaluation<T> evaluateFlag(
+      String flagKey, T defaultValue, EvaluationContext ctx, Class<T> valueType) {
+    Optional<CompiledFlag> optionalFlag;
+    try {
+      optionalFlag = findFlag(flagKey);
+    } catch (StorageTimeoutException e) {
+      return createDefaultEvaluation(defaultValue, TIMEOUT.name());
+    } catch (Exception e) {
+      return createDefaultEvaluation(defaultValue, INVALID_FLAG_DATA.name());
+    }
+
+    if (optionalFlag.isEmpty()) {
+      return createDefaultEvaluation(defaultValue, "flag_not_found");
+    }
+    return evaluation(optionalFlag.get(), defaultValue, ctx, valueType, null, null);
+  }
+
+  /**
+   * Evaluates all the flags, or the given subset, for one context. The flags are read with a
+   * single query and the sticky assignments of the targeting key with another one; every flag is
+   * then evaluated exactly as a single evaluation would do, except that a flag that is also the
+   * prerequisite of another one is evaluated only once. Values are not converted, since the
+   * expected type of each flag is not known.
+   *
+   * @param flagKeys the flags to evaluate, or null for all the flags
+   * @return the evaluations by flag key
+   */
+  protected Map<String, ProviderEvaluation<?>> evaluateAll(
+      EvaluationContext ctx, Collection<String> flagKeys) {
+    if (stale) {
+      reportStale("Flags restored from the local snapshot");
+    }
+    Duration timeout = deadlineReader == null ? null : config.getEvaluationTimeout();
+    if (timeout == null) {
+      return evaluateFlags(ctx, flagKeys);
+    }
+    deadlines.set(new Deadline(System.nanoTime() + timeout.toNanos()));
+    try {
+      return evaluateFlags(ctx, flagKeys);
+    } finally {
+      deadlines.remove();
+    }
+  }
+
+  private Map<String, ProviderEvaluation<?>> evaluateFlags(
+      EvaluationContext ctx, Collection<String> flagKeys) {
+    EvaluationContext context = ctx == null ? new ImmutableContext() : ctx;
+    var results = new LinkedHashMap<String, ProviderEvaluation<?>>();
+    if (flagKeys != null) {
+      // keeps the requested order, missing flags are reported as not found
+      flagKeys.forEach(
+          flagKey -> results.put(flagKey, createDefaultEvaluation(null, "flag_not_found")));
+    }
 
+    Collection<CompiledFlag> flags;
+    Map<String, String> assignments;
+    try {
+      flags = findFlags(flagKeys);
+      assignments = prefetchAssignments(flags, context.getTargetingKey());
+    } catch (Exception e) {
+      String reason =
+          e instanceof StorageTimeoutException ? TIMEOUT.name() : INVALID_FLAG_DATA.name();
+      results.replaceAll((flagKey, evaluation) -> createDefaultEvaluation(null, reason));
+      return results;
+    }
+
+    Deadline deadline = deadlines.get();
+    boolean staleFlags = deadline != null && deadline.stale;
+    var prerequisites = new HashMap<String, ProviderEvaluation<Object>>();
+    for (CompiledFlag flag : flags) {
+      ProviderEvaluation<Object> evaluation = prerequisites.get(flag.getFlagKey());
+      if (evaluation == null) {
+        if (deadline != null) {
+          deadline.stale = staleFlags;
+        }
+        evaluation = evaluation(flag, null, context, Object.class, assignments, prerequisites);
+        if (deadline != null && deadline.stale) {
+          evaluation = staleEvaluation(evaluation);
+        }
+        prerequisites.put(flag.getFlagKey(), evaluation);
+      }
+      results.put(flag.getFlagKey(), evaluation);
+    }
+    if (metrics != null) {
+      results.forEach(
+          (flagKey, evaluation) ->
+              metrics.recordEvaluation(flagKey, evaluation.getVariant(), evaluation.getReason()));
+    }
+    return results;
+  }
+
+  /**
+   * @param assignments the sticky assignments of the targeting key already read, by flag key, or
+   *     null if they have not been read
+   * @param prerequisites the memo of the prerequisites evaluated for the same context, by flag
+   *     key, or null if none has been evaluated yet
+   */
+  private <T> ProviderEvaluation<T> evaluation(
+      CompiledFlag flag,
+      T defaultValue,
+      EvaluationContext ctx,
+      Class<T> valueType,
+      Map<String, String> assignments,
+      Map<String, ProviderEvaluation<Object>> prerequisites) {
+    try {
       // check if the flag is enabled
-      if (!Boolean.TRUE.equals(flag.getEnabled())) {
+      if (!flag.isEnabled()) {
         return createDefaultEvaluation(defaultValue, FLAG_DISABLED.name());
       }
 
@@ -89,29 +531,423 @@ public class MongoDBFeatureFlagProvider extends EventProvider {
         return createDefaultEvaluation(defaultValue, OUTSIDE_TIME_WINDOW.name());
       }
 
+      // check the prerequisites, each one evaluated at most once
+      if (flag.hasPrerequisites()) {
+        Map<String, ProviderEvaluation<Object>> memo =
+            prerequisites == null ? new HashMap<>() : prerequisites;
+        memo.putIfAbsent(flag.getFlagKey(), EVALUATING);
+        if (!prerequisitesMet(flag, ctx, assignments, memo)) {
+          return createDefaultEvaluation(defaultValue, PREREQUISITE_FAILED.name());
+        }
+      }
+
       // check the target
-      Optional<ProviderEvaluation<T>> targetMatch = checkTargetMatch(flag, ctx, valueType);
-      if (targetMatch.isPresent()) {
-        return targetMatch.get();
+      ProviderEvaluation<T> targetMatch = checkTargetMatch(flag, ctx, valueType, segments());
+      if (targetMatch != null) {
+        return targetMatch;
       }
 
       // handle rollout
-      if (flag.getRolloutPercentage() != null && !flag.getRolloutPercentage().isEmpty()) {
-        return handleRollout(flag, ctx, valueType);
+      if (flag.isRollout()) {
+        return handleRollout(flag, ctx, valueType, assignments);
       }
 
       // base case: return default variant
-      return ProviderEvaluation.<T>builder()
-          .value(convertValue(flag.getVariants().get(flag.getDefaultVariant()), valueType))
-          .variant(flag.getDefaultVariant())
-          .reason("default variant")
-          .build();
+      return flag.getVariant(flag.getDefaultVariant())
+          .evaluation(valueType, CompiledVariant.DEFAULT_VARIANT);
 
+    } catch (StorageTimeoutException e) {
+      return createDefaultEvaluation(defaultValue, TIMEOUT.name());
     } catch (Exception e) {
       return createDefaultEvaluation(defaultValue, INVALID_FLAG_DATA.name());
     }
   }
 
+  /**
+   * Evaluates the prerequisites depth first, so every flag is evaluated after its own
+   * prerequisites, and records them in the memo. A flag met again while it is being evaluated
+   * closes a cycle, which fails the prerequisite.
+   */
+  private boolean prerequisitesMet(
+      CompiledFlag flag,
+      EvaluationContext ctx,
+      Map<String, String> assignments,
+      Map<String, ProviderEvaluation<Object>> memo)
+      throws InvalidFeatureFlagException {
+    for (int i = 0; i < flag.getPrerequisiteCount(); i++) {
+      String flagKey = flag.getPrerequisiteKey(i);
+      if (flagKey == null) {
+        throw new InvalidFeatureFlagException(
+            "Prerequisite not valid. Set a flagKey and a variant");
+      }
+      ProviderEvaluation<Object> prerequisite = memo.get(flagKey);
+      if (prerequisite == null) {
+        memo.put(flagKey, EVALUATING);
+        Optional<CompiledFlag> required = findFlag(flagKey);
+        prerequisite =
+            required.isEmpty()
+                ? createDefaultEvaluation(null, "flag_not_found")
+                : evaluation(required.get(), null, ctx, Object.class, assignments, memo);
+        memo.put(flagKey, prerequisite);
+      }
+      if (prerequisite == EVALUATING) {
+        log.warn("Prerequisite cycle through flag {}", flagKey);
+        return false;
+      }
+      if (!flag.getPrerequisiteVariant(i).equals(prerequisite.getVariant())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  protected Optional<CompiledFlag> findFlag(String flagKey) {
+    if (flagCache.isLoaded()) {
+      return flagCache.get(flagKey);
+    }
+    try {
+      return read(List.of("flag", flagKey), () -> loadFlag(flagKey));
+    } catch (StorageTimeoutException e) {
+      CompiledFlag stale = compiledFlags.get(flagKey);
+      if (stale == null) {
+        throw e;
+      }
+      markStale();
+      return Optional.of(stale);
+    }
+  }
+
+  /** Reads and compiles the flag; also run by the reads that complete after their deadline. */
+  private Optional<CompiledFlag> loadFlag(String flagKey) {
+    Optional<Flag> flag = flagRepository.findFirstByFlagKey(flagKey);
+    if (flag.isEmpty()) {
+      compiledFlags.remove(flagKey);
+      return Optional.empty();
+    }
+    return Optional.of(compile(flag.get()));
+  }
+
+  /**
+   * @return true if evaluating the flag for the target reads only memory: the flag is in the
+   *     local cache and, for a sticky rollout, the variant of the target is in the near-cache
+   */
+  protected boolean isResolvableLocally(String flagKey, String targetKey) {
+    return flagCache.isLoaded() && isResolvableLocally(flagKey, targetKey, new HashSet<>());
+  }
+
+  /** Also checks the prerequisites, each one once. */
+  private boolean isResolvableLocally(String flagKey, String targetKey, Set<String> visited) {
+    if (!visited.add(flagKey)) {
+      return true;
+    }
+    Optional<CompiledFlag> flag = flagCache.get(flagKey);
+    if (flag.isEmpty() || !flag.get().isEnabled()) {
+      return true;
+    }
+    for (int i = 0; i < flag.get().getPrerequisiteCount(); i++) {
+      String prerequisite = flag.get().getPrerequisiteKey(i);
+      if (prerequisite != null && !isResolvableLocally(prerequisite, targetKey, visited)) {
+        return false;
+      }
+    }
+    if (!flag.get().isRollout() || flag.get().isHashBucketing() || targetKey == null) {
+      return true;
+    }
+    return assignmentCache != null && assignmentCache.isAssigned(flagKey, targetKey);
+  }
+
+  /**
+   * @param flagKeys the keys of the flags, or null for all the flags
+   */
+  protected Collection<CompiledFlag> findFlags(Collection<String> flagKeys) {
+    if (flagCache.isLoaded()) {
+      if (flagKeys == null) {
+        return flagCache.getAll();
+      }
+      var flags = new ArrayList<CompiledFlag>(flagKeys.size());
+      flagKeys.forEach(flagKey -> flagCache.get(flagKey).ifPresent(flags::add));
+      return flags;
+    }
+    Object key = flagKeys == null ? List.of("flags") : List.of("flags", List.copyOf(flagKeys));
+    try {
+      return read(
+          key,
+          () ->
+              (flagKeys == null
+                      ? flagRepository.findAll()
+                      : flagRepository.findAllByFlagKeyIn(flagKeys))
+                  .stream().map(this::compile).toList());
+    } catch (StorageTimeoutException e) {
+      List<CompiledFlag> stale =
+          flagKeys == null
+              ? List.copyOf(compiledFlags.values())
+              : flagKeys.stream().map(compiledFlags::get).filter(Objects::nonNull).toList();
+      if (stale.isEmpty()) {
+        throw e;
+      }
+      markStale();
+      return stale;
+    }
+  }
+
+  /** Compiles the flag again only when the stored flag changed. */
+  private CompiledFlag compile(Flag flag) {
+    return compiledFlags.compute(
+        flag.getFlagKey(),
+        (key, compiled) ->
+            compiled != null && compiled.getSource().equals(flag)
+                ? compiled
+                : CompiledFlag.compile(flag));
+  }
+
+  /**
+   * Reads with a single query the assignments of the target for all the flags with a sticky
+   * rollout, at their current epochs. The result is also stored in the near-cache, absent
+   * assignments included.
+   *
+   * @return the assignments by flag key, or null if there is no targeting key or the read missed
+   *     the evaluation timeout
+   */
+  private Map<String, String> prefetchAssignments(
+      Collection<CompiledFlag> flags, String targetKey) {
+    if (targetKey == null) {
+      return null;
+    }
+    var epochs = new HashMap<String, Long>();
+    for (CompiledFlag flag : flags) {
+      if (flag.isEnabled() && flag.isRollout() && !flag.isHashBucketing()) {
+        epochs.put(flag.getFlagKey(), flag.getRolloutEpoch());
+      }
+    }
+    if (epochs.isEmpty()) {
+      return Map.of();
+    }
+
+    var generations = new HashMap<String, Long>();
+    if (assignmentCache != null) {
+      epochs
+          .keySet()
+          .forEach(flagKey -> generations.put(flagKey, assignmentCache.generationOf(flagKey)));
+    }
+    Map<String, String> assignments;
+    try {
+      assignments = findVariants(targetKey, epochs);
+    } catch (StorageTimeoutException e) {
+      // each flag falls back to its own stale assignment
+      return null;
+    }
+    if (assignmentCache != null) {
+      generations.forEach(
+          (flagKey, generation) ->
+              assignmentCache.put(
+                  flagKey,
+                  targetKey,
+                  assignments.getOrDefault(flagKey, AssignmentCache.NOT_ASSIGNED),
+                  generation));
+    }
+    return assignments;
+  }
+
+  protected void refreshCachedFlag(Flag flag) {
+    if (flagCache.isLoaded()) {
+      notifyFlagsChanged(flagCache.put(flag));
+    }
+  }
+
+  /** Refreshes many flags of the local cache with a single event. */
+  protected void refreshCachedFlags(Collection<Flag> flags, Collection<String> evictedFlagKeys) {
+    if (flagCache.isLoaded()) {
+      var changed = new ArrayList<>(flagCache.putAll(flags));
+      for (String flagKey : evictedFlagKeys) {
+        if (flagCache.remove(flagKey)) {
+          changed.add(flagKey);
+        }
+      }
+      notifyFlagsChanged(changed);
+    }
+  }
+
+  protected void evictCachedFlag(String flagKey) {
+    if (flagCache.isLoaded() && flagCache.remove(flagKey)) {
+      notifyFlagsChanged(List.of(flagKey));
+    }
+  }
+
+  protected void invalidateAssignments(String flagKey) {
+    if (assignmentCache != null) {
+      assignmentCache.invalidateFlag(flagKey);
+    }
+  }
+
+  /**
+   * Runs a repository access, adding its time to the evaluation being timed, if any. Within an
+   * evaluation with a deadline the access runs on the pool of the {@link DeadlineReader}, shared
+   * with the accesses with the same key in flight.
+   *
+   * @throws StorageTimeoutException if the access misses the deadline of the evaluation
+   */
+  private <R> R read(Object key, Supplier<R> access) {
+    EvaluationMetrics.Timer timer = metrics == null ? null : metrics.currentTimer();
+    if (timer == null) {
+      return access(key, access);
+    }
+    long start = System.nanoTime();
+    try {
+      return access(key, access);
+    } finally {
+      timer.addRead(System.nanoTime() - start);
+    }
+  }
+
+  private <R> R access(Object key, Supplier<R> access) {
+    Deadline deadline = deadlineReader == null ? null : deadlines.get();
+    if (deadline == null) {
+      return access.get();
+    }
+    try {
+      return deadlineReader.read(key, access, deadline.nanos);
+    } catch (TimeoutException e) {
+      throw new StorageTimeoutException();
+    }
+  }
+
+  /** The evaluation running on the thread is serving data that may be stale. */
+  private void markStale() {
+    Deadline deadline = deadlines.get();
+    if (deadline != null) {
+      deadline.stale = true;
+    }
+  }
+
+  private static <T> ProviderEvaluation<T> staleEvaluation(ProviderEvaluation<T> evaluation) {
+    if (TIMEOUT.name().equals(evaluation.getReason())) {
+      return evaluation;
+    }
+    return ProviderEvaluation.<T>builder()
+        .value(evaluation.getValue())
+        .variant(evaluation.getVariant())
+        .reason(STALE.name())
+        .flagMetadata(evaluation.getFlagMetadata())
+        .build();
+  }
+
+  /** Reads the assignments of the target, remembering them for the stale fallback. */
+  private Map<String, String> findVariants(String targetKey, Map<String, Long> epochs) {
+    return read(
+        List.of("variants", targetKey, epochs),
+        () -> {
+          Map<String, String> variants = assignedTargetRepository.findVariants(targetKey, epochs);
+          variants.forEach(
+              (flagKey, variant) ->
+                  rememberAssignment(flagKey, targetKey, epochs.get(flagKey), variant));
+          return variants;
+        });
+  }
+
+  /**
+   * Assigns the variant to the target unless it already has one, remembering the assignment for
+   * the stale fallback.
+   *
+   * @return the variant previously assigned to the target, or empty if {@code variant} has been
+   *     assigned now
+   */
+  private Optional<String> assignIfAbsent(CompiledFlag flag, String targetKey, String variant) {
+    String flagKey = flag.getFlagKey();
+    long epoch = flag.getRolloutEpoch();
+    return read(
+        List.of("assign", flagKey, epoch, targetKey, variant),
+        () -> {
+          Optional<String> previous =
+              assignedTargetRepository.assignIfAbsent(flagKey, epoch, targetKey, variant);
+          rememberAssignment(flagKey, targetKey, epoch, previous.orElse(variant));
+          return previous;
+        });
+  }
+
+  private void rememberAssignment(String flagKey, String targetKey, Long epoch, String variant) {
+    if (staleAssignments != null && epoch != null) {
+      staleAssignments.put(
+          new AssignmentKey(flagKey, targetKey), new StaleAssignment(variant, epoch));
+    }
+  }
+
+  /**
+   * @return the assignment last read for the target at the current epoch of the flag
+   * @throws StorageTimeoutException the given exception, if no assignment is known
+   */
+  private Optional<String> staleAssignment(
+      CompiledFlag flag, String targetKey, StorageTimeoutException e) {
+    StaleAssignment stale =
+        staleAssignments == null
+            ? null
+            : staleAssignments.peek(new AssignmentKey(flag.getFlagKey(), targetKey));
+    if (stale == null || stale.epoch() != flag.getRolloutEpoch()) {
+      throw e;
+    }
+    markStale();
+    return Optional.of(stale.variant());
+  }
+
+  /**
+   * @return the evaluation counts by flag, variant and reason and the latency histograms, or
+   *     empty if metrics are disabled
+   */
+  public Optional<MetricsSnapshot> getMetrics() {
+    return Optional.ofNullable(metrics).map(EvaluationMetrics::snapshot);
+  }
+
+  /**
+   * @return the counters of the exposure events, or empty if exposure events are disabled
+   */
+  public Optional<ExposureStats> getExposureStats() {
+    return Optional.ofNullable(exposurePublisher).map(ExposurePublisher::stats);
+  }
+
+  /**
+   * @return the hit, miss and eviction statistics of the assignment near-cache, or empty if the
+   *     near-cache is disabled
+   */
+  public Optional<CacheStats> getAssignmentCacheStats() {
+    return Optional.ofNullable(assignmentCache).map(AssignmentCache::stats);
+  }
+
+  /**
+   * @return the size and the heap usage of the segments loaded in memory, by name; empty if the
+   *     segments are disabled
+   */
+  public Map<String, SegmentStats> getSegmentStats() {
+    SegmentStore store = segmentStore;
+    return store == null ? Map.of() : store.stats();
+  }
+
+  private void notifyFlagsChanged(List<String> flagKeys) {
+    if (!flagKeys.isEmpty()) {
+      trackTimeWindows(flagKeys);
+      scheduleSnapshot();
+      emitProviderConfigurationChanged(
+          ProviderEventDetails.builder().flagsChanged(flagKeys).build());
+    }
+  }
+
+  private void trackTimeWindows(Collection<String> flagKeys) {
+    if (timeWindowScheduler != null) {
+      for (String flagKey : flagKeys) {
+        flagCache
+            .get(flagKey)
+            .ifPresentOrElse(
+                timeWindowScheduler::track, () -> timeWindowScheduler.untrack(flagKey));
+      }
+    }
+  }
+
+  private void onTimeWindowChanged(String flagKey) {
+    emitProviderConfigurationChanged(
+        ProviderEventDetails.builder()
+            .flagsChanged(List.of(flagKey))
+            .message("Time window boundary reached")
+            .build());
+  }
+
   private <T> ProviderEvaluation<T> createDefaultEvaluation(T defaultValue, String reason) {
     return ProviderEvaluation.<T>builder()
         .value(defaultValue)
@@ -121,30 +957,198 @@ public class MongoDBFeatureFlagProvider extends EventProvider {
   }
 
   private <T> ProviderEvaluation<T> handleRollout(
-      Flag flag, EvaluationContext ctx, Class<T> valueType) throws InvalidFeatureFlagException {
+      CompiledFlag flag, EvaluationContext ctx, Class<T> valueType, Map<String, String> assignments)
+      throws InvalidFeatureFlagException {
     String targetKey = ctx.getTargetingKey();
+    if (flag.isHashBucketing()) {
+      // the bucket is a function of the targeting key: nothing to persist
+      String variant = determineVariantForRollout(flag, targetKey);
+      return flag.getVariant(variant).evaluation(valueType, ROLLOUT.name());
+    }
+
     String variant = determineVariantForRollout(flag);
     if (targetKey != null) {
-      // check if the user is already assigned to a variant
-      Optional<AssignedTarget> optionalAssignedTarget =
-          assignedTargetRepository.findFirstByFlagKeyAndTargetKey(flag.getFlagKey(), targetKey);
+      // assign the user to the variant, unless it is already assigned to one
+      Optional<String> assignedVariant = findOrAssign(flag, targetKey, variant, assignments);
 
-      if (optionalAssignedTarget.isPresent()) {
-        AssignedTarget assignedTarget = optionalAssignedTarget.get();
-        return ProviderEvaluation.<T>builder()
-            .value(convertValue(flag.getVariants().get(assignedTarget.getVariant()), valueType))
-            .variant(assignedTarget.getVariant())
-            .reason(ALREADY_ASSIGNED.name())
-            .build();
+      if (assignedVariant.isPresent()) {
+        return flag.getVariant(assignedVariant.get())
+            .evaluation(valueType, ALREADY_ASSIGNED.name());
       }
+    }
+    return flag.getVariant(variant).evaluation(valueType, ROLLOUT.name());
+  }
 
-      // assign the user to the variant
-      assignedTargetRepository.save(new AssignedTarget(flag.getFlagKey(), targetKey, variant));
+  /**
+   * @return the variant previously assigned to the target, or empty if {@code variant} has been
+   *     assigned now
+   */
+  private Optional<String> findOrAssign(
+      CompiledFlag flag, String targetKey, String variant, Map<String, String> assignments) {
+    String flagKey = flag.getFlagKey();
+    if (assignments != null && assignments.containsKey(flagKey)) {
+      return Optional.of(assignments.get(flagKey));
     }
-    return ProviderEvaluation.<T>builder()
-        .value(convertValue(flag.getVariants().get(variant), valueType))
-        .reason(ROLLOUT.name())
-        .variant(variant)
-        .build();
+    if (assignmentCache == null) {
+      try {
+        return assignIfAbsent(flag, targetKey, variant);
+      } catch (StorageTimeoutException e) {
+        return staleAssignment(flag, targetKey, e);
+      }
+    }
+    // a prefetch has just shown that the assignment is missing
+    String cached = assignments != null ? null : assignmentCache.get(flagKey, targetKey);
+    if (cached == null
+        && assignments == null
+        && config.getAssignmentLayout() == AssignmentLayout.PER_TARGET) {
+      cached = loadTargetAssignments(flag, targetKey);
+    }
+    if (cached != null && cached != AssignmentCache.NOT_ASSIGNED) {
+      return Optional.of(cached);
+    }
+    long generation = assignmentCache.generationOf(flagKey);
+    Optional<String> previous;
+    try {
+      previous = assignIfAbsent(flag, targetKey, variant);
+    } catch (StorageTimeoutException e) {
+      // not cached, so the next evaluations read the assignment again
+      return staleAssignment(flag, targetKey, e);
+    }
+    assignmentCache.put(flagKey, targetKey, previous.orElse(variant), generation);
+    return previous;
+  }
+
+  /**
+   * Caches the assignments of the target for all the rollout flags of the local cache with a
+   * single read. The flags without an assignment are cached as not assigned, so evaluating them
+   * does not read the target document again.
+   *
+   * @return the variant assigned for the flag, {@link AssignmentCache#NOT_ASSIGNED}, or null if
+   *     the read missed the evaluation timeout
+   */
+  private String loadTargetAssignments(CompiledFlag flag, String targetKey) {
+    var epochs = new HashMap<String, Long>();
+    var generations = new HashMap<String, Long>();
+    epochs.put(flag.getFlagKey(), flag.getRolloutEpoch());
+    generations.put(flag.getFlagKey(), assignmentCache.generationOf(flag.getFlagKey()));
+    for (CompiledFlag cached : flagCache.getAll()) {
+      if (cached.isRollout() && !cached.isHashBucketing()) {
+        epochs.put(cached.getFlagKey(), cached.getRolloutEpoch());
+        generations.put(cached.getFlagKey(), assignmentCache.generationOf(cached.getFlagKey()));
+      }
+    }
+
+    Map<String, String> variants;
+    try {
+      variants = findVariants(targetKey, epochs);
+    } catch (StorageTimeoutException e) {
+      return null;
+    }
+    variants.forEach(
+        (key, variant) -> assignmentCache.put(key, targetKey, variant, generations.get(key)));
+    generations.forEach(
+        (key, generation) -> {
+          if (!variants.containsKey(key)) {
+            assignmentCache.putNotAssigned(key, targetKey, generation);
+          }
+        });
+    return variants.getOrDefault(flag.getFlagKey(), AssignmentCache.NOT_ASSIGNED);
   }
+
+  /** Applies the changes observed on the flags collection to the local cache. */
+  private class CacheUpdater implements FlagChangeListener {
+
+    @Override
+    public void onFlagSaved(Flag flag) {
+      // the rollout may have been changed by another instance
+      Optional<CompiledFlag> previous = flagCache.get(flag.getFlagKey());
+      if (previous.isEmpty() || isRolloutChanged(previous.get().getSource(), flag)) {
+        invalidateAssignments(flag.getFlagKey());
+      }
+      notifyFlagsChanged(flagCache.put(flag));
+    }
+
+    @Override
+    public void onFlagsSaved(Collection<Flag> flags) {
+      for (Flag flag : flags) {
+        Optional<CompiledFlag> previous = flagCache.get(flag.getFlagKey());
+        if (previous.isEmpty() || isRolloutChanged(previous.get().getSource(), flag)) {
+          invalidateAssignments(flag.getFlagKey());
+        }
+      }
+      notifyFlagsChanged(flagCache.putAll(flags));
+    }
+
+    @Override
+    public void onFlagDeleted(String id) {
+      flagCache
+          .removeById(id)
+          .ifPresent(
+              flagKey -> {
+                invalidateAssignments(flagKey);
+                notifyFlagsChanged(List.of(flagKey));
+              });
+    }
+
+    @Override
+    public void onReset() {
+      if (!indexesVerified) {
+        verifyIndexes();
+      }
+      List<String> changed = flagCache.reload(flagRepository.findAll());
+      changed.forEach(MongoDBFeatureFlagProvider.this::invalidateAssignments);
+      notifyFlagsChanged(changed);
+      reportReady(changed, "Flags reconciled with MongoDB");
+    }
+
+    @Override
+    public void onResumed() {
+      reportReady(List.of(), "Flags change stream resumed");
+    }
+
+    @Override
+    public void onError(RuntimeException e) {
+      reportStale("Flags change stream interrupted: " + e.getMessage());
+      stale = true;
+    }
+  }
+
+  /** Emits {@code PROVIDER_STALE}, unless it has already been emitted. */
+  private void reportStale(String message) {
+    if (staleReported.compareAndSet(false, true)) {
+      emitProviderStale(ProviderEventDetails.builder().message(message).build());
+    }
+  }
+
+  /** Clears the stale state and emits {@code PROVIDER_READY} if it had been reported. */
+  private void reportReady(List<String> changed, String message) {
+    stale = false;
+    if (staleReported.compareAndSet(true, false)) {
+      emitProviderReady(
+          ProviderEventDetails.builder().flagsChanged(changed).message(message).build());
+    }
+  }
+
+  /** The deadline of an evaluation, and whether it served stale data. */
+  private static final class Deadline {
+    private final long nanos;
+    private boolean stale;
+
+    private Deadline(long nanos) {
+      this.nanos = nanos;
+    }
+  }
+
+  /** A storage read that missed the deadline of the evaluation. */
+  private static final class StorageTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private StorageTimeoutException() {
+      super("Storage read timed out", null, false, false);
+    }
+  }
+
+  private record AssignmentKey(String flagKey, String targetKey) {}
+
+  private record StaleAssignment(String variant, long epoch) {}
 }
@@ -2,27 +2,89 @@ package io.github.jacopocarlini.fffp.providers;
 
 import static io.github.jacopocarlini.fffp.util.ProviderUtility.*;
 
+import io.github.jacopocarlini.fffp.bulk.FlagImportOptions;
+import io.github.jacopocarlini.fffp.bulk.FlagImportResult;
+import io.github.jacopocarlini.fffp.bulk.FlagNdjson;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
 import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentType;
 import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import io.github.jacopocarlini.fffp.repository.Storage;
+import io.github.jacopocarlini.fffp.segment.SegmentChunks;
 import dev.openfeature.sdk.*;
 import jakarta.validation.Validation;
 import jakarta.validation.Validator;
-import jakarta.validation.ValidatorFactory;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 public class MongoDBFeatureFlagProviderExtended extends MongoDBFeatureFlagProvider {
 
+  // thread safe, built once since building a factory scans the classpath
+  private static final Validator VALIDATOR =
+      Validation.buildDefaultValidatorFactory().getValidator();
+
   public MongoDBFeatureFlagProviderExtended(String connectionString) {
     super(connectionString);
   }
 
+  public MongoDBFeatureFlagProviderExtended(String connectionString, ProviderConfig config) {
+    super(connectionString, config);
+  }
+
+  public MongoDBFeatureFlagProviderExtended(Storage storage, ProviderConfig config) {
+    super(storage, config);
+  }
+
+  public MongoDBFeatureFlagProviderExtended(
+      FlagRepository flagRepository,
+      AssignedTargetRepository assignedTargetRepository,
+      ProviderConfig config) {
+    super(flagRepository, assignedTargetRepository, config);
+  }
+
   @Override
   public Metadata getMetadata() {
     return () -> "MongoDBFeatureFlagProviderExtended";
   }
 
+  /**
+   * Evaluates every flag for the context.
+   *
+   * @see #evaluateAll(EvaluationContext, Collection)
+   */
+  public Map<String, ProviderEvaluation<?>> evaluateAll(EvaluationContext ctx) {
+    return super.evaluateAll(ctx, null);
+  }
+
+  /**
+   * Evaluates the given flags for the context with one read of the flags and one read of the
+   * sticky assignments. The results are the same of the single flag evaluations, except that the
+   * values are returned as stored, since no type is requested.
+   */
+  @Override
+  public Map<String, ProviderEvaluation<?>> evaluateAll(
+      EvaluationContext ctx, Collection<String> flagKeys) {
+    return super.evaluateAll(ctx, flagKeys);
+  }
+
   public List<Flag> getFlags() {
     return super.flagRepository.findAll();
   }
@@ -41,10 +103,20 @@ public class MongoDBFeatureFlagProviderExtended extends MongoDBFeatureFlagProvid
 
     checkRolloutPercentage(flag);
     checkVariant(flag);
+    checkTimeWindow(flag);
+    checkTargets(flag);
+    checkPrerequisites(flag, flagRepository::findFirstByFlagKey);
 
+    // never the epoch of the assignments left behind by a deleted flag with the same key
+    flag.setRolloutEpoch(nextRolloutEpoch(null));
     flagRepository.save(flag);
+    refreshCachedFlag(flag);
   }
 
+  /**
+   * Replaces the flag. When the rollout changes the flag moves to a new rollout epoch, so the
+   * sticky assignments made so far stop being served at once and are deleted in the background.
+   */
   public void updateFlag(String flagKey, Flag newFlag) throws InvalidFeatureFlagException {
     validateFlag(newFlag);
 
@@ -52,24 +124,327 @@ public class MongoDBFeatureFlagProviderExtended extends MongoDBFeatureFlagProvid
 
     checkRolloutPercentage(newFlag);
     checkVariant(newFlag);
+    checkTimeWindow(newFlag);
+    checkTargets(newFlag);
+    checkPrerequisites(newFlag, flagRepository::findFirstByFlagKey);
 
     newFlag.setId(flag.getId());
-
-    if (newFlag.getRolloutPercentage() == null
-        || newFlag.getRolloutPercentage().equals(flag.getRolloutPercentage())) {
-      super.assignedTargetRepository.deleteAllByFlagKey(flagKey);
-    }
+    boolean rolloutChanged = isRolloutChanged(flag, newFlag);
+    newFlag.setRolloutEpoch(
+        rolloutChanged ? nextRolloutEpoch(flag.getRolloutEpoch()) : flag.getRolloutEpoch());
 
     flagRepository.save(newFlag);
+    if (rolloutChanged) {
+      invalidateAssignments(flagKey);
+      assignmentSweeper.sweep(flagKey, newFlag.getRolloutEpoch());
+    }
+    if (!flagKey.equals(newFlag.getFlagKey())) {
+      // the assignments stay with the old key, which no flag has anymore
+      invalidateAssignments(flagKey);
+      assignmentSweeper.sweep(flagKey, nextRolloutEpoch(flag.getRolloutEpoch()));
+      evictCachedFlag(flagKey);
+    }
+    refreshCachedFlag(newFlag);
   }
 
+  /** Deletes the flag; its sticky assignments are deleted in the background. */
   public void deleteFlag(String flagKey) throws InvalidFeatureFlagException {
     var flag = flagRepository.findFirstByFlagKey(flagKey);
     if (flag.isEmpty()) {
       throw new InvalidFeatureFlagException("Flag not found");
     }
-    assignedTargetRepository.deleteAllByFlagKey(flagKey);
     flagRepository.deleteByFlagKey(flagKey);
+    invalidateAssignments(flagKey);
+    assignmentSweeper.sweep(flagKey, nextRolloutEpoch(flag.get().getRolloutEpoch()));
+    evictCachedFlag(flagKey);
+  }
+
+  /**
+   * Creates the segment, or replaces all its ids, with exact in-memory structures.
+   *
+   * @see #saveSegment(String, SegmentType, Double, Collection)
+   */
+  public void saveSegment(String name, SegmentType type, Collection<?> ids) {
+    saveSegment(name, type, null, ids);
+  }
+
+  /**
+   * Creates the segment, or replaces all its ids. The ids are split in chunks that are written
+   * with bulk writes and become visible to the providers together, once they are all written.
+   *
+   * @param ids 64-bit integers, as numbers or strings, for a {@code NUMERIC} segment; strings for
+   *     a {@code STRING} segment
+   * @param falsePositiveRate for a {@code STRING} segment, the false positive rate of the Bloom
+   *     filters that hold its ids in memory, or null to hold exact fingerprints
+   * @throws IllegalArgumentException if the settings or an id are not valid
+   * @throws IllegalStateException if the segments are disabled
+   */
+  public void saveSegment(
+      String name, SegmentType type, Double falsePositiveRate, Collection<?> ids) {
+    SegmentRepository repository = requireSegments();
+    checkSegment(name, type, falsePositiveRate);
+    var settings =
+        Segment.builder().name(name).type(type).falsePositiveRate(falsePositiveRate).build();
+    repository.replace(settings, SegmentChunks.split(type, ids));
+    segmentStore.refresh();
+  }
+
+  /**
+   * Adds ids to the segment. Only the chunks of the added ids are written, and reloaded by the
+   * providers.
+   *
+   * @throws IllegalArgumentException if the segment does not exist or an id is not valid
+   * @throws IllegalStateException if the segments are disabled
+   */
+  public void addSegmentIds(String name, Collection<?> ids) {
+    updateSegment(name, ids, false);
+  }
+
+  /**
+   * Removes ids from the segment. Only the chunks of the removed ids are written, and reloaded by
+   * the providers.
+   *
+   * @throws IllegalArgumentException if the segment does not exist or an id is not valid
+   * @throws IllegalStateException if the segments are disabled
+   */
+  public void removeSegmentIds(String name, Collection<?> ids) {
+    updateSegment(name, ids, true);
+  }
+
+  private void updateSegment(String name, Collection<?> ids, boolean remove) {
+    SegmentRepository repository = requireSegments();
+    Segment segment =
+        repository
+            .findByName(name)
+            .orElseThrow(() -> new IllegalArgumentException("Segment not found: " + name));
+    if (!repository.update(name, SegmentChunks.split(segment.getType(), ids), remove)) {
+      throw new IllegalArgumentException("Segment not found: " + name);
+    }
+    segmentStore.refresh();
+  }
+
+  /**
+   * Deletes the segment; the {@code IN_SEGMENT} rules that reference it stop matching.
+   *
+   * @throws IllegalArgumentException if the segment does not exist
+   * @throws IllegalStateException if the segments are disabled
+   */
+  public void deleteSegment(String name) {
+    if (!requireSegments().delete(name)) {
+      throw new IllegalArgumentException("Segment not found: " + name);
+    }
+    segmentStore.refresh();
+  }
+
+  private SegmentRepository requireSegments() {
+    SegmentRepository repository = segmentRepository;
+    if (repository == null) {
+      throw new IllegalStateException(
+          "Segments are disabled, set ProviderConfig.segmentRefreshInterval");
+    }
+    return repository;
+  }
+
+  private static void checkSegment(String name, SegmentType type, Double falsePositiveRate) {
+    if (name == null || name.isBlank()) {
+      throw new IllegalArgumentException("Segment name not present");
+    }
+    if (type == null) {
+      throw new IllegalArgumentException("Segment type not present");
+    }
+    if (falsePositiveRate != null) {
+      if (type != SegmentType.STRING) {
+        throw new IllegalArgumentException("Only STRING segments have a false positive rate");
+      }
+      if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+        throw new IllegalArgumentException("The false positive rate must be in (0, 1)");
+      }
+    }
+  }
+
+  /**
+   * Writes all the flags as newline delimited JSON, sorted by key so that two exports of the same
+   * flags are identical.
+   *
+   * @return the number of flags written
+   * @see FlagNdjson
+   */
+  public int exportFlags(Writer writer) throws IOException {
+    var flags = new ArrayList<>(flagRepository.findAll());
+    flags.sort(Comparator.comparing(Flag::getFlagKey));
+    FlagNdjson.write(flags, writer);
+    return flags.size();
+  }
+
+  /**
+   * Imports the flags of a newline delimited JSON stream, as written by {@link
+   * #exportFlags(Writer)}.
+   *
+   * @see #importFlags(Collection, FlagImportOptions)
+   */
+  public FlagImportResult importFlags(Reader reader, FlagImportOptions options)
+      throws IOException {
+    var flags = new ArrayList<Flag>();
+    var errors = new LinkedHashMap<String, String>();
+    FlagNdjson.read(
+        reader,
+        (line, flag) -> flags.add(flag),
+        (line, error) -> errors.put("line " + line, error));
+    return importFlags(flags, errors, options);
+  }
+
+  /**
+   * Creates or replaces many flags, matched by key. The flags are validated in parallel, compared
+   * with the stored ones read with a single query, and only the new and changed flags are written,
+   * with a single bulk write. As with {@link #updateFlag}, a flag whose rollout changed moves to a
+   * new rollout epoch, and the stale assignments are deleted in the background.
+   */
+  public FlagImportResult importFlags(Collection<Flag> flags, FlagImportOptions options) {
+    return importFlags(flags, new LinkedHashMap<>(), options);
+  }
+
+  private FlagImportResult importFlags(
+      Collection<Flag> flags, Map<String, String> errors, FlagImportOptions options) {
+    var imported = new LinkedHashMap<String, Flag>();
+    Set<String> importedKeys = new HashSet<>();
+    int position = 0;
+    for (Flag flag : flags) {
+      position++;
+      if (flag.getFlagKey() == null || flag.getFlagKey().isBlank()) {
+        errors.put("flag " + position, "Invalid feature flag:[flagKey: must not be blank]");
+      } else if (!importedKeys.add(flag.getFlagKey())) {
+        imported.remove(flag.getFlagKey());
+        errors.put(flag.getFlagKey(), "Conflict. Flag present more than once");
+      } else {
+        imported.put(flag.getFlagKey(), flag);
+      }
+    }
+
+    var invalid = new ConcurrentHashMap<String, String>();
+    imported.values().parallelStream()
+        .forEach(
+            flag -> {
+              try {
+                checkFlag(flag);
+              } catch (InvalidFeatureFlagException | RuntimeException e) {
+                invalid.put(flag.getFlagKey(), String.valueOf(e.getMessage()));
+              }
+            });
+    imported
+        .keySet()
+        .removeIf(
+            flagKey -> {
+              String error = invalid.get(flagKey);
+              if (error != null) {
+                errors.put(flagKey, error);
+              }
+              return error != null;
+            });
+    checkImportedPrerequisites(imported, errors);
+    if (options.isAtomic() && !errors.isEmpty()) {
+      return new FlagImportResult(
+          options.isDryRun(), List.of(), List.of(), List.of(), List.of(), errors);
+    }
+
+    List<Flag> stored =
+        options.isDeleteMissing()
+            ? flagRepository.findAll()
+            : flagRepository.findAllByFlagKeyIn(imported.keySet());
+    var storedByKey = new HashMap<String, Flag>();
+    stored.forEach(flag -> storedByKey.put(flag.getFlagKey(), flag));
+
+    var created = new ArrayList<String>();
+    var updated = new ArrayList<String>();
+    var unchanged = new ArrayList<String>();
+    var rolloutChanged = new HashSet<String>();
+    var writes = new ArrayList<Flag>();
+    for (Flag flag : imported.values()) {
+      Flag current = storedByKey.get(flag.getFlagKey());
+      if (current == null) {
+        created.add(flag.getFlagKey());
+        writes.add(flag.toBuilder().id(null).rolloutEpoch(nextRolloutEpoch(null)).build());
+        continue;
+      }
+      // the epoch is managed here, the one of the imported flag is ignored
+      Flag replacement =
+          flag.toBuilder().id(current.getId()).rolloutEpoch(current.getRolloutEpoch()).build();
+      if (replacement.equals(current)) {
+        unchanged.add(flag.getFlagKey());
+        continue;
+      }
+      updated.add(flag.getFlagKey());
+      if (isRolloutChanged(current, replacement)) {
+        replacement.setRolloutEpoch(nextRolloutEpoch(current.getRolloutEpoch()));
+        rolloutChanged.add(flag.getFlagKey());
+      }
+      writes.add(replacement);
+    }
+    var deleted = new ArrayList<String>();
+    if (options.isDeleteMissing()) {
+      storedByKey.keySet().stream()
+          .filter(flagKey -> !importedKeys.contains(flagKey))
+          .sorted()
+          .forEach(deleted::add);
+    }
+    if (options.isDryRun()) {
+      return new FlagImportResult(true, created, updated, unchanged, deleted, errors);
+    }
+
+    Map<String, String> writeErrors =
+        flagRepository.bulkWrite(writes, deleted, options.isAtomic());
+    errors.putAll(writeErrors);
+    if (options.isAtomic() && !writeErrors.isEmpty()) {
+      return new FlagImportResult(false, List.of(), List.of(), List.of(), List.of(), errors);
+    }
+    created.removeAll(writeErrors.keySet());
+    updated.removeAll(writeErrors.keySet());
+    deleted.removeAll(writeErrors.keySet());
+    writes.removeIf(flag -> writeErrors.containsKey(flag.getFlagKey()));
+
+    for (Flag flag : writes) {
+      if (rolloutChanged.contains(flag.getFlagKey())) {
+        invalidateAssignments(flag.getFlagKey());
+        assignmentSweeper.sweep(flag.getFlagKey(), flag.getRolloutEpoch());
+      }
+    }
+    for (String flagKey : deleted) {
+      invalidateAssignments(flagKey);
+      assignmentSweeper.sweep(
+          flagKey, nextRolloutEpoch(storedByKey.get(flagKey).getRolloutEpoch()));
+    }
+    refreshCachedFlags(writes, deleted);
+    return new FlagImportResult(false, created, updated, unchanged, deleted, errors);
+  }
+
+  /**
+   * Checks the prerequisites of the imported flags against the imported flags and the stored
+   * ones, removing the flags with invalid prerequisites; every stored flag is read once.
+   */
+  private void checkImportedPrerequisites(Map<String, Flag> imported, Map<String, String> errors) {
+    var stored = new HashMap<String, Optional<Flag>>();
+    Function<String, Optional<Flag>> lookup =
+        flagKey ->
+            imported.containsKey(flagKey)
+                ? Optional.of(imported.get(flagKey))
+                : stored.computeIfAbsent(flagKey, flagRepository::findFirstByFlagKey);
+    var invalid = new LinkedHashMap<String, String>();
+    for (Flag flag : imported.values()) {
+      try {
+        checkPrerequisites(flag, lookup);
+      } catch (InvalidFeatureFlagException e) {
+        invalid.put(flag.getFlagKey(), e.getMessage());
+      }
+    }
+    imported.keySet().removeAll(invalid.keySet());
+    errors.putAll(invalid);
+  }
+
+  private static void checkFlag(Flag flag) throws InvalidFeatureFlagException {
+    validateFlag(flag);
+    checkRolloutPercentage(flag);
+    checkVariant(flag);
+    checkTimeWindow(flag);
+    checkTargets(flag);
   }
 
   private Flag getFlagIfIsPresent(String flagKey) throws InvalidFeatureFlagException {
@@ -81,11 +456,7 @@ public class MongoDBFeatureFlagProviderExtended extends MongoDBFeatureFlagProvid
   }
 
   private static void validateFlag(Flag flag) throws InvalidFeatureFlagException {
-    Validator validator;
-    try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
-      validator = factory.getValidator();
-    }
-    var errors = validator.validate(flag);
+    var errors = VALIDATOR.validate(flag);
     if (!errors.isEmpty()) {
       var messages = new ArrayList<>();
       for (var error : errors) {
@@ -1,31 +1,42 @@
 package io.github.jacopocarlini.fffp.repository;
 
-import io.github.jacopocarlini.fffp.config.MongoClientManager;
-import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import java.util.Map;
 import java.util.Optional;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 
-public class AssignedTargetRepository {
-  private final MongoTemplate mongoTemplate;
+/**
+ * Storage of the sticky rollout assignments. Every assignment is made for a rollout epoch of its
+ * flag and is served only while the flag has that epoch, or an earlier one; assignments of an
+ * earlier epoch are replaced when the target is evaluated again and removed by {@link
+ * #deleteStale}.
+ */
+public interface AssignedTargetRepository {
 
-  public AssignedTargetRepository(MongoClientManager mongoClientManager) {
-    this.mongoTemplate = mongoClientManager.getMongoTemplate();
-  }
+  /** Creates the indexes the repository relies on. */
+  void ensureIndexes();
 
-  public void deleteAllByFlagKey(String flagKey) {
-    Query query = new Query(Criteria.where("flagKey").is(flagKey));
-    mongoTemplate.remove(query, AssignedTarget.class);
-  }
+  /**
+   * Deletes a batch of the assignments of the flag made for an epoch before the given one. {@link
+   * Long#MAX_VALUE} deletes all the assignments of the flag.
+   *
+   * @param limit the maximum number of assignments deleted by the call
+   * @return true if more stale assignments may be left
+   */
+  boolean deleteStale(String flagKey, long epoch, int limit);
 
-  public void save(AssignedTarget assignedTarget) {
-    mongoTemplate.save(assignedTarget);
-  }
+  Optional<String> findVariant(String flagKey, long epoch, String targetKey);
 
-  public Optional<AssignedTarget> findFirstByFlagKeyAndTargetKey(String flagKey, String targetKey) {
-    Query query = new Query(Criteria.where("flagKey").is(flagKey).and("targetKey").is(targetKey));
-    var entity = mongoTemplate.findOne(query, AssignedTarget.class);
-    return Optional.ofNullable(entity);
-  }
+  /**
+   * @param epochs the current rollout epoch of each flag to look up, by flag key
+   * @return the variants assigned to the target, by flag key
+   */
+  Map<String, String> findVariants(String targetKey, Map<String, Long> epochs);
+
+  /**
+   * Assigns the variant to the target unless the target already has one for the epoch of the
+   * flag; an assignment of an earlier epoch is replaced. The check and the write are a single
+   * atomic operation, so concurrent evaluations always agree.
+   *
+   * @return the variant assigned before this call, or empty if {@code variant} has been stored
+   */
+  Optional<String> assignIfAbsent(String flagKey, long epoch, String targetKey, String variant);
 }
@@ -0,0 +1,100 @@
+package io.github.jacopocarlini.fffp.repository;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Deletes in the background the sticky assignments that are no longer served, because the rollout
+ * epoch of their flag changed or the flag was deleted. The flags are swept one at a time, in
+ * batches of {@code batchSize} assignments separated by {@code pause}, so a large sweep does not
+ * saturate the database. Requests for the same flag are merged, keeping the latest epoch.
+ *
+ * <p>The requests pending when the sweeper is closed are dropped: the assignments they would have
+ * deleted are never served, and the idle expiry removes them when enabled.
+ */
+@Slf4j
+public class AssignmentSweeper implements AutoCloseable {
+
+  private static final Duration RETRY_DELAY = Duration.ofSeconds(5);
+
+  private final AssignedTargetRepository repository;
+  private final int batchSize;
+  private final long pauseNanos;
+
+  private final Map<String, Long> pending = new ConcurrentHashMap<>();
+  private final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+  private Thread worker;
+  private volatile boolean closed;
+
+  public AssignmentSweeper(AssignedTargetRepository repository, int batchSize, Duration pause) {
+    this.repository = repository;
+    this.batchSize = Math.max(1, batchSize);
+    this.pauseNanos = pause.toNanos();
+  }
+
+  /**
+   * Requests the deletion of the assignments of the flag made for an epoch before the given one.
+   * The worker thread is started by the first request.
+   */
+  public void sweep(String flagKey, long epoch) {
+    if (closed) {
+      return;
+    }
+    pending.merge(flagKey, epoch, Math::max);
+    queue.add(flagKey);
+    startWorker();
+  }
+
+  /** Number of flags waiting to be swept, excluding the one being swept. */
+  public int pending() {
+    return pending.size();
+  }
+
+  @Override
+  public synchronized void close() {
+    closed = true;
+    if (worker != null) {
+      worker.interrupt();
+    }
+  }
+
+  private synchronized void startWorker() {
+    if (worker == null && !closed) {
+      worker = new Thread(this::run, "fffp-assignment-sweeper");
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  private void run() {
+    try {
+      while (!closed) {
+        String flagKey = queue.take();
+        Long epoch = pending.remove(flagKey);
+        if (epoch != null) {
+          deleteStale(flagKey, epoch);
+        }
+      }
+    } catch (InterruptedException e) {
+      // closed
+    }
+  }
+
+  private void deleteStale(String flagKey, long epoch) throws InterruptedException {
+    try {
+      while (!closed && repository.deleteStale(flagKey, epoch, batchSize)) {
+        TimeUnit.NANOSECONDS.sleep(pauseNanos);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Unable to delete the stale assignments of the flag {}, retrying", flagKey, e);
+      TimeUnit.MILLISECONDS.sleep(RETRY_DELAY.toMillis());
+      pending.merge(flagKey, epoch, Math::max);
+      queue.add(flagKey);
+    }
+  }
+}
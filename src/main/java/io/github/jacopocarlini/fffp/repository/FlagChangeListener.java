@@ -0,0 +1,34 @@
+package io.github.jacopocarlini.fffp.repository;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import java.util.Collection;
+
+/** Receives the changes of the flags observed by {@link FlagRepository#watch}. */
+public interface FlagChangeListener {
+
+  /** A flag has been inserted, replaced or updated. */
+  void onFlagSaved(Flag flag);
+
+  /** Many flags have been saved together, for example by a bulk write. */
+  default void onFlagsSaved(Collection<Flag> flags) {
+    flags.forEach(this::onFlagSaved);
+  }
+
+  /** The flag with the given document id has been removed. */
+  void onFlagDeleted(String id);
+
+  /**
+   * Changes are observed from now on, but some may have been missed (for example a change stream
+   * reopened without a valid resume token), so all the flags must be reloaded.
+   */
+  void onReset();
+
+  /** The watch is broken: changes are not observed until it recovers. */
+  void onError(RuntimeException e);
+
+  /**
+   * The watch recovered without missing any change, for example a change stream reopened with its
+   * resume token, so the flags are up to date again without being reloaded.
+   */
+  default void onResumed() {}
+}
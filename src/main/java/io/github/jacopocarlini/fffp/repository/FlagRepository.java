@@ -1,36 +1,68 @@
 package io.github.jacopocarlini.fffp.repository;
 
-import io.github.jacopocarlini.fffp.config.MongoClientManager;
 import io.github.jacopocarlini.fffp.entity.Flag;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
 
-public class FlagRepository {
-  private final MongoTemplate mongoTemplate;
+/** Storage of the flag definitions. */
+public interface FlagRepository {
 
-  public FlagRepository(MongoClientManager mongoClientManager) {
-    this.mongoTemplate = mongoClientManager.getMongoTemplate();
-  }
+  void deleteByFlagKey(String flagKey);
 
-  public void deleteByFlagKey(String flagKey) {
-    Query query = new Query(Criteria.where("flagKey").is(flagKey));
-    mongoTemplate.remove(query, Flag.class);
-  }
+  Optional<Flag> findFirstByFlagKey(String flagKey);
 
-  public Optional<Flag> findFirstByFlagKey(String flagKey) {
-    Query query = new Query(Criteria.where("flagKey").is(flagKey));
-    var entity = mongoTemplate.findOne(query, Flag.class);
-    return Optional.ofNullable(entity);
-  }
+  void save(Flag flag);
 
-  public void save(Flag flag) {
-    mongoTemplate.save(flag);
-  }
+  List<Flag> findAll();
+
+  List<Flag> findAllByFlagKeyIn(Collection<String> flagKeys);
 
-  public List<Flag> findAll() {
-    return mongoTemplate.findAll(Flag.class);
+  /**
+   * Saves and deletes many flags at once. The flags are matched by key, so a flag without id
+   * replaces the stored flag with the same key. The changes are independent and a failure does not
+   * stop the others, unless {@code atomic} is set: then either all the changes are applied or none.
+   *
+   * @return the error of every flag that could not be saved or deleted, by flag key
+   * @throws UnsupportedOperationException if {@code atomic} is set and the backend cannot apply
+   *     the changes atomically
+   */
+  default Map<String, String> bulkWrite(
+      Collection<Flag> flags, Collection<String> deletedFlagKeys, boolean atomic) {
+    if (atomic) {
+      throw new UnsupportedOperationException(
+          getClass().getSimpleName() + " does not support atomic bulk writes");
+    }
+    var errors = new LinkedHashMap<String, String>();
+    for (Flag flag : flags) {
+      try {
+        save(flag);
+      } catch (RuntimeException e) {
+        errors.put(flag.getFlagKey(), e.getMessage());
+      }
+    }
+    for (String flagKey : deletedFlagKeys) {
+      try {
+        deleteByFlagKey(flagKey);
+      } catch (RuntimeException e) {
+        errors.put(flagKey, e.getMessage());
+      }
+    }
+    return errors;
   }
+
+  /**
+   * Starts forwarding the changes of the flags to the listener, including the changes made by
+   * other processes when the storage is shared. The listener receives {@link
+   * FlagChangeListener#onReset()} once the changes are observed and, after a failure reported to
+   * {@link FlagChangeListener#onError}, either {@code onReset()} again or {@link
+   * FlagChangeListener#onResumed()} once they are observed again.
+   *
+   * @param retryDelay the delay before observing the changes again after a failure
+   * @return the subscription, to be closed to stop receiving the changes
+   */
+  FlagSubscription watch(FlagChangeListener listener, Duration retryDelay);
 }
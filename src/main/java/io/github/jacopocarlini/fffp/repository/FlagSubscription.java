@@ -0,0 +1,9 @@
+package io.github.jacopocarlini.fffp.repository;
+
+/** A listener registered with {@link FlagRepository#watch}. */
+public interface FlagSubscription extends AutoCloseable {
+
+  /** Stops forwarding the changes to the listener. */
+  @Override
+  void close();
+}
@@ -0,0 +1,54 @@
+package io.github.jacopocarlini.fffp.repository;
+
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Storage of the segments: a {@link Segment} with the settings and the counters of each segment,
+ * and its ids split in {@link SegmentChunk}s. Every change increments the version of the segment
+ * and stamps it on the chunks it rewrites, so the providers only reload the chunks that changed.
+ */
+public interface SegmentRepository {
+
+  /** Creates the indexes the repository relies on. */
+  void ensureIndexes();
+
+  List<Segment> findAll();
+
+  Optional<Segment> findByName(String name);
+
+  /**
+   * Replaces all the ids of the segment, creating it if needed. The chunks are written under a
+   * new generation, which becomes visible once they are all written; the chunks of the previous
+   * generations are deleted afterwards. Ids added or removed while the segment is replaced may be
+   * lost.
+   *
+   * @param settings the name, the type and the false positive rate of the segment
+   * @param chunks the chunks of the ids, with their key and their ids only
+   */
+  void replace(Segment settings, Iterator<SegmentChunk> chunks);
+
+  /**
+   * Adds the ids of the chunks to the segment, or removes them; the other chunks are untouched.
+   *
+   * @param chunks the chunks of the ids, with their key and their ids only
+   * @return false if the segment does not exist
+   */
+  boolean update(String name, Iterator<SegmentChunk> chunks, boolean remove);
+
+  /**
+   * @return false if the segment does not exist
+   */
+  boolean delete(String name);
+
+  /** Passes the chunks of the generation changed after the given version, in no given order. */
+  void forEachChunk(
+      String name, long generation, long afterVersion, Consumer<SegmentChunk> consumer);
+
+  /** The exact lookup of a string id, which backs the Bloom filters. */
+  boolean containsMember(String name, long generation, long key, String member);
+}
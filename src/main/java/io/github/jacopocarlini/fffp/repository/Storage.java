@@ -0,0 +1,36 @@
+package io.github.jacopocarlini.fffp.repository;
+
+import io.github.jacopocarlini.fffp.exposure.ExposureSink;
+
+/**
+ * A storage backend of the provider: the repositories of the flags and of the sticky assignments,
+ * together with the resources they share. The provider closes the storage on shutdown.
+ */
+public interface Storage extends AutoCloseable {
+
+  FlagRepository flagRepository();
+
+  AssignedTargetRepository assignedTargetRepository();
+
+  /**
+   * @param collection the name of the collection, or the equivalent of the backend, where the
+   *     events are written
+   * @throws UnsupportedOperationException if the backend cannot store exposure events
+   */
+  default ExposureSink exposureSink(String collection) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " does not support exposure events");
+  }
+
+  /**
+   * @throws UnsupportedOperationException if the backend cannot store segments
+   */
+  default SegmentRepository segmentRepository() {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " does not support segments");
+  }
+
+  /** Releases the connections and the files of the backend. */
+  @Override
+  void close();
+}
@@ -0,0 +1,316 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only file of the assignment changes. Records are encoded by the caller and written by a
+ * background thread, which writes everything queued so far and then forces it to disk with a
+ * single fsync, at most once every {@code syncInterval}. A crash loses at most the records of the
+ * last interval; {@link #sync()} waits until everything appended so far is on disk.
+ *
+ * <p>Every record is {@code length, crc32, payload}; a torn record at the end of the file is
+ * dropped when the log is opened.
+ */
+@Slf4j
+class AssignmentLog implements AutoCloseable {
+
+  // assignments of epoch 0 keep the record of the versions without epochs
+  static final byte ASSIGN = 1;
+  // written by the versions without epochs, replayed as a DELETE_STALE of every epoch
+  static final byte DELETE_FLAG = 2;
+  static final byte ASSIGN_AT_EPOCH = 3;
+  static final byte DELETE_STALE = 4;
+
+  /** Receives the records of the log while it is replayed. */
+  interface Replay {
+    void assign(String flagKey, String targetKey, String variant, long epoch);
+
+    /** Removes the assignments of the flag made for an epoch before the given one. */
+    void deleteStale(String flagKey, long epoch);
+  }
+
+  /** A live assignment, written by {@link #compact}. */
+  record Assignment(String flagKey, String targetKey, String variant, long epoch) {}
+
+  private static final byte[] POISON = new byte[0];
+
+  private final Path path;
+  private final long syncIntervalNanos;
+  private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+  private final Thread writer;
+  private final Object channelLock = new Object();
+  private FileChannel channel;
+  private final AtomicLong records = new AtomicLong();
+
+  // number of records appended and of records forced to disk, guarded by syncLock
+  private final Object syncLock = new Object();
+  private long appended;
+  private long synced;
+
+  private AssignmentLog(Path path, Duration syncInterval) {
+    this.path = path;
+    this.syncIntervalNanos = syncInterval.toNanos();
+    this.writer = new Thread(this::run, "fffp-assignment-log");
+    this.writer.setDaemon(true);
+  }
+
+  /** Replays the existing records, then opens the log for appending. */
+  static AssignmentLog open(Path path, Duration syncInterval, Replay replay) throws IOException {
+    var assignmentLog = new AssignmentLog(path, syncInterval);
+    Files.createDirectories(path.toAbsolutePath().getParent());
+    long valid = assignmentLog.replay(replay);
+    var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    if (channel.size() > valid) {
+      log.warn("Dropping a torn record at the end of the assignment log {}", path);
+      channel.truncate(valid);
+    }
+    channel.position(valid);
+    assignmentLog.channel = channel;
+    assignmentLog.writer.start();
+    return assignmentLog;
+  }
+
+  /** Number of records in the log, used to decide when it is worth compacting. */
+  long records() {
+    return records.get();
+  }
+
+  void appendAssign(String flagKey, String targetKey, String variant, long epoch) {
+    append(encodeAssign(flagKey, targetKey, variant, epoch));
+  }
+
+  void appendDeleteStale(String flagKey, long epoch) {
+    append(encode(DELETE_STALE, flagKey, Long.toString(epoch)));
+  }
+
+  private void append(byte[] record) {
+    synchronized (syncLock) {
+      appended++;
+    }
+    records.incrementAndGet();
+    queue.add(record);
+  }
+
+  /** Blocks until every record appended before the call has been forced to disk. */
+  void sync() throws InterruptedException {
+    synchronized (syncLock) {
+      long target = appended;
+      while (synced < target && writer.isAlive()) {
+        syncLock.wait(100);
+      }
+    }
+  }
+
+  /**
+   * Replaces the log with the given assignments, which must be the whole current state. Must be
+   * called before anything is appended.
+   */
+  void compact(Iterable<Assignment> assignments) throws IOException {
+    Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), "assignments", ".tmp");
+    long count = 0;
+    try {
+      try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        var buffer = new ArrayList<byte[]>();
+        for (Assignment assignment : assignments) {
+          buffer.add(
+              encodeAssign(
+                  assignment.flagKey(),
+                  assignment.targetKey(),
+                  assignment.variant(),
+                  assignment.epoch()));
+          count++;
+          if (buffer.size() == 1024) {
+            write(out, buffer);
+            buffer.clear();
+          }
+        }
+        write(out, buffer);
+        out.force(true);
+      }
+      synchronized (channelLock) {
+        channel.close();
+        Files.move(
+            temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      }
+      records.set(count);
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /** Writes and syncs the queued records, then closes the file. */
+  @Override
+  public void close() {
+    queue.add(POISON);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      synchronized (channelLock) {
+        channel.close();
+      }
+    } catch (IOException e) {
+      log.warn("Unable to close the assignment log {}", path, e);
+    }
+  }
+
+  private long replay(Replay replay) throws IOException {
+    if (!Files.exists(path)) {
+      return 0;
+    }
+    long valid = 0;
+    try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      var crc = new CRC32();
+      while (true) {
+        byte[] payload;
+        try {
+          int length = in.readInt();
+          int expectedCrc = in.readInt();
+          if (length <= 0) {
+            break;
+          }
+          payload = in.readNBytes(length);
+          crc.reset();
+          crc.update(payload);
+          if (payload.length != length || (int) crc.getValue() != expectedCrc) {
+            break;
+          }
+        } catch (EOFException e) {
+          break;
+        }
+        apply(payload, replay);
+        valid += 8 + payload.length;
+        records.incrementAndGet();
+      }
+    }
+    return valid;
+  }
+
+  private static void apply(byte[] payload, Replay replay) throws IOException {
+    var in = new DataInputStream(new ByteArrayInputStream(payload));
+    byte type = in.readByte();
+    switch (type) {
+      case ASSIGN -> replay.assign(in.readUTF(), in.readUTF(), in.readUTF(), 0);
+      case DELETE_FLAG -> replay.deleteStale(in.readUTF(), Long.MAX_VALUE);
+      case ASSIGN_AT_EPOCH ->
+          replay.assign(in.readUTF(), in.readUTF(), in.readUTF(), Long.parseLong(in.readUTF()));
+      case DELETE_STALE -> replay.deleteStale(in.readUTF(), Long.parseLong(in.readUTF()));
+      default -> throw new IOException("Unknown assignment log record " + type);
+    }
+  }
+
+  private void run() {
+    var batch = new ArrayList<byte[]>();
+    boolean closed = false;
+    while (!closed) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        closed = true;
+      }
+      queue.drainTo(batch);
+      closed |= batch.remove(POISON);
+      long start = System.nanoTime();
+      writeBatch(batch);
+
+      long elapsed = System.nanoTime() - start;
+      if (!closed && elapsed < syncIntervalNanos) {
+        // lets the next records pile up, so they share the next fsync
+        try {
+          TimeUnit.NANOSECONDS.sleep(syncIntervalNanos - elapsed);
+        } catch (InterruptedException e) {
+          closed = true;
+        }
+      }
+    }
+    queue.drainTo(batch);
+    batch.remove(POISON);
+    writeBatch(batch);
+  }
+
+  private void writeBatch(List<byte[]> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      synchronized (channelLock) {
+        write(channel, batch);
+        channel.force(false);
+      }
+    } catch (IOException e) {
+      log.warn("Unable to write {} records to the assignment log {}", batch.size(), path, e);
+    }
+    synchronized (syncLock) {
+      synced += batch.size();
+      syncLock.notifyAll();
+    }
+    batch.clear();
+  }
+
+  private static void write(FileChannel channel, List<byte[]> records) throws IOException {
+    int size = 0;
+    for (byte[] record : records) {
+      size += record.length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(size);
+    records.forEach(buffer::put);
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static byte[] encodeAssign(
+      String flagKey, String targetKey, String variant, long epoch) {
+    return epoch == 0
+        ? encode(ASSIGN, flagKey, targetKey, variant)
+        : encode(ASSIGN_AT_EPOCH, flagKey, targetKey, variant, Long.toString(epoch));
+  }
+
+  private static byte[] encode(byte type, String... values) {
+    try {
+      var payload = new ByteArrayOutputStream(64);
+      var out = new DataOutputStream(payload);
+      out.writeByte(type);
+      for (String value : values) {
+        out.writeUTF(value);
+      }
+      byte[] bytes = payload.toByteArray();
+      var crc = new CRC32();
+      crc.update(bytes);
+      return ByteBuffer.allocate(8 + bytes.length)
+          .putInt(bytes.length)
+          .putInt((int) crc.getValue())
+          .put(bytes)
+          .array();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the sticky assignments in memory, grouped by target, and optionally appends every change
+ * to an {@link AssignmentLog} that is replayed on the next start. Lookups never lock.
+ */
+public class EmbeddedAssignedTargetRepository implements AssignedTargetRepository, AutoCloseable {
+
+  // the log is compacted on start when it holds more than twice the live assignments
+  private static final long MIN_RECORDS_TO_COMPACT = 1024;
+
+  private final Map<String, Map<String, Assigned>> variantsByTarget = new ConcurrentHashMap<>();
+
+  // assignments share the lock, deleting the stale assignments takes it exclusively so that the
+  // log records are in the same order as the changes of the maps
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private final AssignmentLog log;
+
+  /** Creates a repository that is lost when the process ends. */
+  public EmbeddedAssignedTargetRepository() {
+    log = null;
+  }
+
+  /**
+   * Creates a repository persisted to the given log file, loading the assignments already there.
+   *
+   * @param syncInterval the minimum time between two fsyncs of the log
+   */
+  public EmbeddedAssignedTargetRepository(Path logPath, Duration syncInterval) throws IOException {
+    log =
+        AssignmentLog.open(
+            logPath,
+            syncInterval,
+            new AssignmentLog.Replay() {
+              @Override
+              public void assign(String flagKey, String targetKey, String variant, long epoch) {
+                variantsOf(targetKey).put(flagKey, new Assigned(variant, epoch));
+              }
+
+              @Override
+              public void deleteStale(String flagKey, long epoch) {
+                removeStale(flagKey, epoch);
+              }
+            });
+    long live = variantsByTarget.values().stream().mapToLong(Map::size).sum();
+    if (log.records() > MIN_RECORDS_TO_COMPACT && log.records() > 2 * live) {
+      log.compact(this::assignments);
+    }
+  }
+
+  @Override
+  public void ensureIndexes() {
+    // lookups are by key
+  }
+
+  /** Removes all the stale assignments of the flag at once, whatever the limit. */
+  @Override
+  public boolean deleteStale(String flagKey, long epoch, int limit) {
+    lock.writeLock().lock();
+    try {
+      removeStale(flagKey, epoch);
+      if (log != null) {
+        log.appendDeleteStale(flagKey, epoch);
+      }
+      return false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public Optional<String> findVariant(String flagKey, long epoch, String targetKey) {
+    Map<String, Assigned> variants = variantsByTarget.get(targetKey);
+    return variants == null
+        ? Optional.empty()
+        : Optional.ofNullable(variants.get(flagKey))
+            .filter(assigned -> assigned.epoch() >= epoch)
+            .map(Assigned::variant);
+  }
+
+  @Override
+  public Map<String, String> findVariants(String targetKey, Map<String, Long> epochs) {
+    Map<String, Assigned> variants = variantsByTarget.get(targetKey);
+    var result = new HashMap<String, String>();
+    if (variants == null) {
+      return result;
+    }
+    epochs.forEach(
+        (flagKey, epoch) -> {
+          Assigned assigned = variants.get(flagKey);
+          if (assigned != null && assigned.epoch() >= epoch) {
+            result.put(flagKey, assigned.variant());
+          }
+        });
+    return result;
+  }
+
+  @Override
+  public Optional<String> assignIfAbsent(
+      String flagKey, long epoch, String targetKey, String variant) {
+    lock.readLock().lock();
+    try {
+      var candidate = new Assigned(variant, epoch);
+      Assigned stored =
+          variantsOf(targetKey)
+              .merge(
+                  flagKey,
+                  candidate,
+                  (current, added) -> current.epoch() >= epoch ? current : added);
+      if (stored != candidate) {
+        return Optional.of(stored.variant());
+      }
+      if (log != null) {
+        log.appendAssign(flagKey, targetKey, variant, epoch);
+      }
+      return Optional.empty();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Blocks until every assignment made so far has been forced to disk. Does nothing when the
+   * repository is not persisted.
+   */
+  public void sync() throws InterruptedException {
+    if (log != null) {
+      log.sync();
+    }
+  }
+
+  /** Writes the pending assignments to the log and closes it. */
+  @Override
+  public void close() {
+    if (log != null) {
+      log.close();
+    }
+  }
+
+  private Map<String, Assigned> variantsOf(String targetKey) {
+    return variantsByTarget.computeIfAbsent(targetKey, key -> new ConcurrentHashMap<>());
+  }
+
+  private void removeStale(String flagKey, long epoch) {
+    variantsByTarget
+        .values()
+        .forEach(
+            variants ->
+                variants.computeIfPresent(
+                    flagKey, (key, assigned) -> assigned.epoch() < epoch ? null : assigned));
+  }
+
+  private Iterator<AssignmentLog.Assignment> assignments() {
+    return variantsByTarget.entrySet().stream()
+        .flatMap(
+            target ->
+                target.getValue().entrySet().stream()
+                    .map(
+                        assignment ->
+                            new AssignmentLog.Assignment(
+                                assignment.getKey(),
+                                target.getKey(),
+                                assignment.getValue().variant(),
+                                assignment.getValue().epoch())))
+        .iterator();
+  }
+
+  private record Assigned(String variant, long epoch) {}
+}
@@ -0,0 +1,74 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import io.github.jacopocarlini.fffp.repository.Storage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import lombok.Builder;
+
+/**
+ * The embedded backend: flags and assignments live in the JVM, so the provider needs no external
+ * service. The flags and the segments are not persisted and are usually loaded at start; the
+ * assignments can be persisted to an append-only log.
+ */
+public class EmbeddedStorage implements Storage {
+  private static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofMillis(10);
+
+  private final InMemoryFlagRepository flagRepository;
+  private final EmbeddedAssignedTargetRepository assignedTargetRepository;
+  private final InMemorySegmentRepository segmentRepository = new InMemorySegmentRepository();
+
+  /**
+   * @param flags the initial flags
+   * @param assignmentLog the file where the assignments are persisted, or null to keep them only
+   *     in memory
+   * @param syncInterval the minimum time between two fsyncs of the assignment log, 10 ms by
+   *     default
+   * @throws UncheckedIOException if the assignment log cannot be opened
+   */
+  @Builder
+  public EmbeddedStorage(Collection<Flag> flags, Path assignmentLog, Duration syncInterval) {
+    flagRepository = new InMemoryFlagRepository(flags == null ? List.of() : flags);
+    try {
+      assignedTargetRepository =
+          assignmentLog == null
+              ? new EmbeddedAssignedTargetRepository()
+              : new EmbeddedAssignedTargetRepository(
+                  assignmentLog, syncInterval == null ? DEFAULT_SYNC_INTERVAL : syncInterval);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to open the assignment log " + assignmentLog, e);
+    }
+  }
+
+  /** Creates a storage that keeps everything in memory. */
+  public static EmbeddedStorage inMemory() {
+    return builder().build();
+  }
+
+  @Override
+  public FlagRepository flagRepository() {
+    return flagRepository;
+  }
+
+  @Override
+  public AssignedTargetRepository assignedTargetRepository() {
+    return assignedTargetRepository;
+  }
+
+  @Override
+  public SegmentRepository segmentRepository() {
+    return segmentRepository;
+  }
+
+  @Override
+  public void close() {
+    assignedTargetRepository.close();
+  }
+}
@@ -0,0 +1,144 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.FlagChangeListener;
+import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import io.github.jacopocarlini.fffp.repository.FlagSubscription;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.bson.types.ObjectId;
+import org.springframework.dao.DuplicateKeyException;
+
+/**
+ * Keeps the flags in memory. Reads never lock; writes are serialized and forwarded to the
+ * listeners registered with {@link #watch} in the order they are applied. Flags are copied on the
+ * way in and out, as if they were read from a database.
+ */
+public class InMemoryFlagRepository implements FlagRepository {
+  private final Map<String, Flag> flagsByKey = new ConcurrentHashMap<>();
+  private final Map<String, String> keyById = new ConcurrentHashMap<>();
+  private final List<FlagChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+  public InMemoryFlagRepository() {}
+
+  public InMemoryFlagRepository(Collection<Flag> flags) {
+    flags.forEach(this::save);
+  }
+
+  @Override
+  public synchronized void deleteByFlagKey(String flagKey) {
+    Flag flag = flagsByKey.remove(flagKey);
+    if (flag != null) {
+      keyById.remove(flag.getId());
+      listeners.forEach(listener -> listener.onFlagDeleted(flag.getId()));
+    }
+  }
+
+  @Override
+  public Optional<Flag> findFirstByFlagKey(String flagKey) {
+    return Optional.ofNullable(flagsByKey.get(flagKey)).map(InMemoryFlagRepository::copy);
+  }
+
+  /**
+   * Inserts or replaces the flag with the same id, assigning an id to new flags.
+   *
+   * @throws DuplicateKeyException if another flag has the same key
+   */
+  @Override
+  public synchronized void save(Flag flag) {
+    Flag saved = store(flag);
+    listeners.forEach(listener -> listener.onFlagSaved(copy(saved)));
+  }
+
+  private Flag store(Flag flag) {
+    if (flag.getId() == null) {
+      flag.setId(new ObjectId().toHexString());
+    }
+    Flag owner = flagsByKey.get(flag.getFlagKey());
+    if (owner != null && !owner.getId().equals(flag.getId())) {
+      throw new DuplicateKeyException("Duplicate flag key: " + flag.getFlagKey());
+    }
+    String previousKey = keyById.put(flag.getId(), flag.getFlagKey());
+    if (previousKey != null && !previousKey.equals(flag.getFlagKey())) {
+      flagsByKey.remove(previousKey);
+    }
+    Flag stored = copy(flag);
+    flagsByKey.put(flag.getFlagKey(), stored);
+    return stored;
+  }
+
+  /**
+   * Applies the changes under the write lock and notifies the saved flags with a single {@link
+   * FlagChangeListener#onFlagsSaved}. With {@code atomic} set the conflicting keys are checked
+   * first, so a conflict leaves the repository unchanged.
+   */
+  @Override
+  public synchronized Map<String, String> bulkWrite(
+      Collection<Flag> flags, Collection<String> deletedFlagKeys, boolean atomic) {
+    var errors = new LinkedHashMap<String, String>();
+    if (atomic) {
+      for (Flag flag : flags) {
+        Flag owner = flagsByKey.get(flag.getFlagKey());
+        if (owner != null && flag.getId() != null && !owner.getId().equals(flag.getId())) {
+          errors.put(flag.getFlagKey(), "Duplicate flag key: " + flag.getFlagKey());
+        }
+      }
+      if (!errors.isEmpty()) {
+        return errors;
+      }
+    }
+    var saved = new ArrayList<Flag>(flags.size());
+    for (Flag flag : flags) {
+      Flag owner = flagsByKey.get(flag.getFlagKey());
+      Flag replacement = flag;
+      if (flag.getId() == null && owner != null) {
+        replacement = flag.toBuilder().id(owner.getId()).build();
+      }
+      try {
+        saved.add(store(replacement));
+      } catch (DuplicateKeyException e) {
+        errors.put(flag.getFlagKey(), e.getMessage());
+      }
+    }
+    if (!saved.isEmpty()) {
+      for (FlagChangeListener listener : listeners) {
+        listener.onFlagsSaved(saved.stream().map(InMemoryFlagRepository::copy).toList());
+      }
+    }
+    deletedFlagKeys.forEach(this::deleteByFlagKey);
+    return errors;
+  }
+
+  @Override
+  public List<Flag> findAll() {
+    var flags = new ArrayList<Flag>(flagsByKey.size());
+    flagsByKey.values().forEach(flag -> flags.add(copy(flag)));
+    return flags;
+  }
+
+  @Override
+  public List<Flag> findAllByFlagKeyIn(Collection<String> flagKeys) {
+    var flags = new ArrayList<Flag>(flagKeys.size());
+    flagKeys.forEach(flagKey -> findFirstByFlagKey(flagKey).ifPresent(flags::add));
+    return flags;
+  }
+
+  /** Registers the listener; the changes are delivered on the thread that makes them. */
+  @Override
+  public synchronized FlagSubscription watch(FlagChangeListener listener, Duration retryDelay) {
+    listeners.add(listener);
+    listener.onReset();
+    return () -> listeners.remove(listener);
+  }
+
+  private static Flag copy(Flag flag) {
+    return flag.toBuilder().build();
+  }
+}
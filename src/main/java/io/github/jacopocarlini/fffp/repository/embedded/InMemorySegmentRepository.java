@@ -0,0 +1,148 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the segments in memory, with the same chunks and versions as the MongoDB backend. All the
+ * operations are serialized; segments and chunks are copied on the way in and out.
+ */
+public class InMemorySegmentRepository implements SegmentRepository {
+  private final Map<String, Segment> segments = new HashMap<>();
+  private final Map<String, SegmentChunk> chunksById = new HashMap<>();
+
+  @Override
+  public void ensureIndexes() {
+    // nothing to index
+  }
+
+  @Override
+  public synchronized List<Segment> findAll() {
+    return segments.values().stream().map(segment -> segment.toBuilder().build()).toList();
+  }
+
+  @Override
+  public synchronized Optional<Segment> findByName(String name) {
+    return Optional.ofNullable(segments.get(name)).map(segment -> segment.toBuilder().build());
+  }
+
+  @Override
+  public synchronized void replace(Segment settings, Iterator<SegmentChunk> chunks) {
+    Segment previous = segments.get(settings.getName());
+    long generation = previous == null ? 1 : previous.getLastGeneration() + 1;
+    chunksById.values().removeIf(chunk -> chunk.getSegment().equals(settings.getName()));
+    while (chunks.hasNext()) {
+      SegmentChunk chunk = chunks.next();
+      String id = SegmentChunk.idOf(settings.getName(), generation, chunk.getKey());
+      chunksById.put(
+          id,
+          copy(chunk).toBuilder()
+              .id(id)
+              .segment(settings.getName())
+              .generation(generation)
+              .build());
+    }
+    segments.put(
+        settings.getName(),
+        Segment.builder()
+            .name(settings.getName())
+            .type(settings.getType())
+            .falsePositiveRate(settings.getFalsePositiveRate())
+            .generation(generation)
+            .lastGeneration(generation)
+            .version(previous == null ? 1 : previous.getVersion() + 1)
+            .build());
+  }
+
+  @Override
+  public synchronized boolean update(String name, Iterator<SegmentChunk> chunks, boolean remove) {
+    Segment segment = segments.get(name);
+    if (segment == null) {
+      return false;
+    }
+    long version = segment.getVersion() + 1;
+    segment.setVersion(version);
+    while (chunks.hasNext()) {
+      SegmentChunk chunk = chunks.next();
+      String id = SegmentChunk.idOf(name, segment.getGeneration(), chunk.getKey());
+      SegmentChunk stored = chunksById.get(id);
+      if (stored == null) {
+        if (remove) {
+          continue;
+        }
+        stored =
+            SegmentChunk.builder()
+                .id(id)
+                .segment(name)
+                .generation(segment.getGeneration())
+                .key(chunk.getKey())
+                .build();
+        chunksById.put(id, stored);
+      }
+      stored.setVersion(version);
+      if (chunk.getNumbers() != null) {
+        stored.setNumbers(merge(stored.getNumbers(), chunk.getNumbers(), remove));
+      } else {
+        stored.setMembers(merge(stored.getMembers(), chunk.getMembers(), remove));
+      }
+    }
+    return true;
+  }
+
+  private static <T> List<T> merge(List<T> stored, List<T> changed, boolean remove) {
+    var merged = new LinkedHashSet<T>(stored == null ? List.of() : stored);
+    if (remove) {
+      changed.forEach(merged::remove);
+    } else {
+      merged.addAll(changed);
+    }
+    return new ArrayList<>(merged);
+  }
+
+  @Override
+  public synchronized boolean delete(String name) {
+    chunksById.values().removeIf(chunk -> chunk.getSegment().equals(name));
+    return segments.remove(name) != null;
+  }
+
+  @Override
+  public void forEachChunk(
+      String name, long generation, long afterVersion, Consumer<SegmentChunk> consumer) {
+    List<SegmentChunk> changed;
+    synchronized (this) {
+      changed =
+          chunksById.values().stream()
+              .filter(
+                  chunk ->
+                      chunk.getSegment().equals(name)
+                          && chunk.getGeneration() == generation
+                          && chunk.getVersion() > afterVersion)
+              .map(InMemorySegmentRepository::copy)
+              .toList();
+    }
+    changed.forEach(consumer);
+  }
+
+  @Override
+  public synchronized boolean containsMember(
+      String name, long generation, long key, String member) {
+    SegmentChunk chunk = chunksById.get(SegmentChunk.idOf(name, generation, key));
+    return chunk != null && chunk.getMembers() != null && chunk.getMembers().contains(member);
+  }
+
+  private static SegmentChunk copy(SegmentChunk chunk) {
+    return chunk.toBuilder()
+        .numbers(chunk.getNumbers() == null ? null : List.copyOf(chunk.getNumbers()))
+        .members(chunk.getMembers() == null ? null : List.copyOf(chunk.getMembers()))
+        .build();
+  }
+}
@@ -0,0 +1,177 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.FlagChangeListener;
+import io.github.jacopocarlini.fffp.repository.FlagSubscription;
+import java.time.Duration;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+
+/**
+ * Tails the {@code flags} collection with a change stream on a daemon thread and forwards every
+ * change to a {@link FlagChangeListener}. The last resume token is kept so a broken stream is
+ * reopened where it stopped; when resuming is not possible anymore the listener is asked to
+ * reload the whole collection. The full documents are decoded by the codecs of the flag reads.
+ *
+ * <p>The stream is opened on the current connection of the {@link MongoClientManager}: when the
+ * connection is replaced, the stream breaks as soon as the old client is closed and is reopened
+ * immediately on the new one.
+ */
+@Slf4j
+public class FlagChangeStreamWatcher implements FlagSubscription {
+
+  // ChangeStreamHistoryLost, ChangeStreamFatalError
+  private static final int HISTORY_LOST = 286;
+  private static final int FATAL_ERROR = 280;
+
+  private final MongoClientManager mongoClientManager;
+  private final FlagChangeListener listener;
+  private final Duration retryDelay;
+  private final Thread thread;
+
+  private volatile boolean running = true;
+  private volatile MongoChangeStreamCursor<ChangeStreamDocument<Flag>> cursor;
+  private BsonDocument resumeToken;
+  private MongoDatabase database;
+
+  FlagChangeStreamWatcher(
+      MongoClientManager mongoClientManager, FlagChangeListener listener, Duration retryDelay) {
+    this.mongoClientManager = mongoClientManager;
+    this.listener = listener;
+    this.retryDelay = retryDelay;
+    this.thread = new Thread(this::run, "fffp-flag-change-stream");
+    this.thread.setDaemon(true);
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    closeCursor();
+    thread.interrupt();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        boolean resuming = resumeToken != null;
+        cursor = open().cursor();
+        if (resuming) {
+          // the server accepted the resume token, no change has been missed
+          listener.onResumed();
+        } else {
+          // changes made before the stream was opened are not delivered
+          listener.onReset();
+        }
+        consume();
+      } catch (RuntimeException e) {
+        if (!running) {
+          return;
+        }
+        if (isConnectionReplaced()) {
+          log.debug("MongoDB connection replaced, reopening the flags change stream");
+          continue;
+        }
+        if (isNotResumable(e)) {
+          resumeToken = null;
+        }
+        log.warn("Flags change stream interrupted, retrying in {}", retryDelay, e);
+        listener.onError(e);
+        pause();
+      } finally {
+        closeCursor();
+      }
+    }
+  }
+
+  private ChangeStreamIterable<Flag> open() {
+    database = mongoClientManager.getFlagReadDatabase();
+    var stream =
+        database
+            .getCollection(MongoFlagRepository.COLLECTION, Flag.class)
+            .watch()
+            .fullDocument(FullDocument.UPDATE_LOOKUP);
+    return resumeToken != null ? stream.resumeAfter(resumeToken) : stream;
+  }
+
+  private void consume() {
+    while (running && cursor.hasNext()) {
+      ChangeStreamDocument<Flag> event = cursor.next();
+      switch (event.getOperationType()) {
+        case INSERT, REPLACE, UPDATE -> {
+          if (event.getFullDocument() != null) {
+            listener.onFlagSaved(event.getFullDocument());
+          } else if (event.getDocumentKey() != null) {
+            // the document has been deleted before the lookup
+            listener.onFlagDeleted(idOf(event.getDocumentKey()));
+          }
+        }
+        case DELETE -> listener.onFlagDeleted(idOf(event.getDocumentKey()));
+        case DROP, RENAME, DROP_DATABASE, INVALIDATE -> {
+          // the stream is closed by the server after these events
+          resumeToken = null;
+          return;
+        }
+        default -> {
+          // other events do not change the flags
+        }
+      }
+      resumeToken = cursor.getResumeToken();
+    }
+  }
+
+  private static String idOf(BsonDocument documentKey) {
+    BsonValue id = documentKey.get("_id");
+    if (id.isObjectId()) {
+      return id.asObjectId().getValue().toHexString();
+    }
+    return id.isString() ? id.asString().getValue() : id.toString();
+  }
+
+  private boolean isConnectionReplaced() {
+    try {
+      return database != null && database != mongoClientManager.getFlagReadDatabase();
+    } catch (IllegalStateException e) {
+      // the manager has been shut down
+      return false;
+    }
+  }
+
+  private static boolean isNotResumable(RuntimeException e) {
+    return e instanceof MongoCommandException commandException
+        && (commandException.getCode() == HISTORY_LOST
+            || commandException.getCode() == FATAL_ERROR);
+  }
+
+  private void closeCursor() {
+    var current = cursor;
+    cursor = null;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (RuntimeException e) {
+        // the cursor is already broken, nothing to release
+      }
+    }
+  }
+
+  private void pause() {
+    try {
+      Thread.sleep(retryDelay.toMillis());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      running = false;
+    }
+  }
+}
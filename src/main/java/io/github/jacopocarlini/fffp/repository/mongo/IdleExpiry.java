@@ -0,0 +1,91 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Updates;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+/**
+ * Optional expiry of the assignments that are not evaluated for a while. The assignment writes
+ * and the reads that serve an assignment refresh a {@code lastSeenAt} date, at most once every
+ * tenth of the time to live so that most writes stay no-ops and most reads do not write, and a TTL
+ * index on it lets MongoDB delete the idle documents in the background.
+ */
+@Slf4j
+final class IdleExpiry {
+  static final String FIELD = "lastSeenAt";
+  static final String INDEX = "lastSeenAt_ttl";
+
+  // null when the assignments never expire
+  private final Duration ttl;
+
+  IdleExpiry(Duration ttl) {
+    this.ttl = ttl;
+  }
+
+  boolean isEnabled() {
+    return ttl != null;
+  }
+
+  /** Creates, replaces or drops the TTL index so that it matches the time to live. */
+  void ensureIndex(IndexOperations indexOps) {
+    for (IndexInfo index : indexOps.getIndexInfo()) {
+      boolean outdated =
+          ttl == null
+              || index.getExpireAfter().map(Duration::getSeconds).orElse(-1L)
+                  != ttl.getSeconds();
+      if (INDEX.equals(index.getName()) && outdated) {
+        indexOps.dropIndex(INDEX);
+      }
+    }
+    if (ttl != null) {
+      indexOps.ensureIndex(
+          new Index().on(FIELD, Sort.Direction.ASC).named(INDEX).expire(ttl.getSeconds()));
+    }
+  }
+
+  /** The pipeline expression of the new {@code lastSeenAt}: now, unless refreshed recently. */
+  Document lastSeenAt() {
+    var recent =
+        new Document(
+            "$gt",
+            List.of("$" + FIELD, new Document("$subtract", List.of("$$NOW", refreshMillis()))));
+    return new Document("$cond", List.of(recent, "$" + FIELD, "$$NOW"));
+  }
+
+  /** @return true if a document read with this {@code lastSeenAt} must be refreshed */
+  boolean isDue(Instant lastSeenAt) {
+    return ttl != null
+        && (lastSeenAt == null
+            || lastSeenAt.isBefore(Instant.now().minusMillis(refreshMillis())));
+  }
+
+  /**
+   * Sets {@code lastSeenAt} to now on the documents of the filter that have not been refreshed
+   * recently. A failure is not reported to the read that served the assignment: the next read
+   * tries again, long before the document expires.
+   */
+  void refresh(MongoCollection<?> collection, Bson filter) {
+    Date due = new Date(System.currentTimeMillis() - refreshMillis());
+    try {
+      collection.updateMany(
+          Filters.and(filter, Filters.not(Filters.gt(FIELD, due))), Updates.currentDate(FIELD));
+    } catch (RuntimeException e) {
+      log.debug("Unable to refresh the {} of the assignments", FIELD, e);
+    }
+  }
+
+  private long refreshMillis() {
+    return Math.max(1000, ttl.toMillis() / 10);
+  }
+}
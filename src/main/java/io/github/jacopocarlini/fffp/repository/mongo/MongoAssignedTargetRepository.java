@@ -0,0 +1,237 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Stores one {@code assignedTarget} document for each (flag, target) pair, with the rollout epoch
+ * it was assigned for. A new epoch reuses the document of the target, so only the targets that
+ * are not evaluated again leave stale documents behind.
+ */
+public class MongoAssignedTargetRepository implements AssignedTargetRepository {
+  private static final String COLLECTION = "assignedTarget";
+  private static final Bson VARIANT =
+      Projections.fields(
+          Projections.include("variant", "epoch", IdleExpiry.FIELD), Projections.excludeId());
+  private static final Bson FLAG_VARIANTS =
+      Projections.fields(
+          Projections.include("flagKey", "variant", "epoch", IdleExpiry.FIELD),
+          Projections.excludeId());
+
+  private final MongoClientManager mongoClientManager;
+  private final IdleExpiry idleExpiry;
+
+  public MongoAssignedTargetRepository(MongoClientManager mongoClientManager) {
+    this(mongoClientManager, null);
+  }
+
+  /**
+   * @param idleTtl the time after which the assignments that are not evaluated are deleted, or
+   *     null to keep them until their flag changes rollout
+   */
+  public MongoAssignedTargetRepository(MongoClientManager mongoClientManager, Duration idleTtl) {
+    this.mongoClientManager = mongoClientManager;
+    this.idleExpiry = new IdleExpiry(idleTtl);
+  }
+
+  /**
+   * Creates the unique (flagKey, targetKey) index and the TTL index of the idle expiry, and drops
+   * the single field unique indexes of the previous versions, which allowed only one assignment
+   * per flag.
+   */
+  @Override
+  public void ensureIndexes() {
+    mongoClientManager.execute(
+        mongoTemplate -> {
+          ensureIndexes(mongoTemplate);
+          return null;
+        });
+  }
+
+  private void ensureIndexes(MongoTemplate mongoTemplate) {
+    var indexOps = mongoTemplate.indexOps(AssignedTarget.class);
+    for (IndexInfo index : indexOps.getIndexInfo()) {
+      boolean legacy =
+          index.isUnique()
+              && index.getIndexFields().size() == 1
+              && (index.isIndexForFields(List.of("flagKey"))
+                  || index.isIndexForFields(List.of("targetKey")));
+      if (legacy) {
+        indexOps.dropIndex(index.getName());
+      }
+    }
+    var resolver =
+        new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+    resolver.resolveIndexFor(AssignedTarget.class).forEach(indexOps::ensureIndex);
+    idleExpiry.ensureIndex(indexOps);
+  }
+
+  /** Finds a batch of stale documents through the (flagKey, targetKey) index and deletes them. */
+  @Override
+  public boolean deleteStale(String flagKey, long epoch, int limit) {
+    // also matches the documents without an epoch, which belong to epoch 0
+    Query query =
+        new Query(Criteria.where("flagKey").is(flagKey).and("epoch").not().gte(epoch)).limit(limit);
+    query.fields().include("_id");
+    return mongoClientManager.execute(
+        mongoTemplate -> {
+          List<Object> ids =
+              mongoTemplate.find(query, Document.class, COLLECTION).stream()
+                  .map(document -> document.get("_id"))
+                  .toList();
+          if (!ids.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").in(ids)), COLLECTION);
+          }
+          return ids.size() == limit;
+        });
+  }
+
+  public void save(AssignedTarget assignedTarget) {
+    mongoClientManager.execute(mongoTemplate -> mongoTemplate.save(assignedTarget));
+  }
+
+  public Optional<AssignedTarget> findFirstByFlagKeyAndTargetKey(String flagKey, String targetKey) {
+    return findFirst(flagKey, targetKey, null);
+  }
+
+  /**
+   * Reads only the variant and the epoch of the assignment, and refreshes the idle expiry of the
+   * assignment it serves.
+   */
+  @Override
+  public Optional<String> findVariant(String flagKey, long epoch, String targetKey) {
+    Optional<AssignedTarget> served =
+        findFirst(flagKey, targetKey, VARIANT)
+            .filter(assignedTarget -> assignedTarget.epochOrZero() >= epoch);
+    if (served.isPresent() && idleExpiry.isDue(served.get().getLastSeenAt())) {
+      refreshLastSeenAt(filter(flagKey, targetKey));
+    }
+    return served.map(AssignedTarget::getVariant);
+  }
+
+  private Optional<AssignedTarget> findFirst(String flagKey, String targetKey, Bson projection) {
+    var filter = filter(flagKey, targetKey);
+    var entity =
+        mongoClientManager.executeOnCollection(
+            COLLECTION,
+            AssignedTarget.class,
+            collection -> collection.find(filter).projection(projection).first());
+    return Optional.ofNullable(entity);
+  }
+
+  @Override
+  public Map<String, String> findVariants(String targetKey, Map<String, Long> epochs) {
+    var filter =
+        Filters.and(Filters.eq("targetKey", targetKey), Filters.in("flagKey", epochs.keySet()));
+    var variants = new HashMap<String, String>();
+    var assignedTargets =
+        mongoClientManager.executeOnCollection(
+            COLLECTION,
+            AssignedTarget.class,
+            collection ->
+                collection.find(filter).projection(FLAG_VARIANTS).into(new ArrayList<>()));
+    var due = new ArrayList<String>();
+    for (AssignedTarget assignedTarget : assignedTargets) {
+      Long epoch = epochs.get(assignedTarget.getFlagKey());
+      if (epoch != null && assignedTarget.epochOrZero() >= epoch) {
+        variants.put(assignedTarget.getFlagKey(), assignedTarget.getVariant());
+        if (idleExpiry.isDue(assignedTarget.getLastSeenAt())) {
+          due.add(assignedTarget.getFlagKey());
+        }
+      }
+    }
+    if (!due.isEmpty()) {
+      refreshLastSeenAt(
+          Filters.and(Filters.eq("targetKey", targetKey), Filters.in("flagKey", due)));
+    }
+    return variants;
+  }
+
+  private void refreshLastSeenAt(Bson filter) {
+    mongoClientManager.executeOnCollection(
+        COLLECTION,
+        Document.class,
+        collection -> {
+          idleExpiry.refresh(collection, filter);
+          return null;
+        });
+  }
+
+  private static Bson filter(String flagKey, String targetKey) {
+    return Filters.and(Filters.eq("flagKey", flagKey), Filters.eq("targetKey", targetKey));
+  }
+
+  /**
+   * Upserts the document of the pair with a pipeline update, which keeps the stored variant when
+   * it belongs to the epoch and replaces it otherwise, so a new epoch costs no extra round trip.
+   */
+  @Override
+  public Optional<String> assignIfAbsent(
+      String flagKey, long epoch, String targetKey, String variant) {
+    var filter = filter(flagKey, targetKey);
+    var storedVariant = new Document("$ifNull", Arrays.asList("$variant", null));
+    var storedEpoch = new Document("$ifNull", List.of("$epoch", 0L));
+    var keep =
+        new Document(
+            "$and",
+            List.of(
+                new Document("$ne", Arrays.asList(storedVariant, null)),
+                new Document("$gte", List.of(storedEpoch, epoch))));
+    // a variant name starting with $ would be read as a field path
+    var set =
+        new Document(
+            "variant",
+            new Document("$cond", List.of(keep, "$variant", new Document("$literal", variant))));
+    if (epoch != 0) {
+      // epoch 0 keeps the shape of the documents written before epochs were introduced
+      set.append("epoch", new Document("$max", List.of(storedEpoch, epoch)));
+    }
+    if (idleExpiry.isEnabled()) {
+      set.append(IdleExpiry.FIELD, idleExpiry.lastSeenAt());
+    }
+    var options =
+        new FindOneAndUpdateOptions()
+            .upsert(true)
+            .returnDocument(ReturnDocument.BEFORE)
+            .projection(Projections.include("variant", "epoch"));
+    try {
+      Document previous =
+          mongoClientManager.execute(
+              mongoTemplate ->
+                  mongoTemplate.execute(
+                      COLLECTION,
+                      collection ->
+                          collection.findOneAndUpdate(
+                              filter, List.of(new Document("$set", set)), options)));
+      if (previous == null || previous.getString("variant") == null) {
+        return Optional.empty();
+      }
+      Number previousEpoch = previous.get("epoch", Number.class);
+      boolean current = (previousEpoch == null ? 0 : previousEpoch.longValue()) >= epoch;
+      return current ? Optional.of(previous.getString("variant")) : Optional.empty();
+    } catch (DuplicateKeyException e) {
+      // a concurrent upsert inserted the assignment first
+      return assignIfAbsent(flagKey, epoch, targetKey, variant);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.client.model.InsertManyOptions;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.exposure.ExposureEvent;
+import io.github.jacopocarlini.fffp.exposure.ExposureSink;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+
+/** Writes the exposure events to a collection with unordered bulk inserts. */
+public class MongoExposureSink implements ExposureSink {
+  private static final InsertManyOptions UNORDERED = new InsertManyOptions().ordered(false);
+
+  private final MongoClientManager mongoClientManager;
+  private final String collection;
+
+  public MongoExposureSink(MongoClientManager mongoClientManager, String collection) {
+    this.mongoClientManager = mongoClientManager;
+    this.collection = collection;
+  }
+
+  @Override
+  public void write(List<ExposureEvent> events) {
+    var documents = new ArrayList<Document>(events.size());
+    for (ExposureEvent event : events) {
+      documents.add(
+          new Document("flagKey", event.getFlagKey())
+              .append("targetKey", event.getTargetKey())
+              .append("variant", event.getVariant())
+              .append("reason", event.getReason())
+              .append("timestamp", Date.from(event.getTimestamp())));
+    }
+    mongoClientManager.execute(
+        mongoTemplate -> mongoTemplate.getCollection(collection).insertMany(documents, UNORDERED));
+  }
+}
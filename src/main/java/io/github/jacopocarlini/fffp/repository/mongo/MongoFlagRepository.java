@@ -0,0 +1,146 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.FlagChangeListener;
+import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Stores the flags in the {@code flags} collection. The reads use the flag read preference of the
+ * {@link MongoClientManager} and decode the documents with the hand-written {@link
+ * io.github.jacopocarlini.fffp.repository.mongo.codec.FlagCodec}, the writes go to the primary.
+ */
+public class MongoFlagRepository implements FlagRepository {
+  static final String COLLECTION = "flags";
+  private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+  private static final ReplaceOptions UPSERT = new ReplaceOptions().upsert(true);
+
+  private final MongoClientManager mongoClientManager;
+
+  public MongoFlagRepository(MongoClientManager mongoClientManager) {
+    this.mongoClientManager = mongoClientManager;
+  }
+
+  @Override
+  public void deleteByFlagKey(String flagKey) {
+    Query query = new Query(Criteria.where("flagKey").is(flagKey));
+    mongoClientManager.execute(mongoTemplate -> mongoTemplate.remove(query, Flag.class));
+  }
+
+  @Override
+  public Optional<Flag> findFirstByFlagKey(String flagKey) {
+    var entity =
+        mongoClientManager.executeFlagReadOnCollection(
+            COLLECTION,
+            Flag.class,
+            collection -> collection.find(Filters.eq("flagKey", flagKey)).first());
+    return Optional.ofNullable(entity);
+  }
+
+  @Override
+  public void save(Flag flag) {
+    mongoClientManager.execute(mongoTemplate -> mongoTemplate.save(flag));
+  }
+
+  @Override
+  public List<Flag> findAll() {
+    return mongoClientManager.executeFlagReadOnCollection(
+        COLLECTION, Flag.class, collection -> collection.find().into(new ArrayList<>()));
+  }
+
+  @Override
+  public List<Flag> findAllByFlagKeyIn(Collection<String> flagKeys) {
+    return mongoClientManager.executeFlagReadOnCollection(
+        COLLECTION,
+        Flag.class,
+        collection -> collection.find(Filters.in("flagKey", flagKeys)).into(new ArrayList<>()));
+  }
+
+  /**
+   * Applies the changes with a single unordered {@code bulkWrite}: every flag replaces, or
+   * inserts, the document with the same key. With {@code atomic} set the bulk write runs in a
+   * transaction, which needs a replica set.
+   */
+  @Override
+  public Map<String, String> bulkWrite(
+      Collection<Flag> flags, Collection<String> deletedFlagKeys, boolean atomic) {
+    if (flags.isEmpty() && deletedFlagKeys.isEmpty()) {
+      return Map.of();
+    }
+    return mongoClientManager.execute(
+        mongoTemplate -> bulkWrite(mongoTemplate, flags, deletedFlagKeys, atomic));
+  }
+
+  private static Map<String, String> bulkWrite(
+      MongoTemplate mongoTemplate,
+      Collection<Flag> flags,
+      Collection<String> deletedFlagKeys,
+      boolean atomic) {
+    var models = new ArrayList<WriteModel<Document>>(flags.size() + deletedFlagKeys.size());
+    var keys = new ArrayList<String>(flags.size() + deletedFlagKeys.size());
+    for (Flag flag : flags) {
+      var document = new Document();
+      mongoTemplate.getConverter().write(flag, document);
+      document.remove("_class");
+      models.add(new ReplaceOneModel<>(Filters.eq("flagKey", flag.getFlagKey()), document, UPSERT));
+      keys.add(flag.getFlagKey());
+    }
+    for (String flagKey : deletedFlagKeys) {
+      models.add(new DeleteOneModel<>(Filters.eq("flagKey", flagKey)));
+      keys.add(flagKey);
+    }
+
+    MongoCollection<Document> collection =
+        mongoTemplate.getCollection(COLLECTION);
+    try {
+      if (atomic) {
+        try (ClientSession session =
+            mongoTemplate
+                .getMongoDatabaseFactory()
+                .getSession(ClientSessionOptions.builder().build())) {
+          session.withTransaction(() -> collection.bulkWrite(session, models, UNORDERED));
+        }
+      } else {
+        collection.bulkWrite(models, UNORDERED);
+      }
+      return Map.of();
+    } catch (MongoBulkWriteException e) {
+      var errors = new LinkedHashMap<String, String>();
+      e.getWriteErrors()
+          .forEach(error -> errors.put(keys.get(error.getIndex()), error.getMessage()));
+      return errors;
+    }
+  }
+
+  /**
+   * Starts tailing the flags collection with a change stream. The returned watcher must be closed
+   * to stop the background thread.
+   */
+  @Override
+  public FlagChangeStreamWatcher watch(FlagChangeListener listener, Duration retryDelay) {
+    var watcher = new FlagChangeStreamWatcher(mongoClientManager, listener, retryDelay);
+    watcher.start();
+    return watcher;
+  }
+}
@@ -0,0 +1,234 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Stores the settings of the segments in the {@code segments} collection and their ids in the
+ * {@code segmentChunks} collection, one document per chunk. The chunks are written with unordered
+ * bulk writes of {@value #BATCH_SIZE} chunks; an incremental change uses {@code $addToSet} and
+ * {@code $pullAll}, so it only sends the ids it changes. The reads use the flag read preference of
+ * the {@link MongoClientManager}.
+ */
+public class MongoSegmentRepository implements SegmentRepository {
+  private static final int BATCH_SIZE = 64;
+
+  private final MongoClientManager mongoClientManager;
+
+  public MongoSegmentRepository(MongoClientManager mongoClientManager) {
+    this.mongoClientManager = mongoClientManager;
+  }
+
+  @Override
+  public void ensureIndexes() {
+    mongoClientManager.execute(
+        mongoTemplate -> {
+          var resolver =
+              new MongoPersistentEntityIndexResolver(
+                  mongoTemplate.getConverter().getMappingContext());
+          var indexOps = mongoTemplate.indexOps(SegmentChunk.class);
+          resolver.resolveIndexFor(SegmentChunk.class).forEach(indexOps::ensureIndex);
+          return null;
+        });
+  }
+
+  @Override
+  public List<Segment> findAll() {
+    return mongoClientManager.executeFlagRead(
+        mongoTemplate -> mongoTemplate.findAll(Segment.class));
+  }
+
+  @Override
+  public Optional<Segment> findByName(String name) {
+    return Optional.ofNullable(
+        mongoClientManager.execute(mongoTemplate -> mongoTemplate.findById(name, Segment.class)));
+  }
+
+  /**
+   * Allocates the generation with a {@code findAndModify} that creates the segment, empty, if it
+   * does not exist, writes the chunks and then commits the generation unless a later one has been
+   * committed in the meantime.
+   */
+  @Override
+  public void replace(Segment settings, Iterator<SegmentChunk> chunks) {
+    mongoClientManager.execute(
+        mongoTemplate -> {
+          Segment allocated =
+              mongoTemplate.findAndModify(
+                  byName(settings.getName()),
+                  new Update()
+                      .inc("lastGeneration", 1)
+                      .setOnInsert("type", settings.getType())
+                      .setOnInsert("falsePositiveRate", settings.getFalsePositiveRate()),
+                  FindAndModifyOptions.options().upsert(true).returnNew(true),
+                  Segment.class);
+          long generation = allocated.getLastGeneration();
+          var batch = new ArrayList<SegmentChunk>(BATCH_SIZE);
+          while (chunks.hasNext()) {
+            SegmentChunk chunk = chunks.next();
+            batch.add(
+                chunk.toBuilder()
+                    .id(SegmentChunk.idOf(settings.getName(), generation, chunk.getKey()))
+                    .segment(settings.getName())
+                    .generation(generation)
+                    .build());
+            if (batch.size() == BATCH_SIZE || !chunks.hasNext()) {
+              mongoTemplate
+                  .bulkOps(BulkOperations.BulkMode.UNORDERED, SegmentChunk.class)
+                  .insert(batch)
+                  .execute();
+              batch.clear();
+            }
+          }
+          var committed =
+              mongoTemplate.updateFirst(
+                  new Query(
+                      Criteria.where("_id")
+                          .is(settings.getName())
+                          .and("generation")
+                          .not()
+                          .gte(generation)),
+                  new Update()
+                      .set("generation", generation)
+                      .set("type", settings.getType())
+                      .set("falsePositiveRate", settings.getFalsePositiveRate())
+                      .set("writers", 0)
+                      .inc("version", 1),
+                  Segment.class);
+          Criteria obsolete =
+              committed.getMatchedCount() > 0
+                  ? Criteria.where("generation").lt(generation)
+                  : Criteria.where("generation").is(generation);
+          mongoTemplate.remove(
+              new Query(Criteria.where("segment").is(settings.getName()).andOperator(obsolete)),
+              SegmentChunk.class);
+          return null;
+        });
+  }
+
+  /**
+   * Increments the version and the writers of the segment, upserts the chunks stamped with the
+   * new version and releases the writer. While a writer is registered the readers do not trust
+   * the version of the segment, since some of its chunks may be written later.
+   */
+  @Override
+  public boolean update(String name, Iterator<SegmentChunk> chunks, boolean remove) {
+    return mongoClientManager.execute(
+        mongoTemplate -> {
+          Segment segment =
+              mongoTemplate.findAndModify(
+                  byName(name),
+                  new Update().inc("version", 1).inc("writers", 1),
+                  FindAndModifyOptions.options().returnNew(true),
+                  Segment.class);
+          if (segment == null) {
+            return false;
+          }
+          try {
+            writeChanges(mongoTemplate, segment, chunks, remove);
+          } finally {
+            mongoTemplate.updateFirst(
+                byName(name), new Update().inc("writers", -1), Segment.class);
+          }
+          return true;
+        });
+  }
+
+  private static void writeChanges(
+      MongoTemplate mongoTemplate, Segment segment, Iterator<SegmentChunk> chunks, boolean remove) {
+    BulkOperations bulk = null;
+    int size = 0;
+    while (chunks.hasNext()) {
+      SegmentChunk chunk = chunks.next();
+      if (bulk == null) {
+        bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, SegmentChunk.class);
+      }
+      String field = chunk.getNumbers() != null ? "numbers" : "members";
+      Object[] ids =
+          (chunk.getNumbers() != null ? chunk.getNumbers() : chunk.getMembers()).toArray();
+      String id = SegmentChunk.idOf(segment.getName(), segment.getGeneration(), chunk.getKey());
+      var query = new Query(Criteria.where("_id").is(id));
+      var update = new Update().set("version", segment.getVersion());
+      if (remove) {
+        bulk.updateOne(query, update.pullAll(field, ids));
+      } else {
+        bulk.upsert(
+            query,
+            update
+                .addToSet(field)
+                .each(ids)
+                .setOnInsert("segment", segment.getName())
+                .setOnInsert("generation", segment.getGeneration())
+                .setOnInsert("key", chunk.getKey()));
+      }
+      if (++size == BATCH_SIZE || !chunks.hasNext()) {
+        bulk.execute();
+        bulk = null;
+        size = 0;
+      }
+    }
+  }
+
+  @Override
+  public boolean delete(String name) {
+    return mongoClientManager.execute(
+        mongoTemplate -> {
+          boolean deleted = mongoTemplate.remove(byName(name), Segment.class).getDeletedCount() > 0;
+          mongoTemplate.remove(
+              new Query(Criteria.where("segment").is(name)), SegmentChunk.class);
+          return deleted;
+        });
+  }
+
+  /** Streams the chunks through the (segment, generation, version) index. */
+  @Override
+  public void forEachChunk(
+      String name, long generation, long afterVersion, Consumer<SegmentChunk> consumer) {
+    var query =
+        new Query(
+            Criteria.where("segment")
+                .is(name)
+                .and("generation")
+                .is(generation)
+                .and("version")
+                .gt(afterVersion));
+    mongoClientManager.executeFlagRead(
+        mongoTemplate -> {
+          try (Stream<SegmentChunk> stream = mongoTemplate.stream(query, SegmentChunk.class)) {
+            stream.forEach(consumer);
+          }
+          return null;
+        });
+  }
+
+  @Override
+  public boolean containsMember(String name, long generation, long key, String member) {
+    var query =
+        new Query(
+            Criteria.where("_id")
+                .is(SegmentChunk.idOf(name, generation, key))
+                .and("members")
+                .is(member));
+    return mongoClientManager.executeFlagRead(
+        mongoTemplate -> mongoTemplate.exists(query, SegmentChunk.class));
+  }
+
+  private static Query byName(String name) {
+    return new Query(Criteria.where("_id").is(name));
+  }
+}
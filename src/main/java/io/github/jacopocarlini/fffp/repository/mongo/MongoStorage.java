@@ -0,0 +1,73 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import io.github.jacopocarlini.fffp.config.AssignmentLayout;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
+import io.github.jacopocarlini.fffp.exposure.ExposureSink;
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.FlagRepository;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import io.github.jacopocarlini.fffp.repository.Storage;
+
+/** The MongoDB backend: flags and assignments are stored in the database of the connection. */
+public class MongoStorage implements Storage {
+  private final MongoClientManager mongoClientManager;
+  private final FlagRepository flagRepository;
+  private final AssignedTargetRepository assignedTargetRepository;
+  private final SegmentRepository segmentRepository;
+
+  public MongoStorage(String connectionString, AssignmentLayout assignmentLayout) {
+    this(connectionString, ProviderConfig.builder().assignmentLayout(assignmentLayout).build());
+  }
+
+  /**
+   * Uses the assignment layout, the idle expiry of the assignments, the flag read preference and
+   * the connection drain timeout of the configuration.
+   */
+  public MongoStorage(String connectionString, ProviderConfig config) {
+    mongoClientManager =
+        new MongoClientManager(config.getFlagReadPreference(), config.getConnectionDrainTimeout());
+    mongoClientManager.updateConnection(connectionString);
+    flagRepository = new MongoFlagRepository(mongoClientManager);
+    assignedTargetRepository =
+        config.getAssignmentLayout() == AssignmentLayout.PER_TARGET
+            ? new MongoTargetAssignmentRepository(
+                mongoClientManager, config.getAssignmentIdleTtl())
+            : new MongoAssignedTargetRepository(mongoClientManager, config.getAssignmentIdleTtl());
+    segmentRepository = new MongoSegmentRepository(mongoClientManager);
+  }
+
+  @Override
+  public FlagRepository flagRepository() {
+    return flagRepository;
+  }
+
+  @Override
+  public AssignedTargetRepository assignedTargetRepository() {
+    return assignedTargetRepository;
+  }
+
+  /**
+   * Moves the storage to a new connection string, for example to rotate the credentials. The
+   * operations in flight complete on the old client, which is closed afterwards; the change stream
+   * is reopened on the new client.
+   */
+  public void updateConnection(String connectionString) {
+    mongoClientManager.updateConnection(connectionString);
+  }
+
+  @Override
+  public ExposureSink exposureSink(String collection) {
+    return new MongoExposureSink(mongoClientManager, collection);
+  }
+
+  @Override
+  public SegmentRepository segmentRepository() {
+    return segmentRepository;
+  }
+
+  @Override
+  public void close() {
+    mongoClientManager.shutdown();
+  }
+}
@@ -0,0 +1,255 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import io.github.jacopocarlini.fffp.entity.TargetAssignments;
+import io.github.jacopocarlini.fffp.repository.AssignedTargetRepository;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+/**
+ * Stores one {@code targetAssignments} document for each target, with the variants of all its
+ * flags in the {@code variants} sub-document and their rollout epochs in the {@code epochs}
+ * sub-document. Flag keys are escaped, since {@code .} and {@code $} are not allowed in field
+ * names.
+ */
+public class MongoTargetAssignmentRepository implements AssignedTargetRepository {
+  private static final String COLLECTION = "targetAssignments";
+  private static final String VARIANTS = "variants";
+  private static final String EPOCHS = "epochs";
+
+  private final MongoClientManager mongoClientManager;
+  private final IdleExpiry idleExpiry;
+
+  // where the sweep of each flag stopped, so that every batch continues the same _id range scan
+  private final Map<String, SweepPosition> sweepPositions = new ConcurrentHashMap<>();
+
+  public MongoTargetAssignmentRepository(MongoClientManager mongoClientManager) {
+    this(mongoClientManager, null);
+  }
+
+  /**
+   * @param idleTtl the time after which the targets that are not evaluated are deleted with all
+   *     their assignments, or null to keep them
+   */
+  public MongoTargetAssignmentRepository(MongoClientManager mongoClientManager, Duration idleTtl) {
+    this.mongoClientManager = mongoClientManager;
+    this.idleExpiry = new IdleExpiry(idleTtl);
+  }
+
+  /** Documents are looked up by _id only, the only other index is the TTL of the idle expiry. */
+  @Override
+  public void ensureIndexes() {
+    mongoClientManager.execute(
+        mongoTemplate -> {
+          idleExpiry.ensureIndex(mongoTemplate.indexOps(TargetAssignments.class));
+          return null;
+        });
+  }
+
+  /**
+   * The variants are not indexed, so the targets are scanned in _id order and every call resumes
+   * the scan where the previous one stopped.
+   */
+  @Override
+  public boolean deleteStale(String flagKey, long epoch, int limit) {
+    String variantField = field(flagKey);
+    String epochField = epochField(flagKey);
+    Criteria criteria = Criteria.where(variantField).exists(true).and(epochField).not().gte(epoch);
+    SweepPosition position = sweepPositions.get(flagKey);
+    if (position != null && position.epoch() == epoch) {
+      criteria = criteria.and("_id").gt(position.lastId());
+    }
+    Query query = new Query(criteria).with(Sort.by("_id")).limit(limit);
+    query.fields().include("_id");
+    List<Object> ids =
+        mongoClientManager.execute(
+            mongoTemplate -> {
+              List<Object> found =
+                  mongoTemplate.find(query, Document.class, COLLECTION).stream()
+                      .map(document -> document.get("_id"))
+                      .toList();
+              if (!found.isEmpty()) {
+                mongoTemplate.updateMulti(
+                    new Query(Criteria.where("_id").in(found)),
+                    new Update().unset(variantField).unset(epochField),
+                    COLLECTION);
+              }
+              return found;
+            });
+    if (ids.size() < limit) {
+      sweepPositions.remove(flagKey);
+      return false;
+    }
+    sweepPositions.put(flagKey, new SweepPosition(epoch, ids.get(ids.size() - 1)));
+    return true;
+  }
+
+  @Override
+  public Optional<String> findVariant(String flagKey, long epoch, String targetKey) {
+    return Optional.ofNullable(findVariants(targetKey, Map.of(flagKey, epoch)).get(flagKey));
+  }
+
+  @Override
+  public Map<String, String> findVariants(String targetKey, Map<String, Long> epochs) {
+    Query query = new Query(Criteria.where("_id").is(targetKey));
+    epochs.keySet().forEach(flagKey -> query.fields().include(field(flagKey), epochField(flagKey)));
+    query.fields().include(IdleExpiry.FIELD);
+    var document =
+        mongoClientManager.execute(
+            mongoTemplate -> mongoTemplate.findOne(query, TargetAssignments.class));
+    var variants = new HashMap<String, String>();
+    if (document != null && document.getVariants() != null) {
+      Map<String, Long> storedEpochs =
+          document.getEpochs() == null ? Map.of() : document.getEpochs();
+      document
+          .getVariants()
+          .forEach(
+              (key, variant) -> {
+                String flagKey = decode(key);
+                Long epoch = epochs.get(flagKey);
+                if (epoch != null && storedEpochs.getOrDefault(key, 0L) >= epoch) {
+                  variants.put(flagKey, variant);
+                }
+              });
+    }
+    if (!variants.isEmpty() && idleExpiry.isDue(document.getLastSeenAt())) {
+      // the target is active, so it must not expire with all its assignments
+      mongoClientManager.executeOnCollection(
+          COLLECTION,
+          Document.class,
+          collection -> {
+            idleExpiry.refresh(collection, Filters.eq("_id", targetKey));
+            return null;
+          });
+    }
+    return variants;
+  }
+
+  /**
+   * Keeps the stored variant when it belongs to the epoch and replaces it otherwise, creating the
+   * document if needed, with a single pipeline update.
+   */
+  @Override
+  public Optional<String> assignIfAbsent(
+      String flagKey, long epoch, String targetKey, String variant) {
+    String variantField = field(flagKey);
+    String epochField = epochField(flagKey);
+    var storedVariant = new Document("$ifNull", Arrays.asList("$" + variantField, null));
+    var storedEpoch = new Document("$ifNull", List.of("$" + epochField, 0L));
+    var keep =
+        new Document(
+            "$and",
+            List.of(
+                new Document("$ne", Arrays.asList(storedVariant, null)),
+                new Document("$gte", List.of(storedEpoch, epoch))));
+    var set =
+        new Document(
+            variantField,
+            new Document(
+                "$cond", List.of(keep, "$" + variantField, new Document("$literal", variant))));
+    if (epoch != 0) {
+      // epoch 0 keeps the shape of the documents written before epochs were introduced
+      set.append(epochField, new Document("$max", List.of(storedEpoch, epoch)));
+    }
+    if (idleExpiry.isEnabled()) {
+      set.append(IdleExpiry.FIELD, idleExpiry.lastSeenAt());
+    }
+    var options =
+        new FindOneAndUpdateOptions()
+            .upsert(true)
+            .returnDocument(ReturnDocument.BEFORE)
+            .projection(Projections.include(variantField, epochField));
+    try {
+      Document previous =
+          mongoClientManager.execute(
+              mongoTemplate ->
+                  mongoTemplate.execute(
+                      COLLECTION,
+                      collection ->
+                          collection.findOneAndUpdate(
+                              Filters.eq("_id", targetKey),
+                              List.of(new Document("$set", set)),
+                              options)));
+      String key = encode(flagKey);
+      Document variants = previous == null ? null : previous.get(VARIANTS, Document.class);
+      if (variants == null || variants.getString(key) == null) {
+        return Optional.empty();
+      }
+      Document epochs = previous.get(EPOCHS, Document.class);
+      Number previousEpoch = epochs == null ? null : epochs.get(key, Number.class);
+      boolean current = (previousEpoch == null ? 0 : previousEpoch.longValue()) >= epoch;
+      return current ? Optional.of(variants.getString(key)) : Optional.empty();
+    } catch (DuplicateKeyException e) {
+      // a concurrent upsert created the document first
+      return assignIfAbsent(flagKey, epoch, targetKey, variant);
+    }
+  }
+
+  /**
+   * Copies the assignments into the target document, keeping the variants already stored there.
+   * Used by {@link TargetAssignmentMigrator}.
+   */
+  void mergeVariants(BulkOperations bulk, String targetKey, Map<String, AssignedTarget> variants) {
+    var set = new Document();
+    variants.forEach(
+        (flagKey, assignment) -> {
+          String variantField = field(flagKey);
+          String storedVariant = "$" + variantField;
+          set.append(
+              variantField,
+              new Document(
+                  "$ifNull",
+                  List.of(storedVariant, new Document("$literal", assignment.getVariant()))));
+          if (assignment.epochOrZero() != 0) {
+            // the epoch of the variant kept, the stored one or the copied one
+            var stored = new Document("$ifNull", Arrays.asList(storedVariant, null));
+            var missing = new Document("$eq", Arrays.asList(stored, null));
+            String epochField = epochField(flagKey);
+            set.append(
+                epochField,
+                new Document(
+                    "$cond", List.of(missing, assignment.getEpoch(), "$" + epochField)));
+          }
+        });
+    AggregationOperation stage = context -> new Document("$set", set);
+    bulk.upsert(
+        new Query(Criteria.where("_id").is(targetKey)), AggregationUpdate.from(List.of(stage)));
+  }
+
+  static String field(String flagKey) {
+    return VARIANTS + "." + encode(flagKey);
+  }
+
+  static String epochField(String flagKey) {
+    return EPOCHS + "." + encode(flagKey);
+  }
+
+  static String encode(String flagKey) {
+    return flagKey.replace("%", "%25").replace(".", "%2E").replace("$", "%24");
+  }
+
+  static String decode(String key) {
+    return key.replace("%24", "$").replace("%2E", ".").replace("%25", "%");
+  }
+
+  private record SweepPosition(long epoch, Object lastId) {}
+}
@@ -0,0 +1,117 @@
+package io.github.jacopocarlini.fffp.repository.mongo;
+
+import io.github.jacopocarlini.fffp.config.MongoClientManager;
+import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import io.github.jacopocarlini.fffp.entity.TargetAssignments;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+/**
+ * Copies the assignments of the {@code assignedTarget} collection into the {@code
+ * targetAssignments} collection, grouping them by target. The source collection is read in
+ * batches sorted by target and flag, through a {@code (targetKey, flagKey)} index created before
+ * the first batch, and each batch is written with an unordered bulk upsert. Variants already
+ * present in {@code targetAssignments} are never overwritten, so the migration can run while the
+ * provider is serving and can be repeated. The rollout epochs are copied with the variants.
+ */
+@Slf4j
+public class TargetAssignmentMigrator {
+  static final String INDEX = "targetKey_flagKey";
+
+  private final MongoClientManager mongoClientManager;
+  private final MongoTargetAssignmentRepository targetAssignmentRepository;
+
+  public TargetAssignmentMigrator(MongoClientManager mongoClientManager) {
+    this.mongoClientManager = mongoClientManager;
+    this.targetAssignmentRepository = new MongoTargetAssignmentRepository(mongoClientManager);
+  }
+
+  /**
+   * Runs the migration batch by batch. Every batch is read and written on the current connection
+   * and resumes after the last assignment of the previous one, so a connection replaced while
+   * migrating only affects the batches that follow.
+   *
+   * @param batchSize the number of assignments read and written by each batch
+   * @return the number of assignments copied
+   */
+  public long migrate(int batchSize) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    mongoClientManager.execute(
+        mongoTemplate ->
+            mongoTemplate
+                .indexOps(AssignedTarget.class)
+                .ensureIndex(
+                    new Index()
+                        .on("targetKey", Sort.Direction.ASC)
+                        .on("flagKey", Sort.Direction.ASC)
+                        .named(INDEX)));
+
+    long copied = 0;
+    AssignedTarget last = null;
+    while (true) {
+      AssignedTarget after = last;
+      List<AssignedTarget> batch =
+          mongoClientManager.execute(mongoTemplate -> copyBatch(mongoTemplate, after, batchSize));
+      copied += batch.size();
+      if (batch.size() < batchSize) {
+        break;
+      }
+      last = batch.get(batch.size() - 1);
+    }
+    log.info("Migrated {} assignments to the targetAssignments collection", copied);
+    return copied;
+  }
+
+  /**
+   * Copies the assignments that follow the given one in (targetKey, flagKey) order. A target may
+   * be split between two batches, which is harmless since every batch only merges its own flags.
+   *
+   * @return the assignments copied
+   */
+  private List<AssignedTarget> copyBatch(
+      MongoTemplate mongoTemplate, AssignedTarget after, int batchSize) {
+    var query = new Query();
+    if (after != null) {
+      query.addCriteria(
+          new Criteria()
+              .orOperator(
+                  Criteria.where("targetKey").gt(after.getTargetKey()),
+                  Criteria.where("targetKey")
+                      .is(after.getTargetKey())
+                      .and("flagKey")
+                      .gt(after.getFlagKey())));
+    }
+    query.with(Sort.by("targetKey", "flagKey")).limit(batchSize).withHint(INDEX);
+    query.fields().include("flagKey", "targetKey", "variant", "epoch");
+    List<AssignedTarget> assignments = mongoTemplate.find(query, AssignedTarget.class);
+    if (assignments.isEmpty()) {
+      return assignments;
+    }
+
+    BulkOperations bulk = mongoTemplate.bulkOps(BulkMode.UNORDERED, TargetAssignments.class);
+    String currentTarget = null;
+    Map<String, AssignedTarget> variants = new HashMap<>();
+    for (AssignedTarget assignment : assignments) {
+      if (currentTarget != null && !currentTarget.equals(assignment.getTargetKey())) {
+        targetAssignmentRepository.mergeVariants(bulk, currentTarget, variants);
+        variants = new HashMap<>();
+      }
+      currentTarget = assignment.getTargetKey();
+      variants.put(assignment.getFlagKey(), assignment);
+    }
+    targetAssignmentRepository.mergeVariants(bulk, currentTarget, variants);
+    bulk.execute();
+    return assignments;
+  }
+}
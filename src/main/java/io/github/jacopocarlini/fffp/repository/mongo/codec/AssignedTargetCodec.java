@@ -0,0 +1,57 @@
+package io.github.jacopocarlini.fffp.repository.mongo.codec;
+
+import io.github.jacopocarlini.fffp.entity.AssignedTarget;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Codec of the sticky assignments. The fields left out by a projection stay null, so a lookup can
+ * read only the variant and the epoch.
+ */
+public class AssignedTargetCodec implements Codec<AssignedTarget> {
+
+  private final BsonValues values;
+
+  public AssignedTargetCodec(CodecRegistry registry) {
+    this.values = new BsonValues(registry);
+  }
+
+  @Override
+  public AssignedTarget decode(BsonReader reader, DecoderContext context) {
+    var assignedTarget = new AssignedTarget();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "flagKey" -> assignedTarget.setFlagKey(values.readString(reader));
+        case "targetKey" -> assignedTarget.setTargetKey(values.readString(reader));
+        case "variant" -> assignedTarget.setVariant(values.readString(reader));
+        case "epoch" -> assignedTarget.setEpoch(values.readLong(reader));
+        case "lastSeenAt" -> assignedTarget.setLastSeenAt(values.readInstant(reader));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return assignedTarget;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, AssignedTarget assignedTarget, EncoderContext context) {
+    writer.writeStartDocument();
+    values.writeString(writer, "flagKey", assignedTarget.getFlagKey());
+    values.writeString(writer, "targetKey", assignedTarget.getTargetKey());
+    values.writeString(writer, "variant", assignedTarget.getVariant());
+    values.writeLong(writer, "epoch", assignedTarget.getEpoch());
+    values.writeInstant(writer, "lastSeenAt", assignedTarget.getLastSeenAt());
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<AssignedTarget> getEncoderClass() {
+    return AssignedTarget.class;
+  }
+}
@@ -0,0 +1,252 @@
+package io.github.jacopocarlini.fffp.repository.mongo.codec;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.BsonTypeClassMap;
+import org.bson.codecs.BsonTypeCodecMap;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.Decimal128;
+import org.bson.types.ObjectId;
+
+/**
+ * Reads and writes the field values of the entities as the Spring Data mapping does: documents
+ * become {@link LinkedHashMap}s and arrays {@link ArrayList}s, dates are read as UTC {@link
+ * ZonedDateTime}s when the field is one, durations are ISO-8601 strings. Null values are not
+ * written. The BSON types without a natural Java type are delegated to the registry.
+ */
+final class BsonValues {
+
+  private final CodecRegistry registry;
+  private final BsonTypeCodecMap codecs;
+
+  BsonValues(CodecRegistry registry) {
+    this.registry = registry;
+    this.codecs = new BsonTypeCodecMap(new BsonTypeClassMap(), registry);
+  }
+
+  Object readValue(BsonReader reader, DecoderContext context) {
+    switch (reader.getCurrentBsonType()) {
+      case DOCUMENT:
+        return readMap(reader, context, this::readValue);
+      case ARRAY:
+        return readList(reader, context, this::readValue);
+      case STRING:
+        return reader.readString();
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return reader.readInt64();
+      case DOUBLE:
+        return reader.readDouble();
+      case BOOLEAN:
+        return reader.readBoolean();
+      case DATE_TIME:
+        return new Date(reader.readDateTime());
+      case OBJECT_ID:
+        return reader.readObjectId();
+      case DECIMAL128:
+        return reader.readDecimal128();
+      case NULL:
+        reader.readNull();
+        return null;
+      default:
+        return codecs.get(reader.getCurrentBsonType()).decode(reader, context);
+    }
+  }
+
+  <V> Map<String, V> readMap(
+      BsonReader reader, DecoderContext context, ValueReader<V> valueReader) {
+    if (isNull(reader)) {
+      return null;
+    }
+    var map = new LinkedHashMap<String, V>();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      String name = reader.readName();
+      map.put(name, valueReader.read(reader, context));
+    }
+    reader.readEndDocument();
+    return map;
+  }
+
+  <V> List<V> readList(BsonReader reader, DecoderContext context, ValueReader<V> valueReader) {
+    if (isNull(reader)) {
+      return null;
+    }
+    var list = new ArrayList<V>();
+    reader.readStartArray();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      list.add(valueReader.read(reader, context));
+    }
+    reader.readEndArray();
+    return list;
+  }
+
+  /** Reads a string; the values of other types are converted, as the mapping does. */
+  String readString(BsonReader reader) {
+    BsonType type = reader.getCurrentBsonType();
+    if (type == BsonType.STRING) {
+      return reader.readString();
+    }
+    if (isNull(reader)) {
+      return null;
+    }
+    Object value = readValue(reader, DecoderContext.builder().build());
+    return value instanceof ObjectId id ? id.toHexString() : String.valueOf(value);
+  }
+
+  Boolean readBoolean(BsonReader reader) {
+    return isNull(reader) ? null : reader.readBoolean();
+  }
+
+  Integer readInteger(BsonReader reader) {
+    Number number = readNumber(reader);
+    return number == null ? null : number.intValue();
+  }
+
+  Long readLong(BsonReader reader) {
+    Number number = readNumber(reader);
+    return number == null ? null : number.longValue();
+  }
+
+  private Number readNumber(BsonReader reader) {
+    switch (reader.getCurrentBsonType()) {
+      case INT32:
+        return reader.readInt32();
+      case INT64:
+        return reader.readInt64();
+      case DOUBLE:
+        return reader.readDouble();
+      case DECIMAL128:
+        return reader.readDecimal128().bigDecimalValue();
+      case NULL:
+        reader.readNull();
+        return null;
+      default:
+        return Double.valueOf(readString(reader));
+    }
+  }
+
+  Instant readInstant(BsonReader reader) {
+    return isNull(reader) ? null : Instant.ofEpochMilli(reader.readDateTime());
+  }
+
+  ZonedDateTime readZonedDateTime(BsonReader reader) {
+    Instant instant = readInstant(reader);
+    return instant == null ? null : instant.atZone(ZoneOffset.UTC);
+  }
+
+  Duration readDuration(BsonReader reader) {
+    String value = readString(reader);
+    return value == null ? null : Duration.parse(value);
+  }
+
+  <E extends Enum<E>> E readEnum(BsonReader reader, Class<E> type) {
+    String value = readString(reader);
+    return value == null ? null : Enum.valueOf(type, value);
+  }
+
+  private static boolean isNull(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return true;
+    }
+    return false;
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  void writeValue(BsonWriter writer, Object value, EncoderContext context) {
+    if (value == null) {
+      writer.writeNull();
+    } else if (value instanceof String string) {
+      writer.writeString(string);
+    } else if (value instanceof Integer integer) {
+      writer.writeInt32(integer);
+    } else if (value instanceof Long number) {
+      writer.writeInt64(number);
+    } else if (value instanceof Double number) {
+      writer.writeDouble(number);
+    } else if (value instanceof Boolean bool) {
+      writer.writeBoolean(bool);
+    } else if (value instanceof Date date) {
+      writer.writeDateTime(date.getTime());
+    } else if (value instanceof ObjectId id) {
+      writer.writeObjectId(id);
+    } else if (value instanceof Decimal128 decimal) {
+      writer.writeDecimal128(decimal);
+    } else if (value instanceof Map<?, ?> map) {
+      writer.writeStartDocument();
+      for (var entry : map.entrySet()) {
+        writer.writeName(String.valueOf(entry.getKey()));
+        writeValue(writer, entry.getValue(), context);
+      }
+      writer.writeEndDocument();
+    } else if (value instanceof Collection<?> collection) {
+      writer.writeStartArray();
+      for (Object element : collection) {
+        writeValue(writer, element, context);
+      }
+      writer.writeEndArray();
+    } else {
+      Codec codec = registry.get(value.getClass());
+      context.encodeWithChildContext(codec, writer, value);
+    }
+  }
+
+  void writeString(BsonWriter writer, String name, String value) {
+    if (value != null) {
+      writer.writeString(name, value);
+    }
+  }
+
+  void writeBoolean(BsonWriter writer, String name, Boolean value) {
+    if (value != null) {
+      writer.writeBoolean(name, value);
+    }
+  }
+
+  void writeLong(BsonWriter writer, String name, Long value) {
+    if (value != null) {
+      writer.writeInt64(name, value);
+    }
+  }
+
+  void writeInstant(BsonWriter writer, String name, Instant value) {
+    if (value != null) {
+      writer.writeDateTime(name, value.toEpochMilli());
+    }
+  }
+
+  void writeZonedDateTime(BsonWriter writer, String name, ZonedDateTime value) {
+    if (value != null) {
+      writer.writeDateTime(name, value.toInstant().toEpochMilli());
+    }
+  }
+
+  void writeField(BsonWriter writer, String name, Object value, EncoderContext context) {
+    if (value != null) {
+      writer.writeName(name);
+      writeValue(writer, value, context);
+    }
+  }
+
+  /** Reads the current value of the reader. */
+  @FunctionalInterface
+  interface ValueReader<V> {
+    V read(BsonReader reader, DecoderContext context);
+  }
+}
@@ -0,0 +1,190 @@
+package io.github.jacopocarlini.fffp.repository.mongo.codec;
+
+import io.github.jacopocarlini.fffp.entity.Bucketing;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.entity.Prerequisite;
+import io.github.jacopocarlini.fffp.entity.RecurringWindow;
+import io.github.jacopocarlini.fffp.entity.Target;
+import java.util.List;
+import java.util.Map;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+
+/**
+ * Codec of the flags, reading and writing the documents of the Spring Data mapping: the id is an
+ * {@link ObjectId} when it is a valid one, the time window bounds are BSON dates read in UTC and
+ * the duration of the recurring window is an ISO-8601 string. The {@code _class} field written by
+ * the mapping is ignored.
+ */
+public class FlagCodec implements Codec<Flag> {
+
+  private final BsonValues values;
+  private final TargetCodec targetCodec;
+
+  /**
+   * @param registry decodes the variant values of the BSON types without a natural Java type
+   */
+  public FlagCodec(CodecRegistry registry) {
+    this.values = new BsonValues(registry);
+    this.targetCodec = new TargetCodec(values);
+  }
+
+  @Override
+  public Flag decode(BsonReader reader, DecoderContext context) {
+    var flag = new Flag();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "_id" -> flag.setId(values.readString(reader));
+        case "flagKey" -> flag.setFlagKey(values.readString(reader));
+        case "enabled" -> flag.setEnabled(values.readBoolean(reader));
+        case "variants" -> flag.setVariants(values.readMap(reader, context, values::readValue));
+        case "defaultVariant" -> flag.setDefaultVariant(values.readString(reader));
+        case "target" -> flag.setTarget(values.readList(reader, context, this::readTarget));
+        case "prerequisites" ->
+            flag.setPrerequisites(values.readList(reader, context, this::readPrerequisite));
+        case "rolloutPercentage" -> flag.setRolloutPercentage(readIntegers(reader, context));
+        case "rolloutBasisPoints" -> flag.setRolloutBasisPoints(readIntegers(reader, context));
+        case "bucketing" -> flag.setBucketing(values.readEnum(reader, Bucketing.class));
+        case "bucketingSalt" -> flag.setBucketingSalt(values.readString(reader));
+        case "rolloutEpoch" -> flag.setRolloutEpoch(values.readLong(reader));
+        case "timeWindowStart" -> flag.setTimeWindowStart(values.readZonedDateTime(reader));
+        case "timeWindowEnd" -> flag.setTimeWindowEnd(values.readZonedDateTime(reader));
+        case "recurringWindow" -> flag.setRecurringWindow(readRecurringWindow(reader));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return flag;
+  }
+
+  private Target readTarget(BsonReader reader, DecoderContext context) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    return targetCodec.decode(reader, context);
+  }
+
+  private Prerequisite readPrerequisite(BsonReader reader, DecoderContext context) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    var prerequisite = new Prerequisite();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "flagKey" -> prerequisite.setFlagKey(values.readString(reader));
+        case "variant" -> prerequisite.setVariant(values.readString(reader));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return prerequisite;
+  }
+
+  private Map<String, Integer> readIntegers(BsonReader reader, DecoderContext context) {
+    return values.readMap(reader, context, (r, c) -> values.readInteger(r));
+  }
+
+  private RecurringWindow readRecurringWindow(BsonReader reader) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    var window = new RecurringWindow();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "cron" -> window.setCron(values.readString(reader));
+        case "duration" -> window.setDuration(values.readDuration(reader));
+        case "zone" -> window.setZone(values.readString(reader));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return window;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Flag flag, EncoderContext context) {
+    writer.writeStartDocument();
+    if (flag.getId() != null) {
+      if (ObjectId.isValid(flag.getId())) {
+        writer.writeObjectId("_id", new ObjectId(flag.getId()));
+      } else {
+        writer.writeString("_id", flag.getId());
+      }
+    }
+    values.writeString(writer, "flagKey", flag.getFlagKey());
+    values.writeBoolean(writer, "enabled", flag.getEnabled());
+    values.writeField(writer, "variants", flag.getVariants(), context);
+    values.writeString(writer, "defaultVariant", flag.getDefaultVariant());
+    if (flag.getTarget() != null) {
+      writer.writeStartArray("target");
+      for (Target target : flag.getTarget()) {
+        if (target == null) {
+          writer.writeNull();
+        } else {
+          targetCodec.encode(writer, target, context);
+        }
+      }
+      writer.writeEndArray();
+    }
+    writePrerequisites(writer, flag.getPrerequisites());
+    values.writeField(writer, "rolloutPercentage", flag.getRolloutPercentage(), context);
+    values.writeField(writer, "rolloutBasisPoints", flag.getRolloutBasisPoints(), context);
+    if (flag.getBucketing() != null) {
+      writer.writeString("bucketing", flag.getBucketing().name());
+    }
+    values.writeString(writer, "bucketingSalt", flag.getBucketingSalt());
+    values.writeLong(writer, "rolloutEpoch", flag.getRolloutEpoch());
+    values.writeZonedDateTime(writer, "timeWindowStart", flag.getTimeWindowStart());
+    values.writeZonedDateTime(writer, "timeWindowEnd", flag.getTimeWindowEnd());
+    writeRecurringWindow(writer, flag.getRecurringWindow());
+    writer.writeEndDocument();
+  }
+
+  private void writePrerequisites(BsonWriter writer, List<Prerequisite> prerequisites) {
+    if (prerequisites == null) {
+      return;
+    }
+    writer.writeStartArray("prerequisites");
+    for (Prerequisite prerequisite : prerequisites) {
+      if (prerequisite == null) {
+        writer.writeNull();
+        continue;
+      }
+      writer.writeStartDocument();
+      values.writeString(writer, "flagKey", prerequisite.getFlagKey());
+      values.writeString(writer, "variant", prerequisite.getVariant());
+      writer.writeEndDocument();
+    }
+    writer.writeEndArray();
+  }
+
+  private void writeRecurringWindow(BsonWriter writer, RecurringWindow window) {
+    if (window == null) {
+      return;
+    }
+    writer.writeStartDocument("recurringWindow");
+    values.writeString(writer, "cron", window.getCron());
+    if (window.getDuration() != null) {
+      writer.writeString("duration", window.getDuration().toString());
+    }
+    values.writeString(writer, "zone", window.getZone());
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<Flag> getEncoderClass() {
+    return Flag.class;
+  }
+}
@@ -0,0 +1,27 @@
+package io.github.jacopocarlini.fffp.repository.mongo.codec;
+
+import com.mongodb.MongoClientSettings;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * The codecs of the entities read on the hot path, which decode the documents field by field
+ * instead of through the reflective mapping of Spring Data.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MongoCodecs {
+
+  /**
+   * @return a registry with the codecs of {@code Flag}, {@code Target} and {@code
+   *     AssignedTarget}, backed by the default registry of the driver for every other class
+   */
+  public static CodecRegistry registry() {
+    CodecRegistry defaults = MongoClientSettings.getDefaultCodecRegistry();
+    return CodecRegistries.fromRegistries(
+        CodecRegistries.fromCodecs(
+            new FlagCodec(defaults), new TargetCodec(defaults), new AssignedTargetCodec(defaults)),
+        defaults);
+  }
+}
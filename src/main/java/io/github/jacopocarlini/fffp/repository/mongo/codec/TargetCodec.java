@@ -0,0 +1,107 @@
+package io.github.jacopocarlini.fffp.repository.mongo.codec;
+
+import io.github.jacopocarlini.fffp.entity.Rule;
+import io.github.jacopocarlini.fffp.entity.RuleOperator;
+import io.github.jacopocarlini.fffp.entity.Target;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/** Codec of the targets of a flag, with their rules nested at any depth. */
+public class TargetCodec implements Codec<Target> {
+
+  private final BsonValues values;
+
+  /**
+   * @param registry decodes the rule values of the BSON types without a natural Java type
+   */
+  public TargetCodec(CodecRegistry registry) {
+    this(new BsonValues(registry));
+  }
+
+  TargetCodec(BsonValues values) {
+    this.values = values;
+  }
+
+  @Override
+  public Target decode(BsonReader reader, DecoderContext context) {
+    var target = new Target();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "filter" -> target.setFilter(values.readString(reader));
+        case "rule" -> target.setRule(readRule(reader, context));
+        case "variant" -> target.setVariant(values.readString(reader));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return target;
+  }
+
+  private Rule readRule(BsonReader reader, DecoderContext context) {
+    if (reader.getCurrentBsonType() == BsonType.NULL) {
+      reader.readNull();
+      return null;
+    }
+    var rule = new Rule();
+    reader.readStartDocument();
+    while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+      switch (reader.readName()) {
+        case "attribute" -> rule.setAttribute(values.readString(reader));
+        case "operator" -> rule.setOperator(values.readEnum(reader, RuleOperator.class));
+        case "values" -> rule.setValues(values.readList(reader, context, values::readValue));
+        case "min" -> rule.setMin(values.readValue(reader, context));
+        case "max" -> rule.setMax(values.readValue(reader, context));
+        case "rules" -> rule.setRules(values.readList(reader, context, this::readRule));
+        default -> reader.skipValue();
+      }
+    }
+    reader.readEndDocument();
+    return rule;
+  }
+
+  @Override
+  public void encode(BsonWriter writer, Target target, EncoderContext context) {
+    writer.writeStartDocument();
+    values.writeString(writer, "filter", target.getFilter());
+    if (target.getRule() != null) {
+      writer.writeName("rule");
+      writeRule(writer, target.getRule(), context);
+    }
+    values.writeString(writer, "variant", target.getVariant());
+    writer.writeEndDocument();
+  }
+
+  private void writeRule(BsonWriter writer, Rule rule, EncoderContext context) {
+    if (rule == null) {
+      writer.writeNull();
+      return;
+    }
+    writer.writeStartDocument();
+    values.writeString(writer, "attribute", rule.getAttribute());
+    if (rule.getOperator() != null) {
+      writer.writeString("operator", rule.getOperator().name());
+    }
+    values.writeField(writer, "values", rule.getValues(), context);
+    values.writeField(writer, "min", rule.getMin(), context);
+    values.writeField(writer, "max", rule.getMax(), context);
+    if (rule.getRules() != null) {
+      writer.writeStartArray("rules");
+      for (Rule nested : rule.getRules()) {
+        writeRule(writer, nested, context);
+      }
+      writer.writeEndArray();
+    }
+    writer.writeEndDocument();
+  }
+
+  @Override
+  public Class<Target> getEncoderClass() {
+    return Target.class;
+  }
+}
@@ -0,0 +1,69 @@
+package io.github.jacopocarlini.fffp.segment;
+
+/**
+ * Immutable Bloom filter over the 64-bit fingerprints of the ids of one chunk. The probes are
+ * derived from the fingerprint by double hashing, so the ids are hashed only once.
+ */
+final class BloomFilter {
+  private static final double LN2 = Math.log(2);
+
+  private final long[] bits;
+  private final int hashes;
+  private final int members;
+
+  private BloomFilter(long[] bits, int hashes, int members) {
+    this.bits = bits;
+    this.hashes = hashes;
+    this.members = members;
+  }
+
+  /** Sizes the filter for the given fingerprints and false positive rate. */
+  static BloomFilter of(long[] fingerprints, double falsePositiveRate) {
+    int n = Math.max(1, fingerprints.length);
+    double optimalBits = -n * Math.log(falsePositiveRate) / (LN2 * LN2);
+    int words = (int) Math.max(1, Math.min(Integer.MAX_VALUE / 64, Math.ceil(optimalBits / 64)));
+    int hashes = (int) Math.max(1, Math.min(16, Math.round(words * 64.0 / n * LN2)));
+    var filter = new BloomFilter(new long[words], hashes, fingerprints.length);
+    for (long fingerprint : fingerprints) {
+      filter.add(fingerprint);
+    }
+    return filter;
+  }
+
+  private void add(long fingerprint) {
+    long size = bits.length * 64L;
+    long h1 = fingerprint & 0xffffffffL;
+    long h2 = mix(fingerprint) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + i * h2, size);
+      bits[(int) (bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  boolean mightContain(long fingerprint) {
+    long size = bits.length * 64L;
+    long h1 = fingerprint & 0xffffffffL;
+    long h2 = mix(fingerprint) | 1;
+    for (int i = 0; i < hashes; i++) {
+      long bit = Math.floorMod(h1 + i * h2, size);
+      if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  int members() {
+    return members;
+  }
+
+  long sizeInBytes() {
+    return 40L + 8L * bits.length;
+  }
+
+  // the high bits of the fingerprint select the chunk, so they are mixed into the second probe
+  private static long mix(long fingerprint) {
+    long z = fingerprint * 0x9e3779b97f4a7c15L;
+    return (z ^ (z >>> 29)) >>> 32;
+  }
+}
@@ -0,0 +1,164 @@
+package io.github.jacopocarlini.fffp.segment;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * Immutable compressed bitmap of 64-bit integers, laid out as a Roaring bitmap: the integers are
+ * partitioned by their high 48 bits into containers of at most 65536 values, and a container keeps
+ * the low 16 bits in a sorted array while it holds at most {@value #ARRAY_LIMIT} of them, in a
+ * bitmap of 8 KB beyond. A dense range of ids takes about one bit per id, a sparse one two bytes.
+ * The containers match the chunks of the storage, so a changed chunk replaces one container.
+ */
+final class CompressedBitmap {
+
+  static final int ARRAY_LIMIT = 4096;
+
+  static final CompressedBitmap EMPTY = new CompressedBitmap(new long[0], new Container[0]);
+
+  private final long[] keys;
+  private final Container[] containers;
+  private final long cardinality;
+
+  private CompressedBitmap(long[] keys, Container[] containers) {
+    this.keys = keys;
+    this.containers = containers;
+    long total = 0;
+    for (Container container : containers) {
+      total += container.cardinality();
+    }
+    cardinality = total;
+  }
+
+  boolean contains(long value) {
+    int index = Arrays.binarySearch(keys, SegmentChunks.numericKey(value));
+    return index >= 0 && containers[index].contains((char) value);
+  }
+
+  long cardinality() {
+    return cardinality;
+  }
+
+  long sizeInBytes() {
+    long size = 16L + 8L * keys.length + 8L * containers.length;
+    for (Container container : containers) {
+      size += container.sizeInBytes();
+    }
+    return size;
+  }
+
+  /**
+   * @param replaced the new containers by key, null or empty to remove the container of the key
+   * @return a bitmap with the containers replaced
+   */
+  CompressedBitmap with(SortedMap<Long, Container> replaced) {
+    var newKeys = new long[keys.length + replaced.size()];
+    var newContainers = new Container[newKeys.length];
+    int size = 0;
+    int i = 0;
+    for (Map.Entry<Long, Container> entry : replaced.entrySet()) {
+      long key = entry.getKey();
+      for (; i < keys.length && keys[i] < key; i++) {
+        newKeys[size] = keys[i];
+        newContainers[size++] = containers[i];
+      }
+      if (i < keys.length && keys[i] == key) {
+        i++;
+      }
+      Container container = entry.getValue();
+      if (container != null && container.cardinality() > 0) {
+        newKeys[size] = key;
+        newContainers[size++] = container;
+      }
+    }
+    for (; i < keys.length; i++) {
+      newKeys[size] = keys[i];
+      newContainers[size++] = containers[i];
+    }
+    return new CompressedBitmap(
+        Arrays.copyOf(newKeys, size), Arrays.copyOf(newContainers, size));
+  }
+
+  /** The low 16 bits of the values of one key. */
+  abstract static class Container {
+
+    abstract boolean contains(char low);
+
+    abstract int cardinality();
+
+    abstract long sizeInBytes();
+
+    /** @param lows distinct values in [0, 65536) */
+    static Container of(Collection<Integer> lows) {
+      if (lows.size() <= ARRAY_LIMIT) {
+        var values = new char[lows.size()];
+        int i = 0;
+        for (int low : lows) {
+          values[i++] = (char) low;
+        }
+        Arrays.sort(values);
+        return new ArrayContainer(values);
+      }
+      var words = new long[1 << 10];
+      int cardinality = 0;
+      for (int low : lows) {
+        long bit = 1L << low;
+        if ((words[low >>> 6] & bit) == 0) {
+          words[low >>> 6] |= bit;
+          cardinality++;
+        }
+      }
+      return new BitmapContainer(words, cardinality);
+    }
+  }
+
+  private static final class ArrayContainer extends Container {
+    private final char[] values;
+
+    ArrayContainer(char[] values) {
+      this.values = values;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return Arrays.binarySearch(values, low) >= 0;
+    }
+
+    @Override
+    int cardinality() {
+      return values.length;
+    }
+
+    @Override
+    long sizeInBytes() {
+      return 32L + 2L * values.length;
+    }
+  }
+
+  private static final class BitmapContainer extends Container {
+    private final long[] words;
+    private final int cardinality;
+
+    BitmapContainer(long[] words, int cardinality) {
+      this.words = words;
+      this.cardinality = cardinality;
+    }
+
+    @Override
+    boolean contains(char low) {
+      return (words[low >>> 6] & (1L << low)) != 0;
+    }
+
+    @Override
+    int cardinality() {
+      return cardinality;
+    }
+
+    @Override
+    long sizeInBytes() {
+      return 32L + 8L * words.length;
+    }
+  }
+}
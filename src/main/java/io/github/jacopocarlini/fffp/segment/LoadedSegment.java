@@ -0,0 +1,179 @@
+package io.github.jacopocarlini.fffp.segment;
+
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import io.github.jacopocarlini.fffp.entity.SegmentType;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * The in-memory form of a segment: a {@link CompressedBitmap} of the numeric ids, or one sorted
+ * array of fingerprints or one {@link BloomFilter} for each chunk of the string ids. Immutable;
+ * the changed chunks are applied to a copy that shares the unchanged ones.
+ */
+abstract class LoadedSegment {
+
+  final Segment settings;
+  // the chunks changed up to this version are loaded, later ones may not be
+  final long loadedVersion;
+
+  LoadedSegment(Segment settings, long loadedVersion) {
+    this.settings = settings;
+    this.loadedVersion = loadedVersion;
+  }
+
+  static LoadedSegment empty(Segment settings) {
+    return settings.getType() == SegmentType.NUMERIC
+        ? new Numbers(settings, -1, CompressedBitmap.EMPTY)
+        : new Strings(settings, -1, new Object[SegmentChunks.STRING_CHUNKS]);
+  }
+
+  /** @return true if the stored chunks of this segment need to be read again from scratch */
+  boolean isReplacedBy(Segment stored) {
+    return settings.getGeneration() != stored.getGeneration()
+        || settings.getType() != stored.getType()
+        || !Objects.equals(settings.getFalsePositiveRate(), stored.getFalsePositiveRate());
+  }
+
+  /**
+   * @param member an id in the canonical form of the rule values
+   * @return false if the id is not in the segment; true if it is, or may be when the segment is
+   *     not {@link #isExact()}
+   */
+  abstract boolean mightContain(String member);
+
+  abstract boolean isExact();
+
+  abstract long members();
+
+  abstract long sizeInBytes();
+
+  /**
+   * @param chunks the full content of the chunks that changed
+   * @return a segment with the chunks replaced
+   */
+  abstract LoadedSegment apply(List<SegmentChunk> chunks, Segment settings, long loadedVersion);
+
+  private static final class Numbers extends LoadedSegment {
+    private final CompressedBitmap bitmap;
+
+    Numbers(Segment settings, long loadedVersion, CompressedBitmap bitmap) {
+      super(settings, loadedVersion);
+      this.bitmap = bitmap;
+    }
+
+    @Override
+    boolean mightContain(String member) {
+      try {
+        return bitmap.contains(Long.parseLong(member));
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    @Override
+    boolean isExact() {
+      return true;
+    }
+
+    @Override
+    long members() {
+      return bitmap.cardinality();
+    }
+
+    @Override
+    long sizeInBytes() {
+      return bitmap.sizeInBytes();
+    }
+
+    @Override
+    LoadedSegment apply(List<SegmentChunk> chunks, Segment settings, long loadedVersion) {
+      if (chunks.isEmpty()) {
+        return new Numbers(settings, loadedVersion, bitmap);
+      }
+      var replaced = new TreeMap<Long, CompressedBitmap.Container>();
+      for (SegmentChunk chunk : chunks) {
+        replaced.put(
+            chunk.getKey(),
+            chunk.getNumbers() == null
+                ? null
+                : CompressedBitmap.Container.of(chunk.getNumbers()));
+      }
+      return new Numbers(settings, loadedVersion, bitmap.with(replaced));
+    }
+  }
+
+  /** Each chunk is a sorted {@code long[]} of fingerprints or a {@link BloomFilter}. */
+  private static final class Strings extends LoadedSegment {
+    private final Object[] chunks;
+    private final long members;
+    private final long sizeInBytes;
+
+    Strings(Segment settings, long loadedVersion, Object[] chunks) {
+      super(settings, loadedVersion);
+      this.chunks = chunks;
+      long count = 0;
+      long size = 16L + 8L * chunks.length;
+      for (Object chunk : chunks) {
+        if (chunk instanceof long[] fingerprints) {
+          count += fingerprints.length;
+          size += 16L + 8L * fingerprints.length;
+        } else if (chunk instanceof BloomFilter filter) {
+          count += filter.members();
+          size += filter.sizeInBytes();
+        }
+      }
+      members = count;
+      sizeInBytes = size;
+    }
+
+    @Override
+    boolean mightContain(String member) {
+      long fingerprint = SegmentChunks.fingerprint(member);
+      Object chunk = chunks[(int) SegmentChunks.stringKey(fingerprint)];
+      if (chunk instanceof long[] fingerprints) {
+        return Arrays.binarySearch(fingerprints, fingerprint) >= 0;
+      }
+      return chunk instanceof BloomFilter filter && filter.mightContain(fingerprint);
+    }
+
+    @Override
+    boolean isExact() {
+      return settings.getFalsePositiveRate() == null;
+    }
+
+    @Override
+    long members() {
+      return members;
+    }
+
+    @Override
+    long sizeInBytes() {
+      return sizeInBytes;
+    }
+
+    @Override
+    LoadedSegment apply(List<SegmentChunk> changed, Segment settings, long loadedVersion) {
+      Object[] copy = changed.isEmpty() ? chunks : chunks.clone();
+      for (SegmentChunk chunk : changed) {
+        List<String> ids = chunk.getMembers() == null ? List.of() : chunk.getMembers();
+        long[] fingerprints = new long[ids.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+          fingerprints[i] = SegmentChunks.fingerprint(ids.get(i));
+        }
+        Arrays.sort(fingerprints);
+        int index = (int) chunk.getKey();
+        if (fingerprints.length == 0) {
+          copy[index] = null;
+        } else if (settings.getFalsePositiveRate() == null) {
+          copy[index] = fingerprints;
+        } else {
+          copy[index] = BloomFilter.of(fingerprints, settings.getFalsePositiveRate());
+        }
+      }
+      return new Strings(settings, loadedVersion, copy);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package io.github.jacopocarlini.fffp.segment;
+
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import io.github.jacopocarlini.fffp.entity.SegmentType;
+import io.github.jacopocarlini.fffp.util.MurmurHash3;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Splits the ids of a segment into the {@link SegmentChunk}s they are stored in: numeric ids by
+ * their high 48 bits, string ids by the high 12 bits of their 64-bit fingerprint.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class SegmentChunks {
+
+  /** The number of chunks of a {@code STRING} segment. */
+  public static final int STRING_CHUNKS = 1 << 12;
+
+  private static final int STRING_KEY_SHIFT = Long.SIZE - 12;
+
+  /**
+   * Sorts and deduplicates the ids and groups them by chunk. The chunks only carry their key and
+   * their ids, and are produced one at a time while iterating.
+   *
+   * @throws IllegalArgumentException if an id is not valid for the type of the segment
+   */
+  public static Iterator<SegmentChunk> split(SegmentType type, Collection<?> ids) {
+    return type == SegmentType.NUMERIC ? splitNumbers(ids) : splitStrings(ids);
+  }
+
+  /** @return the key of the chunk of a numeric id */
+  public static long numericKey(long id) {
+    return id >> 16;
+  }
+
+  /** @return the key of the chunk of a string id, in [0, {@link #STRING_CHUNKS}) */
+  public static long stringKey(long fingerprint) {
+    return fingerprint >>> STRING_KEY_SHIFT;
+  }
+
+  public static long fingerprint(String id) {
+    return MurmurHash3.hash64(id);
+  }
+
+  /**
+   * @param member an id in the canonical form of the rule values
+   * @return the key of the chunk of the id, or null if the id cannot belong to a segment of the
+   *     type
+   */
+  public static Long keyOf(SegmentType type, String member) {
+    if (type == SegmentType.STRING) {
+      return stringKey(fingerprint(member));
+    }
+    try {
+      return numericKey(Long.parseLong(member));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Iterator<SegmentChunk> splitNumbers(Collection<?> ids) {
+    long[] sorted = new long[ids.size()];
+    int size = 0;
+    for (Object id : ids) {
+      sorted[size++] = numericId(id);
+    }
+    Arrays.sort(sorted);
+    return new Iterator<>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < sorted.length;
+      }
+
+      @Override
+      public SegmentChunk next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        long key = numericKey(sorted[next]);
+        List<Integer> numbers = new ArrayList<>();
+        for (; next < sorted.length && numericKey(sorted[next]) == key; next++) {
+          if (next == 0 || sorted[next] != sorted[next - 1]) {
+            numbers.add((int) (sorted[next] & 0xffff));
+          }
+        }
+        return SegmentChunk.builder().key(key).numbers(numbers).build();
+      }
+    };
+  }
+
+  private static Iterator<SegmentChunk> splitStrings(Collection<?> ids) {
+    String[] strings = new String[ids.size()];
+    // the chunk key in the high bits and the index of the id in the low ones, sorted by key
+    long[] order = new long[ids.size()];
+    int size = 0;
+    for (Object id : ids) {
+      if (!(id instanceof String string)) {
+        throw new IllegalArgumentException("Invalid segment id: " + id + " is not a string");
+      }
+      strings[size] = string;
+      order[size] = stringKey(fingerprint(string)) << 32 | size;
+      size++;
+    }
+    Arrays.sort(order);
+    return new Iterator<>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < order.length;
+      }
+
+      @Override
+      public SegmentChunk next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        long key = order[next] >>> 32;
+        var members = new ArrayList<String>();
+        for (; next < order.length && order[next] >>> 32 == key; next++) {
+          members.add(strings[(int) order[next]]);
+        }
+        List<String> distinct = members.stream().distinct().toList();
+        return SegmentChunk.builder().key(key).members(distinct).build();
+      }
+    };
+  }
+
+  private static long numericId(Object id) {
+    try {
+      if (id instanceof Long || id instanceof Integer || id instanceof Short) {
+        return ((Number) id).longValue();
+      }
+      if (id instanceof BigInteger integer) {
+        return integer.longValueExact();
+      }
+      if (id instanceof Number number) {
+        return new BigDecimal(number.toString()).longValueExact();
+      }
+      if (id instanceof String string) {
+        return Long.parseLong(string);
+      }
+    } catch (ArithmeticException | NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException("Invalid segment id: " + id + " is not a 64-bit integer");
+  }
+}
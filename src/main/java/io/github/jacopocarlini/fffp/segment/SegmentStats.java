@@ -0,0 +1,17 @@
+package io.github.jacopocarlini.fffp.segment;
+
+import io.github.jacopocarlini.fffp.entity.SegmentType;
+import lombok.Value;
+
+/** Point in time statistics of a segment loaded in memory. */
+@Value
+public class SegmentStats {
+  String name;
+  SegmentType type;
+  /** The number of ids, as loaded. */
+  long members;
+  /** An estimate of the heap taken by the in-memory structures of the segment. */
+  long sizeInBytes;
+  /** False when a Bloom filter answers and positive lookups are confirmed by the storage. */
+  boolean exact;
+}
@@ -0,0 +1,181 @@
+package io.github.jacopocarlini.fffp.segment;
+
+import io.github.jacopocarlini.fffp.cache.BoundedCache;
+import io.github.jacopocarlini.fffp.entity.Segment;
+import io.github.jacopocarlini.fffp.entity.SegmentChunk;
+import io.github.jacopocarlini.fffp.evaluation.SegmentLookup;
+import io.github.jacopocarlini.fffp.repository.SegmentRepository;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The segments of a provider, loaded in memory and kept up to date by polling the {@link
+ * SegmentRepository}: a refresh reads the settings of all the segments and then only the chunks
+ * changed since the last refresh, which replace their part of the in-memory structures. Lookups
+ * only dereference a volatile snapshot, except the positive answers of a Bloom filter, which are
+ * confirmed by the repository and cached.
+ */
+@Slf4j
+public class SegmentStore implements SegmentLookup, AutoCloseable {
+  // the chunks applied to a segment at once, which bounds the memory taken by a full load
+  private static final int APPLY_BATCH = 64;
+
+  private final SegmentRepository repository;
+  private final BoundedCache<FallbackKey, Boolean> fallbackCache;
+  private ScheduledExecutorService scheduler;
+
+  private volatile Map<String, LoadedSegment> segments = Map.of();
+
+  /**
+   * @param fallbackCacheSize the maximum number of exact lookups cached for the Bloom filters
+   * @param fallbackCacheTtl the time after which a cached exact lookup expires
+   */
+  public SegmentStore(
+      SegmentRepository repository, long fallbackCacheSize, Duration fallbackCacheTtl) {
+    this.repository = repository;
+    this.fallbackCache = new BoundedCache<>(fallbackCacheSize, fallbackCacheTtl);
+  }
+
+  /** Refreshes the segments now and then periodically, on a daemon thread. */
+  public synchronized void start(Duration refreshInterval) {
+    refreshQuietly();
+    if (scheduler == null) {
+      scheduler =
+          Executors.newSingleThreadScheduledExecutor(
+              task -> {
+                var thread = new Thread(task, "fffp-segment-refresh");
+                thread.setDaemon(true);
+                return thread;
+              });
+      long period = Math.max(1, refreshInterval.toMillis());
+      scheduler.scheduleWithFixedDelay(
+          this::refreshQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void refreshQuietly() {
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      log.warn("Unable to refresh the segments", e);
+    }
+  }
+
+  /**
+   * Loads the segments that changed since the last refresh. A segment that cannot be loaded keeps
+   * its previous content.
+   */
+  public synchronized void refresh() {
+    var current = segments;
+    var next = new HashMap<String, LoadedSegment>();
+    for (Segment stored : repository.findAll()) {
+      if (stored.getType() == null) {
+        continue;
+      }
+      LoadedSegment loaded = current.get(stored.getName());
+      try {
+        next.put(stored.getName(), load(loaded, stored));
+      } catch (RuntimeException e) {
+        log.warn("Unable to load the segment {}", stored.getName(), e);
+        if (loaded != null) {
+          next.put(stored.getName(), loaded);
+        }
+      }
+    }
+    segments = Map.copyOf(next);
+  }
+
+  private LoadedSegment load(LoadedSegment loaded, Segment stored) {
+    boolean replaced = loaded == null || loaded.isReplacedBy(stored);
+    if (!replaced && loaded.loadedVersion == stored.getVersion()) {
+      return loaded;
+    }
+    LoadedSegment base = replaced ? LoadedSegment.empty(stored) : loaded;
+    // with a writer in progress some chunks of the current version may not be written yet, so
+    // the version is not marked as loaded and the same chunks are read again next time
+    long loadedVersion = stored.getWriters() > 0 ? base.loadedVersion : stored.getVersion();
+    var batch = new ArrayList<SegmentChunk>(APPLY_BATCH);
+    LoadedSegment[] result = {base};
+    repository.forEachChunk(
+        stored.getName(),
+        stored.getGeneration(),
+        base.loadedVersion,
+        chunk -> {
+          batch.add(chunk);
+          if (batch.size() == APPLY_BATCH) {
+            result[0] = result[0].apply(batch, stored, base.loadedVersion);
+            batch.clear();
+          }
+        });
+    return result[0].apply(batch, stored, loadedVersion);
+  }
+
+  /**
+   * @param member an id in the canonical form of the rule values
+   * @return true if the segment is loaded and contains the id
+   */
+  @Override
+  public boolean contains(String segment, String member) {
+    LoadedSegment loaded = segments.get(segment);
+    if (loaded == null || !loaded.mightContain(member)) {
+      return false;
+    }
+    if (loaded.isExact()) {
+      return true;
+    }
+    long generation = loaded.settings.getGeneration();
+    var key = new FallbackKey(segment, generation, loaded.loadedVersion, member);
+    Boolean contained = fallbackCache.get(key);
+    if (contained == null) {
+      try {
+        contained =
+            repository.containsMember(
+                segment,
+                generation,
+                SegmentChunks.stringKey(SegmentChunks.fingerprint(member)),
+                member);
+      } catch (RuntimeException e) {
+        // the Bloom filter is right but for its false positive rate
+        log.warn("Unable to look up {} in the segment {}", member, segment, e);
+        return true;
+      }
+      fallbackCache.put(key, contained);
+    }
+    return contained;
+  }
+
+  /** @return the statistics of the loaded segments, by name */
+  public Map<String, SegmentStats> stats() {
+    var stats = new LinkedHashMap<String, SegmentStats>();
+    segments.values().stream()
+        .sorted((a, b) -> a.settings.getName().compareTo(b.settings.getName()))
+        .forEach(
+            loaded ->
+                stats.put(
+                    loaded.settings.getName(),
+                    new SegmentStats(
+                        loaded.settings.getName(),
+                        loaded.settings.getType(),
+                        loaded.members(),
+                        loaded.sizeInBytes(),
+                        loaded.isExact())));
+    return stats;
+  }
+
+  /** Stops the periodic refresh. */
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private record FallbackKey(String segment, long generation, long version, String member) {}
+}
@@ -0,0 +1,280 @@
+package io.github.jacopocarlini.fffp.server;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonRecyclerPools;
+import io.github.jacopocarlini.fffp.evaluation.CompiledVariant;
+import io.github.jacopocarlini.fffp.util.Reason;
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ImmutableContext;
+import dev.openfeature.sdk.ImmutableStructure;
+import dev.openfeature.sdk.ProviderEvaluation;
+import dev.openfeature.sdk.Value;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+/**
+ * Reads the evaluation requests and writes the responses of the OpenFeature Remote Evaluation
+ * Protocol with the Jackson streaming API. The parser and generator buffers come from a pool
+ * shared by all the threads, since a thread-local pool is of no use with a virtual thread per
+ * request, and the responses are written to pooled {@link Buffer}s.
+ */
+final class OfrepJson {
+
+  static final String FLAG_NOT_FOUND = "FLAG_NOT_FOUND";
+  static final String PARSE_ERROR = "PARSE_ERROR";
+  static final String INVALID_CONTEXT = "INVALID_CONTEXT";
+  static final String GENERAL = "GENERAL";
+
+  private static final String NOT_FOUND_REASON = "flag_not_found";
+  private static final String DEFAULT_VARIANT = "DEFAULT_VALUE";
+  private static final int POOLED_BUFFERS = 256;
+  // larger buffers are left to the garbage collector instead of being pooled
+  private static final int MAX_POOLED_BUFFER_SIZE = 1 << 20;
+
+  private static final JsonFactory FACTORY =
+      JsonFactory.builder().recyclerPool(JsonRecyclerPools.newConcurrentDequePool()).build();
+  private static final BlockingQueue<Buffer> BUFFERS = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+  private OfrepJson() {}
+
+  /**
+   * Reads the {@code context} of a request body; an empty body is an empty context.
+   *
+   * @throws JsonParseException if the body is not valid JSON
+   * @throws IllegalArgumentException if the body or the context is not an object, or the
+   *     targeting key is not a string
+   */
+  static EvaluationContext readContext(InputStream body) throws IOException {
+    try (JsonParser parser = FACTORY.createParser(body)) {
+      JsonToken token = parser.nextToken();
+      if (token == null) {
+        return new ImmutableContext();
+      }
+      if (token != JsonToken.START_OBJECT) {
+        throw new IllegalArgumentException("The request body is not an object");
+      }
+      EvaluationContext context = new ImmutableContext();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String field = parser.currentName();
+        JsonToken value = parser.nextToken();
+        if (!"context".equals(field)) {
+          parser.skipChildren();
+        } else if (value != JsonToken.VALUE_NULL) {
+          context = toContext(readValue(parser));
+        }
+      }
+      return context;
+    }
+  }
+
+  private static EvaluationContext toContext(Value value) {
+    if (!value.isStructure()) {
+      throw new IllegalArgumentException("The context is not an object");
+    }
+    Map<String, Value> attributes = new HashMap<>(value.asStructure().asMap());
+    Value targetingKey = attributes.remove("targetingKey");
+    if (targetingKey == null || targetingKey.isNull()) {
+      return new ImmutableContext(attributes);
+    }
+    if (!targetingKey.isString()) {
+      throw new IllegalArgumentException("The targeting key is not a string");
+    }
+    return new ImmutableContext(targetingKey.asString(), attributes);
+  }
+
+  private static Value readValue(JsonParser parser) throws IOException {
+    switch (parser.currentToken()) {
+      case START_OBJECT:
+        var structure = new HashMap<String, Value>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.currentName();
+          parser.nextToken();
+          structure.put(name, readValue(parser));
+        }
+        return new Value(new ImmutableStructure(structure));
+      case START_ARRAY:
+        var list = new ArrayList<Value>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          list.add(readValue(parser));
+        }
+        return new Value(List.copyOf(list));
+      case VALUE_STRING:
+        return new Value(parser.getText());
+      case VALUE_NUMBER_INT:
+        return parser.getNumberType() == JsonParser.NumberType.INT
+            ? new Value(parser.getIntValue())
+            : new Value(parser.getDoubleValue());
+      case VALUE_NUMBER_FLOAT:
+        return new Value(parser.getDoubleValue());
+      case VALUE_TRUE:
+        return new Value(true);
+      case VALUE_FALSE:
+        return new Value(false);
+      default:
+        return new Value();
+    }
+  }
+
+  /** Writes the response of a single flag evaluation. */
+  static Buffer writeEvaluation(String flagKey, ProviderEvaluation<?> evaluation)
+      throws IOException {
+    Buffer buffer = acquire();
+    try (JsonGenerator generator = FACTORY.createGenerator(buffer)) {
+      writeEvaluation(generator, flagKey, evaluation);
+    }
+    return buffer;
+  }
+
+  /** Writes the response of a bulk evaluation. */
+  static Buffer writeEvaluations(Map<String, ProviderEvaluation<?>> evaluations)
+      throws IOException {
+    Buffer buffer = acquire();
+    try (JsonGenerator generator = FACTORY.createGenerator(buffer)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart("flags");
+      for (var entry : evaluations.entrySet()) {
+        writeEvaluation(generator, entry.getKey(), entry.getValue());
+      }
+      generator.writeEndArray();
+      generator.writeEndObject();
+    }
+    return buffer;
+  }
+
+  /** Writes an error that is not about a flag, such as a request that cannot be parsed. */
+  static Buffer writeError(String errorCode, String errorDetails) throws IOException {
+    Buffer buffer = acquire();
+    try (JsonGenerator generator = FACTORY.createGenerator(buffer)) {
+      generator.writeStartObject();
+      generator.writeStringField("errorCode", errorCode);
+      generator.writeStringField("errorDetails", errorDetails);
+      generator.writeEndObject();
+    }
+    return buffer;
+  }
+
+  /**
+   * @return the OFREP error code of the evaluation, or null if it succeeded
+   */
+  static String errorCodeOf(ProviderEvaluation<?> evaluation) {
+    if (NOT_FOUND_REASON.equals(evaluation.getReason())) {
+      return FLAG_NOT_FOUND;
+    }
+    if (Reason.INVALID_FLAG_DATA.name().equals(evaluation.getReason())) {
+      return PARSE_ERROR;
+    }
+    if (evaluation.getValue() != null
+        && CompiledVariant.convert(evaluation.getValue(), Value.class) == null) {
+      return GENERAL;
+    }
+    return null;
+  }
+
+  private static void writeEvaluation(
+      JsonGenerator generator, String flagKey, ProviderEvaluation<?> evaluation)
+      throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField("key", flagKey);
+    String errorCode = errorCodeOf(evaluation);
+    if (errorCode != null) {
+      generator.writeStringField("errorCode", errorCode);
+      generator.writeStringField("errorDetails", errorDetailsOf(errorCode, evaluation));
+      generator.writeEndObject();
+      return;
+    }
+    generator.writeStringField("reason", evaluation.getReason());
+    // no variant was served (disabled flag, failed prerequisite, ...): the client uses its default
+    if (!DEFAULT_VARIANT.equals(evaluation.getVariant()) || evaluation.getValue() != null) {
+      generator.writeStringField("variant", evaluation.getVariant());
+      generator.writeFieldName("value");
+      writeValue(generator, (Value) CompiledVariant.convert(evaluation.getValue(), Value.class));
+    }
+    generator.writeObjectFieldStart("metadata");
+    generator.writeEndObject();
+    generator.writeEndObject();
+  }
+
+  private static String errorDetailsOf(String errorCode, ProviderEvaluation<?> evaluation) {
+    switch (errorCode) {
+      case FLAG_NOT_FOUND:
+        return "Flag not found";
+      case PARSE_ERROR:
+        return "The flag is not valid";
+      default:
+        return "The value of variant " + evaluation.getVariant() + " cannot be represented";
+    }
+  }
+
+  private static void writeValue(JsonGenerator generator, Value value) throws IOException {
+    if (value == null || value.isNull()) {
+      generator.writeNull();
+    } else if (value.isBoolean()) {
+      generator.writeBoolean(value.asBoolean());
+    } else if (value.isString()) {
+      generator.writeString(value.asString());
+    } else if (value.isNumber()) {
+      if (value.asObject() instanceof Integer integer) {
+        generator.writeNumber(integer);
+      } else {
+        generator.writeNumber(value.asDouble());
+      }
+    } else if (value.isInstant()) {
+      generator.writeString(value.asInstant().toString());
+    } else if (value.isList()) {
+      generator.writeStartArray();
+      for (Value element : value.asList()) {
+        writeValue(generator, element);
+      }
+      generator.writeEndArray();
+    } else {
+      generator.writeStartObject();
+      for (var entry : value.asStructure().asMap().entrySet()) {
+        generator.writeFieldName(entry.getKey());
+        writeValue(generator, entry.getValue());
+      }
+      generator.writeEndObject();
+    }
+  }
+
+  private static Buffer acquire() {
+    Buffer buffer = BUFFERS.poll();
+    return buffer == null ? new Buffer() : buffer;
+  }
+
+  /** A response body, to be given back with {@link #release()} once it has been sent. */
+  static final class Buffer extends ByteArrayOutputStream {
+
+    private Buffer() {
+      super(4096);
+    }
+
+    /** A strong entity tag of the content, two CRCs computed in place. */
+    String etag() {
+      var crc32 = new CRC32();
+      crc32.update(buf, 0, count);
+      var crc32c = new CRC32C();
+      crc32c.update(buf, 0, count);
+      return String.format("\"%08x%08x\"", crc32.getValue(), crc32c.getValue());
+    }
+
+    void release() {
+      if (buf.length <= MAX_POOLED_BUFFER_SIZE) {
+        reset();
+        BUFFERS.offer(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,186 @@
+package io.github.jacopocarlini.fffp.server;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.github.jacopocarlini.fffp.providers.MongoDBFeatureFlagProviderExtended;
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ProviderEvaluation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves the evaluations of a provider over HTTP with the OpenFeature Remote Evaluation Protocol
+ * (OFREP), so that the services written in other languages share the MongoDB connection and the
+ * caches of a single JVM, for example a sidecar running on each node.
+ *
+ * <ul>
+ *   <li>{@code POST /ofrep/v1/evaluate/flags/{key}} evaluates one flag: 200 with the value, 404
+ *       if the flag does not exist, 400 if the request or the flag are not valid.
+ *   <li>{@code POST /ofrep/v1/evaluate/flags} evaluates all the flags. The response has an
+ *       {@code ETag}, and a request with a matching {@code If-None-Match} gets a 304 without body.
+ * </ul>
+ *
+ * <p>The request body is {@code {"context": {"targetingKey": "...", ...}}}. Requests are handled
+ * by a virtual thread each on Java 21 and later, by a cached pool of daemon threads before.
+ */
+@Slf4j
+public class OfrepServer implements AutoCloseable {
+
+  static final String PATH = "/ofrep/v1/evaluate/flags";
+
+  private static final int STOP_DELAY_SECONDS = 1;
+
+  private final MongoDBFeatureFlagProviderExtended provider;
+  private final HttpServer server;
+  private final ExecutorService executor;
+
+  /**
+   * Starts the server; use port 0 for an ephemeral port.
+   *
+   * @throws IOException if the address cannot be bound
+   */
+  public OfrepServer(MongoDBFeatureFlagProviderExtended provider, InetSocketAddress address)
+      throws IOException {
+    this.provider = provider;
+    this.server = HttpServer.create(address, 0);
+    this.executor = newExecutor();
+    server.setExecutor(executor);
+    server.createContext(PATH, this::handle);
+    server.start();
+    log.info("OFREP server listening on {}", server.getAddress());
+  }
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  /** Stops accepting requests and waits up to a second for the ones in progress. */
+  @Override
+  public void close() {
+    server.stop(STOP_DELAY_SECONDS);
+    executor.shutdown();
+    try {
+      executor.awaitTermination(STOP_DELAY_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+      String path = exchange.getRequestURI().getPath();
+      String flagKey = path.length() > PATH.length() + 1 ? path.substring(PATH.length() + 1) : null;
+      if (path.length() > PATH.length() && path.charAt(PATH.length()) != '/') {
+        exchange.sendResponseHeaders(404, -1);
+        return;
+      }
+
+      EvaluationContext context;
+      try (InputStream body = exchange.getRequestBody()) {
+        context = OfrepJson.readContext(body);
+      } catch (JsonProcessingException e) {
+        send(exchange, 400, OfrepJson.writeError(OfrepJson.PARSE_ERROR, e.getOriginalMessage()));
+        return;
+      } catch (IllegalArgumentException e) {
+        send(exchange, 400, OfrepJson.writeError(OfrepJson.INVALID_CONTEXT, e.getMessage()));
+        return;
+      }
+
+      try {
+        if (flagKey == null) {
+          evaluateAll(exchange, context);
+        } else {
+          evaluate(exchange, flagKey, context);
+        }
+      } catch (RuntimeException e) {
+        log.error("OFREP evaluation failed", e);
+        send(exchange, 500, OfrepJson.writeError(OfrepJson.GENERAL, "Evaluation failed"));
+      }
+    }
+  }
+
+  private void evaluate(HttpExchange exchange, String flagKey, EvaluationContext context)
+      throws IOException {
+    ProviderEvaluation<?> evaluation = provider.evaluateAll(context, List.of(flagKey)).get(flagKey);
+    String errorCode = OfrepJson.errorCodeOf(evaluation);
+    int status = errorCode == null ? 200 : OfrepJson.FLAG_NOT_FOUND.equals(errorCode) ? 404 : 400;
+    send(exchange, status, OfrepJson.writeEvaluation(flagKey, evaluation));
+  }
+
+  private void evaluateAll(HttpExchange exchange, EvaluationContext context) throws IOException {
+    // sorted, so that the same evaluations always give the same body and entity tag
+    Map<String, ProviderEvaluation<?>> evaluations = new TreeMap<>(provider.evaluateAll(context));
+    OfrepJson.Buffer body = OfrepJson.writeEvaluations(evaluations);
+    String etag = body.etag();
+    exchange.getResponseHeaders().set("ETag", etag);
+    if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+      body.release();
+      exchange.sendResponseHeaders(304, -1);
+      return;
+    }
+    send(exchange, 200, body);
+  }
+
+  /** Whether one of the tags of an {@code If-None-Match} header is the given one. */
+  private static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String tag : ifNoneMatch.split(",")) {
+      String trimmed = tag.trim();
+      // weak comparison, as required for If-None-Match
+      if (trimmed.startsWith("W/")) {
+        trimmed = trimmed.substring(2);
+      }
+      if (trimmed.equals(etag) || trimmed.equals("*")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static void send(HttpExchange exchange, int status, OfrepJson.Buffer body)
+      throws IOException {
+    try {
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(status, body.size());
+      try (OutputStream out = exchange.getResponseBody()) {
+        body.writeTo(out);
+      }
+    } finally {
+      body.release();
+    }
+  }
+
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      // virtual threads are available from Java 21
+      var counter = new AtomicInteger();
+      return Executors.newCachedThreadPool(
+          runnable -> {
+            var thread = new Thread(runnable, "fffp-ofrep-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+  }
+}
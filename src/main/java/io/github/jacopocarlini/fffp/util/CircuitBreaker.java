@@ -0,0 +1,75 @@
+package io.github.jacopocarlini.fffp.util;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stops the calls to a dependency that keeps failing. After {@code failureThreshold} consecutive
+ * failures the circuit opens and {@link #tryAcquire()} refuses every call for {@code
+ * openDuration}; then a single trial call is let through, which closes the circuit if it
+ * succeeds and opens it again otherwise.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+  private final String name;
+  private final int failureThreshold;
+  private final long openNanos;
+  private final AtomicInteger failures = new AtomicInteger();
+  private final AtomicBoolean trial = new AtomicBoolean();
+
+  private volatile boolean open = false;
+  private volatile long openedAt;
+
+  public CircuitBreaker(String name, int failureThreshold, Duration openDuration) {
+    if (failureThreshold <= 0) {
+      throw new IllegalArgumentException("failureThreshold must be positive");
+    }
+    this.name = name;
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openDuration.toNanos();
+  }
+
+  /**
+   * @return true if the call can be made; its outcome must then be reported with {@link
+   *     #onSuccess()} or {@link #onFailure()}
+   */
+  public boolean tryAcquire() {
+    if (!open) {
+      return true;
+    }
+    if (System.nanoTime() - openedAt < openNanos) {
+      return false;
+    }
+    return trial.compareAndSet(false, true);
+  }
+
+  public void onSuccess() {
+    failures.set(0);
+    if (open) {
+      open = false;
+      trial.set(false);
+      log.info("Circuit {} closed", name);
+    }
+  }
+
+  public void onFailure() {
+    if (open) {
+      // the trial call failed, or a call started before the circuit opened
+      openedAt = System.nanoTime();
+      trial.set(false);
+      return;
+    }
+    if (failures.incrementAndGet() >= failureThreshold) {
+      openedAt = System.nanoTime();
+      open = true;
+      log.warn("Circuit {} opened after {} consecutive failures", name, failureThreshold);
+    }
+  }
+
+  public boolean isOpen() {
+    return open;
+  }
+}
@@ -0,0 +1,108 @@
+package io.github.jacopocarlini.fffp.util;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs blocking reads with a deadline. A read runs on a pool thread while the caller waits for it
+ * at most until the deadline; a read that misses the deadline keeps running in the background.
+ * Concurrent reads with the same key share the one in flight, so a slow database receives a
+ * single query per key whatever the number of callers waiting for it.
+ *
+ * <p>The pool is bounded: when its threads are all busy and its queue is full, a read is refused
+ * as if it missed the deadline, so a database that stops answering cannot pile up blocked threads
+ * while the circuit is still closed.
+ *
+ * <p>The outcome seen by every caller feeds a {@link CircuitBreaker}: while it is open the reads
+ * are refused without reaching the database.
+ */
+public class DeadlineReader implements AutoCloseable {
+  private static final int QUEUED_READS_PER_THREAD = 16;
+
+  private final ExecutorService executor;
+  private final RequestCoalescer<Object> inFlight = new RequestCoalescer<>();
+  private final CircuitBreaker breaker;
+
+  /**
+   * @param threads the maximum number of reads running at the same time
+   */
+  public DeadlineReader(int threads, int failureThreshold, Duration openDuration) {
+    breaker = new CircuitBreaker("storage reads", failureThreshold, openDuration);
+    var counter = new AtomicInteger();
+    var pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(threads * QUEUED_READS_PER_THREAD),
+            runnable -> {
+              var thread = new Thread(runnable, "fffp-read-" + counter.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    pool.allowCoreThreadTimeOut(true);
+    executor = pool;
+  }
+
+  /**
+   * @param key identifies the data read: the reads with equal keys in flight at the same time are
+   *     made once
+   * @param deadlineNanos the {@link System#nanoTime()} after which the caller stops waiting
+   * @throws TimeoutException if the read missed the deadline, the pool is saturated or the circuit
+   *     is open
+   * @throws RuntimeException the exception thrown by the read
+   */
+  @SuppressWarnings("unchecked")
+  public <R> R read(Object key, Supplier<R> access, long deadlineNanos) throws TimeoutException {
+    if (!breaker.tryAcquire()) {
+      throw new TimeoutException("Circuit open");
+    }
+    CompletableFuture<R> result =
+        inFlight.submit(
+            key,
+            () -> CompletableFuture.supplyAsync(access, executor),
+            existing -> (CompletableFuture<R>) existing);
+    try {
+      R value = result.get(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+      breaker.onSuccess();
+      return value;
+    } catch (TimeoutException e) {
+      breaker.onFailure();
+      throw e;
+    } catch (ExecutionException e) {
+      breaker.onFailure();
+      if (e.getCause() instanceof RejectedExecutionException) {
+        throw new TimeoutException("Read pool saturated");
+      }
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (InterruptedException e) {
+      // also releases the half-open trial, if this caller held it
+      breaker.onFailure();
+      Thread.currentThread().interrupt();
+      throw new TimeoutException("Interrupted");
+    }
+  }
+
+  public boolean isCircuitOpen() {
+    return breaker.isOpen();
+  }
+
+  /** Stops the pool; the reads in flight are left to complete. */
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,154 @@
+package io.github.jacopocarlini.fffp.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hashed timing wheel: every timeout is hashed by its deadline into a ring of buckets, one per
+ * tick, so scheduling and cancelling are O(1) whatever the number of timeouts. A single daemon
+ * thread visits the bucket of each elapsed tick and runs the timeouts that are due, at most one
+ * tick late; timeouts more than one revolution away stay in their bucket until their turn comes.
+ *
+ * <p>Deadlines are wall clock times in epoch millis. The thread sleeps without waking up while no
+ * timeout is pending.
+ */
+@Slf4j
+public class HashedTimerWheel implements AutoCloseable {
+
+  private final long tickMillis;
+  private final List<Timeout>[] buckets;
+  private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+  private final Thread worker;
+  private final long origin = System.currentTimeMillis();
+
+  private volatile boolean running = true;
+  // owned by the worker thread
+  private long lastTick = -1;
+  private int bucketed;
+
+  public HashedTimerWheel(String threadName, Duration tick, int wheelSize) {
+    tickMillis = Math.max(1, tick.toMillis());
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    List<Timeout>[] ring = new List[wheelSize];
+    buckets = ring;
+    for (int i = 0; i < wheelSize; i++) {
+      buckets[i] = new ArrayList<>();
+    }
+    worker = new Thread(this::run, threadName);
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Runs the task on the wheel thread once the deadline is reached. A deadline in the past runs
+   * the task at the next tick. The task must be short, since it delays the other timeouts.
+   */
+  public Timeout schedule(Runnable task, long deadlineMillis) {
+    var timeout = new Timeout(task, deadlineMillis);
+    added.add(timeout);
+    LockSupport.unpark(worker);
+    return timeout;
+  }
+
+  /** Stops the wheel thread; the pending timeouts are discarded. */
+  @Override
+  public void close() {
+    running = false;
+    LockSupport.unpark(worker);
+  }
+
+  private void run() {
+    while (running) {
+      long now = System.currentTimeMillis();
+      // a bucket is visited once its tick is over, so all its due timeouts are expired
+      long elapsedTick = tickOf(now) - 1;
+      transferAdded();
+      // after a long pause every bucket is visited once
+      long first = Math.max(lastTick + 1, elapsedTick - buckets.length + 1);
+      for (long tick = first; tick <= elapsedTick; tick++) {
+        expire(buckets[(int) (tick % buckets.length)], now);
+      }
+      lastTick = Math.max(lastTick, elapsedTick);
+
+      if (bucketed == 0 && added.isEmpty()) {
+        LockSupport.park(this);
+      } else {
+        long nextTick = origin + (elapsedTick + 2) * tickMillis;
+        long delay = Math.max(1, nextTick - System.currentTimeMillis());
+        LockSupport.parkNanos(this, delay * 1_000_000);
+      }
+    }
+  }
+
+  private void transferAdded() {
+    Timeout timeout;
+    while ((timeout = added.poll()) != null) {
+      if (timeout.cancelled) {
+        continue;
+      }
+      long tick = Math.max(tickOf(timeout.deadline), lastTick + 1);
+      buckets[(int) (tick % buckets.length)].add(timeout);
+      bucketed++;
+    }
+  }
+
+  private void expire(List<Timeout> bucket, long now) {
+    if (bucket.isEmpty()) {
+      return;
+    }
+    List<Timeout> due = null;
+    for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext(); ) {
+      Timeout timeout = iterator.next();
+      if (timeout.cancelled || timeout.deadline <= now) {
+        iterator.remove();
+        bucketed--;
+        if (!timeout.cancelled) {
+          if (due == null) {
+            due = new ArrayList<>();
+          }
+          due.add(timeout);
+        }
+      }
+    }
+    if (due != null) {
+      // run after the scan, the tasks can schedule new timeouts
+      for (Timeout timeout : due) {
+        try {
+          timeout.task.run();
+        } catch (RuntimeException e) {
+          log.warn("Timer task failed", e);
+        }
+      }
+    }
+  }
+
+  private long tickOf(long time) {
+    return Math.max(0, Math.floorDiv(time - origin, tickMillis));
+  }
+
+  /** A scheduled task, which can be cancelled until it runs. */
+  public static final class Timeout {
+    private final Runnable task;
+    private final long deadline;
+    private volatile boolean cancelled;
+
+    private Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    public void cancel() {
+      cancelled = true;
+    }
+
+    public long getDeadline() {
+      return deadline;
+    }
+  }
+}
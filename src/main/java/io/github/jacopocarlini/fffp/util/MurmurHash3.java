@@ -0,0 +1,104 @@
+package io.github.jacopocarlini.fffp.util;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * MurmurHash3 x86 32-bit over the UTF-8 encoding of strings. The bytes are produced on the fly
+ * and the hash state is kept in local variables, so hashing does not allocate.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MurmurHash3 {
+  private static final int C1 = 0xcc9e2d51;
+  private static final int C2 = 0x1b873593;
+
+  /** Hashes the concatenation of the given parts, separated by {@code ':'}. */
+  public static int hash32(int seed, String first, String second, String third) {
+    return hash(seed, 3, first, second, third);
+  }
+
+  /**
+   * A 64-bit hash of the value, made of two 32-bit hashes with different seeds. Used as a
+   * fingerprint of the value, so it is never computed with a caller supplied seed.
+   */
+  public static long hash64(String value) {
+    int high = hash(0x9747b28c, 1, value, null, null);
+    int low = hash(0x5bd1e995, 1, value, null, null);
+    return ((long) high << 32) | (low & 0xffffffffL);
+  }
+
+  /** Hashes the first {@code parts} parts, separated by {@code ':'}. */
+  private static int hash(int seed, int parts, String first, String second, String third) {
+    int h1 = seed;
+    // the bytes not yet mixed, little endian
+    int block = 0;
+    int shift = 0;
+    int length = 0;
+    for (int part = 0; part < parts; part++) {
+      String value = part == 0 ? first : part == 1 ? second : third;
+      // -1 stands for the separator before the part
+      int i = part == 0 ? 0 : -1;
+      while (i < value.length()) {
+        int codePoint;
+        if (i < 0) {
+          codePoint = ':';
+          i = 0;
+        } else {
+          codePoint = value.codePointAt(i);
+          i += Character.charCount(codePoint);
+        }
+        // the UTF-8 bytes of the code point, the first one in the lowest byte
+        int bytes;
+        int count;
+        if (codePoint < 0x80) {
+          bytes = codePoint;
+          count = 1;
+        } else if (codePoint < 0x800) {
+          bytes = (0xc0 | (codePoint >>> 6)) | (0x80 | (codePoint & 0x3f)) << 8;
+          count = 2;
+        } else if (codePoint < 0x10000) {
+          bytes =
+              (0xe0 | (codePoint >>> 12))
+                  | (0x80 | ((codePoint >>> 6) & 0x3f)) << 8
+                  | (0x80 | (codePoint & 0x3f)) << 16;
+          count = 3;
+        } else {
+          bytes =
+              (0xf0 | (codePoint >>> 18))
+                  | (0x80 | ((codePoint >>> 12) & 0x3f)) << 8
+                  | (0x80 | ((codePoint >>> 6) & 0x3f)) << 16
+                  | (0x80 | (codePoint & 0x3f)) << 24;
+          count = 4;
+        }
+        length += count;
+        for (; count > 0; count--, bytes >>>= 8) {
+          block |= (bytes & 0xff) << shift;
+          shift += 8;
+          if (shift == 32) {
+            h1 ^= mixK1(block);
+            h1 = Integer.rotateLeft(h1, 13);
+            h1 = h1 * 5 + 0xe6546b64;
+            block = 0;
+            shift = 0;
+          }
+        }
+      }
+    }
+    if (shift > 0) {
+      h1 ^= mixK1(block);
+    }
+    h1 ^= length;
+    h1 ^= h1 >>> 16;
+    h1 *= 0x85ebca6b;
+    h1 ^= h1 >>> 13;
+    h1 *= 0xc2b2ae35;
+    h1 ^= h1 >>> 16;
+    return h1;
+  }
+
+  private static int mixK1(int k1) {
+    k1 *= C1;
+    k1 = Integer.rotateLeft(k1, 15);
+    return k1 * C2;
+  }
+}
@@ -3,35 +3,72 @@ package io.github.jacopocarlini.fffp.util;
 import static io.github.jacopocarlini.fffp.util.Reason.TARGET_MATCHED;
 
 import io.github.jacopocarlini.fffp.entity.Flag;
-import io.github.jacopocarlini.fffp.entity.Target;
+import io.github.jacopocarlini.fffp.entity.Prerequisite;
+import io.github.jacopocarlini.fffp.evaluation.CompiledFlag;
+import io.github.jacopocarlini.fffp.evaluation.CompiledVariant;
+import io.github.jacopocarlini.fffp.evaluation.PrerequisiteGraph;
+import io.github.jacopocarlini.fffp.evaluation.SegmentLookup;
+import io.github.jacopocarlini.fffp.evaluation.TimeWindow;
 import io.github.jacopocarlini.fffp.exceptions.InvalidFeatureFlagException;
 import dev.openfeature.sdk.EvaluationContext;
 import dev.openfeature.sdk.ProviderEvaluation;
-import java.time.ZonedDateTime;
-import java.util.Map;
+import java.time.DateTimeException;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.Random;
-import java.util.regex.Pattern;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class ProviderUtility {
-  private static final Random RANDOM = new Random();
   public static void checkRolloutPercentage(Flag flag) throws InvalidFeatureFlagException {
-    if (flag.getRolloutPercentage() == null) {
-      return;
+    if (flag.getRolloutPercentage() != null && flag.getRolloutBasisPoints() != null) {
+      throw new InvalidFeatureFlagException(
+          "Rollout not valid. Set either rollout percentage or rollout basis points");
     }
-    int percentage = 0;
-    for (var entry : flag.getRolloutPercentage().entrySet()) {
-      percentage += entry.getValue();
+    if (flag.getRolloutPercentage() != null) {
+      int percentage = 0;
+      for (var entry : flag.getRolloutPercentage().entrySet()) {
+        percentage += entry.getValue();
+      }
+      if (percentage != 100 && percentage != 0) {
+        throw new InvalidFeatureFlagException(
+            "Rollout percentage not valid. Sum of percentage must be 0 or 100");
+      }
     }
-    if (percentage != 100 && percentage != 0) {
-      throw new InvalidFeatureFlagException(
-          "Rollout percentage not valid. Sum of percentage must be 0 or 100");
+    if (flag.getRolloutBasisPoints() != null) {
+      int basisPoints = 0;
+      for (var entry : flag.getRolloutBasisPoints().entrySet()) {
+        basisPoints += entry.getValue();
+      }
+      if (basisPoints != CompiledFlag.BUCKETS && basisPoints != 0) {
+        throw new InvalidFeatureFlagException(
+            "Rollout basis points not valid. Sum of basis points must be 0 or 10000");
+      }
     }
   }
 
+  /**
+   * @return true if the update changes how the variants are rolled out, so the sticky assignments
+   *     of the flag are not valid anymore
+   */
+  public static boolean isRolloutChanged(Flag flag, Flag newFlag) {
+    return newFlag.getRolloutPercentage() == null && newFlag.getRolloutBasisPoints() == null
+        || !Objects.equals(newFlag.getRolloutPercentage(), flag.getRolloutPercentage())
+        || !Objects.equals(newFlag.getRolloutBasisPoints(), flag.getRolloutBasisPoints())
+        || newFlag.getBucketing() != flag.getBucketing();
+  }
+
+  /**
+   * @return a rollout epoch greater than the given one. Epochs are wall clock millis, so a flag
+   *     deleted and created again never reuses the epoch of its old assignments.
+   */
+  public static long nextRolloutEpoch(Long epoch) {
+    return Math.max(System.currentTimeMillis(), epoch == null ? 0 : epoch + 1);
+  }
+
   public static void checkVariant(Flag flag) throws InvalidFeatureFlagException {
     if (flag.getVariants().isEmpty()) {
       throw new InvalidFeatureFlagException("Variants not present. Add at least one variant");
@@ -42,68 +79,150 @@ public class ProviderUtility {
     }
   }
 
-  public static boolean isOutsideTimeWindow(Flag flag) {
-    if (flag.getTimeWindowStart() == null) {
-      return false;
+  public static boolean isOutsideTimeWindow(CompiledFlag flag)
+      throws InvalidFeatureFlagException {
+    return flag.isOutsideTimeWindow();
+  }
+
+  /**
+   * @throws InvalidFeatureFlagException if a target has neither a filter nor a rule, or an invalid
+   *     one
+   */
+  public static void checkTargets(Flag flag) throws InvalidFeatureFlagException {
+    if (flag.getTarget() != null && !flag.getTarget().isEmpty()) {
+      CompiledFlag.compile(flag).checkTargets();
     }
+  }
 
-    ZonedDateTime now = ZonedDateTime.now();
-    return now.isBefore(flag.getTimeWindowStart()) || now.isAfter(flag.getTimeWindowEnd());
+  /**
+   * Checks that every prerequisite names a variant of its flag, when the flag exists, and that the
+   * prerequisites reachable from the flag do not form a cycle.
+   *
+   * @param lookup finds the stored flags; the flag being checked replaces the stored one with the
+   *     same key
+   * @throws InvalidFeatureFlagException if a prerequisite is not valid or closes a cycle
+   */
+  public static void checkPrerequisites(Flag flag, Function<String, Optional<Flag>> lookup)
+      throws InvalidFeatureFlagException {
+    if (flag.getPrerequisites() == null || flag.getPrerequisites().isEmpty()) {
+      return;
+    }
+    Function<String, Optional<Flag>> graphLookup =
+        flagKey -> flagKey.equals(flag.getFlagKey()) ? Optional.of(flag) : lookup.apply(flagKey);
+    for (Prerequisite prerequisite : flag.getPrerequisites()) {
+      if (prerequisite == null
+          || prerequisite.getFlagKey() == null
+          || prerequisite.getVariant() == null) {
+        throw new InvalidFeatureFlagException(
+            "Prerequisite not valid. Set a flagKey and a variant");
+      }
+      Optional<Flag> required = graphLookup.apply(prerequisite.getFlagKey());
+      if (required.isPresent()
+          && (required.get().getVariants() == null
+              || !required.get().getVariants().containsKey(prerequisite.getVariant()))) {
+        throw new InvalidFeatureFlagException(
+            "Prerequisite not valid. Variant "
+                + prerequisite.getVariant()
+                + " not found in flag "
+                + prerequisite.getFlagKey());
+      }
+    }
+    var graph =
+        new PrerequisiteGraph(
+            flagKey ->
+                graphLookup
+                    .apply(flagKey)
+                    .map(Flag::getPrerequisites)
+                    .orElse(List.of())
+                    .stream()
+                    .filter(Objects::nonNull)
+                    .map(Prerequisite::getFlagKey)
+                    .filter(Objects::nonNull)
+                    .toList());
+    try {
+      graph.visit(flag.getFlagKey());
+    } catch (IllegalArgumentException e) {
+      throw new InvalidFeatureFlagException(e.getMessage());
+    }
   }
 
-  public static <T> Optional<ProviderEvaluation<T>> checkTargetMatch(
-      Flag flag, EvaluationContext ctx, Class<T> valueType) throws InvalidFeatureFlagException {
-    if (flag.getTarget() == null || ctx.getTargetingKey() == null) {
-      return Optional.empty();
+  public static void checkTimeWindow(Flag flag) throws InvalidFeatureFlagException {
+    if (flag.getTimeWindowStart() != null
+        && flag.getTimeWindowEnd() != null
+        && flag.getTimeWindowStart().isAfter(flag.getTimeWindowEnd())) {
+      throw new InvalidFeatureFlagException(
+          "Time window not valid. The start must not be after the end");
+    }
+    try {
+      TimeWindow.of(flag);
+    } catch (IllegalArgumentException | DateTimeException e) {
+      throw new InvalidFeatureFlagException("Recurring window not valid. " + e.getMessage());
     }
+  }
 
-    for (Target target : flag.getTarget()) {
-      Pattern pattern = Pattern.compile(target.getFilter());
-      if (pattern.matcher(ctx.getTargetingKey()).find()) {
-        Object value = flag.getVariants().get(target.getVariant());
+  /**
+   * @return the evaluation of the first target matching the targeting key, or null if no target
+   *     matches
+   */
+  public static <T> ProviderEvaluation<T> checkTargetMatch(
+      CompiledFlag flag, EvaluationContext ctx, Class<T> valueType)
+      throws InvalidFeatureFlagException {
+    return checkTargetMatch(flag, ctx, valueType, SegmentLookup.NONE);
+  }
 
-        return Optional.of(
-            ProviderEvaluation.<T>builder()
-                .value(convertValue(value, valueType))
-                .reason(TARGET_MATCHED.name())
-                .variant(target.getVariant())
-                .build());
-      }
+  /**
+   * @param segments resolves the segments of the {@code IN_SEGMENT} rules
+   * @return the evaluation of the first target matching the context, or null if no target matches
+   */
+  public static <T> ProviderEvaluation<T> checkTargetMatch(
+      CompiledFlag flag, EvaluationContext ctx, Class<T> valueType, SegmentLookup segments)
+      throws InvalidFeatureFlagException {
+    if (!flag.hasTargets() || ctx == null) {
+      return null;
     }
 
-    return Optional.empty();
+    String variant = flag.matchTarget(ctx, segments);
+    if (variant == null) {
+      return null;
+    }
+    return flag.getVariant(variant).evaluation(valueType, TARGET_MATCHED.name());
   }
 
-  public static String determineVariantForRollout(Flag flag) {
-    int randomValue = RANDOM.nextInt(100);
-    String variant = flag.getDefaultVariant();
-    int cumulativePercentage = 0;
+  public static String determineVariantForRollout(CompiledFlag flag) {
+    return flag.rolloutVariant(ThreadLocalRandom.current().nextInt(CompiledFlag.BUCKETS));
+  }
 
-    for (Map.Entry<String, Integer> entry : flag.getRolloutPercentage().entrySet()) {
-      cumulativePercentage += entry.getValue();
-      if (randomValue < cumulativePercentage) {
-        variant = entry.getKey();
-        break;
-      }
+  /**
+   * Picks the rollout variant of a flag with {@link
+   * io.github.jacopocarlini.fffp.entity.Bucketing#HASH HASH} bucketing. Without a targeting key
+   * the bucket is drawn at random.
+   */
+  public static String determineVariantForRollout(CompiledFlag flag, String targetingKey) {
+    if (targetingKey == null) {
+      return determineVariantForRollout(flag);
     }
-
-    return variant;
+    return flag.rolloutVariant(flag.bucketOf(targetingKey));
   }
 
+  /**
+   * Converts a stored value with the rules of {@link CompiledVariant#convert(Object, Class)}.
+   *
+   * @throws InvalidFeatureFlagException if the value is null or cannot be converted
+   */
   @SuppressWarnings("unchecked")
-  public static <T> T convertValue(Object value, Class<T> targetType) throws InvalidFeatureFlagException {
+  public static <T> T convertValue(Object value, Class<T> targetType)
+      throws InvalidFeatureFlagException {
     if (value == null) {
       throw new InvalidFeatureFlagException("value is null");
     }
-
-    if (targetType.isInstance(value)) {
-      return (T) value;
+    Object converted = CompiledVariant.convert(value, targetType);
+    if (converted == null) {
+      throw new InvalidFeatureFlagException(
+          "Cannot convert value of type "
+              + value.getClass().getName()
+              + " to "
+              + targetType.getName());
     }
-
-    throw new ClassCastException(
-        "Cannot convert value of type "
-            + value.getClass().getName()
-            + " to "
-            + targetType.getName());
+    return (T) converted;
   }
 }
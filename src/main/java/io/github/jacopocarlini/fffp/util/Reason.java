@@ -7,5 +7,8 @@ public enum Reason {
   ALREADY_ASSIGNED,
   ROLLOUT,
   TARGET_MATCHED,
+  PREREQUISITE_FAILED,
+  STALE,
+  TIMEOUT,
   INVALID_FLAG_DATA;
 }
@@ -0,0 +1,54 @@
+package io.github.jacopocarlini.fffp.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent requests for the same key share a single call. The first request of a key
+ * starts the call; the requests arriving while it is in flight are given its completion, so they
+ * can continue once the call is done without starting another one.
+ */
+public class RequestCoalescer<K> {
+  private final Map<K, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * @param call starts the call, run only if no call is in flight for the key
+   * @param follower run instead of {@code call} when a call is in flight, with a future completed
+   *     (also exceptionally) when that call completes
+   */
+  public <V> CompletableFuture<V> submit(
+      K key,
+      Supplier<CompletableFuture<V>> call,
+      Function<CompletableFuture<?>, CompletableFuture<V>> follower) {
+    var completion = new CompletableFuture<Object>();
+    CompletableFuture<Object> existing = inFlight.putIfAbsent(key, completion);
+    if (existing != null) {
+      return follower.apply(existing);
+    }
+
+    CompletableFuture<V> result;
+    try {
+      result = call.get();
+    } catch (RuntimeException e) {
+      result = CompletableFuture.failedFuture(e);
+    }
+    result.whenComplete(
+        (value, error) -> {
+          inFlight.remove(key, completion);
+          if (error != null) {
+            completion.completeExceptionally(error);
+          } else {
+            completion.complete(value);
+          }
+        });
+    return result;
+  }
+
+  /** Number of calls in flight. */
+  public int size() {
+    return inFlight.size();
+  }
+}
@@ -0,0 +1,29 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.math.BigDecimal;
+import org.junit.jupiter.api.Test;
+
+class CompiledVariantTest {
+
+  @Test
+  void longsAreDoublesOnlyIfExactlyRepresentable() {
+    assertThat(CompiledVariant.convert(42L, Double.class)).isEqualTo(42.0);
+    assertThat(CompiledVariant.convert(1L << 53, Double.class)).isEqualTo(0x1p53);
+    assertThat(CompiledVariant.convert((1L << 53) + 1, Double.class)).isNull();
+    assertThat(CompiledVariant.convert(Long.MIN_VALUE, Double.class)).isEqualTo(-0x1p63);
+    // rounds to 2^63, which casts back to Long.MAX_VALUE
+    assertThat(CompiledVariant.convert(Long.MAX_VALUE, Double.class)).isNull();
+  }
+
+  @Test
+  void numbersAreIntegersOnlyIfIntegralAndInRange() {
+    assertThat(CompiledVariant.convert(7L, Integer.class)).isEqualTo(7);
+    assertThat(CompiledVariant.convert(7.0, Integer.class)).isEqualTo(7);
+    assertThat(CompiledVariant.convert(new BigDecimal("7.00"), Integer.class)).isEqualTo(7);
+    assertThat(CompiledVariant.convert(7.5, Integer.class)).isNull();
+    assertThat(CompiledVariant.convert(1L << 31, Integer.class)).isNull();
+    assertThat(CompiledVariant.convert(Double.NaN, Integer.class)).isNull();
+  }
+}
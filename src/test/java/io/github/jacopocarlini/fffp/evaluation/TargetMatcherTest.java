@@ -0,0 +1,145 @@
+package io.github.jacopocarlini.fffp.evaluation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.github.jacopocarlini.fffp.entity.Rule;
+import io.github.jacopocarlini.fffp.entity.Target;
+import dev.openfeature.sdk.EvaluationContext;
+import dev.openfeature.sdk.ImmutableContext;
+import dev.openfeature.sdk.Value;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TargetMatcherTest {
+
+  @Test
+  void groupedLiteralAlternativesBecomeAnExactSet() {
+    assertThat(TargetMatcher.literalAlternatives("^(alice|bob)$"))
+        .isEqualTo(Set.of("alice", "bob"));
+    assertThat(TargetMatcher.literalAlternatives("^(?:alice|bob|alice)$"))
+        .isEqualTo(Set.of("alice", "bob"));
+    assertThat(TargetMatcher.literalAlternatives("^alice$")).isEqualTo(Set.of("alice"));
+  }
+
+  @Test
+  void otherFiltersStayRegexes() {
+    assertThat(TargetMatcher.literalAlternatives("^admin|test$")).isNull();
+    assertThat(TargetMatcher.literalAlternatives("^(admin)|(test)$")).isNull();
+    assertThat(TargetMatcher.literalAlternatives("^(a.b|c)$")).isNull();
+    assertThat(TargetMatcher.literalAlternatives("alice|bob")).isNull();
+  }
+
+  @Test
+  void ungroupedAlternationKeepsTheLegacyFindSemantics() {
+    var matcher = TargetMatcher.compile(new Target("^admin|test$", "on"));
+
+    assertThat(matches(matcher, "admin")).isTrue();
+    assertThat(matches(matcher, "administrator")).isTrue();
+    assertThat(matches(matcher, "mytest")).isTrue();
+    assertThat(matches(matcher, "someone")).isFalse();
+  }
+
+  @Test
+  void legacyFilterIsSearchedInTheTargetingKey() {
+    var matcher = TargetMatcher.compile(new Target("@example\\.com", "on"));
+
+    assertThat(matches(matcher, "alice@example.com")).isTrue();
+    assertThat(matches(matcher, "alice@example.org")).isFalse();
+  }
+
+  @Test
+  void groupedAlternativesMatchExactly() {
+    var matcher = TargetMatcher.compile(new Target("^(alice|bob)$", "on"));
+
+    assertThat(matches(matcher, "alice")).isTrue();
+    assertThat(matches(matcher, "bob")).isTrue();
+    assertThat(matches(matcher, "alice2")).isFalse();
+  }
+
+  @Test
+  void filterAndRuleMustBothMatch() {
+    var target = new Target("^user-", Rule.equalTo("country", "IT"), "on");
+    var matcher = TargetMatcher.compile(target);
+
+    assertThat(matcher.matches(context("user-1", Map.of("country", new Value("IT"))), none()))
+        .isTrue();
+    assertThat(matcher.matches(context("user-1", Map.of("country", new Value("FR"))), none()))
+        .isFalse();
+    assertThat(matcher.matches(context("admin", Map.of("country", new Value("IT"))), none()))
+        .isFalse();
+  }
+
+  @Test
+  void orMergesTheListsOfTheSameAttribute() {
+    var rule =
+        Rule.or(
+            Rule.in("plan", List.of("pro", "team")),
+            Rule.equalTo("plan", "enterprise"),
+            Rule.startsWith("email", "admin@"),
+            Rule.endsWith("email", "@example.com"));
+    var matcher = TargetMatcher.compile(rule);
+
+    assertThat(matcher.matches(context("k", Map.of("plan", new Value("team"))), none())).isTrue();
+    assertThat(matcher.matches(context("k", Map.of("plan", new Value("enterprise"))), none()))
+        .isTrue();
+    assertThat(matcher.matches(context("k", Map.of("email", new Value("a@example.com"))), none()))
+        .isTrue();
+    assertThat(matcher.matches(context("k", Map.of("email", new Value("admin@other.org"))), none()))
+        .isTrue();
+    assertThat(matcher.matches(context("k", Map.of("plan", new Value("free"))), none())).isFalse();
+  }
+
+  @Test
+  void missingAttributeNeverMatches() {
+    var matcher = TargetMatcher.compile(Rule.equalTo("country", "IT"));
+
+    assertThat(matcher.matches(context("k", Map.of()), none())).isFalse();
+  }
+
+  @Test
+  void rangesIncludeTheMinAndExcludeTheMax() {
+    var numbers = TargetMatcher.compile(Rule.range("age", 18, 65));
+    var versions = TargetMatcher.compile(Rule.semverRange("version", "1.2.0", "2.0.0"));
+
+    assertThat(numbers.matches(context("k", Map.of("age", new Value(18))), none())).isTrue();
+    assertThat(numbers.matches(context("k", Map.of("age", new Value(64.5))), none())).isTrue();
+    assertThat(numbers.matches(context("k", Map.of("age", new Value(65))), none())).isFalse();
+    assertThat(versions.matches(context("k", Map.of("version", new Value("1.10.3"))), none()))
+        .isTrue();
+    assertThat(versions.matches(context("k", Map.of("version", new Value("2.0.0"))), none()))
+        .isFalse();
+  }
+
+  @Test
+  void segmentsAreLookedUpAtEveryEvaluation() {
+    var matcher = TargetMatcher.compile(Rule.inSegment(Rule.TARGETING_KEY, "beta"));
+    SegmentLookup beta = (segment, member) -> segment.equals("beta") && member.equals("alice");
+
+    assertThat(matcher.matches(context("alice", Map.of()), beta)).isTrue();
+    assertThat(matcher.matches(context("bob", Map.of()), beta)).isFalse();
+    assertThat(matcher.matches(context("alice", Map.of()), SegmentLookup.NONE)).isFalse();
+  }
+
+  @Test
+  void invalidTargetsAreRejected() {
+    assertThatThrownBy(() -> TargetMatcher.compile(new Target(null, "on")))
+        .isInstanceOf(IllegalArgumentException.class);
+    assertThatThrownBy(() -> TargetMatcher.compile(new Target("(", "on")))
+        .isInstanceOf(IllegalArgumentException.class);
+  }
+
+  private static boolean matches(TargetMatcher matcher, String targetingKey) {
+    return matcher.matches(context(targetingKey, Map.of()), none());
+  }
+
+  private static EvaluationContext context(String targetingKey, Map<String, Value> attributes) {
+    return new ImmutableContext(targetingKey, attributes);
+  }
+
+  private static SegmentLookup none() {
+    return SegmentLookup.NONE;
+  }
+}
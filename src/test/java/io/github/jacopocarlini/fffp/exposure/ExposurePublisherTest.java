@@ -0,0 +1,86 @@
+package io.github.jacopocarlini.fffp.exposure;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.jacopocarlini.fffp.config.ExposureConfig;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+
+class ExposurePublisherTest {
+
+  private final List<ExposureEvent> written = Collections.synchronizedList(new ArrayList<>());
+
+  @Test
+  void droppedExposureDoesNotDeduplicateItsRepetitions() {
+    var config =
+        ExposureConfig.builder()
+            .bufferSize(4)
+            .batchSize(100)
+            .flushInterval(Duration.ofHours(1))
+            .build();
+    var publisher = new ExposurePublisher(written::addAll, config);
+    for (int i = 0; i < 4; i++) {
+      publisher.publish("flag", "user-" + i, "on", "ROLLOUT");
+    }
+
+    // the buffer is full
+    publisher.publish("flag", "late", "on", "ROLLOUT");
+    publisher.publish("flag", "late", "on", "ROLLOUT");
+    ExposureStats stats = publisher.stats();
+    assertThat(stats.getDroppedCount()).isEqualTo(2);
+    assertThat(stats.getDeduplicatedCount()).isZero();
+
+    publisher.publish("flag", "user-0", "on", "ROLLOUT");
+    assertThat(publisher.stats().getDeduplicatedCount()).isEqualTo(1);
+
+    publisher.close();
+    assertThat(written).hasSize(4);
+  }
+
+  @Test
+  void closeWritesEveryPublishedEvent() throws Exception {
+    var config =
+        ExposureConfig.builder()
+            .bufferSize(1 << 16)
+            .batchSize(64)
+            .flushInterval(Duration.ofMillis(5))
+            .dedupWindow(Duration.ZERO)
+            .build();
+    var publisher = new ExposurePublisher(written::addAll, config);
+    var stop = new AtomicBoolean();
+    var started = new CountDownLatch(8);
+    var producers = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      String target = "user-" + t;
+      var producer =
+          new Thread(
+              () -> {
+                started.countDown();
+                while (!stop.get()) {
+                  publisher.publish("flag", target, "on", "ROLLOUT");
+                }
+              });
+      producer.start();
+      producers.add(producer);
+    }
+    started.await();
+    Thread.sleep(50);
+
+    publisher.close();
+    stop.set(true);
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    ExposureStats stats = publisher.stats();
+    assertThat(stats.getPublishedCount()).isPositive();
+    assertThat(stats.getWrittenCount()).isEqualTo(stats.getPublishedCount());
+    assertThat(written).hasSize((int) stats.getPublishedCount());
+    assertThat(stats.getPendingCount()).isZero();
+  }
+}
@@ -0,0 +1,39 @@
+package io.github.jacopocarlini.fffp.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+class EvaluationMetricsTest {
+
+  @Test
+  void missingFlagsShareOneBucket() {
+    var metrics = new EvaluationMetrics(0);
+    metrics.recordEvaluation("my-flag", "on", "ROLLOUT");
+    for (int i = 0; i < 1000; i++) {
+      metrics.recordEvaluation("missing-" + i, null, EvaluationMetrics.FLAG_NOT_FOUND);
+    }
+    metrics.recordEvaluation(null, null, "ERROR");
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertThat(snapshot.getEvaluations()).hasSize(3);
+    assertThat(snapshot.getCount("my-flag", "ROLLOUT")).isEqualTo(1);
+    assertThat(snapshot.getCount(EvaluationMetrics.UNKNOWN_FLAG, EvaluationMetrics.FLAG_NOT_FOUND))
+        .isEqualTo(1000);
+    assertThat(snapshot.getCount(EvaluationMetrics.UNKNOWN_FLAG)).isEqualTo(1001);
+  }
+
+  @Test
+  void flagKeysBeyondTheLimitShareOneBucket() {
+    var metrics = new EvaluationMetrics(0);
+    for (int i = 0; i < EvaluationMetrics.MAX_FLAG_KEYS + 10; i++) {
+      metrics.recordEvaluation("flag-" + i, null, "TIMEOUT");
+    }
+    metrics.recordEvaluation("flag-0", null, "TIMEOUT");
+
+    MetricsSnapshot snapshot = metrics.snapshot();
+    assertThat(snapshot.getEvaluations()).hasSize(EvaluationMetrics.MAX_FLAG_KEYS + 1);
+    assertThat(snapshot.getCount("flag-0")).isEqualTo(2);
+    assertThat(snapshot.getCount(EvaluationMetrics.UNKNOWN_FLAG)).isEqualTo(10);
+  }
+}
@@ -0,0 +1,118 @@
+package io.github.jacopocarlini.fffp.providers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.jacopocarlini.fffp.cache.FlagSnapshotFile;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.FlagChangeListener;
+import io.github.jacopocarlini.fffp.repository.FlagSubscription;
+import io.github.jacopocarlini.fffp.repository.embedded.EmbeddedAssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.embedded.InMemoryFlagRepository;
+import dev.openfeature.sdk.Client;
+import dev.openfeature.sdk.OpenFeatureAPI;
+import dev.openfeature.sdk.ProviderState;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FlagChangeLifecycleTest {
+
+  @TempDir Path directory;
+
+  private final WatchedFlagRepository flagRepository = new WatchedFlagRepository();
+  private final String domain = UUID.randomUUID().toString();
+
+  @AfterEach
+  void shutdown() {
+    OpenFeatureAPI.getInstance().getProvider(domain).shutdown();
+  }
+
+  @Test
+  void streamErrorIsReportedAndResumeRestoresReady() {
+    Client client = start(ProviderConfig.builder().localEvaluation(true).build());
+    flagRepository.listener.onReset();
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.READY);
+
+    flagRepository.listener.onError(new IllegalStateException("stream broken"));
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.STALE);
+
+    flagRepository.listener.onResumed();
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.READY);
+  }
+
+  @Test
+  void streamErrorThenResetRestoresReady() {
+    Client client = start(ProviderConfig.builder().localEvaluation(true).build());
+    flagRepository.listener.onReset();
+
+    flagRepository.listener.onError(new IllegalStateException("history lost"));
+    flagRepository.listener.onError(new IllegalStateException("still broken"));
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.STALE);
+
+    flagRepository.listener.onReset();
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.READY);
+  }
+
+  @Test
+  void snapshotBootIsReportedStaleUntilReconciled() throws Exception {
+    Path snapshot = directory.resolve("flags.snapshot");
+    try (var file = new FlagSnapshotFile(snapshot)) {
+      file.write(List.of(flag()));
+    }
+    Client client = start(ProviderConfig.builder().snapshotPath(snapshot).build());
+
+    // the flags are served from the snapshot before MongoDB answers
+    assertThat(client.getBooleanValue("f", false)).isTrue();
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.STALE);
+
+    flagRepository.save(flag());
+    flagRepository.listener.onReset();
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.READY);
+  }
+
+  @Test
+  void snapshotBootWithUnreachableStorageIsReportedStale() throws Exception {
+    Path snapshot = directory.resolve("flags.snapshot");
+    try (var file = new FlagSnapshotFile(snapshot)) {
+      file.write(List.of(flag()));
+    }
+    Client client = start(ProviderConfig.builder().snapshotPath(snapshot).build());
+
+    flagRepository.listener.onError(new IllegalStateException("no server"));
+    assertThat(client.getProviderState()).isEqualTo(ProviderState.STALE);
+  }
+
+  private Client start(ProviderConfig config) {
+    var provider =
+        new MongoDBFeatureFlagProvider(
+            flagRepository, new EmbeddedAssignedTargetRepository(), config);
+    OpenFeatureAPI.getInstance().setProviderAndWait(domain, provider);
+    return OpenFeatureAPI.getInstance().getClient(domain);
+  }
+
+  private static Flag flag() {
+    return Flag.builder()
+        .flagKey("f")
+        .enabled(true)
+        .variants(Map.of("on", true, "off", false))
+        .defaultVariant("on")
+        .build();
+  }
+
+  /** Hands the listener to the test instead of starting to observe the changes. */
+  private static class WatchedFlagRepository extends InMemoryFlagRepository {
+    private volatile FlagChangeListener listener;
+
+    @Override
+    public FlagSubscription watch(FlagChangeListener listener, Duration retryDelay) {
+      this.listener = listener;
+      return () -> {};
+    }
+  }
+}
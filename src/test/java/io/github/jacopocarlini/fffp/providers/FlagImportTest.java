@@ -0,0 +1,148 @@
+package io.github.jacopocarlini.fffp.providers;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.github.jacopocarlini.fffp.bulk.FlagImportOptions;
+import io.github.jacopocarlini.fffp.bulk.FlagImportResult;
+import io.github.jacopocarlini.fffp.config.ProviderConfig;
+import io.github.jacopocarlini.fffp.entity.Flag;
+import io.github.jacopocarlini.fffp.repository.embedded.EmbeddedAssignedTargetRepository;
+import io.github.jacopocarlini.fffp.repository.embedded.InMemoryFlagRepository;
+import dev.openfeature.sdk.ImmutableContext;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class FlagImportTest {
+
+  private final InMemoryFlagRepository flagRepository = new InMemoryFlagRepository();
+  private final MongoDBFeatureFlagProviderExtended provider =
+      new MongoDBFeatureFlagProviderExtended(
+          flagRepository, new EmbeddedAssignedTargetRepository(), ProviderConfig.builder().build());
+
+  @BeforeEach
+  void start() throws Exception {
+    flagRepository.save(flag("same", "on"));
+    flagRepository.save(flag("changed", "on"));
+    flagRepository.save(flag("missing", "on"));
+    provider.initialize(new ImmutableContext());
+  }
+
+  @AfterEach
+  void shutdown() {
+    provider.shutdown();
+  }
+
+  @Test
+  void onlyNewAndChangedFlagsAreWritten() {
+    FlagImportResult result =
+        provider.importFlags(
+            List.of(flag("same", "on"), flag("changed", "off"), flag("new", "on")),
+            FlagImportOptions.defaults());
+
+    assertThat(result.isSuccessful()).isTrue();
+    assertThat(result.getCreated()).containsExactly("new");
+    assertThat(result.getUpdated()).containsExactly("changed");
+    assertThat(result.getUnchanged()).containsExactly("same");
+    assertThat(result.getDeleted()).isEmpty();
+    assertThat(flagRepository.findFirstByFlagKey("changed").orElseThrow().getDefaultVariant())
+        .isEqualTo("off");
+    assertThat(flagRepository.findFirstByFlagKey("new").orElseThrow().getRolloutEpoch())
+        .isNotNull();
+    assertThat(flagRepository.findFirstByFlagKey("missing")).isPresent();
+    assertThat(provider.getBooleanEvaluation("changed", true, new ImmutableContext()).getValue())
+        .isFalse();
+  }
+
+  @Test
+  void rolloutChangesMoveToANewEpoch() {
+    Flag stored = flagRepository.findFirstByFlagKey("changed").orElseThrow();
+    Flag rollout =
+        flag("changed", "on").toBuilder().rolloutPercentage(Map.of("on", 50, "off", 50)).build();
+
+    provider.importFlags(List.of(rollout), FlagImportOptions.defaults());
+    Long epoch = flagRepository.findFirstByFlagKey("changed").orElseThrow().getRolloutEpoch();
+    assertThat(epoch).isNotEqualTo(stored.getRolloutEpoch());
+
+    // reimporting the same flag, whatever epoch it carries, changes nothing
+    FlagImportResult result =
+        provider.importFlags(
+            List.of(rollout.toBuilder().rolloutEpoch(1L).build()),
+            FlagImportOptions.defaults());
+    assertThat(result.getUnchanged()).containsExactly("changed");
+    assertThat(flagRepository.findFirstByFlagKey("changed").orElseThrow().getRolloutEpoch())
+        .isEqualTo(epoch);
+  }
+
+  @Test
+  void dryRunReportsTheChangesWithoutApplyingThem() {
+    FlagImportResult result =
+        provider.importFlags(
+            List.of(flag("same", "on"), flag("changed", "off"), flag("new", "on")),
+            FlagImportOptions.builder().dryRun(true).deleteMissing(true).build());
+
+    assertThat(result.isDryRun()).isTrue();
+    assertThat(result.getCreated()).containsExactly("new");
+    assertThat(result.getUpdated()).containsExactly("changed");
+    assertThat(result.getDeleted()).containsExactly("missing");
+    assertThat(flagRepository.findFirstByFlagKey("new")).isEmpty();
+    assertThat(flagRepository.findFirstByFlagKey("missing")).isPresent();
+    assertThat(flagRepository.findFirstByFlagKey("changed").orElseThrow().getDefaultVariant())
+        .isEqualTo("on");
+  }
+
+  @Test
+  void deleteMissingMirrorsTheImportedSet() {
+    FlagImportResult result =
+        provider.importFlags(
+            List.of(flag("same", "on")), FlagImportOptions.builder().deleteMissing(true).build());
+
+    assertThat(result.getDeleted()).containsExactly("changed", "missing");
+    assertThat(flagRepository.findAll()).extracting(Flag::getFlagKey).containsExactly("same");
+  }
+
+  @Test
+  void invalidAndDuplicatedFlagsAreReported() {
+    Flag invalid = flag("invalid", "unknown");
+    FlagImportResult result =
+        provider.importFlags(
+            List.of(flag("new", "on"), invalid, flag("twice", "on"), flag("twice", "off")),
+            FlagImportOptions.defaults());
+    assertThat(result.getErrors()).containsOnlyKeys("invalid", "twice");
+    assertThat(result.getCreated()).containsExactly("new");
+    assertThat(flagRepository.findFirstByFlagKey("twice")).isEmpty();
+
+    FlagImportResult atomic =
+        provider.importFlags(
+            List.of(flag("other", "on"), invalid),
+            FlagImportOptions.builder().atomic(true).build());
+    assertThat(atomic.isSuccessful()).isFalse();
+    assertThat(atomic.getCreated()).isEmpty();
+    assertThat(flagRepository.findFirstByFlagKey("other")).isEmpty();
+  }
+
+  @Test
+  void anExportImportsUnchanged() throws Exception {
+    var export = new StringWriter();
+    assertThat(provider.exportFlags(export)).isEqualTo(3);
+
+    FlagImportResult result =
+        provider.importFlags(
+            new StringReader(export + "\nnot json\n"), FlagImportOptions.defaults());
+    assertThat(result.getUnchanged()).containsExactly("changed", "missing", "same");
+    assertThat(result.getErrors()).containsOnlyKeys("line 5");
+  }
+
+  private static Flag flag(String flagKey, String defaultVariant) {
+    return Flag.builder()
+        .flagKey(flagKey)
+        .enabled(true)
+        .variants(Map.of("on", true, "off", false))
+        .defaultVariant(defaultVariant)
+        .build();
+  }
+}
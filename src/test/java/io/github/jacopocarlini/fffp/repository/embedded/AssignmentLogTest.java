@@ -0,0 +1,149 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AssignmentLogTest {
+  private static final Duration SYNC_INTERVAL = Duration.ofMillis(1);
+
+  @TempDir Path directory;
+
+  @Test
+  void replaysTheRecordsInOrder() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, new Recorder())) {
+      log.appendAssign("f", "alice", "on", 0);
+      log.appendAssign("f", "bob", "off", 3);
+      log.appendDeleteStale("f", 2);
+    }
+
+    var recorder = new Recorder();
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, recorder)) {
+      assertThat(log.records()).isEqualTo(3);
+    }
+    assertThat(recorder.records)
+        .containsExactly("assign f alice on 0", "assign f bob off 3", "deleteStale f 2");
+  }
+
+  @Test
+  void dropsATornRecordAtTheEnd() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    long complete = writeTwoRecordsAndAThird(path);
+    truncate(path, Files.size(path) - 3);
+
+    var recorder = new Recorder();
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, recorder)) {
+      assertThat(Files.size(path)).isEqualTo(complete);
+      log.appendAssign("f", "carol", "on", 0);
+    }
+    assertThat(recorder.records).containsExactly("assign f alice on 0", "assign f bob on 0");
+
+    // the record appended after the truncation is readable
+    recorder = new Recorder();
+    AssignmentLog.open(path, SYNC_INTERVAL, recorder).close();
+    assertThat(recorder.records).hasSize(3).last().isEqualTo("assign f carol on 0");
+  }
+
+  @Test
+  void dropsARecordWithAWrongChecksum() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    long complete = writeTwoRecordsAndAThird(path);
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      var lastByte = ByteBuffer.allocate(1);
+      channel.read(lastByte, channel.size() - 1);
+      channel.write(ByteBuffer.wrap(new byte[] {(byte) (lastByte.get(0) ^ 1)}), channel.size() - 1);
+    }
+
+    var recorder = new Recorder();
+    AssignmentLog.open(path, SYNC_INTERVAL, recorder).close();
+    assertThat(recorder.records).containsExactly("assign f alice on 0", "assign f bob on 0");
+    assertThat(Files.size(path)).isEqualTo(complete);
+  }
+
+  @Test
+  void dropsAHeaderWithoutPayload() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, new Recorder())) {
+      log.appendAssign("f", "alice", "on", 0);
+    }
+    long complete = Files.size(path);
+    Files.write(path, new byte[] {0, 0, 0, 20, 1, 2}, StandardOpenOption.APPEND);
+
+    var recorder = new Recorder();
+    AssignmentLog.open(path, SYNC_INTERVAL, recorder).close();
+    assertThat(recorder.records).containsExactly("assign f alice on 0");
+    assertThat(Files.size(path)).isEqualTo(complete);
+  }
+
+  @Test
+  void compactionReplacesTheLogWithTheLiveAssignments() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, new Recorder())) {
+      for (int i = 0; i < 100; i++) {
+        log.appendAssign("f", "user-" + i, "on", 1);
+      }
+      log.appendDeleteStale("f", 2);
+    }
+
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, new Recorder())) {
+      assertThat(log.records()).isEqualTo(101);
+      log.compact(List.of(new AssignmentLog.Assignment("g", "alice", "off", 5)));
+      assertThat(log.records()).isEqualTo(1);
+      log.appendAssign("g", "bob", "on", 5);
+    }
+
+    var recorder = new Recorder();
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, recorder)) {
+      assertThat(log.records()).isEqualTo(2);
+    }
+    assertThat(recorder.records).containsExactly("assign g alice off 5", "assign g bob on 5");
+    try (var files = Files.list(directory)) {
+      assertThat(files).containsExactly(path);
+    }
+  }
+
+  /** @return the size of the first two records */
+  private static long writeTwoRecordsAndAThird(Path path) throws Exception {
+    long complete;
+    try (var log = AssignmentLog.open(path, SYNC_INTERVAL, new Recorder())) {
+      log.appendAssign("f", "alice", "on", 0);
+      log.appendAssign("f", "bob", "on", 0);
+      log.sync();
+      complete = Files.size(path);
+      log.appendAssign("f", "carol", "off", 0);
+    }
+    assertThat(Files.size(path)).isGreaterThan(complete);
+    return complete;
+  }
+
+  private static void truncate(Path path, long size) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+      channel.truncate(size);
+    }
+  }
+
+  private static class Recorder implements AssignmentLog.Replay {
+    private final List<String> records = new ArrayList<>();
+
+    @Override
+    public void assign(String flagKey, String targetKey, String variant, long epoch) {
+      records.add(String.join(" ", "assign", flagKey, targetKey, variant, Long.toString(epoch)));
+    }
+
+    @Override
+    public void deleteStale(String flagKey, long epoch) {
+      records.add("deleteStale " + flagKey + " " + epoch);
+    }
+  }
+}
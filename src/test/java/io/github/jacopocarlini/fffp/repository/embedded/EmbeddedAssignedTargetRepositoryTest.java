@@ -0,0 +1,110 @@
+package io.github.jacopocarlini.fffp.repository.embedded;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmbeddedAssignedTargetRepositoryTest {
+  private static final Duration SYNC_INTERVAL = Duration.ofMillis(1);
+
+  @TempDir Path directory;
+
+  @Test
+  void concurrentAssignmentsAgreeOnOneVariant() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      var repository = new EmbeddedAssignedTargetRepository();
+      for (int round = 0; round < 200; round++) {
+        String targetKey = "user-" + round;
+        var barrier = new CyclicBarrier(threads);
+        var results = new ArrayList<Future<Optional<String>>>();
+        for (int thread = 0; thread < threads; thread++) {
+          String variant = "v" + thread;
+          Callable<Optional<String>> assign =
+              () -> {
+                barrier.await();
+                return repository.assignIfAbsent("f", 1, targetKey, variant);
+              };
+          results.add(executor.submit(assign));
+        }
+
+        var previous = new ArrayList<Optional<String>>();
+        for (Future<Optional<String>> result : results) {
+          previous.add(result.get());
+        }
+
+        // exactly one thread assigned, the others were served its variant
+        String stored = repository.findVariant("f", 1, targetKey).orElseThrow();
+        assertThat(previous).filteredOn(Optional::isEmpty).hasSize(1);
+        assertThat(previous).filteredOn(Optional::isPresent).allMatch(p -> p.get().equals(stored));
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void newerEpochsReplaceTheAssignment() {
+    var repository = new EmbeddedAssignedTargetRepository();
+    assertThat(repository.assignIfAbsent("f", 1, "alice", "on")).isEmpty();
+    assertThat(repository.assignIfAbsent("f", 1, "alice", "off")).contains("on");
+    assertThat(repository.findVariant("f", 2, "alice")).isEmpty();
+
+    assertThat(repository.assignIfAbsent("f", 2, "alice", "off")).isEmpty();
+    assertThat(repository.findVariants("alice", Map.of("f", 2L, "g", 0L)))
+        .isEqualTo(Map.of("f", "off"));
+  }
+
+  @Test
+  void assignmentsSurviveARestart() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    try (var repository = new EmbeddedAssignedTargetRepository(path, SYNC_INTERVAL)) {
+      repository.assignIfAbsent("f", 1, "alice", "on");
+      repository.assignIfAbsent("f", 1, "bob", "off");
+      repository.assignIfAbsent("g", 3, "alice", "blue");
+      repository.deleteStale("f", 2, 100);
+      repository.assignIfAbsent("f", 2, "bob", "on");
+    }
+
+    try (var repository = new EmbeddedAssignedTargetRepository(path, SYNC_INTERVAL)) {
+      assertThat(repository.findVariant("f", 1, "alice")).isEmpty();
+      assertThat(repository.findVariant("f", 2, "bob")).contains("on");
+      assertThat(repository.findVariant("g", 3, "alice")).contains("blue");
+    }
+  }
+
+  @Test
+  void aLogOfMostlyStaleRecordsIsCompactedOnStart() throws Exception {
+    Path path = directory.resolve("assignments.log");
+    try (var repository = new EmbeddedAssignedTargetRepository(path, SYNC_INTERVAL)) {
+      for (int i = 0; i < 2000; i++) {
+        repository.assignIfAbsent("f", 1, "user-" + i, "on");
+      }
+      repository.deleteStale("f", 2, 100);
+      repository.assignIfAbsent("g", 1, "alice", "on");
+    }
+    long size = Files.size(path);
+
+    try (var repository = new EmbeddedAssignedTargetRepository(path, SYNC_INTERVAL)) {
+      assertThat(Files.size(path)).isLessThan(size / 100);
+      assertThat(repository.findVariant("g", 1, "alice")).contains("on");
+      assertThat(repository.findVariant("f", 1, "user-0")).isEmpty();
+    }
+    try (var files = Files.list(directory)) {
+      assertThat(files).containsExactly(path);
+    }
+  }
+}
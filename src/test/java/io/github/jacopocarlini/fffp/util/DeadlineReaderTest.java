@@ -0,0 +1,117 @@
+package io.github.jacopocarlini.fffp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DeadlineReaderTest {
+
+  private final CountDownLatch release = new CountDownLatch(1);
+  private DeadlineReader reader;
+
+  @AfterEach
+  void close() {
+    release.countDown();
+    reader.close();
+  }
+
+  @Test
+  void concurrentReadsOfTheSameKeyShareOneCall() throws Exception {
+    reader = new DeadlineReader(4, 100, Duration.ofSeconds(10));
+    var calls = new AtomicInteger();
+    var started = new CountDownLatch(1);
+    var waiter =
+        new Thread(
+            () -> {
+              try {
+                reader.read("key", () -> blockingRead(calls, started), deadline(5_000));
+              } catch (TimeoutException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    waiter.start();
+    started.await();
+
+    assertThatThrownBy(() -> reader.read("key", () -> blockingRead(calls, null), deadline(20)))
+        .isInstanceOf(TimeoutException.class);
+    release.countDown();
+    waiter.join();
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  void saturatedPoolRefusesTheReads() throws Exception {
+    reader = new DeadlineReader(1, 1_000, Duration.ofSeconds(10));
+    // one running read and a full queue of 16
+    for (int i = 0; i <= 16; i++) {
+      String key = "blocked-" + i;
+      assertThatThrownBy(() -> reader.read(key, this::awaitRelease, deadline(1)))
+          .isInstanceOf(TimeoutException.class);
+    }
+
+    assertThatThrownBy(() -> reader.read("refused", () -> "value", deadline(1_000)))
+        .isInstanceOf(TimeoutException.class)
+        .hasMessage("Read pool saturated");
+
+    release.countDown();
+    assertThat(reader.read("after", () -> "value", deadline(5_000))).isEqualTo("value");
+  }
+
+  @Test
+  void interruptedTrialDoesNotKeepTheCircuitOpen() throws Exception {
+    reader = new DeadlineReader(4, 1, Duration.ofMillis(50));
+    assertThatThrownBy(() -> reader.read("a", this::awaitRelease, deadline(1)))
+        .isInstanceOf(TimeoutException.class);
+    assertThat(reader.isCircuitOpen()).isTrue();
+    Thread.sleep(60);
+
+    // the trial read is interrupted while it waits
+    var failure = new AtomicReference<Throwable>();
+    var trial =
+        new Thread(
+            () -> {
+              Thread.currentThread().interrupt();
+              try {
+                reader.read("b", this::awaitRelease, deadline(5_000));
+              } catch (Throwable e) {
+                failure.set(e);
+              }
+            });
+    trial.start();
+    trial.join();
+    assertThat(failure.get()).isInstanceOf(TimeoutException.class);
+
+    Thread.sleep(60);
+    assertThat(reader.read("c", () -> "value", deadline(5_000))).isEqualTo("value");
+    assertThat(reader.isCircuitOpen()).isFalse();
+  }
+
+  private String blockingRead(AtomicInteger calls, CountDownLatch started) {
+    calls.incrementAndGet();
+    if (started != null) {
+      started.countDown();
+    }
+    return awaitRelease();
+  }
+
+  private String awaitRelease() {
+    try {
+      release.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return "value";
+  }
+
+  private static long deadline(long millis) {
+    return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+}
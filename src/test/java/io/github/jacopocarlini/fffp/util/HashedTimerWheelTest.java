@@ -0,0 +1,79 @@
+package io.github.jacopocarlini.fffp.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class HashedTimerWheelTest {
+  private static final Duration TICK = Duration.ofMillis(10);
+  private static final int WHEEL_SIZE = 4;
+
+  @Test
+  void pastDeadlinesRunAtTheNextTick() throws InterruptedException {
+    try (var wheel = new HashedTimerWheel("test-wheel", TICK, WHEEL_SIZE)) {
+      var ran = new CountDownLatch(2);
+      wheel.schedule(ran::countDown, 0);
+      wheel.schedule(ran::countDown, System.currentTimeMillis());
+      assertThat(ran.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+  }
+
+  @Test
+  void timeoutsNeverRunBeforeTheirDeadline() throws InterruptedException {
+    try (var wheel = new HashedTimerWheel("test-wheel", TICK, WHEEL_SIZE)) {
+      long now = System.currentTimeMillis();
+      // within the first revolution, on a bucket boundary, and several revolutions away
+      long[] delays = {1, 9, 10, 11, 39, 40, 41, 95, 150};
+      var early = new ConcurrentLinkedQueue<Long>();
+      var ran = new CountDownLatch(delays.length);
+      for (long delay : delays) {
+        long deadline = now + delay;
+        wheel.schedule(
+            () -> {
+              if (System.currentTimeMillis() < deadline) {
+                early.add(delay);
+              }
+              ran.countDown();
+            },
+            deadline);
+      }
+      assertThat(ran.await(2, TimeUnit.SECONDS)).isTrue();
+      assertThat(early).isEmpty();
+    }
+  }
+
+  @Test
+  void cancelledTimeoutsDoNotRun() throws InterruptedException {
+    try (var wheel = new HashedTimerWheel("test-wheel", TICK, WHEEL_SIZE)) {
+      var cancelled = new CountDownLatch(1);
+      var after = new CountDownLatch(1);
+      long now = System.currentTimeMillis();
+      wheel.schedule(cancelled::countDown, now + 50).cancel();
+      wheel.schedule(after::countDown, now + 80);
+      assertThat(after.await(1, TimeUnit.SECONDS)).isTrue();
+      assertThat(cancelled.getCount()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void tasksCanScheduleTimeouts() throws InterruptedException {
+    try (var wheel = new HashedTimerWheel("test-wheel", TICK, WHEEL_SIZE)) {
+      var ran = new CountDownLatch(1);
+      var rescheduledAt = new AtomicLong();
+      wheel.schedule(
+          () -> {
+            long deadline = System.currentTimeMillis() + 2 * WHEEL_SIZE * TICK.toMillis();
+            rescheduledAt.set(deadline);
+            wheel.schedule(ran::countDown, deadline);
+          },
+          System.currentTimeMillis() + 5);
+      assertThat(ran.await(1, TimeUnit.SECONDS)).isTrue();
+      assertThat(System.currentTimeMillis()).isGreaterThanOrEqualTo(rescheduledAt.get());
+    }
+  }
+}